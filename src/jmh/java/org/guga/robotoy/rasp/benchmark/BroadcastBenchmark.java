@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.network.WebSocketClientPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 'WebSocketClientPool.sendMessageAll' over sessions that discard everything (see 'StubSession'),
+ * so it measures encoding once plus the cost per recipient.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+	
+	@Param({"4", "16", "64"})
+	public int sessions;
+	
+	private WebSocketClientPool pool;
+	
+	private String message;
+	
+	private String excludePath;
+
+	@Setup
+	public void setup() throws Exception {
+		pool = new WebSocketClientPool((message,session)->null, (session)->{ }, (session)->{ });
+		for (int i=0;i<sessions;i++) {
+			StubSession.connect(pool, "10.0."+(1+i/250)+"."+(1+i%250), 
+					RoboToyServerContext.getWSPathWithPlayerName("P"+i));
+		}
+		message = "{\"updateping\":35,\"player\":{\"name\":\"P0\",\"address\":\"10.0.1.1\",\"port\":50000,\"online\":true}}";
+		excludePath = RoboToyServerContext.getWSPathWithPlayerName("P0");
+	}
+
+	@Benchmark
+	public void sendMessageAll() throws Exception {
+		pool.sendMessageAll(message);
+	}
+
+	/**
+	 * Same as done when relaying a message from one player to everyone else
+	 */
+	@Benchmark
+	public void sendMessageAllExcludingOne() throws Exception {
+		pool.sendMessageAll(message, excludePath);
+	}
+}
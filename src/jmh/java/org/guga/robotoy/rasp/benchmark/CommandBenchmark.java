@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.commands.Command;
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.controller.CommandDispatcher;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.game.GamePlayer;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameStage;
+import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.network.WebSocketHandlerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Messages received from players during a match, as handled by 'RoboToyServerController.onCommand'.<BR>
+ * Also compares the cost of looking up each command through sequential scan (as it was done before)
+ * and through the dispatch index.<BR>
+ * The robot has a dummy motor and a beam device that does nothing.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+	
+	/**
+	 * Hot messages received from players during a match
+	 */
+	private static final Map<String,String> HOT_MESSAGES = new HashMap<>();
+	static {
+		HOT_MESSAGES.put("movement", "{\"movement\":{\"left\":0.5,\"right\":-0.25}}");
+		HOT_MESSAGES.put("status", String.valueOf(RoboToyServerController.QUERY_STATUS));
+		HOT_MESSAGES.put("ping", RoboToyServerController.PING+"{\"ping\":1480000000000,\"count\":0}");
+		HOT_MESSAGES.put("pong", "{\"ping\":1480000000000,\"count\":1}");
+		HOT_MESSAGES.put("fire", String.valueOf(RoboToyServerController.FIRE));
+	}
+	
+	@Param({"movement", "status", "ping", "pong", "fire"})
+	public String command;
+	
+	private String message;
+	
+	private CommandDispatcher dispatcher;
+	
+	private RoboToyServerController controller;
+	
+	private WebSocketHandlerImpl session;
+
+	@Setup
+	public void setup() throws Exception {
+		message = HOT_MESSAGES.get(command);
+		dispatcher = new CommandDispatcher(RoboToyServerController.commands);
+		
+		GameState game = new GameState();
+		GameRobot robot = GameRobot.newLocalRobot("BENCH");
+		robot.setShortId((byte)1);
+		robot.setLife(5);
+		game.addRobot(robot);
+		GamePlayer player = new GamePlayer("Alice","10.0.0.2",50000);
+		game.addPlayer(player);
+		robot.setOwner(player);
+		game.setStage(GameStage.PLAY);
+		
+		controller = new RoboToyServerController(game);
+		controller.setDummyController();
+		controller.setWiFiSampleInterval(0);
+		controller.init();
+		controller.getContext().setBeamDevice((beam)->{ });
+		session = StubSession.connect(controller.getContext().getWebSocketPool(), "10.0.0.2", 
+				RoboToyServerContext.getWSPathWithPlayerName(player.getName()));
+	}
+
+	@Benchmark
+	public String onCommand() {
+		return controller.onCommand(message, session);
+	}
+
+	@Benchmark
+	public Command findWithIndex() {
+		return dispatcher.find(CommandIssuer.PLAYER, message);
+	}
+
+	@Benchmark
+	public Command findWithScan() {
+		return dispatcher.scan(CommandIssuer.PLAYER, message);
+	}
+}
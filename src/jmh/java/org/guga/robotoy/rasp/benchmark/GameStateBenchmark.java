@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.benchmark;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.game.GamePlayer;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameSnapshot;
+import org.guga.robotoy.rasp.game.GameState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups done by commands in 'GameState' (and snapshots taken by readers) with different
+ * number of players. There is one robot for every four players, each one owned by some player.<BR>
+ * Lookups are for the last player included, so sequential searches would be at their worst.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateBenchmark {
+	
+	@Param({"4", "16", "64"})
+	public int players;
+	
+	private GameState game;
+	
+	private GamePlayer last;
+	
+	private String lastName;
+	
+	private String lastAddress;
+	
+	private String lastSession;
+	
+	private String lastRobotId;
+	
+	private String ownerName;
+	
+	private int ping;
+
+	@Setup
+	public void setup() throws Exception {
+		game = new GameState();
+		game.addRobot(GameRobot.newLocalRobot("R00"));
+		for (int i=1;i<players/4;i++)
+			game.addRobot(GameRobot.newRobotWithAddress(String.format("R%02d", i), InetAddress.getByName("10.0.0."+(10+i))));
+		for (int i=0;i<players;i++) {
+			GamePlayer player = new GamePlayer(String.format("Player%02d", i), "10.0.1."+(1+i), 50000);
+			player.setHttpSession("SESSION"+i);
+			game.addPlayer(player);
+			last = player;
+		}
+		int owner = 0;
+		for (GameRobot robot:game.getRobots()) {
+			robot.setOwner(game.getPlayers().get(owner));
+			ownerName = game.getPlayers().get(owner).getName();
+			lastRobotId = robot.getIdentifier();
+			owner += 4;
+		}
+		lastName = last.getName().toUpperCase();
+		lastAddress = last.getAddressString();
+		lastSession = "SESSION"+(players-1);
+	}
+
+	@Benchmark
+	public GamePlayer findPlayerWithName() {
+		return game.findPlayerWithName(lastName);
+	}
+
+	@Benchmark
+	public GamePlayer findPlayerWithAddress() {
+		return game.findPlayerWithAddress(lastAddress);
+	}
+
+	@Benchmark
+	public GamePlayer findPlayerWithSessionId() {
+		return game.findPlayerWithSessionId(lastSession);
+	}
+
+	@Benchmark
+	public GameRobot findRobotWithOwnerName() {
+		return game.findRobotWithOwnerName(ownerName);
+	}
+
+	@Benchmark
+	public GameRobot findRobotWithIdentifier() {
+		return game.findRobotWithIdentifier(lastRobotId);
+	}
+
+	/**
+	 * Snapshot while nothing changes (should be shared by all readers)
+	 */
+	@Benchmark
+	public GameSnapshot snapshotUnchanged() {
+		return game.snapshot();
+	}
+
+	/**
+	 * Snapshot after some change (e.g. new ping time of some player)
+	 */
+	@Benchmark
+	public GameSnapshot snapshotAfterChange() {
+		last.setPing(++ping);
+		return game.snapshot();
+	}
+}
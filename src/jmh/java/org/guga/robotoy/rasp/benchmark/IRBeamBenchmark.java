@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.optics.IRBeamDecoder;
+import org.guga.robotoy.rasp.optics.IRBeamEncoder;
+import org.guga.robotoy.rasp.optics.IRReceive;
+import org.guga.robotoy.rasp.optics.RoboToyWeaponary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of IR signals, configured the same way as 'RoboToyWeaponary', plus the
+ * checksum verification and voting done over each decoded signal.<BR>
+ * The signal is a burst of 16 repetitions of the same code, as transmitted by 'IRSend', captured
+ * in a buffer of the same size used by 'IRReceive'. The burst used for voting has a few 
+ * repetitions with wrong checksum.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IRBeamBenchmark {
+	
+	private static final int REPEATS = 16;
+	
+	private IRBeamEncoder encoder;
+	
+	private IRBeamDecoder decoder;
+	
+	private byte[] code;
+	
+	private int[] capture;
+	
+	private int captureSize;
+	
+	private byte[] message;
+	
+	private byte[] noisyMessage;
+	
+	private int[] stats;
+
+	@Setup
+	public void setup() {
+		encoder = new IRBeamEncoder();
+		encoder.setChecksum(true);
+		encoder.setBitsPerByte(4);
+		decoder = IRBeamDecoder.forEncoder(encoder);
+		decoder.setBitsPerByte(8);
+		decoder.setChecksum(false);
+		code = new byte[]{ 5 };
+		
+		int[] one = encoder.getEncodedSignal(code);
+		captureSize = Math.min(one.length*REPEATS, IRReceive.MAX_PULSES);
+		capture = new int[IRReceive.MAX_PULSES];
+		for (int r=0;r<REPEATS;r++) {
+			int offset = r*one.length;
+			if (offset+one.length>capture.length)
+				break;
+			System.arraycopy(one, 0, capture, offset, one.length);
+			capture[offset+one.length-1] = encoder.getHeaderOffPulse(); // delay between repeats
+		}
+		message = new byte[decoder.getMaxMessageSize(IRReceive.MAX_PULSES)];
+		int length = decoder.decode(capture, captureSize, message);
+		if (length==0)
+			throw new IllegalStateException("Could not decode signal");
+		noisyMessage = Arrays.copyOf(message, length);
+		for (int i=0;i<noisyMessage.length;i+=4)
+			noisyMessage[i] ^= 0x10; // wrong checksum
+		stats = new int[RoboToyWeaponary.VOTE_STATS_SIZE];
+	}
+
+	@Benchmark
+	public int[] encode() {
+		return encoder.getEncodedSignal(code);
+	}
+
+	@Benchmark
+	public byte[] getMessage() {
+		return decoder.getMessage(capture, captureSize);
+	}
+
+	/**
+	 * Same decoding done for each captured signal (into a buffer reused between signals)
+	 */
+	@Benchmark
+	public int decode() {
+		return decoder.decode(capture, captureSize, message);
+	}
+
+	@Benchmark
+	public int vote() {
+		return RoboToyWeaponary.voteDecodedMessage(noisyMessage, noisyMessage.length, null);
+	}
+
+	@Benchmark
+	public int voteWithStatistics() {
+		Arrays.fill(stats, 0);
+		return RoboToyWeaponary.voteDecodedMessage(noisyMessage, noisyMessage.length, stats);
+	}
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.commands.CmdSetMovement;
+import org.guga.robotoy.rasp.commands.CmdSetMovement.Factors;
+import org.guga.robotoy.rasp.commands.PlayerSummary;
+import org.guga.robotoy.rasp.commands.ProtocolTypeAdapters;
+import org.guga.robotoy.rasp.commands.RobotSummary;
+import org.guga.robotoy.rasp.utils.JSONUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON contents most often exchanged with players and other robots, written and read
+ * through 'JSONUtils'.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONBenchmark {
+	
+	private RobotSummary robot;
+	
+	private PlayerSummary player;
+	
+	private Factors factors;
+	
+	private String robotJSON;
+	
+	private String playerJSON;
+	
+	private String movementJSON;
+	
+	private final StringBuilder buffer = new StringBuilder();
+
+	@Setup
+	public void setup() {
+		ProtocolTypeAdapters.install();
+		robot = new RobotSummary();
+		robot.setAddress("192.168.0.10");
+		robot.setOwner("Alice");
+		robot.setId("ROBOT-01");
+		robot.setLife(5);
+		robot.setColor("blue");
+		player = new PlayerSummary();
+		player.setName("Alice");
+		player.setAddress("192.168.0.20");
+		player.setPort(50000);
+		player.setOnline(true);
+		factors = new Factors();
+		factors.setLeft(0.5);
+		factors.setRight(-0.25);
+		robotJSON = JSONUtils.toJSON(robot, false);
+		playerJSON = JSONUtils.toJSON(player, false);
+		movementJSON = "{\"movement\":"+JSONUtils.toJSON(factors, false)+"}";
+	}
+
+	@Benchmark
+	public String robotSummaryToJSON() {
+		return JSONUtils.toJSON(robot, false);
+	}
+
+	@Benchmark
+	public StringBuilder robotSummaryToBuffer() {
+		buffer.setLength(0);
+		JSONUtils.toJSON(robot, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public RobotSummary robotSummaryFromJSON() {
+		return JSONUtils.fromJSON(robotJSON, RobotSummary.class);
+	}
+
+	@Benchmark
+	public String playerSummaryToJSON() {
+		return JSONUtils.toJSON(player, false);
+	}
+
+	@Benchmark
+	public PlayerSummary playerSummaryFromJSON() {
+		return JSONUtils.fromJSON(playerJSON, PlayerSummary.class);
+	}
+
+	@Benchmark
+	public String factorsToJSON() {
+		return JSONUtils.toJSON(factors, false);
+	}
+
+	/**
+	 * Same parsing done for each movement message
+	 */
+	@Benchmark
+	public Factors factorsFromMovement() {
+		return CmdSetMovement.parse(movementJSON);
+	}
+}
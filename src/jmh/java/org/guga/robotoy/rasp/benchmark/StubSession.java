@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.CloseStatus;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.SuspendToken;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.eclipse.jetty.websocket.api.UpgradeResponse;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.guga.robotoy.rasp.network.WebSocketClientPool;
+import org.guga.robotoy.rasp.network.WebSocketHandlerImpl;
+
+/**
+ * Jetty session that is not connected to anything. Every message sent through it
+ * is discarded (only counted), so benchmarks measure our own code and not the network.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class StubSession implements Session {
+	
+	private final InetSocketAddress remoteAddress;
+	
+	private final InetSocketAddress localAddress;
+	
+	private final UpgradeRequest upgradeRequest;
+	
+	private final Remote remote = new Remote();
+	
+	private long sent;
+	
+	public StubSession(String remoteAddress,String path) throws IOException {
+		this.remoteAddress = new InetSocketAddress(InetAddress.getByName(remoteAddress), 50000);
+		this.localAddress = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 8089);
+		this.upgradeRequest = new UpgradeRequest(URI.create("ws://10.0.0.1:8089"+path));
+	}
+	
+	/**
+	 * Creates a session handler as if some client had connected to the pool through 'path'
+	 */
+	public static WebSocketHandlerImpl connect(WebSocketClientPool pool,String remoteAddress,String path) throws IOException {
+		WebSocketHandlerImpl handler = new WebSocketHandlerImpl(pool);
+		handler.onConnect(new StubSession(remoteAddress, path));
+		return handler;
+	}
+	
+	/**
+	 * Number of messages sent through this session
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	@Override
+	public void close() { }
+
+	@Override
+	public void close(CloseStatus closeStatus) { }
+
+	@Override
+	public void close(int statusCode, String reason) { }
+
+	@Override
+	public void disconnect() { }
+
+	@Override
+	public long getIdleTimeout() {
+		return 0;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	@Override
+	public WebSocketPolicy getPolicy() {
+		return WebSocketPolicy.newServerPolicy();
+	}
+
+	@Override
+	public String getProtocolVersion() {
+		return "13";
+	}
+
+	@Override
+	public RemoteEndpoint getRemote() {
+		return remote;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	@Override
+	public UpgradeRequest getUpgradeRequest() {
+		return upgradeRequest;
+	}
+
+	@Override
+	public UpgradeResponse getUpgradeResponse() {
+		return null;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+
+	@Override
+	public boolean isSecure() {
+		return false;
+	}
+
+	@Override
+	public void setIdleTimeout(long ms) { }
+
+	@Override
+	public SuspendToken suspend() {
+		return ()->{ };
+	}
+
+	/**
+	 * Remote endpoint that discards everything
+	 */
+	private class Remote implements RemoteEndpoint {
+
+		@Override
+		public void sendBytes(ByteBuffer data) {
+			sent++;
+		}
+
+		@Override
+		public Future<Void> sendBytesByFuture(ByteBuffer data) {
+			sent++;
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void sendBytes(ByteBuffer data, WriteCallback callback) {
+			sent++;
+			if (callback!=null)
+				callback.writeSuccess();
+		}
+
+		@Override
+		public void sendPartialBytes(ByteBuffer fragment, boolean isLast) {
+			sent++;
+		}
+
+		@Override
+		public void sendPartialString(String fragment, boolean isLast) {
+			sent++;
+		}
+
+		@Override
+		public void sendPing(ByteBuffer applicationData) { }
+
+		@Override
+		public void sendPong(ByteBuffer applicationData) { }
+
+		@Override
+		public void sendString(String text) {
+			sent++;
+		}
+
+		@Override
+		public Future<Void> sendStringByFuture(String text) {
+			sent++;
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public void sendString(String text, WriteCallback callback) {
+			sent++;
+			if (callback!=null)
+				callback.writeSuccess();
+		}
+
+		@Override
+		public BatchMode getBatchMode() {
+			return BatchMode.AUTO;
+		}
+
+		@Override
+		public void setBatchMode(BatchMode mode) { }
+
+		@Override
+		public InetSocketAddress getInetSocketAddress() {
+			return remoteAddress;
+		}
+
+		@Override
+		public void flush() { }
+	}
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.guga.robotoy.rasp.network.WebServer;
+import org.guga.robotoy.rasp.simulator.ServerMetricsProbe;
+import org.guga.robotoy.rasp.simulator.SimulatedPlayer;
+import org.guga.robotoy.rasp.simulator.SimulationReport;
+import org.guga.robotoy.rasp.statistics.Histogram;
+
+/**
+ * Load generator for one single RoboToy: opens many player connections to the same robot.<BR>
+ * <BR>
+ * Each synthetic player connects to '/ws/player/{name}' and goes through the same steps as
+ * the pages in a browser: greetings, takes a robot ('T') and tells it's ready ('S'). While playing,
+ * streams movements, fires and polls status ('?') like 'driving_comm.js'. Round trip times are measured
+ * with PING messages and status queries.<BR>
+ * Only one player may own the robot, so the others get errors for 'T' and for fires, but keep 
+ * sending the same traffic.<BR>
+ * Robots know players by their addresses. Players are logged in through the login page only if they
+ * have their own local address (see '-bind'). Otherwise only the first player is logged in, and the others
+ * connect anonymously.<BR>
+ * Every few seconds prints a line with throughput, round trip percentiles, and CPU and heap usage
+ * of the robot (read from its '/metrics' page, which requires 'metrics.public=true' in robot's configuration).<BR>
+ * <BR>
+ * The command line may include some additional optional arguments:<BR>
+ * <UL>
+ * <LI><B>-server {address}</B>   Address of the robot (default: localhost).</LI>
+ * <LI><B>-port {number}</B>   Port number of the robot (default: same as 'WebServer').</LI>
+ * <LI><B>-players {number}</B>   Number of players (default: 100).</LI>
+ * <LI><B>-robot {identifier}</B>   Robot the players will take (default: the first robot listed by the robot).</LI>
+ * <LI><B>-rate {number}</B>   Movements per second sent by each player while playing (default: 10).</LI>
+ * <LI><B>-fire {ms}</B>   Delay between fires of each player (default: 1500).</LI>
+ * <LI><B>-status {ms}</B>   Delay between status queries of each player (default: 1000).</LI>
+ * <LI><B>-ping {ms}</B>   Delay between PING messages of each player (default: 1000).</LI>
+ * <LI><B>-ramp {ms}</B>   Delay between connections of each player (default: 20).</LI>
+ * <LI><B>-duration {seconds}</B>   Duration of the test after all players are connected (default: 60).</LI>
+ * <LI><B>-interval {seconds}</B>   Delay between progress lines (default: 5).</LI>
+ * <LI><B>-bind {address}</B>   Local address of the first player. The others use the addresses that follow.</LI>
+ * </UL>
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class RaspLoadGenerator {
+
+	private static final Logger log = Logger.getLogger(RaspLoadGenerator.class.getName());
+	
+	private static final String ARG_SERVER = "-server";
+	private static final String ARG_PORT = "-port";
+	private static final String ARG_PLAYERS = "-players";
+	private static final String ARG_ROBOT = "-robot";
+	private static final String ARG_RATE = "-rate";
+	private static final String ARG_FIRE = "-fire";
+	private static final String ARG_STATUS = "-status";
+	private static final String ARG_PING = "-ping";
+	private static final String ARG_RAMP = "-ramp";
+	private static final String ARG_DURATION = "-duration";
+	private static final String ARG_INTERVAL = "-interval";
+	private static final String ARG_BIND = "-bind";
+	
+	private static final String PROGRESS_HEADER = 
+			"  time players  sent/s  recv/s | ping p50    p90    p99 | status p99 | cpu%%  load  heap MB threads sessions%n";
+	
+	private static final String PROGRESS_LINE = 
+			"%5ds %7d %7.1f %7.1f | %8.1f %6.1f %6.1f | %10.1f | %4s %5s %8s %7s %8s%n";
+
+	/**
+	 * Main application startup method
+	 * @param args Some optional arguments documented in this class
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		System.out.println("Robotoy Load Generator");
+		
+		final String host = getArgument(args, ARG_SERVER, "localhost");
+		final int port = getIntArgument(args, ARG_PORT, WebServer.DEFAULT_PORT);
+		final int numPlayers = getIntArgument(args, ARG_PLAYERS, 100);
+		final String robotId = getArgument(args, ARG_ROBOT, SimulatedPlayer.ANY_ROBOT);
+		final int rate = getIntArgument(args, ARG_RATE, SimulatedPlayer.DEFAULT_MOVEMENT_RATE);
+		final int fireInterval = getIntArgument(args, ARG_FIRE, (int)SimulatedPlayer.DEFAULT_FIRE_INTERVAL_MS);
+		final int statusInterval = getIntArgument(args, ARG_STATUS, (int)SimulatedPlayer.DEFAULT_STATUS_INTERVAL_MS);
+		final int pingInterval = getIntArgument(args, ARG_PING, (int)SimulatedPlayer.DEFAULT_PING_INTERVAL_MS);
+		final int ramp = getIntArgument(args, ARG_RAMP, 20);
+		final int duration = getIntArgument(args, ARG_DURATION, 60);
+		final int interval = Math.max(1, getIntArgument(args, ARG_INTERVAL, 5));
+		final String bind = getArgument(args, ARG_BIND, null);
+		final InetAddress bindAddress = (bind==null) ? null : InetAddress.getByName(bind);
+		if (numPlayers<1)
+			throw new IllegalArgumentException("Need at least one player");
+		
+		final URI server = new URI("ws://"+host+":"+port);
+		System.out.printf("%d players connecting to %s, %d movements/s, fire every %dms%n", 
+				numPlayers, server, rate, fireInterval);
+		
+		final SimulationReport report = new SimulationReport(1, numPlayers);
+		
+		final ServerMetricsProbe probe = new ServerMetricsProbe(server);
+		final ServerUsage usage = new ServerUsage();
+		try {
+			usage.previous = probe.read();
+		}
+		catch (IOException e) {
+			System.out.println("Could not read metrics from "+probe.getURL()+" ("+e.getMessage()+"). CPU and heap usage of robot will not be shown.");
+		}
+		
+		QueuedThreadPool executor = new QueuedThreadPool();
+		executor.setName("SimulatedPlayers");
+		executor.setDaemon(true);
+		executor.start();
+		ScheduledExecutorService ticker = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), (r)->{
+			Thread thread = new Thread(r);
+			thread.setName("SimulatedPlayersTicker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		final long start = System.nanoTime();
+		final List<SimulatedPlayer> players = new ArrayList<>(numPlayers);
+		System.out.printf(PROGRESS_HEADER);
+		ticker.scheduleAtFixedRate(()->printProgress(start, players, report, probe, usage), 
+				interval, interval, TimeUnit.SECONDS);
+		
+		// Ramp up
+		
+		for (int i=0;i<numPlayers;i++) {
+			String name = String.format("L%03d", i+1);
+			InetAddress address = (bindAddress==null) ? null : RaspSimulator.getAddress(bindAddress, i);
+			String sessionId = null;
+			if (address!=null || i==0) {
+				try {
+					sessionId = SimulatedPlayer.login(server, address, name);
+				}
+				catch (IOException e) {
+					log.log(Level.WARNING, "Could not login player "+name, e);
+				}
+			}
+			if (sessionId==null)
+				sessionId = "LOAD-"+name;
+			SimulatedPlayer player = new SimulatedPlayer(name, sessionId, address, server, report);
+			player.setRobotId(robotId);
+			player.setMovementRate(rate);
+			player.setFireInterval(fireInterval);
+			player.setStatusInterval(statusInterval);
+			player.setPingInterval(pingInterval);
+			player.setRounds(0);
+			synchronized (players) {
+				players.add(player);
+			}
+			player.start(executor, ticker);
+			if (ramp>0)
+				Thread.sleep(ramp);
+		}
+		final double rampMs = (System.nanoTime()-start)/1_000_000.0;
+		report.addSetupTime("players started", rampMs);
+		
+		// Keep going
+		
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		
+		synchronized (System.out) {
+			PrintWriter out = new PrintWriter(System.out);
+			report.writeTo(out);
+			usage.writeTo(out);
+			out.flush();
+		}
+		
+		for (SimulatedPlayer player:players)
+			player.stop();
+		ticker.shutdownNow();
+		System.exit(0);
+	}
+	
+	/**
+	 * Prints one line with what happened since last line
+	 */
+	private static void printProgress(long start,List<SimulatedPlayer> players,SimulationReport report,ServerMetricsProbe probe,ServerUsage usage) {
+		try {
+			final long now = System.nanoTime();
+			final double elapsed = (now-usage.lastProgress)/1_000_000_000.0;
+			final long sent = report.getMessagesSent();
+			final long received = report.getMessagesReceived();
+			int connected = 0;
+			synchronized (players) {
+				for (SimulatedPlayer player:players) {
+					if (player.isConnected())
+						connected++;
+				}
+			}
+			Histogram.Snapshot ping = report.takeRecentPingRtt();
+			Histogram.Snapshot status = report.takeRecentStatusRtt();
+			String cpu = "-", load = "-", heap = "-", threads = "-", sessions = "-";
+			if (usage.previous!=null) {
+				try {
+					ServerMetricsProbe.Sample sample = probe.read();
+					double cpuPercent = sample.getCpuPercent(usage.previous);
+					usage.add(sample, cpuPercent);
+					if (cpuPercent>=0)
+						cpu = String.format("%.0f", cpuPercent);
+					if (sample.getLoadAverage()>=0)
+						load = String.format("%.2f", sample.getLoadAverage());
+					heap = String.format("%.1f", sample.getHeapUsed()/1048576.0);
+					threads = String.valueOf(sample.getThreads());
+					sessions = String.valueOf(sample.getSessions());
+					usage.previous = sample;
+				}
+				catch (IOException e) {
+					log.log(Level.FINE, "Could not read metrics from "+probe.getURL(), e);
+				}
+			}
+			synchronized (System.out) {
+				System.out.printf(PROGRESS_LINE, 
+						TimeUnit.NANOSECONDS.toSeconds(now-start), connected,
+						(sent-usage.lastSent)/elapsed, (received-usage.lastReceived)/elapsed,
+						ping.getPercentile(0.5), ping.getPercentile(0.9), ping.getPercentile(0.99),
+						status.getPercentile(0.99),
+						cpu, load, heap, threads, sessions);
+			}
+			usage.lastProgress = now;
+			usage.lastSent = sent;
+			usage.lastReceived = received;
+		}
+		catch (Throwable e) {
+			log.log(Level.WARNING, "Error while printing progress", e);
+		}
+	}
+	
+	/**
+	 * CPU and heap usage of robot seen so far
+	 */
+	private static class ServerUsage {
+		ServerMetricsProbe.Sample previous;
+		long lastProgress = System.nanoTime();
+		long lastSent;
+		long lastReceived;
+		int samples;
+		double sumCpu;
+		double maxCpu = -1;
+		long maxHeap;
+		int maxThreads;
+		
+		synchronized void add(ServerMetricsProbe.Sample sample,double cpuPercent) {
+			if (cpuPercent>=0) {
+				samples++;
+				sumCpu += cpuPercent;
+				maxCpu = Math.max(maxCpu, cpuPercent);
+			}
+			maxHeap = Math.max(maxHeap, sample.getHeapUsed());
+			maxThreads = Math.max(maxThreads, sample.getThreads());
+		}
+		
+		synchronized void writeTo(PrintWriter out) {
+			if (previous==null)
+				return;
+			out.println("Robot:");
+			if (samples>0)
+				out.printf("\tcpu: mean %.1f%%, max %.1f%% (of %d processors)%n", sumCpu/samples, maxCpu, previous.getCpuCount());
+			out.printf("\theap: max %.1f MB used (of %.1f MB)%n", maxHeap/1048576.0, previous.getHeapMax()/1048576.0);
+			out.printf("\tthreads: max %d%n", maxThreads);
+		}
+	}
+	
+	private static String getArgument(String[] args,String option,String defaultValue) {
+		String value = RaspMain.getArgument(args, option);
+		return (value==null || value.length()==0) ? defaultValue : value;
+	}
+	
+	private static int getIntArgument(String[] args,String option,int defaultValue) {
+		return Integer.parseInt(getArgument(args, option, String.valueOf(defaultValue)).trim());
+	}
+}
@@ -17,6 +17,8 @@ package org.guga.robotoy.rasp;
 
 import java.io.File;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,6 +26,7 @@ import java.util.logging.Logger;
 import org.guga.robotoy.rasp.admin.DebugWebInterface;
 import org.guga.robotoy.rasp.camera.RPICamera;
 import org.guga.robotoy.rasp.controller.RoboToyConsole;
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.game.GamePlayMode;
 import org.guga.robotoy.rasp.game.GameRobot;
@@ -38,6 +41,7 @@ import org.guga.robotoy.rasp.network.SocketServer;
 import org.guga.robotoy.rasp.network.WebServer;
 import org.guga.robotoy.rasp.optics.LedColor;
 import org.guga.robotoy.rasp.optics.RGBLed.DiodeType;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
 import org.guga.robotoy.rasp.tags.ErrorsTag;
 import org.guga.robotoy.rasp.utils.CryptoUtils;
 import org.guga.robotoy.rasp.utils.PropertiesUtils;
@@ -73,7 +77,7 @@ public class RaspMain {
 	
 	private static final String DEFAULT_CONFIG_FILENAME = "config.properties";
 
-	private static final String WEB_RESOURCES_PACKAGE_NAME = "/org/guga/robotoy/rasp/res";
+	public static final String WEB_RESOURCES_PACKAGE_NAME = "/org/guga/robotoy/rasp/res";
 	
 	private static final String ARG_CONFIG = "-config";
 	private static final String ARG_WEB = "-web";
@@ -206,6 +210,24 @@ public class RaspMain {
         	throw new UnsupportedOperationException("Not implemented motor.control:"+config.getProperty("motor.control"));
         }
         
+        if (config!=null) {
+        	String wifiSampleIntervalProp = config.getProperty("wifi.sampleInterval");
+        	if (wifiSampleIntervalProp!=null && wifiSampleIntervalProp.trim().length()>0)
+        		controller.setWiFiSampleInterval(Integer.parseInt(wifiSampleIntervalProp.trim()));
+        	String slowCommandProp = config.getProperty("stats.slowCommand");
+        	if (slowCommandProp!=null && slowCommandProp.trim().length()>0)
+        		controller.getCommandMetrics().setSlowCommandThreshold(Long.parseLong(slowCommandProp.trim()));
+        	StallWatchdog watchdog = controller.getContext().getWatchdog();
+        	String stallBudgetProp = config.getProperty("stats.stallBudget");
+        	if (stallBudgetProp!=null && stallBudgetProp.trim().length()>0)
+        		watchdog.setDefaultBudget(Long.parseLong(stallBudgetProp.trim()));
+        	for (String task:StallWatchdog.TASKS) {
+        		stallBudgetProp = config.getProperty("stats.stallBudget."+task);
+        		if (stallBudgetProp!=null && stallBudgetProp.trim().length()>0)
+        			watchdog.setBudget(task, Long.parseLong(stallBudgetProp.trim()));
+        	}
+        }
+        
         if (!hasArgument(args,ARG_NO_GPIO) && config!=null) {
 
         	// IR Led settings
@@ -284,8 +306,25 @@ public class RaspMain {
         	((WebServer)server).setDefaultCssPackageName(WEB_RESOURCES_PACKAGE_NAME+"/css");
         	((WebServer)server).setDefaultImagesPackageName(WEB_RESOURCES_PACKAGE_NAME+"/images");
         	((WebServer)server).setDefaultJsPackageName(WEB_RESOURCES_PACKAGE_NAME+"/js");        	
-        	((WebServer)server).setCustomRESTfulService(new DebugWebInterface(controller, server));
+        	DebugWebInterface debugInterface = new DebugWebInterface(controller, server);
+        	if (config!=null && "true".equalsIgnoreCase(config.getProperty("metrics.public")))
+        		debugInterface.setPublicMetrics(true);
+        	((WebServer)server).setCustomRESTfulService(debugInterface);
         	((WebServer)server).setWebSocketContext("/ws/");
+        	if (config!=null && "true".equalsIgnoreCase(config.getProperty("server.scanAnnotations")))
+        		((WebServer)server).setScanAnnotations(true);
+        	if (config!=null && "false".equalsIgnoreCase(config.getProperty("server.precompiledPages")))
+        		((WebServer)server).setPrecompiledPages(false);
+        	((WebServer)server).setScheduler(controller.getContext().getScheduler());
+        	String warmupProp = (config!=null) ? config.getProperty("server.warmup") : null;
+        	if (warmupProp!=null) {
+        		List<String> pages = new ArrayList<>();
+        		for (String page:warmupProp.split(",")) {
+        			if (page.trim().length()>0)
+        				pages.add(page.trim());
+        		}
+        		((WebServer)server).setWarmupPages(pages);
+        	}
         	
     		String keystoreInMemoryPassword = DEFAULT_SSL_KEYSTORE_PASSWORD;
     		try {
@@ -390,12 +429,9 @@ public class RaspMain {
 
         if (hasArgument(args,ARG_AUTO_AP) 
         		|| (config!=null && "true".equalsIgnoreCase(config.getProperty("auto.hostap")))) {
-        	Thread t = new Thread(()->{
+        	controller.getContext().getScheduler().submit(RoboToyScheduler.GROUP_ADMIN, "CheckAccessPoint", ()->{
         		RoboToyAccessPoint.checkAndBecomeAccessPoint(controller,server);
         	});
-        	t.setName("RoboToyAccessPointThread");
-        	t.setDaemon(true);
-        	t.start();
         }
         
         if (hasArgument(args,ARG_CONSOLE)) {
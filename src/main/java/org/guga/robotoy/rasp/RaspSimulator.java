@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.guga.robotoy.rasp.game.GameStage;
+import org.guga.robotoy.rasp.network.WebServer;
+import org.guga.robotoy.rasp.simulator.SimulatedPlayer;
+import org.guga.robotoy.rasp.simulator.SimulatedRobot;
+import org.guga.robotoy.rasp.simulator.SimulationReport;
+import org.guga.robotoy.rasp.statistics.PrometheusTextWriter;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+
+/**
+ * Runs many RoboToys and players in one single process, for measuring how far the game scales.<BR>
+ * <BR>
+ * Each robot has its own game state, controller and web server (with dummy motors and a beam
+ * device that delivers shots straight to other robots). Robots get to know each other the same
+ * way as with 'AutoDiscoverService' and talk to each other through 'WebSocketClientPool'.<BR>
+ * Players connect through websockets and go through lobby, play and summary stages.
+ * There must be at least one player for each robot. The first players take one robot each.
+ * The other players only watch (query status and ping).<BR>
+ * Each robot listens to a different loopback address (e.g. 127.0.1.1, 127.0.1.2, ...) and each player
+ * connects from a different loopback address (e.g. 127.0.2.1, 127.0.2.2, ...), since robots and players
+ * are known by their addresses. This works on Linux, where the whole 127.0.0.0/8 network is loopback.<BR>
+ * <BR>
+ * The command line may include some additional optional arguments:<BR>
+ * <UL>
+ * <LI><B>-robots {number}</B>   Number of robots (default: 3).</LI>
+ * <LI><B>-players {number}</B>   Number of players (default: same as number of robots).</LI>
+ * <LI><B>-rounds {number}</B>   Number of games to play (default: 1).</LI>
+ * <LI><B>-rate {number}</B>   Movements per second sent by each player while playing (default: 10).</LI>
+ * <LI><B>-fire {ms}</B>   Delay between fires of each player (default: 1500).</LI>
+ * <LI><B>-hit {ratio}</B>   Fraction of fires that hit another robot (default: 0.5).</LI>
+ * <LI><B>-life {number}</B>   Life of each robot at game start (default: 5).</LI>
+ * <LI><B>-duration {seconds}</B>   Maximum duration of each game (default: 120).</LI>
+ * <LI><B>-summary {ms}</B>   Delay at summary before playing again (default: 2000).</LI>
+ * <LI><B>-port {number}</B>   Port number of all robots (default: same as 'WebServer').</LI>
+ * <LI><B>-robotsAddress {address}</B>   Address of first robot (default: 127.0.1.1).</LI>
+ * <LI><B>-playersAddress {address}</B>   Address of first player (default: 127.0.2.1).</LI>
+ * <LI><B>-timeout {seconds}</B>   Maximum duration of the whole simulation (default: 600).</LI>
+ * <LI><B>-metrics {filename}</B>   Writes all metrics collected by robots to this file at the end (Prometheus text format).</LI>
+ * <LI><B>-nostats</B>  Do not collect time taken by commands at robots</LI>
+ * </UL>
+ * Prints a report with timings of each stage, throughput and round trip times at the end.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class RaspSimulator {
+
+	private static final Logger log = Logger.getLogger(RaspSimulator.class.getName());
+	
+	private static final String ARG_ROBOTS = "-robots";
+	private static final String ARG_PLAYERS = "-players";
+	private static final String ARG_ROUNDS = "-rounds";
+	private static final String ARG_RATE = "-rate";
+	private static final String ARG_FIRE = "-fire";
+	private static final String ARG_HIT = "-hit";
+	private static final String ARG_LIFE = "-life";
+	private static final String ARG_DURATION = "-duration";
+	private static final String ARG_SUMMARY = "-summary";
+	private static final String ARG_PORT = "-port";
+	private static final String ARG_ROBOTS_ADDRESS = "-robotsAddress";
+	private static final String ARG_PLAYERS_ADDRESS = "-playersAddress";
+	private static final String ARG_TIMEOUT = "-timeout";
+	private static final String ARG_METRICS = "-metrics";
+	private static final String ARG_DONT_TAKE_STATISTICS = "-nostats";
+	
+	private static final String DEFAULT_ROBOTS_ADDRESS = "127.0.1.1";
+	private static final String DEFAULT_PLAYERS_ADDRESS = "127.0.2.1";
+	
+	/**
+	 * Maximum time for each setup step (robots discovering each other, players joining)
+	 */
+	private static final long SETUP_TIMEOUT_MS = 60_000;
+
+	/**
+	 * Main application startup method
+	 * @param args Some optional arguments documented in this class
+	 */
+	public static void main(String[] args) throws Exception {
+		
+		System.out.println("Robotoy Simulator");
+		
+		System.setProperty("java.net.preferIPv4Stack", "true");
+
+		final int numRobots = getIntArgument(args, ARG_ROBOTS, 3);
+		final int numPlayers = getIntArgument(args, ARG_PLAYERS, numRobots);
+		final int rounds = getIntArgument(args, ARG_ROUNDS, 1);
+		final int rate = getIntArgument(args, ARG_RATE, SimulatedPlayer.DEFAULT_MOVEMENT_RATE);
+		final int fireInterval = getIntArgument(args, ARG_FIRE, (int)SimulatedPlayer.DEFAULT_FIRE_INTERVAL_MS);
+		final double hitRatio = Double.parseDouble(getArgument(args, ARG_HIT, "0.5"));
+		final int life = getIntArgument(args, ARG_LIFE, 5);
+		final int duration = getIntArgument(args, ARG_DURATION, 120);
+		final int summaryDelay = getIntArgument(args, ARG_SUMMARY, (int)SimulatedPlayer.DEFAULT_SUMMARY_DELAY_MS);
+		final int port = getIntArgument(args, ARG_PORT, WebServer.DEFAULT_PORT);
+		final InetAddress robotsAddress = InetAddress.getByName(getArgument(args, ARG_ROBOTS_ADDRESS, DEFAULT_ROBOTS_ADDRESS));
+		final InetAddress playersAddress = InetAddress.getByName(getArgument(args, ARG_PLAYERS_ADDRESS, DEFAULT_PLAYERS_ADDRESS));
+		final int timeout = getIntArgument(args, ARG_TIMEOUT, 600);
+		final String metricsFile = getArgument(args, ARG_METRICS, null);
+		final boolean takeStatistics = !RaspMain.hasArgument(args, ARG_DONT_TAKE_STATISTICS);
+		if (numRobots<1)
+			throw new IllegalArgumentException("Need at least one robot");
+		if (numPlayers<numRobots)
+			throw new IllegalArgumentException("Need at least one player for each robot");
+		if (rounds<1)
+			throw new IllegalArgumentException("Need at least one round");
+		
+		System.out.printf("%d robots, %d players, %d rounds, %d movements/s, fire every %dms%n", 
+				numRobots, numPlayers, rounds, rate, fireInterval);
+		
+		final SimulationReport report = new SimulationReport(numRobots, numPlayers);
+		final File workDir = new File(new File(System.getProperty("java.io.tmpdir")),"robotoy-sim");
+		
+		// Robots
+		
+		long start = System.nanoTime();
+		List<SimulatedRobot> robots = new ArrayList<>(numRobots);
+		CountDownLatch started = new CountDownLatch(numRobots);
+		for (int i=0;i<numRobots;i++) {
+			String id = String.format("SIM%02d", i+1);
+			SimulatedRobot robot = new SimulatedRobot(id, getAddress(robotsAddress, i), port, new File(workDir, id), report);
+			robot.getGame().setMaxLife(life);
+			robot.setHitRatio(hitRatio);
+			robots.add(robot);
+			robot.start(takeStatistics, started::countDown);
+		}
+		for (SimulatedRobot robot:robots) {
+			List<SimulatedRobot> targets = new ArrayList<>(robots);
+			targets.remove(robot);
+			robot.setTargets(targets);
+		}
+		if (!started.await(SETUP_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+			abort("Web servers did not start in time", report);
+		report.addSetupTime("web servers started", elapsedMs(start));
+		
+		start = System.nanoTime();
+		for (SimulatedRobot robot:robots) {
+			for (SimulatedRobot other:robots) {
+				if (other!=robot)
+					robot.discover(other);
+			}
+		}
+		if (!waitFor(()->robots.stream().allMatch(r->r.hasDiscovered(robots))))
+			abort("Robots did not discover each other in time", report);
+		report.addSetupTime("robots discovered each other", elapsedMs(start));
+		
+		// Players
+		
+		start = System.nanoTime();
+		List<SimulatedPlayer> players = new ArrayList<>(numPlayers);
+		for (int i=0;i<numPlayers;i++) {
+			String name = String.format("P%03d", i+1);
+			String sessionId = "SIM-"+name;
+			InetAddress address = getAddress(playersAddress, i);
+			SimulatedRobot robot = robots.get(i%numRobots);
+			robot.login(name, address, sessionId);
+			SimulatedPlayer player = new SimulatedPlayer(name, sessionId, address, 
+					new URI("ws://"+robot.getAddress().getHostAddress()+":"+robot.getPort()), report);
+			if (i<numRobots)
+				player.setRobotId(robot.getIdentifier());
+			player.setMovementRate(rate);
+			player.setFireInterval(fireInterval);
+			player.setSummaryDelay(summaryDelay);
+			player.setRounds(rounds);
+			players.add(player);
+		}
+		if (!waitFor(()->robots.stream().allMatch(r->r.getGame().getPlayers().size()>=numPlayers)))
+			abort("Players did not join all robots in time", report);
+		report.addSetupTime("players joined", elapsedMs(start));
+
+		start = System.nanoTime();
+		QueuedThreadPool executor = new QueuedThreadPool();
+		executor.setName("SimulatedPlayers");
+		executor.setDaemon(true);
+		executor.start();
+		ScheduledExecutorService ticker = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), (r)->{
+			Thread thread = new Thread(r);
+			thread.setName("SimulatedPlayersTicker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (SimulatedPlayer player:players) {
+			player.start(executor, ticker);
+		}
+		if (!waitFor(()->players.stream().allMatch(SimulatedPlayer::isConnected)))
+			abort("Players did not connect in time", report);
+		report.addSetupTime("players connected", elapsedMs(start));
+		
+		// Play until all rounds are over, terminating games that take too long
+		
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+		long playingSince = 0;
+		boolean completed;
+		while (!(completed = report.awaitFinished(100))) {
+			long now = System.nanoTime();
+			if (now-deadline>=0) {
+				log.log(Level.WARNING, "Simulation timed out!");
+				break;
+			}
+			SimulatedRobot first = robots.get(0);
+			if (GameStage.PLAY.equals(first.getGame().getStage())) {
+				if (playingSince==0)
+					playingSince = now;
+				else if (now-playingSince>=TimeUnit.SECONDS.toNanos(duration)) {
+					log.log(Level.INFO, "Terminating game after "+duration+" seconds");
+					first.stopGame();
+					playingSince = 0;
+				}
+			}
+			else {
+				playingSince = 0;
+			}
+		}
+		
+		PrintWriter out = new PrintWriter(System.out);
+		report.writeTo(out);
+		if (metricsFile!=null && metricsFile.length()>0) {
+			try (Writer metrics = new FileWriter(metricsFile)) {
+				new PrometheusTextWriter(metrics).writeRegistry(RoboToyStatistics.getRegistry());
+			}
+			catch (IOException e) {
+				log.log(Level.SEVERE, "Error while writing metrics to "+metricsFile, e);
+			}
+		}
+		
+		for (SimulatedPlayer player:players)
+			player.stop();
+		for (SimulatedRobot robot:robots)
+			robot.stop();
+		ticker.shutdownNow();
+		System.exit(completed ? 0 : 1);
+	}
+	
+	private static void abort(String message,SimulationReport report) {
+		System.err.println(message);
+		report.writeTo(new PrintWriter(System.out));
+		System.exit(1);
+	}
+	
+	/**
+	 * Waits for some condition to become true
+	 * @return Returns FALSE if it timed out
+	 */
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + SETUP_TIMEOUT_MS;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis()>deadline)
+				return false;
+			Thread.sleep(20);
+		}
+		return true;
+	}
+	
+	private static double elapsedMs(long start) {
+		return (System.nanoTime()-start)/1_000_000.0;
+	}
+	
+	/**
+	 * Returns the IPv4 address some positions after the given one
+	 */
+	public static InetAddress getAddress(InetAddress first,int offset) throws UnknownHostException {
+		byte[] bytes = first.getAddress();
+		int value = ((bytes[0]&0xFF)<<24) | ((bytes[1]&0xFF)<<16) | ((bytes[2]&0xFF)<<8) | (bytes[3]&0xFF);
+		value += offset;
+		return InetAddress.getByAddress(new byte[] { (byte)(value>>>24), (byte)(value>>>16), (byte)(value>>>8), (byte)value });
+	}
+	
+	private static String getArgument(String[] args,String option,String defaultValue) {
+		String value = RaspMain.getArgument(args, option);
+		return (value==null || value.length()==0) ? defaultValue : value;
+	}
+	
+	private static int getIntArgument(String[] args,String option,int defaultValue) {
+		return Integer.parseInt(getArgument(args, option, String.valueOf(defaultValue)).trim().toUpperCase(Locale.ROOT));
+	}
+}
@@ -15,19 +15,24 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.admin;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -35,8 +40,11 @@ import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpSession;
 
+import org.guga.robotoy.rasp.controller.CommandMetrics;
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.game.GamePlayMode;
+import org.guga.robotoy.rasp.game.GameSnapshot;
 import org.guga.robotoy.rasp.game.GameStart;
 import org.guga.robotoy.rasp.game.GameState;
 import org.guga.robotoy.rasp.network.InetUtils;
@@ -44,10 +52,13 @@ import org.guga.robotoy.rasp.network.RoboToyAccessPoint;
 import org.guga.robotoy.rasp.network.Server;
 import org.guga.robotoy.rasp.network.WebServer;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
+import org.guga.robotoy.rasp.network.WiFiSampler;
+import org.guga.robotoy.rasp.network.WiFiUtils.WiFiInfo;
 import org.guga.robotoy.rasp.optics.LedColor;
+import org.guga.robotoy.rasp.statistics.PrometheusTextWriter;
 import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
-import org.guga.robotoy.rasp.utils.IOUtils;
 import org.guga.robotoy.rasp.utils.JSONUtils;
+import org.guga.robotoy.rasp.utils.LogTail;
 
 /**
  * RESTful interface for exposing some state. Usefull for debugging.
@@ -61,22 +72,54 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 
 	private static final String DEFAULT_ROBOTOY_LOG_OUT_FILE = "/tmp/robotoy.out";
 	private static final String DEFAULT_ROBOTOY_LOG_ERR_FILE = "/tmp/robotoy.err";
+	/**
+	 * For how long '/log?follow=true' keeps sending new lines
+	 */
+	private static final int DEFAULT_LOG_FOLLOW_SECONDS = 600;
+	/**
+	 * Upper limit for '/log?follow=&lt;seconds&gt;'
+	 */
+	private static final int MAX_LOG_FOLLOW_SECONDS = 3600;
 	private final GameState game;
 	private final RoboToyServerController controller;
 	private final Server server;
 	
+	/**
+	 * Tells if '/metrics' may be read without logging in as admin (e.g. by scrapers)
+	 */
+	private volatile boolean publicMetrics;
+	
 	public DebugWebInterface(RoboToyServerController controller,Server server) {
 		this.controller = controller;
 		this.game = controller.getContext().getGame();
 		this.server = server;
 	}
 
+	/**
+	 * Tells if '/metrics' may be read without logging in as admin (e.g. by scrapers)
+	 */
+	public boolean isPublicMetrics() {
+		return publicMetrics;
+	}
+
+	/**
+	 * Tells if '/metrics' may be read without logging in as admin (e.g. by scrapers)
+	 */
+	public void setPublicMetrics(boolean publicMetrics) {
+		this.publicMetrics = publicMetrics;
+	}
+
 	/**
 	 * Responds to HTTP requests in admin RESTful interface.
 	 */
 	@Override
 	public Object getResponse(String method, String uri, String requestContents,String remoteAddress,HttpSession session) throws Exception {
 		
+		// Metrics may be collected by scrapers that can't log in (only if enabled)
+		if (publicMetrics && "get".equalsIgnoreCase(method) && uri.equals("/metrics")) {
+			return getMetrics();
+		}
+		
 		// Denies access for non-admins
 		if (controller.getAdminUserName()==null)
 			return null; // no admin configured
@@ -103,31 +146,59 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 	 */
 	private Object doGet(String uri, String requestContents) throws Exception {
 		if (uri.equals("/robots")) {
-			return game.getRobots();
+			return game.snapshot().getRobots();
 		}
 		else if (uri.equals("/players")) {
-			return game.getPlayers();
+			return game.snapshot().getPlayers();
 		}
 		else if (uri.equals("/cards")) {
-			return game.getCards();
+			return game.snapshot().getCards();
 		}
 		else if (uri.equals("/log")) {
 			int last = 0;
+			int follow = 0;
 			if (requestContents!=null && requestContents.length()>0) {
-				Pattern p = Pattern.compile("\\blast=(\\d+)",Pattern.CASE_INSENSITIVE);
-				Matcher m = p.matcher(requestContents);
-				if (m.find()) {
-					last = Integer.parseInt(m.group(1));
-				}
-				else {
+				Matcher m = Pattern.compile("\\blast=(\\d+)",Pattern.CASE_INSENSITIVE).matcher(requestContents);
+				Matcher f = Pattern.compile("\\bfollow=([^&\\s]*)",Pattern.CASE_INSENSITIVE).matcher(requestContents);
+				boolean has_last = m.find();
+				boolean has_follow = f.find();
+				if (!has_last && !has_follow) {
 					throw new UnsupportedOperationException("Invalid argument: "+requestContents);
 				}
+				if (has_last) {
+					last = parseInt(m.group(1), /*fallback*/0);
+				}
+				if (has_follow) {
+					if ("false".equalsIgnoreCase(f.group(1)))
+						follow = 0;
+					else if ("true".equalsIgnoreCase(f.group(1)))
+						follow = DEFAULT_LOG_FOLLOW_SECONDS;
+					else
+						follow = Math.max(0, Math.min(MAX_LOG_FOLLOW_SECONDS, parseInt(f.group(1), DEFAULT_LOG_FOLLOW_SECONDS)));
+				}
 			}
-			return getLog(last);
+			return getLog(last,follow);
 		}
 		else if (uri.equals("/stats")) {
 			return RoboToyStatistics.getSummary();
 		}
+		else if (uri.equals("/metrics")) {
+			return getMetrics();
+		}
+		else if (uri.equals("/commands")) {
+			return getCommandTimes();
+		}
+		else if (uri.equals("/scheduler")) {
+			return controller.getContext().getScheduler().getTaskStats();
+		}
+		else if (uri.equals("/stalls")) {
+			return controller.getContext().getWatchdog().getStalls();
+		}
+		else if (uri.equals("/startup")) {
+			if (server instanceof WebServer)
+				return ((WebServer)server).getStartupReport();
+			return null;
+		}
 		else if (uri.equals("/wifi")) {
 			if (requestContents==null || requestContents.length()==0)
 				return InetUtils.scanWiFi(InetUtils.DEFAULT_WIFI_INTERFACE);
@@ -146,6 +217,9 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 		else if (uri.equals("/net")) {
 			return InetUtils.getNetAdapters();
 		}
+		else if (uri.equals("/wifiquality")) {
+			return getWiFiQuality();
+		}
 		else if (uri.equals("/sockets")) {
 			return getActiveSockets();
 		}
@@ -198,16 +272,14 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 					throw new UnsupportedOperationException("Invalid argument: "+requestContents);
 				String ssid = RoboToyAccessPoint.getSomeSSID();
 				String gateway = InetUtils.DEFAULT_AP_GATEWAY_IP_ADDRESS;
-				new Thread(()->{
-					try { Thread.sleep(1000); } catch (InterruptedException e){ }
+				controller.getContext().getScheduler().schedule(RoboToyScheduler.GROUP_ADMIN, "BecomeAccessPoint", /*delay*/1000, ()->{
 					try {
 						RoboToyAccessPoint.becomeAccessPoint(controller, mode.getMode(), server);
 					}
 					catch (Throwable e) {
 						log.log(Level.SEVERE, "Error while becoming Access Point!",e);	
 					}
-				}) {					
-				}.start();				
+				});
 				return "Turning into "+mode.getMode()+". "
 						+ "After a few seconds, search for network '"+ssid+"' and connect your browser to IP address '"+gateway+"'!";
 			}
@@ -245,73 +317,174 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 		}
 	}
 
+	/**
+	 * Parses some numeric argument of RESTful request. Returns 'fallback' if it's not a valid number.
+	 */
+	private static int parseInt(String value,int fallback) {
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+	
 	/***
 	 * Return LOG file contents.
 	 * @param last_lines If greater than zero, returns up to this amount of lines. If less or equal to zero,
 	 * return everything.
+	 * @param follow_seconds If greater than zero, keeps sending new lines appended to LOG files for
+	 * this amount of time.
 	 */
-	private String getLog(final int last_lines) {
-		StringBuilder log = new StringBuilder();
-		String[] files = {
-			DEFAULT_ROBOTOY_LOG_OUT_FILE,
-			DEFAULT_ROBOTOY_LOG_ERR_FILE
+	private WebServer.StreamingContents getLog(final int last_lines,final int follow_seconds) {
+		return new WebServer.StreamingContents() {
+			@Override
+			public void writeTo(Writer out) throws IOException {
+				long[] positions = writeLog(last_lines, out);
+				if (follow_seconds>0) {
+					new LogTail().follow(getLogFiles(), positions, out, LogTail.DEFAULT_POLL_INTERVAL_MS, 
+							TimeUnit.SECONDS.toMillis(follow_seconds));
+				}
+			}
 		};
-		for (String logFile:files) {
-			File file = new File(logFile);
+	}
+	
+	private static File[] getLogFiles() {
+		return new File[] {
+			new File(DEFAULT_ROBOTOY_LOG_OUT_FILE),
+			new File(DEFAULT_ROBOTOY_LOG_ERR_FILE)
+		};
+	}
+	
+	/***
+	 * Writes LOG file contents.
+	 * @param last_lines If greater than zero, writes up to this amount of lines. If less or equal to zero,
+	 * writes everything.
+	 * @return Returns the end position of each LOG file
+	 */
+	private long[] writeLog(final int last_lines,final Writer log) throws IOException {
+		File[] files = getLogFiles();
+		long[] positions = new long[files.length];
+		LogTail tail = new LogTail();
+		for (int i=0;i<files.length;i++) {
+			File file = files[i];
 			log.append(file.getAbsolutePath()+"  ===========================\n");
 			if (!file.exists()) {
 				log.append("-- file not found --\n");
 			}
 			else {
-				if (last_lines>0) {
-					try (RandomAccessFile input=new RandomAccessFile(file, "r");) {
-						long size = input.length();
-						long start = size;
-						int countdown = last_lines + 1;
-						while (countdown>0) {
-							long eol = start-1;
-							while (true) {
-								input.seek(eol);
-								int ch = input.read();
-								if (ch=='\n')
-									break;
-								eol--;
-								if (eol<0)
-									break;
-							}
-							if (eol<0) {
-								start = 0;
-								break;
-							}
-							start = eol;
-							if (start==0)
-								break;
-							countdown--;
-						}
-						input.seek(start);
-						final int size_to_read = (int)Math.min(Integer.MAX_VALUE, (size-start) );
-						byte[] temp = new byte[size_to_read];
-						input.readFully(temp);
-						log.append(new String(temp));
-						log.append("\n");
-					}
-					catch(IOException e) {
-						log.append("-- error while loading file ["+e.getClass().getName()+" "+e.getMessage()+"] --\n");
-					}
+				try {
+					positions[i] = tail.copyLastLines(file, last_lines, log);
+					log.append("\n");
 				}
-				else {
-					try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
-						String config = IOUtils.readFileContents(input);
-						log.append(config+"\n");
-					}
-					catch(IOException e) {
-						log.append("-- error while loading file ["+e.getClass().getName()+" "+e.getMessage()+"] --\n");
-					}
+				catch(IOException e) {
+					log.append("-- error while loading file ["+e.getClass().getName()+" "+e.getMessage()+"] --\n");
 				}
 			}
 			log.append("\n\n");
 		}
-		return log.toString();		
+		log.flush();
+		return positions;
+	}
+	
+	/**
+	 * Time taken by commands and recent slow commands
+	 */
+	private CommandTimes getCommandTimes() {
+		CommandMetrics metrics = controller.getCommandMetrics();
+		CommandTimes times = new CommandTimes();
+		times.setSlowThresholdMs(metrics.getSlowCommandThreshold());
+		times.setCommands(metrics.getSummary());
+		times.setSlow(metrics.getSlowCommands());
+		return times;
+	}
+	
+	/**
+	 * All metrics in the text exposition format used by Prometheus
+	 */
+	private WebServer.StreamingContents getMetrics() {
+		return new WebServer.StreamingContents() {
+			@Override
+			public void writeTo(Writer out) throws IOException {
+				writeMetrics(new PrometheusTextWriter(out));
+			}
+			@Override
+			public String getContentType() {
+				return PrometheusTextWriter.CONTENT_TYPE;
+			}
+		};
+	}
+	
+	/**
+	 * Writes all metrics from registry plus scheduler, JVM and WiFi status.<BR>
+	 * Lag per player address is left out (it's only shown at '/stats').
+	 */
+	private void writeMetrics(PrometheusTextWriter out) throws IOException {
+		out.writeRegistry(RoboToyStatistics.getRegistry(), RoboToyStatistics.LAG_MS);
+		
+		RoboToyScheduler scheduler = controller.getContext().getScheduler();
+		if (scheduler!=null) {
+			List<RoboToyScheduler.TaskStats> tasks = scheduler.getTaskStats();
+			out.writeType("robotoy_scheduler_active_tasks", "gauge");
+			out.writeSample("robotoy_scheduler_active_tasks", scheduler.getNumActiveTasks());
+			out.writeType("robotoy_scheduler_runs_total", "counter");
+			for (RoboToyScheduler.TaskStats task:tasks)
+				out.writeSample("robotoy_scheduler_runs_total", task.getRuns(), "group", task.getGroup(), "task", task.getName());
+			out.writeType("robotoy_scheduler_failures_total", "counter");
+			for (RoboToyScheduler.TaskStats task:tasks)
+				out.writeSample("robotoy_scheduler_failures_total", task.getFailures(), "group", task.getGroup(), "task", task.getName());
+			out.writeType("robotoy_scheduler_lateness_avg_ms", "gauge");
+			for (RoboToyScheduler.TaskStats task:tasks)
+				out.writeSample("robotoy_scheduler_lateness_avg_ms", task.getAvgLatenessMs(), "group", task.getGroup(), "task", task.getName());
+			out.writeType("robotoy_scheduler_lateness_max_ms", "gauge");
+			for (RoboToyScheduler.TaskStats task:tasks)
+				out.writeSample("robotoy_scheduler_lateness_max_ms", task.getMaxLatenessMs(), "group", task.getGroup(), "task", task.getName());
+		}
+		
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		out.writeType("jvm_memory_heap_bytes", "gauge");
+		out.writeSample("jvm_memory_heap_bytes", heap.getUsed(), "area", "used");
+		out.writeSample("jvm_memory_heap_bytes", heap.getCommitted(), "area", "committed");
+		out.writeSample("jvm_memory_heap_bytes", heap.getMax(), "area", "max");
+		List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+		out.writeType("jvm_gc_collections_total", "counter");
+		for (GarbageCollectorMXBean gc:gcs)
+			out.writeSample("jvm_gc_collections_total", gc.getCollectionCount(), "gc", gc.getName());
+		out.writeType("jvm_gc_collection_ms_total", "counter");
+		for (GarbageCollectorMXBean gc:gcs)
+			out.writeSample("jvm_gc_collection_ms_total", gc.getCollectionTime(), "gc", gc.getName());
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		out.writeType("jvm_threads", "gauge");
+		out.writeSample("jvm_threads", threads.getThreadCount(), "state", "live");
+		out.writeSample("jvm_threads", threads.getDaemonThreadCount(), "state", "daemon");
+		out.writeSample("jvm_threads", threads.getPeakThreadCount(), "state", "peak");
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			// CPU time is not part of the standard interface (but most JVM's provide it)
+			long cpuTime = ((com.sun.management.OperatingSystemMXBean)os).getProcessCpuTime();
+			if (cpuTime>=0) {
+				out.writeType("process_cpu_seconds_total", "counter");
+				out.writeSample("process_cpu_seconds_total", cpuTime/1_000_000_000.0);
+			}
+		}
+		out.writeType("system_cpu_count", "gauge");
+		out.writeSample("system_cpu_count", os.getAvailableProcessors());
+		double load = os.getSystemLoadAverage();
+		if (load>=0) {
+			out.writeType("system_load_average", "gauge");
+			out.writeSample("system_load_average", load);
+		}
+		
+		WiFiSampler sampler = controller.getContext().getWiFiSampler();
+		WiFiInfo wifi = (sampler==null) ? null : sampler.getLatest();
+		if (wifi!=null) {
+			out.writeType("robotoy_wifi_quality", "gauge");
+			out.writeSample("robotoy_wifi_quality", wifi.getQuality(), "interface", wifi.getName());
+			out.writeType("robotoy_wifi_level", "gauge");
+			out.writeSample("robotoy_wifi_level", wifi.getLevel(), "interface", wifi.getName());
+			out.writeType("robotoy_wifi_noise", "gauge");
+			out.writeSample("robotoy_wifi_noise", wifi.getNoise(), "interface", wifi.getName());
+		}
 	}
 	
 	/**
@@ -319,12 +492,13 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 	 */
 	private String saveReport() {
 		StringBuilder report = new StringBuilder();
+		GameSnapshot snapshot = game.snapshot();
 		report.append("Robots:\n");
-		report.append(JSONUtils.toJSON(game.getRobots(),true));
+		report.append(JSONUtils.toJSON(snapshot.getRobots(),true));
 		report.append("\n\nPlayers:\n");
-		report.append(JSONUtils.toJSON(game.getPlayers(),true));
+		report.append(JSONUtils.toJSON(snapshot.getPlayers(),true));
 		report.append("\n\nCards:\n");
-		report.append(JSONUtils.toJSON(game.getCards(),true));
+		report.append(JSONUtils.toJSON(snapshot.getCards(),true));
 		report.append("\n\nSummary:\n");
 		report.append(JSONUtils.toJSON(RoboToyStatistics.getSummary(),true));
 		report.append("\n\nSockets:\n");
@@ -332,7 +506,6 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 		report.append("\n\nNetwork Adapters:\n");
 		report.append(JSONUtils.toJSON(InetUtils.getNetAdapters(),true));
 		report.append("\n\nLOG:\n");
-		String log_contents = getLog(0);
     	File ref = new File(DebugWebInterface.class.getProtectionDomain().getCodeSource().getLocation().getPath());
     	if (ref.isFile())
     		ref = ref.getParentFile();
@@ -343,7 +516,7 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
     	try {
 			try (OutputStream output = new BufferedOutputStream(new FileOutputStream(destination));) {
 				output.write(report.toString().getBytes("UTF-8"));
-				output.write(log_contents.getBytes("UTF-8"));
+				writeLog(0, new OutputStreamWriter(output, "UTF-8"));
 			}
     	}
     	catch (IOException e) {
@@ -352,6 +525,16 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 		return destination.getAbsolutePath();
 	}
 	
+	/**
+	 * Get recent WiFi quality samples (empty if sampling is disabled)
+	 */
+	private List<WiFiInfo> getWiFiQuality() {
+		WiFiSampler sampler = controller.getContext().getWiFiSampler();
+		if (sampler==null)
+			return Collections.emptyList();
+		return sampler.getHistory();
+	}
+	
 	/**
 	 * Get a list of current active sockets in this robot
 	 */
@@ -521,6 +704,34 @@ public class DebugWebInterface implements WebServer.CustomRESTfulService {
 		}		
 	}
 	
+	/**
+	 * This class wraps time taken by commands and recent slow commands.
+	 * @author Gustavo Figueiredo
+	 */
+	public static class CommandTimes {
+		private long slowThresholdMs;
+		private List<CommandMetrics.CommandSummary> commands;
+		private List<CommandMetrics.SlowCommand> slow;
+		public long getSlowThresholdMs() {
+			return slowThresholdMs;
+		}
+		public void setSlowThresholdMs(long slowThresholdMs) {
+			this.slowThresholdMs = slowThresholdMs;
+		}
+		public List<CommandMetrics.CommandSummary> getCommands() {
+			return commands;
+		}
+		public void setCommands(List<CommandMetrics.CommandSummary> commands) {
+			this.commands = commands;
+		}
+		public List<CommandMetrics.SlowCommand> getSlow() {
+			return slow;
+		}
+		public void setSlow(List<CommandMetrics.SlowCommand> slow) {
+			this.slow = slow;
+		}
+	}
+	
 	/**
 	 * This class wraps summary information about active sockets.
 	 * @author Gustavo Figueiredo
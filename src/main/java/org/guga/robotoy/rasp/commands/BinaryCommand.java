@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.commands;
+
+import java.nio.ByteBuffer;
+
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.network.WebSocketActiveSession;
+
+/**
+ * Extension of a command that might also be issued through the binary sub-protocol.<BR>
+ * <BR>
+ * Each binary message has a fixed layout:<BR>
+ * - 1 byte: operation code (see 'RoboToyServerController.BIN_*')<BR>
+ * - 2 bytes: sequence number (unsigned, big endian, chosen by the player)<BR>
+ * - N bytes: payload (N is fixed for each operation code)
+ *
+ * @author Gustavo Figueiredo
+ */
+public interface BinaryCommand extends Command {
+
+	/**
+	 * Operation code of this command in binary messages
+	 */
+	public byte getOpCode();
+
+	/**
+	 * Number of bytes expected in payload (after operation code and sequence number)
+	 */
+	default public int getPayloadLength() { return 0; }
+
+	/**
+	 * Translates an incoming binary message and takes action.<BR>
+	 * Returns some reply to the caller (as text message) or NULL if there is none.<BR>
+	 * Throws exception in case of error.
+	 * @param sequence Sequence number informed by the player
+	 * @param payload Buffer positioned at the beginning of the payload (at least 'getPayloadLength' bytes remaining)
+	 */
+	public String parseBinary(CommandIssuer issuer,RoboToyServerContext context,int sequence,ByteBuffer payload,WebSocketActiveSession session) throws Exception;
+
+}
@@ -100,7 +100,7 @@ public class CmdCharge implements CommandWithBroadcast<CmdCharge.Message> {
 	public String getBroadcastMessage(RoboToyServerContext context,CmdCharge.Message object) {
 		StringBuilder message = new StringBuilder();
 		message.append("{\"charging\":");
-		message.append(JSONUtils.toJSON(object.getCharging(), false));
+		JSONUtils.toJSON(object.getCharging(), message);
 		message.append(",\"card\":");
 		message.append(JSONUtils.quote(object.getCard()));
 		message.append(",\"type\":");
@@ -15,12 +15,13 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.commands;
 
+import java.nio.ByteBuffer;
+
 import org.guga.robotoy.rasp.controller.RoboToyServerContext;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.game.GameRobot;
 import org.guga.robotoy.rasp.game.GameRules;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
-import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
 
 /**
  * Command sent by a player to its controlled robot telling it to fire its weapon.
@@ -28,7 +29,7 @@ import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
  * @author Gustavo Figueiredo
  *
  */
-public class CmdFire implements Command {
+public class CmdFire implements BinaryCommand {
 
 	@Override
 	public String getHelp() {
@@ -49,7 +50,25 @@ public class CmdFire implements Command {
 			throw new Exception("NO BEAM DEVICE IS AVAILABLE!");
 		if (!CommandIssuer.PLAYER.equals(issuer))
 			throw new Exception("MUST BE FIRED BY A PLAYER COMMAND!");
-		
+		CmdFire.run(context, session);
+		return null;
+	}
+
+	@Override
+	public byte getOpCode() {
+		return RoboToyServerController.BIN_FIRE;
+	}
+
+	@Override
+	public String parseBinary(CommandIssuer issuer,RoboToyServerContext context,int sequence,ByteBuffer payload,WebSocketActiveSession session) throws Exception {
+		parseMessage(issuer, context, String.valueOf(RoboToyServerController.FIRE), session);
+		return null;
+	}
+
+	/**
+	 * Fires the weapon of the robot controlled by the player connected through this session
+	 */
+	public static void run(RoboToyServerContext context,WebSocketActiveSession session) throws Exception {
 		String player_name = RoboToyServerContext.getPlayerName(session);
 		if (player_name==null)
 			throw new Exception("Session '"+session.getSessionId()+"' is not related to an identified player!");
@@ -58,11 +77,9 @@ public class CmdFire implements Command {
 		if (robot==null)
 			throw new Exception("NO ROBOT IS CONTROLLED BY PLAYER "+player_name+"!");
 		byte id = robot.getShortId();
+		// Beam device returns immediately (see 'BeamFireExecutor'), so statistics
+		// about fires are taken there
 		context.getBeamDevice().sendBeam(new byte[]{id});
-		if (context.isTakeStatistics()) {
-			RoboToyStatistics.incIRStatCountFires();
-		}
-		return null;
 	}
 
 }
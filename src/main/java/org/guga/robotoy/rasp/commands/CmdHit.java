@@ -54,9 +54,9 @@ public class CmdHit implements CommandWithBroadcast<CmdHit.Hit> {
 	public String getBroadcastMessage(RoboToyServerContext context,CmdHit.Hit hit) {
 		StringBuilder message = new StringBuilder();
 		message.append("{\"hit\":");
-		message.append(JSONUtils.toJSON(hit.getHit(),false));
+		JSONUtils.toJSON(hit.getHit(),message);
 		message.append(",\"source\":");
-		message.append(JSONUtils.toJSON(hit.getSource(),false));
+		JSONUtils.toJSON(hit.getSource(),message);
 		message.append(",\"fatal\":");
 		message.append(hit.isFatal());
 		message.append("}");
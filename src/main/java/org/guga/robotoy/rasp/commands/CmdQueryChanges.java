@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.commands;
+
+import java.net.InetAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.game.GameDelta;
+import org.guga.robotoy.rasp.game.GamePlayer;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.network.WebSocketActiveSession;
+import org.guga.robotoy.rasp.optics.LedColor;
+import org.guga.robotoy.rasp.utils.JSONUtils;
+
+/**
+ * Queries another robot for changes to players and robots since the last version we got from it.<BR>
+ * <BR>
+ * This is sent once we get connected to another robot, in place of separate queries for its players,
+ * its color and its owner. The reply only includes players and robots changed since the informed
+ * version, unless the other robot can't tell them anymore (e.g. its change log got truncated or it
+ * has restarted since then). In this case the reply includes all of them. The replying robot always
+ * includes itself.<BR>
+ * Players removed at the other robot are kept here if they are connected to us.<BR>
+ * Robots other than the one that replied are not merged here (they are found through auto discovery).
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class CmdQueryChanges implements CommandWithBroadcast<GamePlayer> {
+
+	private static final Logger log = Logger.getLogger(CmdQueryChanges.class.getName());
+	
+	private static final Pattern patternQuery = Pattern.compile("^"+Pattern.quote(String.valueOf(RoboToyServerController.QUERY_CHANGES))+"(\\d+):(\\d+)$");
+
+	@Override
+	public String getHelp() {
+		return RoboToyServerController.QUERY_CHANGES + "<epoch>:<version> - Query for changes to players and robots since some version. Must be issued by a robot.\n"
+			+"{\"changes\":<changes>} - Notify changes to players and robots since some version. Must be issued by a robot.";
+	}
+	
+	/**
+	 * Returns the query to be sent to another robot given the last version we got from it
+	 * (or NULL if we never got anything)
+	 */
+	public static String getQuery(GameState.PeerVersion since) {
+		if (since==null)
+			return RoboToyServerController.QUERY_CHANGES+"0:0";
+		else
+			return RoboToyServerController.QUERY_CHANGES+String.valueOf(since.getEpoch())+":"+String.valueOf(since.getVersion());
+	}
+
+	public static String run(RoboToyServerContext context,long epoch,long since,InetAddress localAddr) {
+		GameDelta delta = context.getGame().changesSince(epoch, since);
+		GameRobot local_robot = context.getGame().findLocalRobot();
+		String localAddress = (localAddr==null) ? null : localAddr.getHostAddress();
+		StringBuilder response = new StringBuilder();
+		response.append("{\"changes\":{\"epoch\":");
+		response.append(delta.getEpoch());
+		response.append(",\"version\":");
+		response.append(delta.getVersion());
+		response.append(",\"full\":");
+		response.append(delta.isFull());
+		response.append(",\"robot\":");
+		response.append(JSONUtils.quote((local_robot==null) ? null : local_robot.getIdentifier()));
+		response.append(",\"previous\":");
+		response.append(JSONUtils.quote(CmdQueryOwner.getPreviousOwner(context)));
+		response.append(",\"players\":[");
+		boolean first = true;
+		for (GamePlayer player:delta.getPlayers()) {
+			if (first)
+				first = false;
+			else
+				response.append(",");
+			response.append(PlayerSummary.getPlayerInfo(player));
+		}
+		response.append("],\"removedplayers\":[");
+		first = true;
+		for (String name:delta.getRemovedPlayers()) {
+			if (first)
+				first = false;
+			else
+				response.append(",");
+			response.append(JSONUtils.quote(name));
+		}
+		response.append("],\"robots\":[");
+		first = true;
+		for (GameRobot robot:delta.getRobots()) {
+			if (first)
+				first = false;
+			else
+				response.append(",");
+			response.append(RobotSummary.getRobotInfo(robot,localAddress));
+		}
+		// Our own color and owner always go, even if they did not change since that version
+		// (e.g. the other robot dropped us while we were disconnected and has just found us again)
+		if (local_robot!=null && !delta.getRobots().contains(local_robot)) {
+			if (!first)
+				response.append(",");
+			response.append(RobotSummary.getRobotInfo(local_robot,localAddress));
+		}
+		response.append("],\"removedrobots\":[");
+		first = true;
+		for (String id:delta.getRemovedRobots()) {
+			if (first)
+				first = false;
+			else
+				response.append(",");
+			response.append(JSONUtils.quote(id));
+		}
+		response.append("]}}");
+		return response.toString();
+	}
+	
+	/**
+	 * Merges changes received from another robot with ours. Returns the new players.
+	 */
+	public static List<GamePlayer> merge(RoboToyServerContext context,Changes changes) {
+		GameState game = context.getGame();
+		List<GamePlayer> new_players = new LinkedList<>();
+		if (changes.getNumPlayers()>0) {
+			CmdQueryPlayers.Players players = new CmdQueryPlayers.Players();
+			players.setPlayers(changes.getPlayers());
+			new_players.addAll(game.mergePlayers(players));
+		}
+		if (changes.getRemovedplayers()!=null) {
+			for (String name:changes.getRemovedplayers()) {
+				// The player may have joined again through us after leaving the other robot
+				GamePlayer local_player = game.findPlayerWithName(name);
+				if (local_player!=null && context.findPlayerWebSocketSession(local_player.getName())!=null)
+					continue;
+				GamePlayer removed_player = CmdRemovePlayer.run(context, name);
+				if (removed_player!=null)
+					notifyPlayers(context, new CmdRemovePlayer(), removed_player);
+			}
+		}
+		GameRobot robot = game.findRobotWithIdentifier(changes.getRobot());
+		if (robot!=null && robot.getAddress()!=null) { // never change the local robot
+			RobotSummary summary = changes.getRobotSummary(changes.getRobot());
+			if (summary!=null) {
+				LedColor color = (summary.getColor()==null) ? null : LedColor.get(summary.getColor());
+				if (color!=null && !color.equals(robot.getColor())) {
+					robot.setColor(color);
+					notifyPlayers(context, new CmdSetColor(), robot);
+				}
+				if (summary.getOwner()==null) {
+					robot.setOwner(null);
+				}
+				else {
+					GamePlayer owner = game.findPlayerWithName(summary.getOwner());
+					if (owner!=null)
+						robot.setOwner(owner);
+				}
+			}
+			if (changes.getPrevious()!=null) {
+				robot.setPreviousOwner(changes.getPrevious());
+			}
+		}
+		game.setPeerVersion(changes.getRobot(), changes.getEpoch(), changes.getVersion());
+		return new_players;
+	}
+	
+	/**
+	 * Sends the broadcast message of some command to the players connected to us (but not to robots)
+	 */
+	private static <T> void notifyPlayers(RoboToyServerContext context,CommandWithBroadcast<T> command,T object) {
+		if (context.getWebSocketPool()==null)
+			return;
+		context.getWebSocketPool().broadcast(command.getBroadcastFrame(context, object), context.getWebSocketReferencesForPlayers());
+	}
+
+	@Override
+	public List<GamePlayer> parseMessage(CommandIssuer issuer,RoboToyServerContext context,String message,WebSocketActiveSession session) throws Exception {
+		if (message.charAt(0)==RoboToyServerController.QUERY_CHANGES) {
+			if (!patternQuery.matcher(message).find())
+				throw new Exception("Invalid query: "+message);
+			return null; // will reply with changes
+		}
+		Changes changes = CmdQueryChanges.parse(message);
+		if (changes==null || changes.getRobot()==null)
+			throw new Exception("Invalid contents!");
+		if (log.isLoggable(Level.FINEST)) {
+			final InetAddress remoteAddr = session.getRemoteAddress();
+			log.log(Level.FINEST,"Got "+(changes.isFull()?"all":"changed")+" players and robots from RoboToy at "+remoteAddr.getHostAddress()
+				+" (version "+changes.getEpoch()+":"+changes.getVersion()+"): "+changes.getNumPlayers()+" players, "+changes.getNumRemovedPlayers()+" removed players");
+		}
+		return merge(context, changes);
+	}
+	
+	@Override
+	public String getReply(CommandIssuer issuer,RoboToyServerContext context,String message,WebSocketActiveSession session,Object parsedMessage) {
+		Matcher m = patternQuery.matcher(message);
+		if (!m.find())
+			return null;
+		long epoch = Long.parseLong(m.group(1));
+		long since = Long.parseLong(m.group(2));
+		return CmdQueryChanges.run(context, epoch, since, session.getLocalAddress());
+	}
+	
+	@Override
+	public String getBroadcastMessage(RoboToyServerContext context,GamePlayer player) {
+		// Informs our players about other new players.
+		StringBuilder message = new StringBuilder();
+		message.append("{\"newplayer\":");
+		message.append(PlayerSummary.getPlayerInfo(player));
+		message.append("}");
+		return message.toString();
+	}
+
+	@Override
+	public boolean isParseable(CommandIssuer issuer,String message) {
+		switch (issuer) {
+		case ROBOT:
+			return message.length()>0 
+				&& (message.charAt(0)==RoboToyServerController.QUERY_CHANGES
+				|| message.startsWith("{\"changes\":"));
+		default:
+			return false;
+		}
+	}
+	
+	public static Changes parse(String json) {
+		ChangesMessage msg = JSONUtils.fromJSON(json, ChangesMessage.class);
+		return (msg==null) ? null : msg.changes;
+	}
+	
+	public static class ChangesMessage {
+		private Changes changes;
+		public Changes getChanges() {
+			return changes;
+		}
+		public void setChanges(Changes changes) {
+			this.changes = changes;
+		}
+	}
+	
+	public static class Changes {
+		private long epoch;
+		private long version;
+		private boolean full;
+		private String robot;
+		private String previous;
+		private PlayerSummary[] players;
+		private String[] removedplayers;
+		private RobotSummary[] robots;
+		private String[] removedrobots;
+		public long getEpoch() {
+			return epoch;
+		}
+		public void setEpoch(long epoch) {
+			this.epoch = epoch;
+		}
+		public long getVersion() {
+			return version;
+		}
+		public void setVersion(long version) {
+			this.version = version;
+		}
+		public boolean isFull() {
+			return full;
+		}
+		public void setFull(boolean full) {
+			this.full = full;
+		}
+		public String getRobot() {
+			return robot;
+		}
+		public void setRobot(String robot) {
+			this.robot = robot;
+		}
+		public String getPrevious() {
+			return previous;
+		}
+		public void setPrevious(String previous) {
+			this.previous = previous;
+		}
+		public PlayerSummary[] getPlayers() {
+			return players;
+		}
+		public void setPlayers(PlayerSummary[] players) {
+			this.players = players;
+		}
+		public int getNumPlayers() {
+			return (players==null) ? 0 : players.length;
+		}
+		public String[] getRemovedplayers() {
+			return removedplayers;
+		}
+		public void setRemovedplayers(String[] removedplayers) {
+			this.removedplayers = removedplayers;
+		}
+		public int getNumRemovedPlayers() {
+			return (removedplayers==null) ? 0 : removedplayers.length;
+		}
+		public RobotSummary[] getRobots() {
+			return robots;
+		}
+		public void setRobots(RobotSummary[] robots) {
+			this.robots = robots;
+		}
+		public RobotSummary getRobotSummary(String id) {
+			if (robots==null || id==null)
+				return null;
+			for (RobotSummary summary:robots) {
+				if (id.equals(summary.getId()))
+					return summary;
+			}
+			return null;
+		}
+		public String[] getRemovedrobots() {
+			return removedrobots;
+		}
+		public void setRemovedrobots(String[] removedrobots) {
+			this.removedrobots = removedrobots;
+		}
+	}
+}
@@ -86,18 +86,7 @@ public class CmdQueryOwner implements Command {
 		else
 			currentOwner = null;
 		
-		String previousOwner = null;
-		if (context.getLocalStorage()!=null) {
-			try {
-				GamePersistentData data = GamePersistentData.load(context, false);
-				if (data!=null) {
-					previousOwner = data.getPreviousOwner();
-				}
-			}
-			catch (Throwable e) {
-				previousOwner = null;
-			}
-		}
+		String previousOwner = getPreviousOwner(context);
 		
 		StringBuilder sb = new StringBuilder();
 		sb.append("{\"owner\":");
@@ -108,6 +97,24 @@ public class CmdQueryOwner implements Command {
 
 		return sb.toString();
 	}
+	
+	/**
+	 * Returns the previous owner of this robot, as kept in local storage (or NULL if none)
+	 */
+	public static String getPreviousOwner(RoboToyServerContext context) {
+		if (context.getLocalStorage()==null)
+			return null;
+		try {
+			GamePersistentData data = GamePersistentData.load(context, false);
+			if (data!=null) {
+				return data.getPreviousOwner();
+			}
+		}
+		catch (Throwable e) {
+			// ignore
+		}
+		return null;
+	}
 
 	public static class Ownership {
 		private String owner;
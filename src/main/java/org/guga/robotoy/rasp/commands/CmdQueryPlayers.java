@@ -46,7 +46,7 @@ public class CmdQueryPlayers implements CommandWithBroadcast<GamePlayer> {
 		StringBuilder response = new StringBuilder();
 		response.append("{\"players\":[");
 		boolean first = true;
-		for (GamePlayer player:context.getGame().getPlayers()) {
+		for (GamePlayer player:context.getGame().snapshot().getPlayers()) {
 			if (first)
 				first = false;
 			else
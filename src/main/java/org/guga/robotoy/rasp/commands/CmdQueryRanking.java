@@ -41,7 +41,7 @@ public class CmdQueryRanking implements Command {
 
 	public static String run(RoboToyServerContext context) {
 		
-		List<GameRobot> robots = context.getGame().getRobots();
+		List<GameRobot> robots = context.getGame().snapshot().getRobots();
 		List<RankingEntry> ranking = new ArrayList<>(robots.size());
 		for (GameRobot robot:robots) {
 			RankingEntry e = new RankingEntry();
@@ -74,7 +74,7 @@ public class CmdQueryRanking implements Command {
 		for (int i=0;i<ranking.size();i++) {
 			if (i>0)
 				response.append(",");
-			response.append(JSONUtils.toJSON(ranking.get(i), false));
+			JSONUtils.toJSON(ranking.get(i), response);
 		}
 		response.append("]}");
 		return response.toString();
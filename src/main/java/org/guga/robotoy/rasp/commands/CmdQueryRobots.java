@@ -40,7 +40,7 @@ public class CmdQueryRobots implements Command {
 		response.append("{\"robots\":[");
 		boolean first = true;
 		String localAddress = localAddr.getHostAddress();
-		for (GameRobot robot:context.getGame().getRobots()) {
+		for (GameRobot robot:context.getGame().snapshot().getRobots()) {
 			if (first)
 				first = false;
 			else
@@ -15,13 +15,13 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.commands;
 
+import java.nio.ByteBuffer;
+
 import org.guga.robotoy.rasp.controller.RoboToyServerContext;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.game.GameRobot;
 import org.guga.robotoy.rasp.game.GameStage;
-import org.guga.robotoy.rasp.network.InetUtils;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
-import org.guga.robotoy.rasp.network.WiFiUtils;
 import org.guga.robotoy.rasp.network.WiFiUtils.WiFiInfo;
 
 /**
@@ -30,12 +30,13 @@ import org.guga.robotoy.rasp.network.WiFiUtils.WiFiInfo;
  * @author Gustavo Figueiredo
  *
  */
-public class CmdQueryStatus implements Command {
+public class CmdQueryStatus implements BinaryCommand {
 	
 	public static final String ID_CURRENT_SPEED = "speed";
 	public static final String ID_WIFI_QUALITY = "wifi";
 	public static final String ID_GAME_STAGE = "stage";
 	public static final String ID_ROBOT_LIFE = "life";
+	public static final String ID_SEQUENCE = "seq";
 
 	@Override
 	public String getHelp() {
@@ -49,17 +50,13 @@ public class CmdQueryStatus implements Command {
 		response.append("\":");
 		response.append((int)(context.getSpeed()*100.0));
 
-		try {
-			WiFiInfo info = WiFiUtils.getWirelessInfo(InetUtils.DEFAULT_WIFI_INTERFACE);
-			if (info!=null) {
-				response.append(",\"");
-				response.append(ID_WIFI_QUALITY);
-				response.append("\":");
-				response.append((int)info.getQuality());
-			}
-		}
-		catch (Throwable e) {
-			// no WiFi information available
+		// Last sample taken in background (will not read WiFi status here)
+		WiFiInfo info = (context.getWiFiSampler()==null) ? null : context.getWiFiSampler().getLatest();
+		if (info!=null) {
+			response.append(",\"");
+			response.append(ID_WIFI_QUALITY);
+			response.append("\":");
+			response.append((int)info.getQuality());
 		}
 		
 		GameStage stage = context.getGame().getStage();
@@ -95,4 +92,26 @@ public class CmdQueryStatus implements Command {
 	public String getReply(CommandIssuer issuer,RoboToyServerContext context,String message,WebSocketActiveSession session,Object parsedMessage) {
 		return CmdQueryStatus.run(context);
 	}
+
+	@Override
+	public byte getOpCode() {
+		return RoboToyServerController.BIN_QUERY_STATUS;
+	}
+
+	/**
+	 * Replies with the same status as the text command, plus the sequence number
+	 * informed in request.
+	 */
+	@Override
+	public String parseBinary(CommandIssuer issuer,RoboToyServerContext context,int sequence,ByteBuffer payload,WebSocketActiveSession session) throws Exception {
+		String status = CmdQueryStatus.run(context);
+		StringBuilder response = new StringBuilder(status.length()+16);
+		response.append(status, 0, status.length()-1);
+		response.append(",\"");
+		response.append(ID_SEQUENCE);
+		response.append("\":");
+		response.append(sequence);
+		response.append("}");
+		return response.toString();
+	}
 }
@@ -15,7 +15,10 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.commands;
 
+import java.nio.ByteBuffer;
+
 import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
 import org.guga.robotoy.rasp.utils.JSONUtils;
 
@@ -33,7 +36,7 @@ import org.guga.robotoy.rasp.utils.JSONUtils;
  * @author Gustavo Figueiredo
  *
  */
-public class CmdSetMovement implements Command {
+public class CmdSetMovement implements BinaryCommand {
 
 	@Override
 	public String getHelp() {
@@ -50,9 +53,36 @@ public class CmdSetMovement implements Command {
 		Factors factors = CmdSetMovement.parse(message);
 		if (factors==null)
 			return null;
+		CmdSetMovement.run(context, factors.getLeft(), factors.getRight());
+		return null;
+	}
+
+	public static void run(RoboToyServerContext context,double left,double right) {
 		context.getMotor().setMovement(
-				Math.min(1.0, Math.max(-1.0, factors.getLeft())), 
-				Math.min(1.0, Math.max(-1.0, factors.getRight())));
+				Math.min(1.0, Math.max(-1.0, left)), 
+				Math.min(1.0, Math.max(-1.0, right)));
+	}
+
+	@Override
+	public byte getOpCode() {
+		return RoboToyServerController.BIN_MOVEMENT;
+	}
+
+	/**
+	 * Two signed bytes: left factor and right factor, both scaled by 127
+	 */
+	@Override
+	public int getPayloadLength() {
+		return 2;
+	}
+
+	@Override
+	public String parseBinary(CommandIssuer issuer,RoboToyServerContext context,int sequence,ByteBuffer payload,WebSocketActiveSession session) throws Exception {
+		if (!CommandIssuer.PLAYER.equals(issuer))
+			return null;
+		double left = payload.get()/127.0;
+		double right = payload.get()/127.0;
+		CmdSetMovement.run(context, left, right);
 		return null;
 	}
 	
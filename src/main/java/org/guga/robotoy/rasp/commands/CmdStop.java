@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.commands;
 
+import java.nio.ByteBuffer;
+
 import org.guga.robotoy.rasp.controller.RoboToyServerContext;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
@@ -25,7 +27,7 @@ import org.guga.robotoy.rasp.network.WebSocketActiveSession;
  * @author Gustavo Figueiredo
  *
  */
-public class CmdStop implements Command {
+public class CmdStop implements BinaryCommand {
 
 	@Override
 	public String getHelp() {
@@ -47,4 +49,15 @@ public class CmdStop implements Command {
 		return null;
 	}
 
+	@Override
+	public byte getOpCode() {
+		return RoboToyServerController.BIN_STOP;
+	}
+
+	@Override
+	public String parseBinary(CommandIssuer issuer,RoboToyServerContext context,int sequence,ByteBuffer payload,WebSocketActiveSession session) throws Exception {
+		CmdStop.run(context);
+		return null;
+	}
+
 }
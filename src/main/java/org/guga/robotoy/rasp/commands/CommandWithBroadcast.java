@@ -16,6 +16,7 @@
 package org.guga.robotoy.rasp.commands;
 
 import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.network.BroadcastFrame;
 
 /**
  * Extension of a command that might be further broadcast to all currently connected
@@ -40,4 +41,12 @@ public interface CommandWithBroadcast<T> extends Command {
 	 */
 	public String getBroadcastMessage(RoboToyServerContext context,T object);
 
+	/**
+	 * Message to be used in broadcast to other players or robots, encoded only once
+	 * for all of them
+	 */
+	default public BroadcastFrame getBroadcastFrame(RoboToyServerContext context,T object) {
+		return BroadcastFrame.encode(getBroadcastMessage(context,object));
+	}
+
 }
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.commands;
+
+import java.io.IOException;
+
+import org.guga.robotoy.rasp.commands.CmdHit.Hit;
+import org.guga.robotoy.rasp.commands.CmdPing.PingMessage;
+import org.guga.robotoy.rasp.commands.CmdPing.UpdatePing;
+import org.guga.robotoy.rasp.commands.CmdSetMovement.Factors;
+import org.guga.robotoy.rasp.utils.JSONUtils;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Hand-written Gson type adapters for the protocol types that are exchanged
+ * most often between robots and players.<BR>
+ * <BR>
+ * They produce the same JSON as Gson would produce through reflection (same field order,
+ * NULL fields omitted, unknown fields ignored), but without reflection.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class ProtocolTypeAdapters {
+
+	private static boolean installed;
+
+	/**
+	 * Register all the type adapters declared here with 'JSONUtils' (only once)
+	 */
+	public static synchronized void install() {
+		if (installed)
+			return;
+		JSONUtils.registerTypeAdapters(ProtocolTypeAdapters::register);
+		installed = true;
+	}
+
+	/**
+	 * Register all the type adapters declared here
+	 */
+	public static GsonBuilder register(GsonBuilder builder) {
+		return builder
+			.registerTypeAdapter(Factors.class, new FactorsAdapter().nullSafe())
+			.registerTypeAdapter(PingMessage.class, new PingMessageAdapter().nullSafe())
+			.registerTypeAdapter(UpdatePing.class, new UpdatePingAdapter().nullSafe())
+			.registerTypeAdapter(RobotSummary.class, new RobotSummaryAdapter().nullSafe())
+			.registerTypeAdapter(PlayerSummary.class, new PlayerSummaryAdapter().nullSafe())
+			.registerTypeAdapter(Hit.class, new HitAdapter().nullSafe());
+	}
+
+	/**
+	 * Type adapter for {"left":...,"right":...}
+	 */
+	public static class FactorsAdapter extends TypeAdapter<Factors> {
+		@Override
+		public void write(JsonWriter out, Factors value) throws IOException {
+			out.beginObject();
+			out.name("left").value(value.getLeft());
+			out.name("right").value(value.getRight());
+			out.endObject();
+		}
+		@Override
+		public Factors read(JsonReader in) throws IOException {
+			Factors value = new Factors();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "left":
+					if (!skipNull(in))
+						value.setLeft(in.nextDouble());
+					break;
+				case "right":
+					if (!skipNull(in))
+						value.setRight(in.nextDouble());
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return value;
+		}
+	}
+
+	/**
+	 * Type adapter for {"ping":...,"count":...}
+	 */
+	public static class PingMessageAdapter extends TypeAdapter<PingMessage> {
+		@Override
+		public void write(JsonWriter out, PingMessage value) throws IOException {
+			out.beginObject();
+			out.name("ping").value(value.getPing());
+			out.name("count").value(value.getCount());
+			out.endObject();
+		}
+		@Override
+		public PingMessage read(JsonReader in) throws IOException {
+			PingMessage value = new PingMessage();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "ping":
+					if (!skipNull(in))
+						value.setPing(nextLong(in));
+					break;
+				case "count":
+					if (!skipNull(in))
+						value.setCount(nextInt(in));
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return value;
+		}
+	}
+
+	/**
+	 * Type adapter for {"updateping":...,"player":{...}}
+	 */
+	public static class UpdatePingAdapter extends TypeAdapter<UpdatePing> {
+		private final PlayerSummaryAdapter playerAdapter = new PlayerSummaryAdapter();
+		@Override
+		public void write(JsonWriter out, UpdatePing value) throws IOException {
+			out.beginObject();
+			out.name("updateping").value(value.getUpdateping());
+			if (value.getPlayer()!=null) {
+				out.name("player");
+				playerAdapter.write(out, value.getPlayer());
+			}
+			out.endObject();
+		}
+		@Override
+		public UpdatePing read(JsonReader in) throws IOException {
+			UpdatePing value = new UpdatePing();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "updateping":
+					if (!skipNull(in))
+						value.setUpdateping(nextLong(in));
+					break;
+				case "player":
+					if (!skipNull(in))
+						value.setPlayer(playerAdapter.read(in));
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return value;
+		}
+	}
+
+	/**
+	 * Type adapter for {"address":...,"owner":...,"id":...,"life":...,"color":...}
+	 */
+	public static class RobotSummaryAdapter extends TypeAdapter<RobotSummary> {
+		@Override
+		public void write(JsonWriter out, RobotSummary value) throws IOException {
+			out.beginObject();
+			if (value.getAddress()!=null)
+				out.name("address").value(value.getAddress());
+			if (value.getOwner()!=null)
+				out.name("owner").value(value.getOwner());
+			if (value.getId()!=null)
+				out.name("id").value(value.getId());
+			out.name("life").value(value.getLife());
+			if (value.getColor()!=null)
+				out.name("color").value(value.getColor());
+			out.endObject();
+		}
+		@Override
+		public RobotSummary read(JsonReader in) throws IOException {
+			RobotSummary value = new RobotSummary();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "address":
+					value.setAddress(nextString(in));
+					break;
+				case "owner":
+					value.setOwner(nextString(in));
+					break;
+				case "id":
+					value.setId(nextString(in));
+					break;
+				case "life":
+					if (!skipNull(in))
+						value.setLife(nextInt(in));
+					break;
+				case "color":
+					value.setColor(nextString(in));
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return value;
+		}
+	}
+
+	/**
+	 * Type adapter for {"name":...,"address":...,"port":...,"online":...}
+	 */
+	public static class PlayerSummaryAdapter extends TypeAdapter<PlayerSummary> {
+		@Override
+		public void write(JsonWriter out, PlayerSummary value) throws IOException {
+			out.beginObject();
+			if (value.getName()!=null)
+				out.name("name").value(value.getName());
+			if (value.getAddress()!=null)
+				out.name("address").value(value.getAddress());
+			out.name("port").value(value.getPort());
+			out.name("online").value(value.isOnline());
+			out.endObject();
+		}
+		@Override
+		public PlayerSummary read(JsonReader in) throws IOException {
+			PlayerSummary value = new PlayerSummary();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "name":
+					value.setName(nextString(in));
+					break;
+				case "address":
+					value.setAddress(nextString(in));
+					break;
+				case "port":
+					if (!skipNull(in))
+						value.setPort(nextInt(in));
+					break;
+				case "online":
+					if (!skipNull(in))
+						value.setOnline(nextBoolean(in));
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return value;
+		}
+	}
+
+	/**
+	 * Type adapter for {"hit":{...},"source":{...},"fatal":...}
+	 */
+	public static class HitAdapter extends TypeAdapter<Hit> {
+		private final RobotSummaryAdapter robotAdapter = new RobotSummaryAdapter();
+		@Override
+		public void write(JsonWriter out, Hit value) throws IOException {
+			out.beginObject();
+			if (value.getHit()!=null) {
+				out.name("hit");
+				robotAdapter.write(out, value.getHit());
+			}
+			if (value.getSource()!=null) {
+				out.name("source");
+				robotAdapter.write(out, value.getSource());
+			}
+			out.name("fatal").value(value.isFatal());
+			out.endObject();
+		}
+		@Override
+		public Hit read(JsonReader in) throws IOException {
+			Hit value = new Hit();
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "hit":
+					if (!skipNull(in))
+						value.setHit(robotAdapter.read(in));
+					break;
+				case "source":
+					if (!skipNull(in))
+						value.setSource(robotAdapter.read(in));
+					break;
+				case "fatal":
+					if (!skipNull(in))
+						value.setFatal(nextBoolean(in));
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return value;
+		}
+	}
+
+	/**
+	 * Consumes a NULL value. Returns TRUE if there was one (in this case
+	 * the field keeps its default value).
+	 */
+	private static boolean skipNull(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return true;
+		}
+		return false;
+	}
+
+	private static String nextString(JsonReader in) throws IOException {
+		if (skipNull(in))
+			return null;
+		if (in.peek()==JsonToken.BOOLEAN)
+			return Boolean.toString(in.nextBoolean());
+		return in.nextString();
+	}
+
+	private static boolean nextBoolean(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.STRING)
+			return Boolean.parseBoolean(in.nextString());
+		return in.nextBoolean();
+	}
+
+	private static int nextInt(JsonReader in) throws IOException {
+		try {
+			return in.nextInt();
+		}
+		catch (NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	private static long nextLong(JsonReader in) throws IOException {
+		try {
+			return in.nextLong();
+		}
+		catch (NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.controller;
+
+import java.nio.ByteBuffer;
+
+import org.guga.robotoy.rasp.commands.BinaryCommand;
+import org.guga.robotoy.rasp.commands.Command;
+
+/**
+ * Registry of commands that may be issued through the binary sub-protocol, indexed
+ * by operation code.<BR>
+ * <BR>
+ * It's built over the same set of commands used for text messages. Only those commands
+ * implementing {@link BinaryCommand BinaryCommand} are registered.
+ *
+ * @author Gustavo Figueiredo
+ */
+public class BinaryCommandDispatcher {
+
+	/**
+	 * Number of bytes in header of each binary message (operation code and sequence number)
+	 */
+	public static final int HEADER_LENGTH = 3;
+
+	/**
+	 * Commands indexed by operation code (unsigned)
+	 */
+	private final BinaryCommand[] byOpCode;
+
+	public BinaryCommandDispatcher(Command... commands) {
+		this.byOpCode = new BinaryCommand[256];
+		for (Command cmd:commands) {
+			if (!(cmd instanceof BinaryCommand))
+				continue;
+			BinaryCommand bcmd = (BinaryCommand)cmd;
+			int index = bcmd.getOpCode() & 0xFF;
+			if (byOpCode[index]!=null)
+				throw new IllegalArgumentException("Operation code "+index+" is used by "
+						+byOpCode[index].getClass().getSimpleName()+" and by "+cmd.getClass().getSimpleName());
+			byOpCode[index] = bcmd;
+		}
+	}
+
+	/**
+	 * Returns the command registered with this operation code, or NULL if there is none.
+	 */
+	public BinaryCommand find(byte opCode) {
+		return byOpCode[opCode & 0xFF];
+	}
+
+	/**
+	 * Reads the operation code at the current position of message (does not change position).
+	 */
+	public static byte getOpCode(ByteBuffer message) {
+		return message.get(message.position());
+	}
+
+	/**
+	 * Reads the sequence number of message (does not change position).
+	 */
+	public static int getSequence(ByteBuffer message) {
+		return message.getShort(message.position()+1) & 0xFFFF;
+	}
+
+	/**
+	 * Builds a binary message with header and payload.
+	 */
+	public static byte[] encode(byte opCode,int sequence,byte... payload) {
+		byte[] message = new byte[HEADER_LENGTH+payload.length];
+		message[0] = opCode;
+		message[1] = (byte)(sequence>>8);
+		message[2] = (byte)sequence;
+		System.arraycopy(payload, 0, message, HEADER_LENGTH, payload.length);
+		return message;
+	}
+}
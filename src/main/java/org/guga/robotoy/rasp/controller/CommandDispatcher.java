@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.guga.robotoy.rasp.commands.Command;
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+
+/**
+ * Dispatch index over a fixed set of commands.<BR>
+ * <BR>
+ * Single character messages (e.g. 'f', '?', 'p', ' ') are resolved through a table indexed
+ * by issuer and by first character. This table is filled once at construction time.<BR>
+ * JSON messages (e.g. {"movement":...}) are resolved through a map indexed by issuer and by
+ * the first top-level key. This map is filled as new keys are acknowledged by some command, up to
+ * MAX_INDEXED_KEYS per issuer, so that arbitrary keys sent by remote clients can't make it grow
+ * without bound.<BR>
+ * <BR>
+ * The command found in the index is always confirmed with 'isParseable'. Whenever the
+ * index can't tell which command to use, it falls back to the sequential scan over all commands
+ * (same order as informed in constructor).
+ *
+ * @author Gustavo Figueiredo
+ */
+public class CommandDispatcher {
+
+	/**
+	 * Only ASCII characters are indexed by first character
+	 */
+	private static final int MAX_INDEXED_CHAR = 128;
+
+	/**
+	 * Maximum number of JSON keys indexed per issuer. Further keys are resolved
+	 * by sequential scan.
+	 */
+	public static final int MAX_INDEXED_KEYS = 64;
+
+	private final Command[] commands;
+
+	/**
+	 * Commands indexed by issuer (ordinal) and first character
+	 */
+	private final Command[][] byFirstChar;
+
+	/**
+	 * Commands indexed by issuer (ordinal) and first JSON key
+	 */
+	private final List<Map<String,Command>> byJSONKey;
+
+	public CommandDispatcher(Command... commands) {
+		this.commands = commands.clone();
+		final CommandIssuer[] issuers = CommandIssuer.values();
+		this.byFirstChar = new Command[issuers.length][MAX_INDEXED_CHAR];
+		this.byJSONKey = new ArrayList<>(issuers.length);
+		for (CommandIssuer issuer:issuers) {
+			Command[] table = byFirstChar[issuer.ordinal()];
+			for (char c=0;c<MAX_INDEXED_CHAR;c++) {
+				if (c=='{')
+					continue;
+				table[c] = scan(issuer,String.valueOf(c));
+			}
+			byJSONKey.add(new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * Returns the command that should parse this message, or NULL if there
+	 * is none.
+	 */
+	public Command find(CommandIssuer issuer,String message) {
+		if (message==null || message.length()==0)
+			return null;
+		final char first = message.charAt(0);
+		if (first=='{') {
+			String key = getJSONKey(message);
+			if (key==null)
+				return scan(issuer,message);
+			Map<String,Command> index = byJSONKey.get(issuer.ordinal());
+			Command cmd = index.get(key);
+			if (cmd!=null && cmd.isParseable(issuer, message))
+				return cmd;
+			cmd = scan(issuer,message);
+			if (cmd!=null && index.size()<MAX_INDEXED_KEYS)
+				index.putIfAbsent(key, cmd); // only keeps keys that some command acknowledged
+			return cmd;
+		}
+		else if (first<MAX_INDEXED_CHAR) {
+			Command cmd = byFirstChar[issuer.ordinal()][first];
+			if (cmd!=null && cmd.isParseable(issuer, message))
+				return cmd;
+			return scan(issuer,message);
+		}
+		else {
+			return scan(issuer,message);
+		}
+	}
+
+	/**
+	 * Returns the number of JSON keys currently indexed for this issuer.
+	 */
+	public int getIndexedKeysCount(CommandIssuer issuer) {
+		return byJSONKey.get(issuer.ordinal()).size();
+	}
+
+	/**
+	 * Returns the first command that acknowledges this message, looking through
+	 * all of them sequentially. Returns NULL if there is none.
+	 */
+	public Command scan(CommandIssuer issuer,String message) {
+		for (Command cmd:commands) {
+			if (cmd.isParseable(issuer, message))
+				return cmd;
+		}
+		return null;
+	}
+
+	/**
+	 * Given a message in the form {"key":...}, returns the 'key' part. Returns
+	 * NULL if message does not start this way.
+	 */
+	public static String getJSONKey(String message) {
+		if (message.length()<3
+			|| message.charAt(0)!='{'
+			|| message.charAt(1)!='"')
+			return null;
+		int end = message.indexOf('"', 2);
+		if (end<0)
+			return null;
+		return message.substring(2, end);
+	}
+}
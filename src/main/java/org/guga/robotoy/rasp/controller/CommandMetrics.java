@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.statistics.Histogram;
+import org.guga.robotoy.rasp.statistics.MetricsRegistry;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+
+/**
+ * Time taken by each command dispatched by 'RoboToyServerController', per command class
+ * and per issuer, broken down into phases (see {@link Phase}).<BR>
+ * <BR>
+ * Histograms are kept in a 'MetricsRegistry' with labels 'command', 'issuer' and 'phase'. They
+ * are looked up once per command class, so reporting does not lock and does not allocate.<BR>
+ * Commands slower than a threshold are logged and kept in a short list of recent slow commands.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class CommandMetrics {
+	
+	private static final Logger log = Logger.getLogger(CommandMetrics.class.getName());
+
+	/**
+	 * Time taken for each command, from dispatching up to the reply (in milliseconds)
+	 */
+	public static final String COMMAND_MS = "robotoy_command_ms";
+
+	/**
+	 * Time taken for each phase of each command (in milliseconds)
+	 */
+	public static final String COMMAND_PHASE_MS = "robotoy_command_phase_ms";
+	
+	/**
+	 * Default threshold for logging slow commands (in milliseconds)
+	 */
+	public static final long DEFAULT_SLOW_COMMAND_MS = 50;
+	
+	/**
+	 * Number of recent slow commands kept in memory
+	 */
+	public static final int MAX_SLOW_COMMANDS = 32;
+	
+	/**
+	 * Phases of command processing
+	 */
+	public static enum Phase {
+		/**
+		 * Finding the command that accepts the incoming message
+		 */
+		LOOKUP,
+		/**
+		 * Decoding JSON contents of the incoming message (time spent in 'JSONUtils.fromJSON')
+		 */
+		PARSE,
+		/**
+		 * Command's own processing apart from decoding (e.g. changing game state, moving motors, firing beams)
+		 */
+		EXECUTE,
+		/**
+		 * Broadcasting the outcome to other players and robots
+		 */
+		BROADCAST,
+		/**
+		 * Building the reply to the issuer
+		 */
+		REPLY;
+	}
+
+	private static final CommandIssuer[] ISSUERS = CommandIssuer.values();
+
+	private static final Phase[] PHASES = Phase.values();
+	
+	private final MetricsRegistry registry;
+	
+	private final ConcurrentMap<Class<?>,Entry> byCommand;
+	
+	private final ArrayDeque<SlowCommand> slowCommands;
+	
+	private volatile long slowCommandThreshold = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_COMMAND_MS);
+	
+	public CommandMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+		this.byCommand = new ConcurrentHashMap<>();
+		this.slowCommands = new ArrayDeque<>(MAX_SLOW_COMMANDS);
+	}
+
+	/**
+	 * Threshold for logging slow commands (in milliseconds). Use 0 to disable.
+	 */
+	public long getSlowCommandThreshold() {
+		return TimeUnit.NANOSECONDS.toMillis(slowCommandThreshold);
+	}
+
+	/**
+	 * Threshold for logging slow commands (in milliseconds). Use 0 to disable.
+	 */
+	public void setSlowCommandThreshold(long ms) {
+		this.slowCommandThreshold = TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	/**
+	 * Reports time taken by each phase of some command
+	 * @param lookup Time in nanoseconds for {@link Phase#LOOKUP LOOKUP} phase
+	 * @param parse Time in nanoseconds for {@link Phase#PARSE PARSE} phase
+	 * @param execute Time in nanoseconds for {@link Phase#EXECUTE EXECUTE} phase
+	 * @param broadcast Time in nanoseconds for {@link Phase#BROADCAST BROADCAST} phase
+	 * @param reply Time in nanoseconds for {@link Phase#REPLY REPLY} phase
+	 * @param payloadSize Size of incoming message
+	 */
+	public void add(Class<?> command,CommandIssuer issuer,long lookup,long parse,long execute,long broadcast,long reply,int payloadSize) {
+		Entry entry = getEntry(command);
+		Histogram[] phases = entry.phases[issuer.ordinal()];
+		phases[Phase.LOOKUP.ordinal()].feed(lookup/1_000_000.0);
+		phases[Phase.PARSE.ordinal()].feed(parse/1_000_000.0);
+		phases[Phase.EXECUTE.ordinal()].feed(execute/1_000_000.0);
+		phases[Phase.BROADCAST.ordinal()].feed(broadcast/1_000_000.0);
+		phases[Phase.REPLY.ordinal()].feed(reply/1_000_000.0);
+		final long total = lookup + parse + execute + broadcast + reply;
+		entry.total[issuer.ordinal()].feed(total/1_000_000.0);
+		final long threshold = slowCommandThreshold;
+		if (threshold>0 && total>=threshold) {
+			SlowCommand slow = new SlowCommand(command.getSimpleName(), issuer, payloadSize, 
+					new double[] { lookup/1_000_000.0, parse/1_000_000.0, execute/1_000_000.0, broadcast/1_000_000.0, reply/1_000_000.0 });
+			if (log.isLoggable(Level.WARNING))
+				log.log(Level.WARNING, "Slow command: "+slow);
+			synchronized (slowCommands) {
+				if (slowCommands.size()==MAX_SLOW_COMMANDS)
+					slowCommands.removeFirst();
+				slowCommands.addLast(slow);
+			}
+		}
+	}
+	
+	public Histogram getHistogram(Class<?> command,CommandIssuer issuer) {
+		return getEntry(command).total[issuer.ordinal()];
+	}
+
+	public Histogram getHistogram(Class<?> command,CommandIssuer issuer,Phase phase) {
+		return getEntry(command).phases[issuer.ordinal()][phase.ordinal()];
+	}
+
+	private Entry getEntry(Class<?> command) {
+		Entry entry = byCommand.get(command);
+		if (entry==null)
+			entry = byCommand.computeIfAbsent(command, Entry::new);
+		return entry;
+	}
+	
+	/**
+	 * Returns recent slow commands (oldest first)
+	 */
+	public List<SlowCommand> getSlowCommands() {
+		synchronized (slowCommands) {
+			return new ArrayList<>(slowCommands);
+		}
+	}
+	
+	public void clearSlowCommands() {
+		synchronized (slowCommands) {
+			slowCommands.clear();
+		}
+	}
+	
+	/**
+	 * Returns summary of all commands issued at least once, slowest first (given 99th percentile)
+	 */
+	public List<CommandSummary> getSummary() {
+		List<CommandSummary> list = new ArrayList<>();
+		for (Entry entry:byCommand.values()) {
+			for (CommandIssuer issuer:ISSUERS) {
+				Histogram.Snapshot total = entry.total[issuer.ordinal()].snapshot();
+				if (total.getCount()==0)
+					continue;
+				CommandSummary summary = new CommandSummary();
+				summary.command = entry.name;
+				summary.issuer = issuer;
+				summary.total_ms = RoboToyStatistics.getSummaryStats(total);
+				for (Phase phase:PHASES) {
+					Histogram.Snapshot snapshot = entry.phases[issuer.ordinal()][phase.ordinal()].snapshot();
+					if (snapshot.getCount()==0)
+						continue;
+					if (summary.phases_ms==null)
+						summary.phases_ms = new TreeMap<>();
+					summary.phases_ms.put(phase.name().toLowerCase(), RoboToyStatistics.getSummaryStats(snapshot));
+				}
+				list.add(summary);
+			}
+		}
+		list.sort(Comparator.comparingDouble((CommandSummary s)->s.total_ms.p99).reversed());
+		return list;
+	}
+	
+	/**
+	 * Histograms of one command class
+	 */
+	private class Entry {
+		final String name;
+		final Histogram[] total;
+		final Histogram[][] phases;
+		Entry(Class<?> command) {
+			this.name = command.getSimpleName();
+			this.total = new Histogram[ISSUERS.length];
+			this.phases = new Histogram[ISSUERS.length][PHASES.length];
+			for (CommandIssuer issuer:ISSUERS) {
+				String issuerName = issuer.name().toLowerCase();
+				total[issuer.ordinal()] = registry.histogram(COMMAND_MS, 
+						"command", name, 
+						"issuer", issuerName);
+				for (Phase phase:PHASES) {
+					phases[issuer.ordinal()][phase.ordinal()] = registry.histogram(COMMAND_PHASE_MS, 
+							"command", name, 
+							"issuer", issuerName,
+							"phase", phase.name().toLowerCase());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Summary of time taken by one command class issued by one kind of issuer (useful for JSON representation)
+	 * 
+	 * @author Gustavo Figueiredo
+	 */
+	public static class CommandSummary {
+		public String command;
+		public CommandIssuer issuer;
+		public RoboToyStatistics.SummaryStats total_ms;
+		public Map<String,RoboToyStatistics.SummaryStats> phases_ms;
+	}
+
+	/**
+	 * One command that took longer than the threshold
+	 * 
+	 * @author Gustavo Figueiredo
+	 */
+	public static class SlowCommand {
+		private final Date timestamp;
+		private final String command;
+		private final CommandIssuer issuer;
+		private final int payloadSize;
+		private final double totalMs;
+		private final double lookupMs;
+		private final double parseMs;
+		private final double executeMs;
+		private final double broadcastMs;
+		private final double replyMs;
+		SlowCommand(String command,CommandIssuer issuer,int payloadSize,double[] phasesMs) {
+			this.timestamp = new Date();
+			this.command = command;
+			this.issuer = issuer;
+			this.payloadSize = payloadSize;
+			this.lookupMs = phasesMs[Phase.LOOKUP.ordinal()];
+			this.parseMs = phasesMs[Phase.PARSE.ordinal()];
+			this.executeMs = phasesMs[Phase.EXECUTE.ordinal()];
+			this.broadcastMs = phasesMs[Phase.BROADCAST.ordinal()];
+			this.replyMs = phasesMs[Phase.REPLY.ordinal()];
+			this.totalMs = lookupMs + parseMs + executeMs + broadcastMs + replyMs;
+		}
+		public Date getTimestamp() {
+			return timestamp;
+		}
+		public String getCommand() {
+			return command;
+		}
+		public CommandIssuer getIssuer() {
+			return issuer;
+		}
+		/**
+		 * Size of incoming message (number of characters for text messages)
+		 */
+		public int getPayloadSize() {
+			return payloadSize;
+		}
+		public double getTotalMs() {
+			return totalMs;
+		}
+		public double getLookupMs() {
+			return lookupMs;
+		}
+		public double getParseMs() {
+			return parseMs;
+		}
+		public double getExecuteMs() {
+			return executeMs;
+		}
+		public double getBroadcastMs() {
+			return broadcastMs;
+		}
+		public double getReplyMs() {
+			return replyMs;
+		}
+		public String toString() {
+			return String.format("%s from %s took %.1fms (lookup=%.1fms parse=%.1fms execute=%.1fms broadcast=%.1fms reply=%.1fms) payload=%d",
+					command, issuer, totalMs, lookupMs, parseMs, executeMs, broadcastMs, replyMs, payloadSize);
+		}
+	}
+}
@@ -19,6 +19,8 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -27,6 +29,7 @@ import org.guga.robotoy.rasp.commands.CommandIssuer;
 import org.guga.robotoy.rasp.game.GameRobot;
 import org.guga.robotoy.rasp.network.Server;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
 
 /**
  * Interactive console used for debugging and testing the current application
@@ -92,6 +95,10 @@ public class RoboToyConsole {
 					onGetIssuer();
 				else if (line.equals("stage"))
 					onGetStage();
+				else if (line.equals("timing"))
+					onGetCommandTimes();
+				else if (line.equals("slow"))
+					onGetSlowCommands();
 				else if (line.equals("q") || line.equals("quit") || line.equals("exit"))
 					server.stopServer();
 				else if (!parseCommand(line))
@@ -107,6 +114,8 @@ public class RoboToyConsole {
 		output.println("set robot - Make the console command issuer behave like a robot");
 		output.println("set player <name> - Make the console command issuer behave like a player with the given name");
 		output.println("stage - Get current game stage");
+		output.println("timing - Get time taken by each command (in milliseconds), slowest first");
+		output.println("slow - Get recent commands slower than "+controller.getCommandMetrics().getSlowCommandThreshold()+"ms");
 		for (Command cmd:RoboToyServerController.commands) {
 			String help = cmd.getHelp();
 			if (help!=null)
@@ -118,6 +127,42 @@ public class RoboToyConsole {
 		output.println("Current game stage: "+controller.getContext().getGame().getStage().name());
 	}
 	
+	private void onGetCommandTimes() {
+		List<CommandMetrics.CommandSummary> summary = controller.getCommandMetrics().getSummary();
+		if (summary.isEmpty()) {
+			output.println("No commands timed so far (are statistics enabled?)");
+			return;
+		}
+		output.println(String.format("%-24s %-6s %8s %8s %8s %8s | %8s %8s %8s %8s %8s", 
+				"command", "issuer", "count", "p50", "p99", "max", "lookup99", "parse99", "exec99", "bcast99", "reply99"));
+		for (CommandMetrics.CommandSummary s:summary) {
+			output.println(String.format("%-24s %-6s %8d %8.2f %8.2f %8.2f | %8.2f %8.2f %8.2f %8.2f %8.2f", 
+					s.command, s.issuer.name(), s.total_ms.count, s.total_ms.p50, s.total_ms.p99, s.total_ms.max,
+					getPhaseP99(s, CommandMetrics.Phase.LOOKUP),
+					getPhaseP99(s, CommandMetrics.Phase.PARSE),
+					getPhaseP99(s, CommandMetrics.Phase.EXECUTE),
+					getPhaseP99(s, CommandMetrics.Phase.BROADCAST),
+					getPhaseP99(s, CommandMetrics.Phase.REPLY)));
+		}
+	}
+	
+	private static double getPhaseP99(CommandMetrics.CommandSummary summary,CommandMetrics.Phase phase) {
+		RoboToyStatistics.SummaryStats stats = (summary.phases_ms==null) ? null : summary.phases_ms.get(phase.name().toLowerCase());
+		return (stats==null) ? 0 : stats.p99;
+	}
+	
+	private void onGetSlowCommands() {
+		List<CommandMetrics.SlowCommand> slow = controller.getCommandMetrics().getSlowCommands();
+		if (slow.isEmpty()) {
+			output.println("No slow commands so far");
+			return;
+		}
+		SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss.SSS");
+		for (CommandMetrics.SlowCommand cmd:slow) {
+			output.println(sdf.format(cmd.getTimestamp())+" "+cmd);
+		}
+	}
+	
 	private void onGetIssuer() {
 		if (CommandIssuer.PLAYER.equals(issuer)) {
 			output.println("Current issuer: "+issuer.name()+" "+playerName);
@@ -0,0 +1,574 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.controller;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
+
+/**
+ * Central scheduler for all timed and background tasks of RoboToy (heartbeats, pings,
+ * LED animations, cards management, countdowns, etc.).<BR>
+ * <BR>
+ * Timers are kept in a hashed timing wheel served by one single thread. Each slot of the
+ * wheel corresponds to one 'tick' of time and keeps the timers that expire in that tick (in this
+ * or in any of the following rounds of the wheel). Adding and cancelling a timer takes
+ * constant time, no matter how many timers there are.<BR>
+ * Expired tasks are run by a small fixed number of worker threads, so that a slow task does not
+ * delay the wheel. Periodic tasks are scheduled again only after each run is complete (fixed delay).<BR>
+ * Tasks of group {@link #GROUP_ADMIN admin} may block for seconds (e.g. shell commands that reconfigure
+ * the WiFi), so they are run by a dedicated worker thread and never hold the other workers.<BR>
+ * <BR>
+ * Each task belongs to a named group (e.g. {@link #GROUP_NETWORK network}) and has a name. All
+ * tasks of a group may be cancelled at once. Run count, lateness (delay between the expected time
+ * and the actual start) and duration are kept for each group and name.<BR>
+ * Tasks scheduled before 'init' are kept until the scheduler starts.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class RoboToyScheduler {
+
+	private static final Logger log = Logger.getLogger(RoboToyScheduler.class.getName());
+
+	/**
+	 * Default duration of each tick of the wheel in milliseconds
+	 */
+	public static final long DEFAULT_TICK_MS = 10;
+
+	/**
+	 * Default number of slots in the wheel (must be a power of 2)
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/**
+	 * Default number of threads running expired tasks
+	 */
+	public static final int DEFAULT_WORKERS = 2;
+
+	/**
+	 * Tasks related to communication with players and other robots
+	 */
+	public static final String GROUP_NETWORK = "network";
+
+	/**
+	 * Tasks related to game rules
+	 */
+	public static final String GROUP_GAME = "game";
+
+	/**
+	 * LED animations
+	 */
+	public static final String GROUP_LED = "led";
+
+	/**
+	 * Administrative tasks (run by a dedicated worker thread)
+	 */
+	public static final String GROUP_ADMIN = "admin";
+
+	private final long tickNanos;
+
+	private final Task[] wheel;
+
+	private final int mask;
+
+	private final int numWorkers;
+
+	/**
+	 * Tasks waiting to be included in the wheel (from any thread)
+	 */
+	private final ConcurrentLinkedQueue<Task> pending;
+
+	/**
+	 * Expired tasks waiting for a worker
+	 */
+	private final LinkedBlockingQueue<Task> expired;
+
+	/**
+	 * Expired tasks of group 'admin' waiting for the admin worker
+	 */
+	private final LinkedBlockingQueue<Task> expiredAdmin;
+
+	/**
+	 * All tasks not completed and not cancelled
+	 */
+	private final Set<Task> active;
+
+	/**
+	 * Metrics indexed by group and name
+	 */
+	private final Map<String,Counters> stats;
+
+	/**
+	 * Flag used to keep threads running
+	 */
+	private final AtomicBoolean running;
+
+	private volatile Thread wheelThread;
+
+	private final List<Thread> workerThreads;
+
+	/**
+	 * Reference for counting ticks
+	 */
+	private long startNanos;
+
+	/**
+	 * Last tick processed by the wheel (only used in wheel thread)
+	 */
+	private long lastTick;
+
+	/**
+	 * Number of timers in the wheel (only used in wheel thread)
+	 */
+	private int timersInWheel;
+
+	/**
+	 * Watches for tasks taking too long
+	 */
+	private StallWatchdog watchdog = StallWatchdog.DISABLED;
+
+	public RoboToyScheduler() {
+		this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE, DEFAULT_WORKERS);
+	}
+
+	public RoboToyScheduler(long tickMs,int wheelSize,int numWorkers) {
+		if (tickMs<=0)
+			throw new IllegalArgumentException("Invalid tick: "+tickMs);
+		if (wheelSize<=0 || Integer.bitCount(wheelSize)!=1)
+			throw new IllegalArgumentException("Wheel size must be a power of 2: "+wheelSize);
+		if (numWorkers<=0)
+			throw new IllegalArgumentException("Invalid number of workers: "+numWorkers);
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+		this.wheel = new Task[wheelSize];
+		this.mask = wheelSize-1;
+		this.numWorkers = numWorkers;
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.expired = new LinkedBlockingQueue<>();
+		this.expiredAdmin = new LinkedBlockingQueue<>();
+		this.active = ConcurrentHashMap.newKeySet();
+		this.stats = new ConcurrentHashMap<>();
+		this.running = new AtomicBoolean(false);
+		this.workerThreads = new ArrayList<>(numWorkers+1);
+	}
+
+	/**
+	 * Watches for tasks taking too long
+	 */
+	public void setWatchdog(StallWatchdog watchdog) {
+		this.watchdog = (watchdog==null) ? StallWatchdog.DISABLED : watchdog;
+	}
+
+	public synchronized void init() {
+		if (running.get())
+			return;
+		running.set(true);
+		startNanos = System.nanoTime();
+		lastTick = 0;
+		for (int i=0;i<numWorkers;i++) {
+			Thread worker = new Thread(()->{ runTasks(expired); });
+			worker.setName("RoboToyScheduler-worker-"+(i+1));
+			worker.setDaemon(true);
+			workerThreads.add(worker);
+			worker.start();
+		}
+		Thread adminWorker = new Thread(()->{ runTasks(expiredAdmin); });
+		adminWorker.setName("RoboToyScheduler-admin");
+		adminWorker.setDaemon(true);
+		workerThreads.add(adminWorker);
+		adminWorker.start();
+		Thread thread = new Thread(()->{ turnWheel(); });
+		thread.setName("RoboToyScheduler");
+		thread.setDaemon(true);
+		wheelThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops all threads. Pending tasks are cancelled.
+	 */
+	public synchronized void stop() {
+		running.set(false);
+		Thread thread = wheelThread;
+		wheelThread = null;
+		if (thread!=null)
+			LockSupport.unpark(thread);
+		for (Thread worker:workerThreads)
+			worker.interrupt();
+		workerThreads.clear();
+		for (Task task:active)
+			task.cancel();
+	}
+
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Runs a task once after some delay
+	 */
+	public Task schedule(String group,String name,long delayMs,Runnable runnable) {
+		return add(new Task(this, group, name, runnable, /*period*/0), delayMs);
+	}
+
+	/**
+	 * Runs a task as soon as possible
+	 */
+	public Task submit(String group,String name,Runnable runnable) {
+		return schedule(group, name, 0, runnable);
+	}
+
+	/**
+	 * Runs a task periodically. The delay is counted from the end of each run to the
+	 * start of the next one.
+	 */
+	public Task scheduleWithFixedDelay(String group,String name,long initialDelayMs,long delayMs,Runnable runnable) {
+		if (delayMs<=0)
+			throw new IllegalArgumentException("Invalid delay: "+delayMs);
+		return add(new Task(this, group, name, runnable, TimeUnit.MILLISECONDS.toNanos(delayMs)), initialDelayMs);
+	}
+
+	/**
+	 * Cancels all tasks of a group. Returns the number of cancelled tasks.
+	 */
+	public int cancelGroup(String group) {
+		int count = 0;
+		for (Task task:active) {
+			if (task.group.equals(group) && task.cancel())
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Number of tasks not completed and not cancelled
+	 */
+	public int getNumActiveTasks() {
+		return active.size();
+	}
+
+	/**
+	 * Metrics of all tasks ever run, ordered by group and name
+	 */
+	public List<TaskStats> getTaskStats() {
+		List<TaskStats> list = new ArrayList<>(stats.size());
+		for (Counters counters:stats.values())
+			list.add(new TaskStats(counters));
+		list.sort(Comparator.comparing(TaskStats::getGroup).thenComparing(TaskStats::getName));
+		return list;
+	}
+
+	public void clearTaskStats() {
+		stats.clear();
+	}
+
+	private Task add(Task task,long delayMs) {
+		task.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+		active.add(task);
+		pending.add(task);
+		Thread thread = wheelThread;
+		if (thread!=null)
+			LockSupport.unpark(thread);
+		return task;
+	}
+
+	/**
+	 * Loops while scheduler is not stopped<BR>
+	 * Moves new timers into the wheel and hands expired ones to the workers.
+	 */
+	private void turnWheel() {
+		while (running.get()) {
+			long now = System.nanoTime();
+			long currentTick = (now-startNanos)/tickNanos;
+			// Include new timers
+			Task task;
+			while ((task=pending.poll())!=null) {
+				if (task.isCancelled())
+					continue;
+				long deadlineTick = (task.deadline-startNanos+tickNanos-1)/tickNanos;
+				if (deadlineTick<=lastTick)
+					deadlineTick = lastTick+1;
+				task.deadlineTick = deadlineTick;
+				int slot = (int)(deadlineTick & mask);
+				task.next = wheel[slot];
+				wheel[slot] = task;
+				timersInWheel++;
+			}
+			// Visit every slot since last tick (at most one full round)
+			long lastVisit = Math.min(currentTick, lastTick+wheel.length);
+			for (long tick=lastTick+1;tick<=lastVisit;tick++) {
+				expire((int)(tick & mask), currentTick);
+			}
+			if (currentTick>lastTick)
+				lastTick = currentTick;
+			// Sleep until next tick (or until some new timer arrives)
+			if (pending.isEmpty()) {
+				if (timersInWheel==0)
+					LockSupport.park(this);
+				else
+					LockSupport.parkNanos(this, startNanos+(lastTick+1)*tickNanos-System.nanoTime());
+			}
+		}
+		for (int i=0;i<wheel.length;i++)
+			wheel[i] = null;
+		pending.clear();
+		expired.clear();
+		expiredAdmin.clear();
+	}
+
+	/**
+	 * Hands timers of a slot that expire up to a given tick to the workers. Cancelled
+	 * timers are discarded.
+	 */
+	private void expire(int slot,long currentTick) {
+		Task previous = null;
+		Task task = wheel[slot];
+		while (task!=null) {
+			Task next = task.next;
+			if (task.isCancelled() || task.deadlineTick<=currentTick) {
+				if (previous==null)
+					wheel[slot] = next;
+				else
+					previous.next = next;
+				task.next = null;
+				timersInWheel--;
+				if (!task.isCancelled()) {
+					if (GROUP_ADMIN.equals(task.group))
+						expiredAdmin.add(task);
+					else
+						expired.add(task);
+				}
+			}
+			else {
+				previous = task;
+			}
+			task = next;
+		}
+	}
+
+	/**
+	 * Loops while scheduler is not stopped<BR>
+	 * Runs expired tasks taken from a queue.
+	 */
+	private void runTasks(LinkedBlockingQueue<Task> queue) {
+		while (running.get()) {
+			Task task;
+			try {
+				task = queue.take();
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			if (task.isCancelled())
+				continue;
+			long start = System.nanoTime();
+			boolean failed = false;
+			StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_SCHEDULER, task.name);
+			try {
+				task.runnable.run();
+			}
+			catch (Throwable e) {
+				failed = true;
+				log.log(Level.SEVERE, "Error while running task '"+task.name+"' of group '"+task.group+"'", e);
+			}
+			finally {
+				probe.exit();
+			}
+			long end = System.nanoTime();
+			stats.computeIfAbsent(task.group+"/"+task.name, k->new Counters(task.group, task.name))
+				.add(start-task.deadline, end-start, failed);
+			if (task.period>0 && !task.isCancelled() && running.get()) {
+				task.deadline = end + task.period;
+				pending.add(task);
+				Thread thread = wheelThread;
+				if (thread!=null)
+					LockSupport.unpark(thread);
+			}
+			else {
+				active.remove(task);
+			}
+		}
+	}
+
+	/**
+	 * One task kept by the scheduler
+	 */
+	public static final class Task {
+		private final RoboToyScheduler scheduler;
+		private final String group;
+		private final String name;
+		private final Runnable runnable;
+		/**
+		 * Delay between runs of periodic tasks (0 for tasks that run once)
+		 */
+		private final long period;
+		private final AtomicBoolean cancelled;
+		/**
+		 * Expected time of the next run (System.nanoTime)
+		 */
+		private volatile long deadline;
+		/**
+		 * Tick of the next run and next timer in the same slot (only used in wheel thread)
+		 */
+		private long deadlineTick;
+		private Task next;
+		private Task(RoboToyScheduler scheduler,String group,String name,Runnable runnable,long period) {
+			this.scheduler = scheduler;
+			this.group = (group==null) ? "" : group;
+			this.name = (name==null) ? "" : name;
+			this.runnable = runnable;
+			this.period = period;
+			this.cancelled = new AtomicBoolean();
+		}
+		public String getGroup() {
+			return group;
+		}
+		public String getName() {
+			return name;
+		}
+		public boolean isPeriodic() {
+			return period>0;
+		}
+		/**
+		 * Cancels this task. A run already started is not interrupted. Returns FALSE if it was
+		 * already cancelled.
+		 */
+		public boolean cancel() {
+			if (!cancelled.compareAndSet(false, true))
+				return false;
+			scheduler.active.remove(this);
+			return true;
+		}
+		public boolean isCancelled() {
+			return cancelled.get();
+		}
+		public String toString() {
+			return group+"/"+name;
+		}
+	}
+
+	/**
+	 * Metrics of tasks with the same group and name (updated by workers)
+	 */
+	private static final class Counters {
+		private final String group;
+		private final String name;
+		private final LongAdder runs;
+		private final LongAdder failures;
+		private final LongAdder totalLateness;
+		private final AtomicLong maxLateness;
+		private final LongAdder totalDuration;
+		private final AtomicLong maxDuration;
+		Counters(String group,String name) {
+			this.group = group;
+			this.name = name;
+			this.runs = new LongAdder();
+			this.failures = new LongAdder();
+			this.totalLateness = new LongAdder();
+			this.maxLateness = new AtomicLong();
+			this.totalDuration = new LongAdder();
+			this.maxDuration = new AtomicLong();
+		}
+		void add(long lateness,long duration,boolean failed) {
+			lateness = Math.max(0, lateness);
+			runs.increment();
+			if (failed)
+				failures.increment();
+			totalLateness.add(lateness);
+			maxLateness.accumulateAndGet(lateness, Math::max);
+			totalDuration.add(duration);
+			maxDuration.accumulateAndGet(duration, Math::max);
+		}
+	}
+
+	/**
+	 * Metrics of tasks with the same group and name at some point in time
+	 */
+	public static final class TaskStats {
+		private final String group;
+		private final String name;
+		private final long runs;
+		private final long failures;
+		private final double avgLatenessMs;
+		private final double maxLatenessMs;
+		private final double avgDurationMs;
+		private final double maxDurationMs;
+		TaskStats(Counters counters) {
+			this.group = counters.group;
+			this.name = counters.name;
+			this.runs = counters.runs.sum();
+			this.failures = counters.failures.sum();
+			this.avgLatenessMs = (runs==0) ? 0 : counters.totalLateness.sum()/1_000_000.0/runs;
+			this.maxLatenessMs = counters.maxLateness.get()/1_000_000.0;
+			this.avgDurationMs = (runs==0) ? 0 : counters.totalDuration.sum()/1_000_000.0/runs;
+			this.maxDurationMs = counters.maxDuration.get()/1_000_000.0;
+		}
+		public String getGroup() {
+			return group;
+		}
+		public String getName() {
+			return name;
+		}
+		public long getRuns() {
+			return runs;
+		}
+		public long getFailures() {
+			return failures;
+		}
+		/**
+		 * Average delay in milliseconds between the expected time and the actual start of each run
+		 */
+		public double getAvgLatenessMs() {
+			return avgLatenessMs;
+		}
+		/**
+		 * Maximum delay in milliseconds between the expected time and the actual start of each run
+		 */
+		public double getMaxLatenessMs() {
+			return maxLatenessMs;
+		}
+		/**
+		 * Average duration of each run in milliseconds
+		 */
+		public double getAvgDurationMs() {
+			return avgDurationMs;
+		}
+		/**
+		 * Maximum duration of each run in milliseconds
+		 */
+		public double getMaxDurationMs() {
+			return maxDurationMs;
+		}
+		public String toString() {
+			return String.format("%s/%s: runs=%d failures=%d lateness(avg=%.2fms max=%.2fms) duration(avg=%.2fms max=%.2fms)",
+					group, name, runs, failures, avgLatenessMs, maxLatenessMs, avgDurationMs, maxDurationMs);
+		}
+	}
+}
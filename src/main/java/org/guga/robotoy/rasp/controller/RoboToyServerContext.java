@@ -18,9 +18,11 @@ package org.guga.robotoy.rasp.controller;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.guga.robotoy.rasp.commands.CommandIssuer;
 import org.guga.robotoy.rasp.game.GamePlayMode;
 import org.guga.robotoy.rasp.game.GameStage;
 import org.guga.robotoy.rasp.game.GameState;
@@ -28,9 +30,11 @@ import org.guga.robotoy.rasp.motor.Motor;
 import org.guga.robotoy.rasp.network.InetUtils;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
 import org.guga.robotoy.rasp.network.WebSocketClientPool;
+import org.guga.robotoy.rasp.network.WiFiSampler;
 import org.guga.robotoy.rasp.optics.BeamDevice;
 import org.guga.robotoy.rasp.optics.RGBLed;
 import org.guga.robotoy.rasp.rfid.RFIDRead;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
 import org.guga.robotoy.rasp.utils.SimpleLocalStorage;
 
 /**
@@ -63,6 +67,12 @@ public class RoboToyServerContext {
 	private RGBLed rgbLed;
 	
 	private RFIDRead rfidReader;
+	
+	private WiFiSampler wifiSampler;
+	
+	private RoboToyScheduler scheduler;
+	
+	private StallWatchdog watchdog = StallWatchdog.DISABLED;
 		
 	private double speed = MAX_SPEED;
 
@@ -110,6 +120,28 @@ public class RoboToyServerContext {
 		this.beamDevice = beamDevice;
 	}
 
+	/**
+	 * Central scheduler for timed and background tasks
+	 */
+	public RoboToyScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public void setScheduler(RoboToyScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Watches for threads blocked for too long (see 'GET /stalls' in debug interface)
+	 */
+	public StallWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	public void setWatchdog(StallWatchdog watchdog) {
+		this.watchdog = (watchdog==null) ? StallWatchdog.DISABLED : watchdog;
+	}
+
 	public WebSocketClientPool getWebSocketPool() {
 		return webSocketPool;
 	}
@@ -170,6 +202,14 @@ public class RoboToyServerContext {
 		this.rfidReader = rfidReader;
 	}
 
+	public WiFiSampler getWiFiSampler() {
+		return wifiSampler;
+	}
+
+	public void setWiFiSampler(WiFiSampler wifiSampler) {
+		this.wifiSampler = wifiSampler;
+	}
+
 	public InetUtils.WiFiModeEnum getAccessPointMode() {
 		return accessPointMode;
 	}
@@ -218,7 +258,7 @@ public class RoboToyServerContext {
 		// is considered as a 'key' for identifying the corresponding active session object
 		String newPlayerPath = RoboToyServerContext.getWSPathWithPlayerName(newName);
 		String oldPlayerPath = RoboToyServerContext.getWSPathWithPlayerName(previousName);
-		for (WebSocketActiveSession session:getWebSocketPool().getActiveSessions()) {
+		for (WebSocketActiveSession session:new ArrayList<>(getWebSocketPool().getActiveSessions(CommandIssuer.PLAYER))) {
 			if (session.getPath()!=null && session.getPath().equalsIgnoreCase(oldPlayerPath)) {
 				session.setPath(newPlayerPath);
 			}
@@ -231,9 +271,8 @@ public class RoboToyServerContext {
 	 */
 	public Set<String> getWebSocketReferencesForRobots() {
 		Set<String> references = new HashSet<>();
-		for (WebSocketActiveSession session:getWebSocketPool().getActiveSessions()) {
-			if (isConnectedToRobot(session))
-				references.add(session.getPath());
+		for (WebSocketActiveSession session:getWebSocketPool().getActiveSessions(CommandIssuer.ROBOT)) {
+			references.add(session.getPath());
 		}
 		return references;
 	}
@@ -244,9 +283,8 @@ public class RoboToyServerContext {
 	 */
 	public Set<String> getWebSocketReferencesForPlayers() {
 		Set<String> references = new HashSet<>();
-		for (WebSocketActiveSession session:getWebSocketPool().getActiveSessions()) {
-			if (isConnectedToPlayer(session))
-				references.add(session.getPath());
+		for (WebSocketActiveSession session:getWebSocketPool().getActiveSessions(CommandIssuer.PLAYER)) {
+			references.add(session.getPath());
 		}
 		return references;
 	}
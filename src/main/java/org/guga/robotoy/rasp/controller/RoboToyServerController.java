@@ -19,11 +19,9 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.URLDecoder;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +36,7 @@ import org.guga.robotoy.rasp.game.GameStage;
 import org.guga.robotoy.rasp.game.GameState;
 import org.guga.robotoy.rasp.motor.ArduinoController;
 import org.guga.robotoy.rasp.motor.DummyMotor;
+import org.guga.robotoy.rasp.motor.MotorActuator;
 import org.guga.robotoy.rasp.motor.MotorShield;
 import org.guga.robotoy.rasp.motor.MotorShield.PinLayout;
 import org.guga.robotoy.rasp.motor.MotorShield.Wheels;
@@ -45,15 +44,21 @@ import org.guga.robotoy.rasp.network.AutoDiscoverService;
 import org.guga.robotoy.rasp.network.AutoDiscoveryRobotsCallback;
 import org.guga.robotoy.rasp.network.CommandCentral;
 import org.guga.robotoy.rasp.network.DisconnectionControl;
+import org.guga.robotoy.rasp.network.BroadcastFrame;
 import org.guga.robotoy.rasp.network.InclusionCallback;
+import org.guga.robotoy.rasp.network.InetUtils;
 import org.guga.robotoy.rasp.network.WebServer;
 import org.guga.robotoy.rasp.network.WebSocketActiveSession;
 import org.guga.robotoy.rasp.network.WebSocketClientPool;
+import org.guga.robotoy.rasp.network.WiFiSampler;
+import org.guga.robotoy.rasp.optics.BeamFireExecutor;
 import org.guga.robotoy.rasp.optics.LedColor;
 import org.guga.robotoy.rasp.optics.RGBLed;
 import org.guga.robotoy.rasp.optics.RoboToyWeaponary;
 import org.guga.robotoy.rasp.rfid.RFIDRead;
 import org.guga.robotoy.rasp.rfid.RoboToyPowerUps;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
 import org.guga.robotoy.rasp.utils.GPIOUtils;
 import org.guga.robotoy.rasp.utils.JSONUtils;
 import org.guga.robotoy.rasp.utils.SimpleLocalStorage;
@@ -81,6 +86,7 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	public static final char QUERY_ROBOTS = 'R';	
 	public static final char QUERY_STATUS = '?';
 	public static final char QUERY_OWNER = 'O';
+	public static final char QUERY_CHANGES = 'V';
 	public static final char GREETINGS = 'G';
 	public static final char HEARTBEAT = '.';
 	public static final char PING = 'p';
@@ -101,6 +107,12 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	public static final char SET_MAX_SPEED = '3';
 	public static final char FIRE = ' ';
 	
+	// Driving actions in binary sub-protocol (see 'BinaryCommand')
+	public static final byte BIN_MOVEMENT = 0x01;
+	public static final byte BIN_FIRE = 0x02;
+	public static final byte BIN_QUERY_STATUS = 0x03;
+	public static final byte BIN_STOP = 0x04;
+	
 	// Summary actions
 	public static final char QUERY_RANKING = 'K';
 	public static final char PLAY_AGAIN = 'A';
@@ -120,6 +132,7 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		new CmdMoveBackward(),
 		new CmdMoveForward(),
 		new CmdPing(),
+		new CmdQueryChanges(),
 		new CmdQueryColor(),
 		new CmdQueryOwner(),
 		new CmdQueryPlayers(),
@@ -144,8 +157,21 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		new CmdTurnLeft(),
 		new CmdTurnRight(),
 	};
+	
+	// Dispatch index over known commands
+	private static final CommandDispatcher dispatcher = new CommandDispatcher(commands);
+	
+	/**
+	 * Index of commands that may also be issued through the binary sub-protocol
+	 */
+	private static final BinaryCommandDispatcher binaryDispatcher = new BinaryCommandDispatcher(commands);
 			
 	private final RoboToyServerContext context;
+	
+	/**
+	 * Time taken by each command
+	 */
+	private final CommandMetrics commandMetrics;
 		
 	private AutoDiscoverService autoDiscoverOtherRobots;
 	
@@ -172,11 +198,34 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	private Pin pinRFID;
 	
 	private SpiChannel csRFID;
+	
+	private int wifiSampleInterval = WiFiSampler.DEFAULT_SAMPLE_INTERVAL_MS;
+	
+	private RoboToyWeaponary weaponary;
 				
 	public RoboToyServerController(GameState game) {
+		ProtocolTypeAdapters.install();
 		this.context = new RoboToyServerContext(game);
+		this.context.setWatchdog(new StallWatchdog());
+		this.context.setScheduler(new RoboToyScheduler());
+		this.context.getScheduler().setWatchdog(context.getWatchdog());
 		this.context.setWebSocketPool(new WebSocketClientPool(this,this,new DisconnectionControl(this)));
+		this.context.getWebSocketPool().setTakeStatistics(context::isTakeStatistics);
+		this.context.getWebSocketPool().setWatchdog(context.getWatchdog());
 		this.context.setLocalStorage(new SimpleLocalStorage());
+		this.commandMetrics = new CommandMetrics(RoboToyStatistics.getRegistry());
+		final WebSocketClientPool pool = this.context.getWebSocketPool();
+		for (CommandIssuer role:CommandIssuer.values()) {
+			RoboToyStatistics.getRegistry().gauge("robotoy_websocket_sessions", 
+					()->pool.getActiveSessions(role).size(), "role", role.name().toLowerCase());
+		}
+	}
+	
+	/**
+	 * Time taken by each command
+	 */
+	public CommandMetrics getCommandMetrics() {
+		return commandMetrics;
 	}
 	
 	public boolean hasArduinoController() {
@@ -278,6 +327,13 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	public RoboToyServerContext getContext() {
 		return context;
 	}
+
+	/**
+	 * Guns and shields of this robot (available after 'init')
+	 */
+	public RoboToyWeaponary getWeaponary() {
+		return weaponary;
+	}
 	
 	public void setRGBLed(RGBLed.DiodeType rgbType,Pin pinRed, Pin pinGreen, Pin pinBlue) {
 		this.rgbType = rgbType;
@@ -311,10 +367,28 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		}
 	}
 
+	/**
+	 * Delay in milliseconds between samples of WiFi quality. Zero disables sampling.
+	 */
+	public int getWiFiSampleInterval() {
+		return wifiSampleInterval;
+	}
+
+	/**
+	 * Delay in milliseconds between samples of WiFi quality. Zero disables sampling.
+	 */
+	public void setWiFiSampleInterval(int wifiSampleInterval) {
+		this.wifiSampleInterval = wifiSampleInterval;
+	}
+
 	public void init() {
 		
+		context.getWatchdog().init();
+		final RoboToyScheduler scheduler = context.getScheduler();
+		scheduler.init();
+		
 		if (rgbType!=null) {
-			context.setRGBLed(new RGBLed(rgbType,pinRed,pinGreen,pinBlue));
+			context.setRGBLed(new RGBLed(scheduler,rgbType,pinRed,pinGreen,pinBlue));
 		}
 		
 		switch (controllerType) {
@@ -353,8 +427,15 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		default:
 			throw new UnsupportedOperationException("Unexpected controller type: "+controllerType);
 		};
+		
+		// Motor commands are forwarded to the motor in a dedicated thread
+		MotorActuator actuator = new MotorActuator(context.getMotor());
+		actuator.setTakeStatistics(context::isTakeStatistics);
+		actuator.setWatchdog(context.getWatchdog());
+		actuator.init();
+		context.setMotor(actuator);
 				
-		RoboToyWeaponary weaponary = new RoboToyWeaponary(this);
+		weaponary = new RoboToyWeaponary(this);
 		if (pinBeamDevice!=null) {
 			weaponary.buildBeamDevice(pinBeamDevice);
 		}
@@ -363,7 +444,12 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 			weaponary.buildBeamDetectors(pinDetectorResistor,pinDetectorDevices);
 		}
 		
-		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+		if (wifiSampleInterval>0) {
+			WiFiSampler wifiSampler = new WiFiSampler(InetUtils.DEFAULT_WIFI_INTERFACE, wifiSampleInterval, WiFiSampler.DEFAULT_HISTORY_SIZE);
+			wifiSampler.start(scheduler);
+			context.setWiFiSampler(wifiSampler);
+		}
+		
 		startHeartBeats(scheduler);
 		startPingPlayers(scheduler);
 		
@@ -418,6 +504,22 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		}
 	}
 	
+	/**
+	 * Stops the threads started at 'init' (motor actuator, beam transmission, scheduled tasks
+	 * and watchdog) and the auto-discover service.
+	 */
+	public void stop() {
+		stopAutoDiscoverService();
+		if (context.getMotor() instanceof MotorActuator) {
+			((MotorActuator)context.getMotor()).stopActuator();
+		}
+		if (context.getBeamDevice() instanceof BeamFireExecutor) {
+			((BeamFireExecutor)context.getBeamDevice()).stop();
+		}
+		context.getScheduler().stop();
+		context.getWatchdog().stop();
+	}
+	
 	/**
 	 * Stats auto-discover service. This will make this bot discoverable by other bots and
 	 * this will also make it possible for this bot to recognize others.<BR>
@@ -512,21 +614,35 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		// One for commands as should be issued by directly connected players
 		// Other for commands as should be issued by directly connected robots
 		final boolean issuer_is_a_player = CommandIssuer.PLAYER.equals(issuer); 
-		// Loop through known commands
-		for (Command cmd:commands) {
+		// Look for the command in the dispatch index
+		final boolean takeStatistics = context.isTakeStatistics();
+		final long start = takeStatistics ? System.nanoTime() : 0;
+		final Command cmd = dispatcher.find(issuer, t);
+		if (cmd!=null) {
 			
-			if (cmd.isParseable(issuer,t)) {
-				
-				Object to_broadcast;
-				try {
-					to_broadcast = cmd.parseMessage(issuer, context, t, session);
-				}
-				catch (Exception e) {
-					log.log(Level.WARNING, "Error while parsing "+cmd.getClass().getSimpleName()+" message received from "+remoteAddr, e);
-					if (issuer_is_a_player)
-						response = e.getMessage();
-					break;
-				}
+			final long foundAt = takeStatistics ? System.nanoTime() : 0;
+			long executedAt = foundAt, broadcastedAt = foundAt, decoding = 0;
+			Object to_broadcast;
+			boolean parsed;
+			// Time spent decoding JSON contents is told apart from the command's own processing
+			if (takeStatistics)
+				JSONUtils.startDecodeTimer();
+			try {
+				to_broadcast = cmd.parseMessage(issuer, context, t, session);
+				parsed = true;
+			}
+			catch (Exception e) {
+				log.log(Level.WARNING, "Error while parsing "+cmd.getClass().getSimpleName()+" message received from "+remoteAddr, e);
+				if (issuer_is_a_player)
+					response = e.getMessage();
+				to_broadcast = null;
+				parsed = false;
+			}
+			if (takeStatistics) {
+				executedAt = broadcastedAt = System.nanoTime();
+				decoding = JSONUtils.stopDecodeTimer();
+			}
+			if (parsed) {
 				if (to_broadcast!=null
 						&& (cmd instanceof CommandWithBroadcast)) {
 					@SuppressWarnings("unchecked")
@@ -550,12 +666,17 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 							response = e.getMessage();
 					}
 				}
+				if (takeStatistics)
+					broadcastedAt = System.nanoTime();
 				response = cmd.getReply(issuer, context, t, session, to_broadcast);
-
-				break;
 			}
-			
-		} // Loop through known commands
+			if (takeStatistics) {
+				final long repliedAt = System.nanoTime();
+				commandMetrics.add(cmd.getClass(), issuer, 
+						foundAt-start, decoding, executedAt-foundAt-decoding, broadcastedAt-executedAt, repliedAt-broadcastedAt, 
+						t.length());
+			}
+		}
 				
 		if (response!=null 
 				&& log.isLoggable(Level.FINEST)
@@ -565,6 +686,47 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 		return response;
 	}
 
+	/**
+	 * Got binary message from a player (binary sub-protocol)
+	 */
+	@Override
+	public String onBinaryCommand(ByteBuffer message,WebSocketActiveSession session) {
+		if (!RoboToyServerContext.isConnectedToPlayer(session))
+			return null; // only players may use binary sub-protocol
+		if (message.remaining()<BinaryCommandDispatcher.HEADER_LENGTH) {
+			if (log.isLoggable(Level.FINE))
+				log.log(Level.FINE,"Incomplete binary message from "+session.getHost()+":"+session.getRemotePort());
+			return null;
+		}
+		final byte opcode = BinaryCommandDispatcher.getOpCode(message);
+		final int sequence = BinaryCommandDispatcher.getSequence(message);
+		final boolean takeStatistics = context.isTakeStatistics();
+		final long start = takeStatistics ? System.nanoTime() : 0;
+		final BinaryCommand cmd = binaryDispatcher.find(opcode);
+		if (cmd==null 
+				|| message.remaining()<BinaryCommandDispatcher.HEADER_LENGTH+cmd.getPayloadLength()) {
+			if (log.isLoggable(Level.FINE))
+				log.log(Level.FINE,"Unknown or incomplete binary message (opcode "+(opcode&0xFF)+") from "+session.getHost()+":"+session.getRemotePort());
+			return null;
+		}
+		final int payloadSize = message.remaining();
+		message.position(message.position()+BinaryCommandDispatcher.HEADER_LENGTH);
+		final long foundAt = takeStatistics ? System.nanoTime() : 0;
+		try {
+			return cmd.parseBinary(CommandIssuer.PLAYER, context, sequence, message, session);
+		}
+		catch (Exception e) {
+			log.log(Level.WARNING, "Error while parsing "+cmd.getClass().getSimpleName()+" binary message received from "+session.getHost(), e);
+			return e.getMessage();
+		}
+		finally {
+			if (takeStatistics)
+				commandMetrics.add(cmd.getClass(), CommandIssuer.PLAYER, 
+						foundAt-start, /*parse*/0, System.nanoTime()-foundAt, /*broadcast*/0, /*reply*/0, 
+						payloadSize);
+		}
+	}
+
 	public class AutoParkOnDisconnection implements Runnable
 	{
 		@Override
@@ -758,18 +920,18 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	public <T> void broadcastCommand(CommandWithBroadcast<T> command,T object,boolean mayIncludeRobots) throws Exception {
 		if (context==null || context.getWebSocketPool()==null)
 			return;
-		String message = command.getBroadcastMessage(context,object);
+		BroadcastFrame message = command.getBroadcastFrame(context,object);
 		String excludePath = command.getBroadcastExcludePath(object);
 		if (mayIncludeRobots && command.hasBroadcastToRobots()) {
 			GameRobot local_robot = context.getGame().findLocalRobot();
 			String excludeSelf = (local_robot==null) ? null : RoboToyServerContext.getWSPathWithRobotIdentifier(local_robot.getIdentifier());
-			context.getWebSocketPool().sendMessageAll(message.toString(),excludeSelf,excludePath);
+			context.getWebSocketPool().broadcast(message,excludeSelf,excludePath);
 		}
 		else {
 			Set<String> player_references = context.getWebSocketReferencesForPlayers();
 			if (excludePath!=null)
 				player_references.remove(excludePath);
-			context.getWebSocketPool().sendMessageAll(message.toString(),player_references);
+			context.getWebSocketPool().broadcast(message,player_references);
 		}		
 	}
 	
@@ -785,8 +947,8 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	/**
 	 * Schedules a heartbeat system so that we keep connections alive to other robots
 	 */
-	public void startHeartBeats(ScheduledExecutorService scheduler) {
-		scheduler.scheduleWithFixedDelay(this::sendHeartBeats, HEARTBEATS_DELAY_MS, HEARTBEATS_DELAY_MS, TimeUnit.MILLISECONDS);
+	public void startHeartBeats(RoboToyScheduler scheduler) {
+		scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_NETWORK, "HeartBeats", HEARTBEATS_DELAY_MS, HEARTBEATS_DELAY_MS, this::sendHeartBeats);
 	}
 	
 	/**
@@ -818,8 +980,8 @@ public class RoboToyServerController implements CommandCentral, InclusionCallbac
 	/**
 	 * Schedules a PING system so that we monitor time to travel to connected players in LOBBY screen
 	 */
-	public void startPingPlayers(ScheduledExecutorService scheduler) {
-		scheduler.scheduleWithFixedDelay(this::sendPings, PING_DELAY_MS, PING_DELAY_MS, TimeUnit.MILLISECONDS);
+	public void startPingPlayers(RoboToyScheduler scheduler) {
+		scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_NETWORK, "PingPlayers", PING_DELAY_MS, PING_DELAY_MS, this::sendPings);
 	}
 
 	/**
@@ -15,13 +15,11 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.game;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.guga.robotoy.rasp.commands.CmdStopGame;
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 
 /**
@@ -50,12 +48,9 @@ public class GameAbandoned {
 	}
 	
 	public static void startWalkoverCountdown(RoboToyServerController controller) {
-		final ScheduledExecutorService scheduler =
-				Executors.newScheduledThreadPool(1);
-		scheduler.schedule(new CheckWalkoverAgain(controller), 
+		controller.getContext().getScheduler().schedule(RoboToyScheduler.GROUP_GAME, "WalkoverCountdown",
 				controller.getContext().getGame().getAbandonedGameTimeout(), 
-				TimeUnit.MILLISECONDS);
-		scheduler.shutdown();
+				new CheckWalkoverAgain(controller));
 	}
 	
 	public static class CheckWalkoverAgain implements Runnable {
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.game;
+
+import java.util.Set;
+
+/**
+ * Bounded log of changes made to players and robots of 'GameState'.<BR>
+ * <BR>
+ * Each entry keeps the version of game state produced by the change and the key of
+ * the changed element (lower case player name or robot identifier). The contents
+ * are not kept here: they are looked up in game state when some peer asks for changes.<BR>
+ * Once the log is full, older entries are discarded. Peers asking for changes older than
+ * the discarded ones must get a full copy instead.<BR>
+ * <BR>
+ * This class is not thread safe. 'GameState' synchronizes on it.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+class GameChangeLog {
+
+	private final long[] versions;
+
+	private final boolean[] robots;
+
+	private final String[] keys;
+
+	/**
+	 * Position for the next entry
+	 */
+	private int next;
+
+	private int size;
+
+	/**
+	 * Highest version discarded from this log
+	 */
+	private long truncatedVersion;
+
+	GameChangeLog(int capacity) {
+		this.versions = new long[capacity];
+		this.robots = new boolean[capacity];
+		this.keys = new String[capacity];
+	}
+
+	int getCapacity() {
+		return keys.length;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Records a change. Versions must be informed in increasing order.
+	 * @param robot TRUE if key refers to a robot, FALSE if key refers to a player
+	 */
+	void add(long version,boolean robot,String key) {
+		if (size==keys.length) {
+			truncatedVersion = versions[next];
+		}
+		else {
+			size++;
+		}
+		versions[next] = version;
+		robots[next] = robot;
+		keys[next] = key;
+		next = (next+1) % keys.length;
+	}
+
+	/**
+	 * Tells if all changes after the given version are still in this log
+	 */
+	boolean covers(long since) {
+		return since>=truncatedVersion;
+	}
+
+	/**
+	 * Collects keys of all elements changed after the given version
+	 */
+	void collect(long since,Set<String> players,Set<String> robots) {
+		for (int i=1;i<=size;i++) {
+			int pos = (next-i+keys.length) % keys.length;
+			if (versions[pos]<=since)
+				break;
+			if (this.robots[pos])
+				robots.add(keys[pos]);
+			else
+				players.add(keys[pos]);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.game;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes made to players and robots of 'GameState' after some version (see
+ * {@link GameState#changesSince(long, long) GameState.changesSince}).<BR>
+ * <BR>
+ * Players and robots are the ones kept by game state (not copies), with their
+ * current attributes. Removed players and robots are informed by their keys
+ * (lower case player name and robot identifier).<BR>
+ * If the requested version is no longer covered by the change log, this is a
+ * full copy ('isFull' returns TRUE) with all players and robots and no removals.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public final class GameDelta {
+
+	private final long epoch;
+
+	private final long version;
+
+	private final boolean full;
+
+	private final List<GamePlayer> players;
+
+	private final List<String> removedPlayers;
+
+	private final List<GameRobot> robots;
+
+	private final List<String> removedRobots;
+
+	GameDelta(long epoch,long version,boolean full,
+			List<GamePlayer> players,List<String> removedPlayers,
+			List<GameRobot> robots,List<String> removedRobots) {
+		this.epoch = epoch;
+		this.version = version;
+		this.full = full;
+		this.players = Collections.unmodifiableList(players);
+		this.removedPlayers = Collections.unmodifiableList(removedPlayers);
+		this.robots = Collections.unmodifiableList(robots);
+		this.removedRobots = Collections.unmodifiableList(removedRobots);
+	}
+
+	/**
+	 * Epoch of game state (see {@link GameState#getEpoch() GameState.getEpoch})
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Version of game state covered by these changes. Should be informed
+	 * by the peer next time it asks for changes.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Tells if this is a full copy of players and robots
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Players added or changed
+	 */
+	public List<GamePlayer> getPlayers() {
+		return players;
+	}
+
+	/**
+	 * Names (lower case) of removed players
+	 */
+	public List<String> getRemovedPlayers() {
+		return removedPlayers;
+	}
+
+	/**
+	 * Robots added or changed
+	 */
+	public List<GameRobot> getRobots() {
+		return robots;
+	}
+
+	/**
+	 * Identifiers of removed robots
+	 */
+	public List<String> getRemovedRobots() {
+		return removedRobots;
+	}
+}
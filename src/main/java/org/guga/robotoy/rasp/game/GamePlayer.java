@@ -47,9 +47,30 @@ public class GamePlayer {
 	private boolean resourcesLoaded;
 	
 	private long ping;
+	
+	/**
+	 * Game state that keeps this player in its indexes (should be notified
+	 * whenever name, address or HTTP session changes, and whenever anything
+	 * else changes for keeping track of versions).
+	 */
+	private transient GameState game;
 		
 	public GamePlayer() { }
 	
+	/**
+	 * Detached copy of another player (used in 'GameSnapshot')
+	 */
+	GamePlayer(GamePlayer other) {
+		this.address = other.address;
+		this.port = other.port;
+		this.httpSession = other.httpSession;
+		this.name = other.name;
+		this.online = other.online;
+		this.dismissedSummary = other.dismissedSummary;
+		this.resourcesLoaded = other.resourcesLoaded;
+		this.ping = other.ping;
+	}
+	
 	public GamePlayer(String name,String address,int port) {
 		this.name = name;
 		this.port = port;
@@ -73,6 +94,7 @@ public class GamePlayer {
 
 	public void setAddress(InetAddress address) {
 		this.address = address;
+		notifyChange();
 	}
 
 	/**
@@ -87,6 +109,7 @@ public class GamePlayer {
 	 */
 	public void setPort(int port) {
 		this.port = port;
+		notifySharedUpdate();
 	}
 
 	/**
@@ -101,6 +124,7 @@ public class GamePlayer {
 	 */
 	public void setHttpSession(String httpSession) {
 		this.httpSession = httpSession;
+		notifyChange();
 	}
 
 	public String getName() {
@@ -109,6 +133,7 @@ public class GamePlayer {
 
 	public void setName(String name) {
 		this.name = name;
+		notifyChange();
 	}
 		
 	public boolean isOnline() {
@@ -117,6 +142,7 @@ public class GamePlayer {
 
 	public void setOnline(boolean online) {
 		this.online = online;
+		notifySharedUpdate();
 	}
 
 	public boolean isDismissedSummary() {
@@ -125,6 +151,7 @@ public class GamePlayer {
 
 	public void setDismissedSummary(boolean dismissedSummary) {
 		this.dismissedSummary = dismissedSummary;
+		notifyUpdate();
 	}
 
 	public boolean isResourcesLoaded() {
@@ -133,6 +160,7 @@ public class GamePlayer {
 
 	public void setResourcesLoaded(boolean resourcesLoaded) {
 		this.resourcesLoaded = resourcesLoaded;
+		notifyUpdate();
 	}
 
 	public long getPing() {
@@ -141,6 +169,37 @@ public class GamePlayer {
 
 	public void setPing(long ping) {
 		this.ping = ping;
+		GameState game = this.game;
+		if (game!=null)
+			game.onPingUpdated();
+	}
+
+	/**
+	 * Game state that keeps this player in its indexes
+	 */
+	void setGameState(GameState game) {
+		this.game = game;
+	}
+
+	private void notifyChange() {
+		GameState game = this.game;
+		if (game!=null)
+			game.onPlayerChanged(this);
+	}
+
+	private void notifyUpdate() {
+		GameState game = this.game;
+		if (game!=null)
+			game.touch();
+	}
+
+	/**
+	 * Notifies a change to some attribute that is also shared with other robots
+	 */
+	private void notifySharedUpdate() {
+		GameState game = this.game;
+		if (game!=null)
+			game.onPlayerUpdated(this);
 	}
 
 	public String toString() {
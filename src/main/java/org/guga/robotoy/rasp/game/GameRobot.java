@@ -67,6 +67,13 @@ public class GameRobot implements Cloneable {
 	
 	private GameControlMode controlMode;
 	
+	/**
+	 * Game state that keeps this robot in its indexes (should be notified
+	 * whenever identifier, short identifier or owner changes, and whenever
+	 * anything else changes for keeping track of versions).
+	 */
+	private transient GameState game;
+	
 	public static GameRobot newRobotWithAddress(String id,InetAddress address) {
 		GameRobot robot = new GameRobot(address);
 		robot.setIdentifier(id);
@@ -91,6 +98,7 @@ public class GameRobot implements Cloneable {
 
 	public void setOwner(GamePlayer owner) {
 		this.owner = owner;
+		notifyChange();
 	}
 
 	public String getPreviousOwner() {
@@ -99,6 +107,7 @@ public class GameRobot implements Cloneable {
 
 	public void setPreviousOwner(String previousOwner) {
 		this.previousOwner = previousOwner;
+		notifySharedUpdate();
 	}
 
 	public String getIdentifier() {
@@ -107,6 +116,7 @@ public class GameRobot implements Cloneable {
 
 	public void setIdentifier(String identifier) {
 		this.identifier = identifier;
+		notifyChange();
 	}
 
 	public int getLife() {
@@ -115,10 +125,12 @@ public class GameRobot implements Cloneable {
 
 	public void setLife(int life) {
 		this.life = life;
+		notifySharedUpdate();
 	}
 	
 	public void decreaseLife(int amount) {
 		life -= amount;
+		notifySharedUpdate();
 	}
 
 	public int getKills() {
@@ -127,10 +139,12 @@ public class GameRobot implements Cloneable {
 
 	public void setKills(int kills) {
 		this.kills = kills;
+		notifyUpdate();
 	}
 	
 	public void increaseKills() {
 		kills ++;
+		notifyUpdate();
 	}
 
 	/**
@@ -149,6 +163,7 @@ public class GameRobot implements Cloneable {
 	 */
 	public void setReady(boolean ready) {
 		this.ready = ready;
+		notifyUpdate();
 	}
 
 	public LedColor getColor() {
@@ -157,6 +172,7 @@ public class GameRobot implements Cloneable {
 
 	public void setColor(LedColor color) {
 		this.color = color;
+		notifySharedUpdate();
 	}
 
 	public GameControlMode getControlMode() {
@@ -165,6 +181,7 @@ public class GameRobot implements Cloneable {
 
 	public void setControlMode(GameControlMode controlMode) {
 		this.controlMode = controlMode;
+		notifyUpdate();
 	}
 
 	/**
@@ -229,6 +246,53 @@ public class GameRobot implements Cloneable {
 	 */
 	public void setShortId(byte shortId) {
 		this.shortId = shortId;
+		notifyChange();
+	}
+
+	/**
+	 * Game state that keeps this robot in its indexes
+	 */
+	void setGameState(GameState game) {
+		this.game = game;
+	}
+
+	private void notifyChange() {
+		GameState game = this.game;
+		if (game!=null)
+			game.onRobotChanged(this);
+	}
+
+	private void notifyUpdate() {
+		GameState game = this.game;
+		if (game!=null)
+			game.touch();
+	}
+
+	/**
+	 * Notifies a change to some attribute that is also shared with other robots
+	 */
+	private void notifySharedUpdate() {
+		GameState game = this.game;
+		if (game!=null)
+			game.onRobotUpdated(this);
+	}
+	
+	/**
+	 * Detached copy of this robot with all its attributes (used in 'GameSnapshot')
+	 * @param owner Owner to be referenced by the copy
+	 */
+	GameRobot copy(GamePlayer owner) {
+		GameRobot copy = new GameRobot(address);
+		copy.identifier = identifier;
+		copy.shortId = shortId;
+		copy.owner = owner;
+		copy.previousOwner = previousOwner;
+		copy.ready = ready;
+		copy.life = life;
+		copy.kills = kills;
+		copy.color = color;
+		copy.controlMode = controlMode;
+		return copy;
 	}
 
 	/**
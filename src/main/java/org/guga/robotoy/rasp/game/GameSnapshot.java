@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable view of 'GameState' at some point in time (see {@link GameState#snapshot() GameState.snapshot}).<BR>
+ * <BR>
+ * Players and robots are detached copies: they are not changed by the game threads. They should not
+ * be changed by readers either, since the same snapshot is shared by all readers. The owner of each
+ * robot is the copy of the same player found in the list of players (when present).<BR>
+ * Cards are shared with the game state (only the list itself is a copy).<BR>
+ * Each snapshot carries the version of game state it was taken from. Versions only increase.
+ * Player's ping may be a little older than the version (see {@link GameState#snapshot() GameState.snapshot}).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public final class GameSnapshot {
+
+	private final long version;
+
+	/**
+	 * Number of ping updates in game state before this snapshot was taken
+	 */
+	private final long pingUpdates;
+
+	/**
+	 * When this snapshot was taken (see 'System.nanoTime')
+	 */
+	private final long takenAt;
+
+	private final GameStage stage;
+
+	private final Date gameStart;
+
+	private final Date gameStop;
+
+	private final int maxLife;
+
+	private final List<GamePlayer> players;
+
+	private final List<GameRobot> robots;
+
+	private final List<GameCard> cards;
+
+	private final GameRobot localRobot;
+
+	GameSnapshot(long version,GameState game) {
+		this.version = version;
+		this.pingUpdates = game.getPingUpdates();
+		this.takenAt = System.nanoTime();
+		this.stage = game.getStage();
+		this.gameStart = copy(game.getGameStart());
+		this.gameStop = copy(game.getGameStop());
+		this.maxLife = game.getMaxLife();
+		Map<GamePlayer,GamePlayer> copies = new IdentityHashMap<>();
+		List<GamePlayer> players = new ArrayList<>();
+		for (GamePlayer player:game.getPlayers()) {
+			GamePlayer copy = new GamePlayer(player);
+			copies.put(player, copy);
+			players.add(copy);
+		}
+		List<GameRobot> robots = new ArrayList<>();
+		GameRobot localRobot = null;
+		GameRobot originalLocalRobot = game.findLocalRobot();
+		for (GameRobot robot:game.getRobots()) {
+			GamePlayer owner = robot.getOwner();
+			if (owner!=null)
+				owner = copies.computeIfAbsent(owner, GamePlayer::new);
+			GameRobot copy = robot.copy(owner);
+			if (robot==originalLocalRobot)
+				localRobot = copy;
+			robots.add(copy);
+		}
+		this.players = Collections.unmodifiableList(players);
+		this.robots = Collections.unmodifiableList(robots);
+		this.cards = Collections.unmodifiableList(new ArrayList<>(game.getCards()));
+		this.localRobot = localRobot;
+	}
+
+	private static Date copy(Date date) {
+		return (date==null) ? null : new Date(date.getTime());
+	}
+
+	/**
+	 * Version of game state this snapshot was taken from
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Number of ping updates in game state before this snapshot was taken
+	 */
+	long getPingUpdates() {
+		return pingUpdates;
+	}
+
+	/**
+	 * When this snapshot was taken (see 'System.nanoTime')
+	 */
+	long getTakenAt() {
+		return takenAt;
+	}
+
+	/**
+	 * Game stage
+	 */
+	public GameStage getStage() {
+		return stage;
+	}
+
+	/**
+	 * Date/time when game started
+	 */
+	public Date getGameStart() {
+		return copy(gameStart);
+	}
+
+	/**
+	 * Date/time when game stopped
+	 */
+	public Date getGameStop() {
+		return copy(gameStop);
+	}
+
+	public int getMaxLife() {
+		return maxLife;
+	}
+
+	/**
+	 * Read-only list of all players, including ones not directly connected to this robot
+	 */
+	public List<GamePlayer> getPlayers() {
+		return players;
+	}
+
+	/**
+	 * Read-only list of all robots, including us.
+	 */
+	public List<GameRobot> getRobots() {
+		return robots;
+	}
+
+	/**
+	 * Return an ordered list of all robots, given
+	 * their unique identifiers.
+	 */
+	public List<GameRobot> getOrderedRobots() {
+		return robots.stream()
+				.sorted(Comparator.comparing(GameRobot::getIdentifier))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Read-only list of all known cards
+	 */
+	public List<GameCard> getCards() {
+		return cards;
+	}
+
+	public GameRobot findLocalRobot() {
+		return localRobot;
+	}
+
+	public GamePlayer findPlayerWithName(String name) {
+		if (name==null || name.length()==0)
+			return null;
+		for (GamePlayer player:players) {
+			if (name.equalsIgnoreCase(player.getName()))
+				return player;
+		}
+		return null;
+	}
+
+	public GameRobot findRobotWithIdentifier(String id) {
+		if (id==null)
+			return null;
+		for (GameRobot robot:robots) {
+			if (id.equals(robot.getIdentifier()))
+				return robot;
+		}
+		return null;
+	}
+
+	public GameRobot findRobotWithOwnerName(String name) {
+		if (name==null || name.length()==0)
+			return null;
+		for (GameRobot robot:robots) {
+			GamePlayer owner = robot.getOwner();
+			if (owner!=null && name.equalsIgnoreCase(owner.getName()))
+				return robot;
+		}
+		return null;
+	}
+}
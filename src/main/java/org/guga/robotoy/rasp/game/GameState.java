@@ -16,24 +16,39 @@
 package org.guga.robotoy.rasp.game;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.guga.robotoy.rasp.commands.CmdQueryPlayers;
 import org.guga.robotoy.rasp.commands.PlayerSummary;
 
 /**
- * This object keeps current game state, including all its players and robots.
+ * This object keeps current game state, including all its players and robots.<BR>
+ * <BR>
+ * Players, robots and cards are indexed for the most frequent lookups (by name, address,
+ * HTTP session, identifier, owner, short identifier, etc.). Lookups do not lock and do not
+ * scan all elements. Players and robots notify their game state whenever some indexed
+ * attribute changes, so that indexes remain correct.<BR>
+ * <BR>
+ * Changes to players and robots that are shared with other robots are also recorded in a
+ * bounded change log, so that other robots may ask only for changes since the last version
+ * they got (see {@link #changesSince(long, long) changesSince}).
  * 
  * @author Gustavo Figueiredo
  *
@@ -47,6 +62,26 @@ public class GameState {
 	public static final int DEFAULT_ABANDONED_GAME_TIMEOUT_MS = 5000;
 	
 	public static final int DEFAULT_MAX_LIFE = 10;
+	
+	/**
+	 * Number of distinct short identifiers (only 4 bits are transmitted with each beam)
+	 */
+	public static final int MAX_SHORT_IDS = 16;
+	
+	/**
+	 * Maximum number of attempts for building a consistent snapshot while game state is changing
+	 */
+	private static final int MAX_SNAPSHOT_ATTEMPTS = 3;
+	
+	/**
+	 * Default minimum age (in miliseconds) of a snapshot before it gets rebuilt because of ping updates alone
+	 */
+	public static final long DEFAULT_SNAPSHOT_PING_REFRESH_MS = 1000;
+	
+	/**
+	 * Maximum number of changes to players and robots kept for other robots
+	 */
+	public static final int CHANGE_LOG_CAPACITY = 256;
 
 	/**
 	 * Current game stage
@@ -72,12 +107,17 @@ public class GameState {
 	private int maxLife = DEFAULT_MAX_LIFE;
 	
 	/**
-	 * Synchronized list of all players, including ones not directly connected to this robot
+	 * Minimum age (in miliseconds) of a snapshot before it gets rebuilt because of ping updates alone
+	 */
+	private volatile long snapshotPingRefresh = DEFAULT_SNAPSHOT_PING_REFRESH_MS;
+	
+	/**
+	 * Thread-safe list of all players, including ones not directly connected to this robot
 	 */
 	private final List<GamePlayer> players;
 	
 	/**
-	 * Synchronized list of all robots, including us.
+	 * Thread-safe list of all robots, including us.
 	 */
 	private final List<GameRobot> robots;
 	
@@ -87,15 +127,106 @@ public class GameState {
 	private final Map<String,GameRobot> knownRobotAddresses;
 	
 	/**
-	 * Synchronized list of all known cards
+	 * Thread-safe list of all known cards
 	 */
 	private final List<GameCard> cards;
 	
+	/**
+	 * All indexed players and the attributes that were used for indexing them
+	 */
+	private final Map<GamePlayer,PlayerEntry> playerEntries;
+	
+	/**
+	 * Players indexed by lower case version of name
+	 */
+	private final Map<String,GamePlayer> playersByName;
+	
+	/**
+	 * Players indexed by host address (lower case)
+	 */
+	private final Map<String,List<GamePlayer>> playersByAddress;
+	
+	/**
+	 * Players indexed by lower case version of HTTP session ID
+	 */
+	private final Map<String,GamePlayer> playersBySession;
+	
+	/**
+	 * All indexed robots and the attributes that were used for indexing them
+	 */
+	private final Map<GameRobot,RobotEntry> robotEntries;
+	
+	private final Map<String,GameRobot> robotsByIdentifier;
+	
+	/**
+	 * Robots indexed by lower case version of owner's name
+	 */
+	private final Map<String,GameRobot> robotsByOwnerName;
+	
+	/**
+	 * Robots indexed by short identifier (only 4 bits are transmitted with each beam)
+	 */
+	private final AtomicReferenceArray<GameRobot> robotsByShortId;
+	
+	/**
+	 * The local robot (the first one included without address)
+	 */
+	private volatile GameRobot localRobot;
+	
+	private final Map<String,GameCard> cardsById;
+	
+	/**
+	 * Incremented whenever something changes in game state
+	 */
+	private final AtomicLong version;
+	
+	/**
+	 * Incremented whenever some player's ping changes. Pings are updated all the time, so
+	 * they are kept apart from 'version' (see 'snapshot').
+	 */
+	private final AtomicLong pingUpdates;
+	
+	/**
+	 * Last snapshot built (NULL if none was built yet)
+	 */
+	private volatile GameSnapshot lastSnapshot;
+	
+	/**
+	 * Identifies this game state instance (e.g. a restarted robot begins a new epoch).
+	 * Versions are only comparable within the same epoch.
+	 */
+	private final long epoch;
+	
+	/**
+	 * Recent changes to players and robots. Version is always incremented while holding
+	 * the lock of this object whenever a change is recorded.
+	 */
+	private final GameChangeLog changeLog;
+	
+	/**
+	 * Last version we got from each one of the other robots (indexed by robot identifier)
+	 */
+	private final Map<String,PeerVersion> peerVersions;
+	
 	public GameState() {
-		players = Collections.synchronizedList(new LinkedList<>());
-		robots = Collections.synchronizedList(new LinkedList<>());
+		players = new CopyOnWriteArrayList<>();
+		robots = new CopyOnWriteArrayList<>();
 		knownRobotAddresses = new ConcurrentHashMap<>();
-		cards = Collections.synchronizedList(new LinkedList<>());
+		cards = new CopyOnWriteArrayList<>();
+		playerEntries = new ConcurrentHashMap<>();
+		playersByName = new ConcurrentHashMap<>();
+		playersByAddress = new ConcurrentHashMap<>();
+		playersBySession = new ConcurrentHashMap<>();
+		robotEntries = new ConcurrentHashMap<>();
+		robotsByIdentifier = new ConcurrentHashMap<>();
+		robotsByOwnerName = new ConcurrentHashMap<>();
+		robotsByShortId = new AtomicReferenceArray<>(MAX_SHORT_IDS);
+		cardsById = new ConcurrentHashMap<>();
+		version = new AtomicLong();
+		pingUpdates = new AtomicLong();
+		epoch = System.currentTimeMillis();
+		changeLog = new GameChangeLog(CHANGE_LOG_CAPACITY);
+		peerVersions = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -112,6 +243,21 @@ public class GameState {
 	 */
 	public void setAbandonedGameTimeout(int abandonedGameTimeout) {
 		this.abandonedGameTimeout = abandonedGameTimeout;
+		touch();
+	}
+
+	/**
+	 * Minimum age (in miliseconds) of a snapshot before it gets rebuilt because of ping updates alone
+	 */
+	public long getSnapshotPingRefresh() {
+		return snapshotPingRefresh;
+	}
+
+	/**
+	 * Minimum age (in miliseconds) of a snapshot before it gets rebuilt because of ping updates alone
+	 */
+	public void setSnapshotPingRefresh(long snapshotPingRefresh) {
+		this.snapshotPingRefresh = snapshotPingRefresh;
 	}
 
 	public int getMaxLife() {
@@ -120,6 +266,7 @@ public class GameState {
 
 	public void setMaxLife(int maxLife) {
 		this.maxLife = maxLife;
+		touch();
 	}
 
 	/**
@@ -134,6 +281,7 @@ public class GameState {
 	 */
 	public void setStage(GameStage stage) {
 		this.stage = stage;
+		touch();
 	}
 
 	/**
@@ -148,6 +296,7 @@ public class GameState {
 	 */
 	public void setGameStart(Date gameStart) {
 		this.gameStart = gameStart;
+		touch();
 	}
 
 	/**
@@ -162,27 +311,52 @@ public class GameState {
 	 */
 	public void setGameStop(Date gameStop) {
 		this.gameStop = gameStop;
+		touch();
 	}
 
 	/**
-	 * Synchronized list of all players, including ones not directly connected to this robot
+	 * Read-only view of all players, including ones not directly connected to this robot
 	 */
 	public List<GamePlayer> getPlayers() {
-		return players;
+		return Collections.unmodifiableList(players);
 	}
 
 	public void addPlayer(GamePlayer player) {
-		synchronized (players) {
+		synchronized (playerEntries) {
+			if (playerEntries.containsKey(player))
+				return;
 			players.add(player);
+			player.setGameState(this);
+			reindexPlayer(player, null);
 		}
+		touchChanges(/*robot*/false, getPlayerKey(player));
 	}
 
 	public void removePlayer(GamePlayer player) {
-		players.remove(player);
+		PlayerEntry entry;
+		synchronized (playerEntries) {
+			entry = playerEntries.remove(player);
+			if (entry!=null)
+				unindexPlayer(player, entry);
+			players.remove(player);
+		}
+		if (entry!=null)
+			touchChanges(/*robot*/false, entry.name);
+		else
+			touch();
 	}
 	
 	public void removeAllPlayers() {
-		players.clear();
+		String[] keys;
+		synchronized (playerEntries) {
+			keys = playerEntries.values().stream().map(e->e.name).toArray(String[]::new);
+			players.clear();
+			playerEntries.clear();
+			playersByName.clear();
+			playersByAddress.clear();
+			playersBySession.clear();
+		}
+		touchChanges(/*robot*/false, keys);
 	}
 
 	public GamePlayer findPlayerWithAddress(String address) {
@@ -194,6 +368,19 @@ public class GameState {
 			return null;
 		if (players.isEmpty())
 			return null;
+		List<GamePlayer> found = playersByAddress.get(toLowerCase(address));
+		if (found!=null) {
+			for (GamePlayer player:found) {
+				if (port!=0 
+						&& player.getPort()!=0 
+						&& port!=player.getPort())
+					continue;
+				return player;
+			}
+		}
+		if (isLiteralAddress(address))
+			return null;
+		// Maybe it's a host name
 		for (GamePlayer player:players) {
 			if (player.getAddress()==null)
 				continue;
@@ -201,8 +388,7 @@ public class GameState {
 					&& player.getPort()!=0 
 					&& port!=player.getPort())
 				continue;
-			if (address.equalsIgnoreCase(player.getAddress().getHostAddress())
-				|| address.equalsIgnoreCase(player.getAddress().getHostName()))
+			if (address.equalsIgnoreCase(player.getAddress().getHostName()))
 				return player;
 		}
 		return null;
@@ -211,36 +397,23 @@ public class GameState {
 	public GamePlayer findPlayerWithName(String name) {
 		if (name==null || name.length()==0)
 			return null;
-		if (players.isEmpty())
-			return null;
-		for (GamePlayer player:players) {
-			if (player.getName()==null)
-				continue;
-			if (name.equalsIgnoreCase(player.getName()))
-				return player;
-		}
-		return null;
+		return playersByName.get(toLowerCase(name));
 	}
 	
 	public GamePlayer findPlayerWithSessionId(String sessionId) {
 		if (sessionId==null || sessionId.length()==0)
 			return null;
-		if (players.isEmpty())
+		GamePlayer player = playersBySession.get(toLowerCase(sessionId));
+		if (player==null || player.getName()==null)
 			return null;
-		for (GamePlayer player:players) {
-			if (player.getName()==null)
-				continue;
-			if (sessionId.equalsIgnoreCase(player.getHttpSession()))
-				return player;
-		}
-		return null;
+		return player;
 	}
 
 	public List<GamePlayer> mergePlayers(CmdQueryPlayers.Players other_players) {
 		if (other_players==null || other_players.getNumPlayers()==0)
 			return null;
 		List<GamePlayer> new_players = new LinkedList<>();
-		synchronized (players) {
+		synchronized (playerEntries) {
 			for (PlayerSummary player:other_players.getPlayers()) {
 				GamePlayer existing_player = findPlayerWithName(player.getName());
 				if (existing_player!=null) {
@@ -268,10 +441,10 @@ public class GameState {
 	}
 
 	/**
-	 * Synchronized list of all robots, including us.
+	 * Read-only view of all robots, including us.
 	 */
 	public List<GameRobot> getRobots() {
-		return robots;
+		return Collections.unmodifiableList(robots);
 	}
 	
 	/**
@@ -285,68 +458,88 @@ public class GameState {
 	}
 
 	public void addRobot(GameRobot robot) {
-		robots.add(robot);
-		if (robot.getAddress()!=null)
-			knownRobotAddresses.put(robot.getAddress().getHostAddress(),robot);
+		synchronized (robotEntries) {
+			if (robotEntries.containsKey(robot))
+				return;
+			robots.add(robot);
+			if (robot.getAddress()!=null)
+				knownRobotAddresses.put(robot.getAddress().getHostAddress(),robot);
+			else if (localRobot==null)
+				localRobot = robot;
+			robot.setGameState(this);
+			reindexRobot(robot, null);
+		}
+		touchChanges(/*robot*/true, robot.getIdentifier());
 	}
 	
 	public void removeRobot(GameRobot robot) {
-		robots.remove(robot);
-		if (robot.getAddress()!=null)
-			knownRobotAddresses.remove(robot.getAddress().getHostAddress());
+		RobotEntry entry;
+		synchronized (robotEntries) {
+			entry = robotEntries.remove(robot);
+			robots.remove(robot);
+			if (entry!=null)
+				unindexRobot(robot, entry);
+			if (robot.getAddress()!=null)
+				knownRobotAddresses.remove(robot.getAddress().getHostAddress(), robot);
+			if (localRobot==robot)
+				localRobot = seekLocalRobot();
+		}
+		if (entry!=null)
+			touchChanges(/*robot*/true, entry.identifier);
+		else
+			touch();
 	}
 	
 	public void removeAllRobots() {
-		robots.clear();
-		knownRobotAddresses.clear();
+		String[] keys;
+		synchronized (robotEntries) {
+			keys = robotEntries.values().stream().map(e->e.identifier).toArray(String[]::new);
+			robots.clear();
+			knownRobotAddresses.clear();
+			robotEntries.clear();
+			robotsByIdentifier.clear();
+			robotsByOwnerName.clear();
+			for (int i=0;i<MAX_SHORT_IDS;i++)
+				robotsByShortId.set(i, null);
+			localRobot = null;
+		}
+		touchChanges(/*robot*/true, keys);
 	}
 	
 	public void removeAllRobotsExceptItself() {
-		for (Iterator<GameRobot> iterator=robots.iterator();iterator.hasNext();) {
-			GameRobot robot = iterator.next();
-			if (robot.getAddress()!=null)
-				iterator.remove();
+		synchronized (robotEntries) {
+			for (GameRobot robot:robots) {
+				if (robot.getAddress()!=null)
+					removeRobot(robot);
+			}
+			knownRobotAddresses.clear();
 		}
-		knownRobotAddresses.clear();
 	}
 
 	public GameRobot findLocalRobot() {
-		if (robots.isEmpty())
-			return null;
-		for (GameRobot robot:robots) {
-			if (robot.getAddress()==null)
-				return robot;
-		}
-		return null;
+		return localRobot;
 	}
 	
 	public GameRobot findRobotWithIdentifier(String id) {
-		if (robots.isEmpty() || id==null)
+		if (id==null)
 			return null;
-		for (GameRobot robot:robots) {
-			if (id.equals(robot.getIdentifier())) {
-				return robot;
-			}
-		}
-		return null;		
+		return robotsByIdentifier.get(id);
 	}
 
 	public GameRobot findRobotWithAddress(String address) {
 		final boolean seek_local_robot = (address==null || address.length()==0);
-		if (robots.isEmpty())
+		if (seek_local_robot)
+			return localRobot;
+		GameRobot robot = knownRobotAddresses.get(address);
+		if (robot!=null)
+			return robot;
+		if (isLiteralAddress(address))
 			return null;
-		for (GameRobot robot:robots) {
-			if (robot.getAddress()==null) {
-				if (seek_local_robot)
-					return robot;
-			}
-			else {
-				if (seek_local_robot)
-					continue;
-				if (address.equals(robot.getAddress().getHostAddress())
-						|| address.equals(robot.getAddress().getHostName()))
-					return robot;
-			}
+		// Maybe it's a host name
+		for (GameRobot r:robots) {
+			if (r.getAddress()!=null
+					&& address.equals(r.getAddress().getHostName()))
+				return r;
 		}
 		return null;		
 	}
@@ -354,21 +547,12 @@ public class GameState {
 	public GameRobot findRobotWithOwnerName(String name) {
 		if (name==null || name.length()==0)
 			return null;
-		if (robots.isEmpty())
-			return null;
-		for (GameRobot robot:robots) {
-			GamePlayer owner = robot.getOwner();
-			if (owner==null)
-				continue;
-			if (name.equalsIgnoreCase(owner.getName()))
-				return robot;
-		}
-		return null;
+		return robotsByOwnerName.get(toLowerCase(name));
 	}
 
 	public GameRobot findRobotWithShortId(byte id) {
-		if (robots.isEmpty())
-			return null;
+		if (id>=0 && id<MAX_SHORT_IDS)
+			return robotsByShortId.get(id);
 		for (GameRobot robot:robots) {
 			if (id==robot.getShortId())
 				return robot;
@@ -438,7 +622,7 @@ public class GameState {
 	public boolean isOwnerThisRobot(String player_name) {
 		if (player_name==null)
 			return false;
-		GameRobot thisRobot = findRobotWithAddress(null);
+		GameRobot thisRobot = localRobot;
 		if (thisRobot==null)
 			return false;
 		GamePlayer owner = thisRobot.getOwner();
@@ -448,29 +632,427 @@ public class GameState {
 	}
 
 	/**
-	 * Synchronized list of all known cards
+	 * Read-only view of all known cards
 	 */
 	public List<GameCard> getCards() {
-		return cards;
+		return Collections.unmodifiableList(cards);
 	}
 	
+	/**
+	 * Includes a new card. Its identifier should not change after this.
+	 */
 	public void addCard(GameCard card) {
-		cards.add(card);
+		synchronized (cardsById) {
+			cards.add(card);
+			if (card.getId()!=null)
+				cardsById.putIfAbsent(card.getId(), card);
+		}
+		touch();
 	}
 	
 	public void removeCard(GameCard card) {
-		cards.remove(card);
+		synchronized (cardsById) {
+			cards.remove(card);
+			if (card.getId()!=null && cardsById.remove(card.getId(), card)) {
+				// maybe there is another card with the same identifier
+				for (GameCard other:cards) {
+					if (card.getId().equals(other.getId())) {
+						cardsById.put(other.getId(), other);
+						break;
+					}
+				}
+			}
+		}
+		touch();
 	}
 	
 	public void removeAllCards() {
-		cards.clear();
+		synchronized (cardsById) {
+			cards.clear();
+			cardsById.clear();
+		}
+		touch();
 	}
 	
 	public GameCard findCardWithId(String id) {
-		for (GameCard card:cards) {
-			if (card.getId()!=null && card.getId().equals(id))
-				return card;
+		if (id==null)
+			return null;
+		return cardsById.get(id);
+	}
+	
+	/**
+	 * Called by 'GamePlayer' whenever name, address or HTTP session changes
+	 */
+	void onPlayerChanged(GamePlayer player) {
+		PlayerEntry previous;
+		synchronized (playerEntries) {
+			previous = playerEntries.get(player);
+			if (previous!=null)
+				reindexPlayer(player, previous);
+		}
+		// robots may be indexed by their owner's name
+		synchronized (robotEntries) {
+			for (GameRobot robot:robots) {
+				if (robot.getOwner()==player)
+					onRobotChanged(robot);
+			}
+		}
+		if (previous!=null)
+			touchChanges(/*robot*/false, previous.name, getPlayerKey(player));
+		else
+			touch();
+	}
+	
+	/**
+	 * Called by 'GamePlayer' whenever some attribute shared with other robots changes
+	 * (other than the ones notified through 'onPlayerChanged')
+	 */
+	void onPlayerUpdated(GamePlayer player) {
+		if (playerEntries.containsKey(player))
+			touchChanges(/*robot*/false, getPlayerKey(player));
+		else
+			touch();
+	}
+	
+	/**
+	 * Called by 'GameRobot' whenever identifier, short identifier or owner changes
+	 */
+	void onRobotChanged(GameRobot robot) {
+		RobotEntry previous;
+		synchronized (robotEntries) {
+			previous = robotEntries.get(robot);
+			if (previous!=null)
+				reindexRobot(robot, previous);
+		}
+		if (previous!=null)
+			touchChanges(/*robot*/true, previous.identifier, robot.getIdentifier());
+		else
+			touch();
+	}
+	
+	/**
+	 * Called by 'GameRobot' whenever some attribute shared with other robots changes
+	 * (other than the ones notified through 'onRobotChanged')
+	 */
+	void onRobotUpdated(GameRobot robot) {
+		if (robotEntries.containsKey(robot))
+			touchChanges(/*robot*/true, robot.getIdentifier());
+		else
+			touch();
+	}
+	
+	private void reindexPlayer(GamePlayer player,PlayerEntry previous) {
+		PlayerEntry entry = new PlayerEntry(player);
+		if (previous!=null)
+			unindexPlayer(player, previous);
+		if (entry.name!=null)
+			playersByName.putIfAbsent(entry.name, player);
+		if (entry.address!=null)
+			playersByAddress.computeIfAbsent(entry.address, k->new CopyOnWriteArrayList<>()).add(player);
+		if (entry.session!=null)
+			playersBySession.putIfAbsent(entry.session, player);
+		playerEntries.put(player, entry);
+	}
+	
+	private void unindexPlayer(GamePlayer player,PlayerEntry entry) {
+		if (entry.name!=null && playersByName.remove(entry.name, player))
+			reassign(playersByName, entry.name, players, p->new PlayerEntry(p).name, player);
+		if (entry.address!=null) {
+			playersByAddress.computeIfPresent(entry.address, (k,found)->{
+				found.remove(player);
+				return found.isEmpty() ? null : found;
+			});
+		}
+		if (entry.session!=null && playersBySession.remove(entry.session, player))
+			reassign(playersBySession, entry.session, players, p->new PlayerEntry(p).session, player);
+	}
+	
+	private void reindexRobot(GameRobot robot,RobotEntry previous) {
+		RobotEntry entry = new RobotEntry(robot);
+		if (previous!=null)
+			unindexRobot(robot, previous);
+		if (entry.identifier!=null)
+			robotsByIdentifier.putIfAbsent(entry.identifier, robot);
+		if (entry.ownerName!=null)
+			robotsByOwnerName.putIfAbsent(entry.ownerName, robot);
+		if (entry.shortId>=0 && entry.shortId<MAX_SHORT_IDS)
+			robotsByShortId.compareAndSet(entry.shortId, null, robot);
+		if (robot.getOwner()!=null)
+			robot.getOwner().setGameState(this); // owner's name is indexed
+		robotEntries.put(robot, entry);
+	}
+	
+	private void unindexRobot(GameRobot robot,RobotEntry entry) {
+		if (entry.identifier!=null && robotsByIdentifier.remove(entry.identifier, robot))
+			reassign(robotsByIdentifier, entry.identifier, robots, r->r.getIdentifier(), robot);
+		if (entry.ownerName!=null && robotsByOwnerName.remove(entry.ownerName, robot))
+			reassign(robotsByOwnerName, entry.ownerName, robots, r->new RobotEntry(r).ownerName, robot);
+		if (entry.shortId>=0 && entry.shortId<MAX_SHORT_IDS
+				&& robotsByShortId.compareAndSet(entry.shortId, robot, null)) {
+			// maybe there is another robot with the same short identifier
+			for (GameRobot other:robots) {
+				if (other!=robot && other.getShortId()==entry.shortId && robotEntries.containsKey(other)) {
+					robotsByShortId.set(entry.shortId, other);
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * After removing an element from a unique index, looks for another element that
+	 * should take its place (i.e. another element with the same key, following the
+	 * list order).
+	 */
+	private static <T> void reassign(Map<String,T> index,String key,List<T> all,Function<T,String> getKey,T removed) {
+		for (T other:all) {
+			if (other!=removed && key.equals(getKey.apply(other))) {
+				index.putIfAbsent(key, other);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Version of current game state. It's incremented whenever something changes.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+	
+	/**
+	 * Called whenever something changes in game state, including players and robots
+	 */
+	void touch() {
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Called by 'GamePlayer' whenever ping changes (does not change version)
+	 */
+	void onPingUpdated() {
+		pingUpdates.incrementAndGet();
+	}
+	
+	/**
+	 * Number of ping updates so far
+	 */
+	long getPingUpdates() {
+		return pingUpdates.get();
+	}
+	
+	/**
+	 * Called whenever some player or robot shared with other robots changes.<BR>
+	 * Increments version and records the keys of changed elements (NULL keys are ignored).
+	 */
+	private void touchChanges(boolean robot,String... keys) {
+		synchronized (changeLog) {
+			long v = version.incrementAndGet();
+			for (String key:keys) {
+				if (key!=null)
+					changeLog.add(v, robot, key);
+			}
+		}
+	}
+	
+	/**
+	 * Identifies this game state instance. Versions are only comparable within the same epoch.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * Returns players and robots changed after the given version. Removed players and robots are
+	 * informed by their keys.<BR>
+	 * Returns a full copy of all players and robots if the epoch is not the same as ours, or if the
+	 * change log does not cover that version anymore.
+	 * @param epoch Epoch informed together with the previous changes (or 0 if none)
+	 * @param since Version informed together with the previous changes (or 0 if none)
+	 */
+	public GameDelta changesSince(long epoch,long since) {
+		Set<String> playerKeys = new HashSet<>();
+		Set<String> robotKeys = new HashSet<>();
+		long v;
+		boolean full;
+		synchronized (changeLog) {
+			v = version.get();
+			full = epoch!=this.epoch || since>v || !changeLog.covers(since);
+			if (!full)
+				changeLog.collect(since, playerKeys, robotKeys);
+		}
+		if (full) {
+			return new GameDelta(this.epoch, v, /*full*/true,
+					new ArrayList<>(players), Collections.emptyList(),
+					new ArrayList<>(robots), Collections.emptyList());
+		}
+		List<GamePlayer> changedPlayers = new ArrayList<>();
+		List<String> removedPlayers = new ArrayList<>();
+		for (String key:playerKeys) {
+			GamePlayer player = playersByName.get(key);
+			if (player!=null)
+				changedPlayers.add(player);
+			else
+				removedPlayers.add(key);
+		}
+		List<GameRobot> changedRobots = new ArrayList<>();
+		List<String> removedRobots = new ArrayList<>();
+		for (String key:robotKeys) {
+			GameRobot robot = robotsByIdentifier.get(key);
+			if (robot!=null)
+				changedRobots.add(robot);
+			else
+				removedRobots.add(key);
+		}
+		return new GameDelta(this.epoch, v, /*full*/false, changedPlayers, removedPlayers, changedRobots, removedRobots);
+	}
+	
+	/**
+	 * Last version we got from another robot (NULL if we never got anything)
+	 */
+	public PeerVersion getPeerVersion(String robotId) {
+		if (robotId==null)
+			return null;
+		return peerVersions.get(robotId);
+	}
+	
+	/**
+	 * Keeps the last version we got from another robot. It's kept even if the robot
+	 * gets removed, so that we may ask only for changes after it reconnects.
+	 */
+	public void setPeerVersion(String robotId,long epoch,long version) {
+		if (robotId==null)
+			return;
+		peerVersions.put(robotId, new PeerVersion(epoch, version));
+	}
+	
+	/**
+	 * Returns an immutable view of current game state.<BR>
+	 * The same snapshot is returned while nothing changes, so this is cheap for readers
+	 * that run often (e.g. page renders and status polls). A new snapshot is only built
+	 * by the first reader after some change.<BR>
+	 * Ping updates alone do not change version. They are refreshed in the snapshot at most
+	 * once every 'snapshotPingRefresh' miliseconds.<BR>
+	 * If game state keeps changing while the snapshot is being copied, the previous snapshot
+	 * is returned instead (older, but consistent). The next reader will try again. The
+	 * first snapshot is always built again until it gets a consistent copy.
+	 */
+	public GameSnapshot snapshot() {
+		GameSnapshot current = lastSnapshot;
+		if (current!=null && isUpToDate(current))
+			return current;
+		synchronized (version) {
+			current = lastSnapshot;
+			if (current!=null && isUpToDate(current))
+				return current;
+			long v = version.get();
+			for (int attempt=1;;attempt++) {
+				GameSnapshot built = new GameSnapshot(v, this);
+				long after = version.get();
+				if (after==v) {
+					lastSnapshot = built;
+					return built;
+				}
+				if (attempt>=MAX_SNAPSHOT_ATTEMPTS && current!=null) {
+					// Something changed while we were copying, so the new copy may be torn
+					return current;
+				}
+				v = after;
+			}
+		}
+	}
+	
+	/**
+	 * Tells if the snapshot reflects current game state (ping updates may be a little late)
+	 */
+	private boolean isUpToDate(GameSnapshot snapshot) {
+		if (snapshot.getVersion()!=version.get())
+			return false;
+		if (snapshot.getPingUpdates()==pingUpdates.get())
+			return true;
+		return System.nanoTime()-snapshot.getTakenAt() < TimeUnit.MILLISECONDS.toNanos(snapshotPingRefresh);
+	}
+	
+	private GameRobot seekLocalRobot() {
+		for (GameRobot robot:robots) {
+			if (robot.getAddress()==null)
+				return robot;
 		}
 		return null;
 	}
+	
+	private static String toLowerCase(String value) {
+		return (value==null) ? null : value.toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Key used for players in indexes and in change log (lower case version of name)
+	 */
+	private static String getPlayerKey(GamePlayer player) {
+		return (player.getName()==null || player.getName().length()==0) ? null : toLowerCase(player.getName());
+	}
+	
+	/**
+	 * Tells if the address is an IPv4 or IPv6 literal (i.e. not a host name)
+	 */
+	private static boolean isLiteralAddress(String address) {
+		if (address.indexOf(':')>=0)
+			return true;
+		for (int i=0;i<address.length();i++) {
+			char c = address.charAt(i);
+			if (c!='.' && (c<'0' || c>'9'))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Attributes of a player at the time it was indexed
+	 */
+	private static class PlayerEntry {
+		final String name;
+		final String address;
+		final String session;
+		PlayerEntry(GamePlayer player) {
+			name = getPlayerKey(player);
+			address = (player.getAddress()==null) ? null : toLowerCase(player.getAddress().getHostAddress());
+			session = (player.getHttpSession()==null || player.getHttpSession().length()==0) ? null : toLowerCase(player.getHttpSession());
+		}
+	}
+	
+	/**
+	 * Attributes of a robot at the time it was indexed
+	 */
+	private static class RobotEntry {
+		final String identifier;
+		final String ownerName;
+		final byte shortId;
+		RobotEntry(GameRobot robot) {
+			identifier = robot.getIdentifier();
+			GamePlayer owner = robot.getOwner();
+			ownerName = (owner==null || owner.getName()==null || owner.getName().length()==0) ? null : toLowerCase(owner.getName());
+			shortId = robot.getShortId();
+		}
+	}
+	
+	/**
+	 * Version of game state informed by another robot, together with its epoch
+	 */
+	public static final class PeerVersion {
+		private final long epoch;
+		private final long version;
+		PeerVersion(long epoch,long version) {
+			this.epoch = epoch;
+			this.version = version;
+		}
+		public long getEpoch() {
+			return epoch;
+		}
+		public long getVersion() {
+			return version;
+		}
+		public String toString() {
+			return epoch+":"+version;
+		}
+	}
 }
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.motor;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
+
+/**
+ * Motor that forwards commands to another motor in a dedicated thread.<BR>
+ * <BR>
+ * The real motor may take a while to complete each command (e.g. 'ArduinoController' writes
+ * and flushes the serial port, 'MotorShield' sets several GPIO pins). This implementation returns
+ * immediately, so that the caller (usually a WebSocket thread) is not held.<BR>
+ * Pending commands are kept in a 'latest-wins' mailbox with only one slot for movement and
+ * one slot for speed. A newer movement replaces an older one that is still pending (e.g. when
+ * the player is streaming 'movement' from device tilt). A 'stop' replaces any pending movement
+ * and any pending speed change.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class MotorActuator implements Motor {
+
+	private static final Logger log = Logger.getLogger(MotorActuator.class.getName());
+
+	/**
+	 * Types of movement
+	 */
+	private static enum Action {
+		FORWARD,
+		BACKWARD,
+		LEFT,
+		RIGHT,
+		STOP,
+		MOVEMENT;
+	}
+
+	/**
+	 * One pending movement
+	 */
+	private static class Movement {
+		final Action action;
+		final double factor1;
+		final double factor2;
+		final long sequence;
+		final long queuedAt;
+		Movement(Action action,double factor1,double factor2,long sequence) {
+			this.action = action;
+			this.factor1 = factor1;
+			this.factor2 = factor2;
+			this.sequence = sequence;
+			this.queuedAt = System.nanoTime();
+		}
+		boolean isMoving() {
+			switch (action) {
+			case STOP:
+				return false;
+			case MOVEMENT:
+				return factor1!=0 || factor2!=0;
+			default:
+				return factor1!=0;
+			}
+		}
+	}
+
+	/**
+	 * The motor that will actually receive the commands
+	 */
+	private final Motor motor;
+
+	/**
+	 * Flag used to keep thread running
+	 */
+	private final AtomicBoolean running;
+
+	/**
+	 * Lock for the mailbox slots
+	 */
+	private final Object mailbox = new Object();
+
+	/**
+	 * Pending movement (NULL if there is none)
+	 */
+	private Movement pendingMovement;
+
+	/**
+	 * Pending speed change (NaN if there is none)
+	 */
+	private double pendingSpeed = Double.NaN;
+
+	/**
+	 * Sequence of pending speed change
+	 */
+	private long pendingSpeedSequence;
+
+	private long sequence;
+
+	private long pendingSpeedQueuedAt;
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	private BooleanSupplier takeStatistics = ()->false;
+
+	/**
+	 * Watches for motor commands taking too long
+	 */
+	private StallWatchdog watchdog = StallWatchdog.DISABLED;
+
+	private Thread actuatorThread;
+
+	public MotorActuator(Motor motor) {
+		this.motor = motor;
+		this.running = new AtomicBoolean(false);
+	}
+
+	/**
+	 * The motor that will actually receive the commands
+	 */
+	public Motor getMotor() {
+		return motor;
+	}
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	public void setTakeStatistics(BooleanSupplier takeStatistics) {
+		this.takeStatistics = (takeStatistics==null) ? ()->false : takeStatistics;
+	}
+
+	/**
+	 * Watches for motor commands taking too long
+	 */
+	public void setWatchdog(StallWatchdog watchdog) {
+		this.watchdog = (watchdog==null) ? StallWatchdog.DISABLED : watchdog;
+	}
+
+	public synchronized void init() {
+		if (running.get())
+			return;
+		running.set(true);
+		actuatorThread = new Thread(()->{ processCommands(); });
+		actuatorThread.setName("MotorActuator");
+		actuatorThread.setDaemon(true);
+		actuatorThread.setPriority(Thread.MAX_PRIORITY);
+		actuatorThread.start();
+	}
+
+	public synchronized void stopActuator() {
+		running.set(false);
+		synchronized (mailbox) {
+			mailbox.notifyAll();
+		}
+		actuatorThread = null;
+	}
+
+	@Override
+	public void moveForward(double speedFactor) {
+		post(Action.FORWARD, speedFactor, 0);
+	}
+
+	@Override
+	public void moveBackward(double speedFactor) {
+		post(Action.BACKWARD, speedFactor, 0);
+	}
+
+	@Override
+	public void turnLeft(double speedFactor) {
+		post(Action.LEFT, speedFactor, 0);
+	}
+
+	@Override
+	public void turnRight(double speedFactor) {
+		post(Action.RIGHT, speedFactor, 0);
+	}
+
+	@Override
+	public void stop() {
+		post(Action.STOP, 0, 0);
+	}
+
+	@Override
+	public void setMovement(double leftFactor, double rightFactor) {
+		post(Action.MOVEMENT, leftFactor, rightFactor);
+	}
+
+	@Override
+	public void setSpeed(double speedFactor) {
+		if (!running.get()) {
+			motor.setSpeed(speedFactor);
+			return;
+		}
+		int coalesced = 0;
+		synchronized (mailbox) {
+			if (!Double.isNaN(pendingSpeed))
+				coalesced++;
+			pendingSpeed = speedFactor;
+			pendingSpeedSequence = ++sequence;
+			pendingSpeedQueuedAt = System.nanoTime();
+			mailbox.notifyAll();
+		}
+		if (coalesced>0 && takeStatistics.getAsBoolean())
+			RoboToyStatistics.incMotorCommandsCoalesced(coalesced);
+	}
+
+	/**
+	 * Tells if robot is supposed to be moving, considering pending movement
+	 */
+	@Override
+	public boolean isMoving() {
+		synchronized (mailbox) {
+			if (pendingMovement!=null)
+				return pendingMovement.isMoving();
+		}
+		return motor.isMoving();
+	}
+
+	/**
+	 * Number of commands waiting for actuation (at most two: one movement and one speed change)
+	 */
+	public int getPendingCommands() {
+		synchronized (mailbox) {
+			return ((pendingMovement==null)?0:1) + (Double.isNaN(pendingSpeed)?0:1);
+		}
+	}
+
+	/**
+	 * Puts a new movement in mailbox, replacing any pending movement
+	 */
+	private void post(Action action,double factor1,double factor2) {
+		if (!running.get()) {
+			// actuator thread is not running, so call motor directly
+			actuate(new Movement(action,factor1,factor2,0));
+			return;
+		}
+		int coalesced = 0;
+		synchronized (mailbox) {
+			if (pendingMovement!=null)
+				coalesced++;
+			if (Action.STOP.equals(action) && !Double.isNaN(pendingSpeed)) {
+				// stop preempts speed changes
+				pendingSpeed = Double.NaN;
+				coalesced++;
+			}
+			pendingMovement = new Movement(action,factor1,factor2,++sequence);
+			mailbox.notifyAll();
+		}
+		if (coalesced>0 && takeStatistics.getAsBoolean())
+			RoboToyStatistics.incMotorCommandsCoalesced(coalesced);
+	}
+
+	/**
+	 * Loops while actuator is not stopped<BR>
+	 * Takes the latest commands from mailbox and forwards them to the motor.
+	 */
+	private void processCommands() {
+		while (running.get()) {
+			Movement movement;
+			double speed;
+			long speedSequence;
+			long speedQueuedAt;
+			synchronized (mailbox) {
+				while (running.get() && pendingMovement==null && Double.isNaN(pendingSpeed)) {
+					try {
+						mailbox.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				movement = pendingMovement;
+				speed = pendingSpeed;
+				speedSequence = pendingSpeedSequence;
+				speedQueuedAt = pendingSpeedQueuedAt;
+				pendingMovement = null;
+				pendingSpeed = Double.NaN;
+			}
+			if (!running.get())
+				break;
+			if (movement!=null && (Double.isNaN(speed) || speedSequence<movement.sequence)) {
+				// movements already carry their speed, so an older speed change is
+				// applied before the movement
+				if (!Double.isNaN(speed))
+					actuateSpeed(speed, speedQueuedAt);
+				actuate(movement);
+			}
+			else {
+				if (movement!=null)
+					actuate(movement);
+				if (!Double.isNaN(speed))
+					actuateSpeed(speed, speedQueuedAt);
+			}
+		}
+	}
+
+	private void actuate(Movement movement) {
+		final long start = System.nanoTime();
+		StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_MOTOR);
+		try {
+			switch (movement.action) {
+			case FORWARD:
+				motor.moveForward(movement.factor1);
+				break;
+			case BACKWARD:
+				motor.moveBackward(movement.factor1);
+				break;
+			case LEFT:
+				motor.turnLeft(movement.factor1);
+				break;
+			case RIGHT:
+				motor.turnRight(movement.factor1);
+				break;
+			case STOP:
+				motor.stop();
+				break;
+			case MOVEMENT:
+				motor.setMovement(movement.factor1, movement.factor2);
+				break;
+			}
+		}
+		catch (Throwable e) {
+			log.log(Level.SEVERE, "Error while sending "+movement.action+" to motor!", e);
+		}
+		finally {
+			probe.exit();
+		}
+		reportStatistics(movement.queuedAt, start);
+	}
+
+	private void actuateSpeed(double speed,long queuedAt) {
+		final long start = System.nanoTime();
+		StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_MOTOR);
+		try {
+			motor.setSpeed(speed);
+		}
+		catch (Throwable e) {
+			log.log(Level.SEVERE, "Error while changing motor speed!", e);
+		}
+		finally {
+			probe.exit();
+		}
+		reportStatistics(queuedAt, start);
+	}
+
+	private void reportStatistics(long queuedAt,long start) {
+		if (!takeStatistics.getAsBoolean())
+			return;
+		final long end = System.nanoTime();
+		RoboToyStatistics.addMotorQueueTime((start-queuedAt)/1_000_000.0);
+		RoboToyStatistics.addMotorActuationTime((end-start)/1_000_000.0);
+	}
+}
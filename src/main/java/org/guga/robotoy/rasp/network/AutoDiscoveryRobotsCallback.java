@@ -25,9 +25,12 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.guga.robotoy.rasp.commands.CmdQueryChanges;
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
 import org.guga.robotoy.rasp.controller.RoboToyServerContext;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameState;
 import org.guga.robotoy.rasp.network.AutoDiscoverService.ClientCallback;
 
 /**
@@ -41,6 +44,12 @@ public class AutoDiscoveryRobotsCallback implements ClientCallback {
 	public static final String prefixAutoDiscoveryAnswer = "I'm trully a Robotoy";
 	public static final Pattern patternAutoDiscoveryAnswer = Pattern.compile("^"+Pattern.quote(prefixAutoDiscoveryAnswer)+":(.*)$");
 	
+	/**
+	 * How long we wait for the reply to the query for changes before falling back to the
+	 * queries understood by robots running previous versions
+	 */
+	public static final long LEGACY_QUERIES_DELAY_MS = 5000;
+	
 	private int port = WebServer.DEFAULT_PORT;
 	private int portSecure = 0;
 
@@ -171,32 +180,58 @@ public class AutoDiscoveryRobotsCallback implements ClientCallback {
 			GameRobot local_robot = context.getGame().findLocalRobot();
 			String my_id = (local_robot==null) ? "":local_robot.getIdentifier();
 			context.getWebSocketPool().connect(address,port,"/ws/robot/"+my_id);
+			// Query for changes to players and robots since the last time we got them from this robot
+			// (this also brings robot color, current owner and previous owner, all in one reply)
+			final String robot_id = robot.getIdentifier();
+			final GameState.PeerVersion since = context.getGame().getPeerVersion(robot_id);
+			String query = CmdQueryChanges.getQuery(since);
 			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE,"Sending greetings from us to "+address+":"+port);
+				log.log(Level.FINE,"Sending greetings from us to "+address+":"+port+" ("+query+")");
 			}
-			// Send greetings from us
-			context.getWebSocketPool().sendMessage(address, /*port*/0, String.valueOf(RoboToyServerController.GREETINGS));
-			// Query for connected players
 			context.getWebSocketPool().sendMessage(address, /*port*/0,
-				String.valueOf(RoboToyServerController.QUERY_PLAYERS),
+				query,
 				onSuccess,
 				(e)->{
 					// on failure...
 					log.log(Level.SEVERE, "Could not send message to "+address, e);
 					context.getGame().removeRobot(robot);
 				});
-			// Query for robot color
-			context.getWebSocketPool().sendMessage(address, /*port*/0,
-					String.valueOf(RoboToyServerController.QUERY_COLOR));
-			// Query for robot current owner or previous owner
-			context.getWebSocketPool().sendMessage(address, /*port*/0,
-					String.valueOf(RoboToyServerController.QUERY_OWNER));
+			// Robots running previous versions do not know this query and will not reply to it. Every reply
+			// to it updates the peer version, so if it's still the same after a while, we fall back to the
+			// previous queries (greetings, players, color and owner).
+			context.getScheduler().schedule(RoboToyScheduler.GROUP_NETWORK, "LegacyGreetings", LEGACY_QUERIES_DELAY_MS, ()->{
+				if (context.getGame().findRobotWithIdentifier(robot_id)!=robot
+					|| context.getGame().getPeerVersion(robot_id)!=since)
+					return; // robot is gone or replied
+				if (log.isLoggable(Level.INFO))
+					log.log(Level.INFO,"No changes received from "+address+", sending legacy queries");
+				sendLegacyQueries(address);
+			});
 		} catch (Throwable e) {
 			log.log(Level.SEVERE, "Could not connect to other RoboToy at "+address+" and port number "+port, e);
 			context.getGame().removeRobot(robot);
 		}
 	}	
 	
+	/**
+	 * Queries another robot the way previous versions did, one piece of information at a time
+	 */
+	private void sendLegacyQueries(String address) {
+		final WebSocketClientPool pool = controller.getContext().getWebSocketPool();
+		try {
+			// Send greetings from us
+			pool.sendMessage(address, /*port*/0, String.valueOf(RoboToyServerController.GREETINGS));
+			// Query for connected players
+			pool.sendMessage(address, /*port*/0, String.valueOf(RoboToyServerController.QUERY_PLAYERS));
+			// Query for robot color
+			pool.sendMessage(address, /*port*/0, String.valueOf(RoboToyServerController.QUERY_COLOR));
+			// Query for robot current owner or previous owner
+			pool.sendMessage(address, /*port*/0, String.valueOf(RoboToyServerController.QUERY_OWNER));
+		} catch (Throwable e) {
+			log.log(Level.SEVERE, "Could not send legacy queries to other RoboToy at "+address, e);
+		}
+	}
+	
 	public void removeKnownAddress(String address) {
 		for (Iterator<KnownRobot> it = knownAddressesWithAnswers.iterator(); it.hasNext(); ) {
 			KnownRobot kr = it.next();
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Text message encoded once in UTF-8 so that the same bytes may be sent to
+ * several WebSocket sessions.<BR>
+ * <BR>
+ * The encoded payload is kept in a read-only buffer. Each session gets its own
+ * view of it (with independent position and limit), so there is no copy per recipient.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BroadcastFrame {
+
+	private final String text;
+
+	private final ByteBuffer payload;
+
+	private BroadcastFrame(String text,ByteBuffer payload) {
+		this.text = text;
+		this.payload = payload;
+	}
+
+	/**
+	 * Encodes the text message in UTF-8
+	 */
+	public static BroadcastFrame encode(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		return new BroadcastFrame(text, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+	}
+
+	/**
+	 * Original text message
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns a new read-only view of the encoded message. The
+	 * contents are shared with all other views.
+	 */
+	public ByteBuffer getPayload() {
+		return payload.duplicate();
+	}
+
+	/**
+	 * Number of bytes of encoded message
+	 */
+	public int getLength() {
+		return payload.remaining();
+	}
+
+	public String toString() {
+		return text;
+	}
+}
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.network;
 
+import java.nio.ByteBuffer;
+
 /**
  * Common interface used by WebSockets or by raw sockets implementation
  * in order to invoke another code for each message received.
@@ -27,4 +29,9 @@ public interface CommandCentral {
 
 	public String onCommand(String message,WebSocketActiveSession session);
 
+	/**
+	 * Invoked for each binary message received. Returns some reply (as text message) or NULL.
+	 */
+	default public String onBinaryCommand(ByteBuffer message,WebSocketActiveSession session) { return null; }
+
 }
@@ -75,11 +75,67 @@ public class WebCacheControl {
         return (ifNoneMatch == null && ifModifiedSince != -1 && ifModifiedSince + 1000 > resource_timestamp);
 	}
 	
+	/**
+	 * Check if the desired resource is up-to-date according to the entity tags passed in 'If-None-Match'
+	 * request header.
+	 * @param request Request object
+	 * @param eTag Current strong entity tag (quoted) for the requested resource
+	 * @return Returns TRUE if it's up-to-date. Returns FALSE otherwise.
+	 */
+	public static boolean checkCacheETag(final HttpServletRequest request,String eTag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch==null || eTag==null)
+			return false;
+		for (String tag:ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals(eTag) || tag.equals("*"))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Check if the client accepts 'gzip' content encoding according to 'Accept-Encoding' request header.
+	 */
+	public static boolean acceptsGzip(final HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding==null)
+			return false;
+		for (String coding:acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			String name = params[0].trim();
+			if (!name.equalsIgnoreCase("gzip") && !name.equals("*"))
+				continue;
+			boolean rejected = false;
+			for (int i=1;i<params.length;i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=") || param.startsWith("Q=")) {
+					try {
+						rejected = Double.parseDouble(param.substring(2).trim())<=0;
+					}
+					catch (NumberFormatException e) {
+						rejected = true;
+					}
+				}
+			}
+			return !rejected;
+		}
+		return false;
+	}
+	
 	/**
 	 * Reply to a request that has an up-to-date cached resource
 	 */
 	public static void replyCacheHit(final HttpServletResponse response, final String fileName, final long lastModified) throws IOException {
-		final String eTag = fileName + "_" + lastModified;
+		replyCacheHit(response, fileName + "_" + lastModified);
+	}
+	
+	/**
+	 * Reply to a request that has an up-to-date cached resource
+	 */
+	public static void replyCacheHit(final HttpServletResponse response, final String eTag) throws IOException {
         response.setHeader("ETag", eTag); // Required in 304.
         response.sendError(HttpServletResponse.SC_NOT_MODIFIED);
 	}
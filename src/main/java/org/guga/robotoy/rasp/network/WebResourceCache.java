@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.guga.robotoy.rasp.utils.IOUtils;
+
+/**
+ * In-memory cache of static resources served by 'WebServer' (scripts, styles, images, sounds).<BR>
+ * <BR>
+ * Each resource is read from classpath on first access. The cached entry keeps
+ * its contents in a direct buffer (written to the connection without further copies), a
+ * gzip variant of text resources, the last-modified timestamp and a strong ETag.<BR>
+ * Text resources with keywords replaced at each request (e.g. server address) keep one entry
+ * for each distinct replacement.<BR>
+ * Cached entries are checked against the resource timestamp from time to time, so that a
+ * resource that changes (e.g. running from exploded classes) is read again.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class WebResourceCache {
+
+	private static final Logger log = Logger.getLogger(WebResourceCache.class.getName());
+	
+	/**
+	 * Text resources smaller than this are not compressed
+	 */
+	public static final int MIN_GZIP_SIZE = 256;
+	
+	/**
+	 * Default interval between checks of resource timestamp (in milliseconds)
+	 */
+	public static final long DEFAULT_REVALIDATE_MS = 5000;
+	
+	private final Class<?> loader;
+	
+	private final ConcurrentHashMap<String,Entry> entries;
+	
+	private final long revalidateInterval;
+	
+	/**
+	 * @param loader Class used for loading resources
+	 */
+	public WebResourceCache(Class<?> loader) {
+		this(loader, DEFAULT_REVALIDATE_MS);
+	}
+	
+	/**
+	 * @param loader Class used for loading resources
+	 * @param revalidateMs Interval between checks of resource timestamp (in milliseconds). Use 0 to check
+	 * at every access or a negative number to never check.
+	 */
+	public WebResourceCache(Class<?> loader,long revalidateMs) {
+		this.loader = loader;
+		this.entries = new ConcurrentHashMap<>();
+		this.revalidateInterval = (revalidateMs<0) ? -1 : TimeUnit.MILLISECONDS.toNanos(revalidateMs);
+	}
+	
+	/**
+	 * Returns the cached entry of some binary resource (e.g. image or sound). Returns NULL if not found.
+	 */
+	public Entry getBinary(String resourceName,String contentType) {
+		Entry entry = entries.get(resourceName);
+		if (entry!=null && !isStale(entry))
+			return entry;
+		if (entry!=null)
+			entries.remove(resourceName, entry);
+		return entries.computeIfAbsent(resourceName, name->{
+			final long lastModified = getLastModified(name);
+			byte[] contents = readResource(name);
+			if (contents==null)
+				return null;
+			return new Entry(name, contentType, lastModified, contents, /*compress*/false);
+		});
+	}
+	
+	/**
+	 * Returns the cached entry of some text resource. Returns NULL if not found.<BR>
+	 * Text is transcoded to platform default charset (as informed in content-type).
+	 * @param mask Keyword to be replaced (may be NULL)
+	 * @param replacement Replacement for keyword
+	 */
+	public Entry getText(String resourceName,String contentType,String mask,String replacement) {
+		Entry entry = entries.get(resourceName);
+		if (entry!=null && isStale(entry)) {
+			// Drops the template and every replacement made from it
+			entries.remove(resourceName, entry);
+			entries.keySet().removeIf(key->key.startsWith(resourceName+"\n"));
+		}
+		entry = entries.computeIfAbsent(resourceName, name->{
+			final long lastModified = getLastModified(name);
+			byte[] contents = readResource(name);
+			if (contents==null)
+				return null;
+			String text = IOUtils.decode(contents);
+			Entry template = new Entry(name, contentType+"; charset="+Charset.defaultCharset().name(), 
+					lastModified, text.getBytes(Charset.defaultCharset()), /*compress*/true);
+			if (mask!=null && text.contains(mask))
+				template.template = text;
+			return template;
+		});
+		if (entry==null || entry.template==null || mask==null)
+			return entry;
+		final Entry template = entry;
+		return entries.computeIfAbsent(resourceName+"\n"+replacement, key->{
+			String text = template.template.replace(mask, String.valueOf(replacement));
+			return new Entry(template.resourceName, template.contentType, template.lastModified, 
+					text.getBytes(Charset.defaultCharset()), /*compress*/true);
+		});
+	}
+	
+	/**
+	 * Number of cached entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Drops all cached entries (they will be read again on next access)
+	 */
+	public void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * Tells if the resource timestamp is not the same as the one of the cached entry.
+	 * The timestamp is looked up at most once every 'revalidateInterval'.
+	 */
+	private boolean isStale(Entry entry) {
+		if (revalidateInterval<0)
+			return false;
+		final long now = System.nanoTime();
+		if (now-entry.checkedAt<revalidateInterval)
+			return false;
+		entry.checkedAt = now;
+		return getLastModified(entry.resourceName)!=entry.lastModified;
+	}
+	
+	private byte[] readResource(String resourceName) {
+		try (InputStream input = loader.getResourceAsStream(resourceName);) {
+			if (input==null)
+				return null;
+			return IOUtils.readFileContentsBinary(input);
+		}
+		catch (IOException|RuntimeException e) {
+			log.log(Level.SEVERE, "Error while reading contents for "+resourceName, e);
+			return null;
+		}
+	}
+	
+	private long getLastModified(String resourceName) {
+		return IOUtils.getResourceLastModified(loader, resourceName);
+	}
+	
+	private static ByteBuffer toDirectBuffer(byte[] contents) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(contents.length);
+		buffer.put(contents);
+		buffer.flip();
+		return buffer.asReadOnlyBuffer();
+	}
+	
+	private static byte[] gzip(byte[] contents) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length/2);
+			try (GZIPOutputStream out = new GZIPOutputStream(bytes);) {
+				out.write(contents);
+			}
+			return bytes.toByteArray();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static String getStrongETag(byte[] contents) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(contents);
+			StringBuilder etag = new StringBuilder(digest.length*2+2);
+			etag.append('"');
+			for (byte b:digest) {
+				etag.append(Character.forDigit((b>>4)&0xF, 16));
+				etag.append(Character.forDigit(b&0xF, 16));
+			}
+			etag.append('"');
+			return etag.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * One cached resource
+	 * 
+	 * @author Gustavo Figueiredo
+	 */
+	public static final class Entry {
+		private final String resourceName;
+		private final String contentType;
+		private final long lastModified;
+		private final ByteBuffer contents;
+		private final String eTag;
+		private final ByteBuffer gzipContents;
+		private final String gzipETag;
+		/**
+		 * Original text for resources with keywords to be replaced
+		 */
+		private String template;
+		/**
+		 * Last time the resource timestamp was checked (System.nanoTime)
+		 */
+		private volatile long checkedAt;
+		
+		Entry(String resourceName,String contentType,long lastModified,byte[] contents,boolean compress) {
+			this.resourceName = resourceName;
+			this.contentType = contentType;
+			this.lastModified = lastModified;
+			this.checkedAt = System.nanoTime();
+			this.contents = toDirectBuffer(contents);
+			this.eTag = getStrongETag(contents);
+			byte[] compressed = (compress && contents.length>=MIN_GZIP_SIZE) ? gzip(contents) : null;
+			if (compressed!=null && compressed.length<contents.length) {
+				this.gzipContents = toDirectBuffer(compressed);
+				this.gzipETag = eTag.substring(0, eTag.length()-1)+"-gz\"";
+			}
+			else {
+				this.gzipContents = null;
+				this.gzipETag = null;
+			}
+		}
+		
+		public String getResourceName() {
+			return resourceName;
+		}
+		
+		/**
+		 * Content type (including charset for text resources)
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+		
+		/**
+		 * Timestamp of resource (0 if unknown)
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+		
+		/**
+		 * Tells if there is a compressed variant of this resource
+		 */
+		public boolean hasGzip() {
+			return gzipContents!=null;
+		}
+		
+		/**
+		 * Strong ETag of some variant (quoted)
+		 */
+		public String getETag(boolean gzip) {
+			return (gzip && gzipContents!=null) ? gzipETag : eTag;
+		}
+		
+		/**
+		 * Size in bytes of some variant
+		 */
+		public int getLength(boolean gzip) {
+			return (gzip && gzipContents!=null) ? gzipContents.remaining() : contents.remaining();
+		}
+		
+		/**
+		 * Contents of some variant. Each call returns a new read-only view of the same memory,
+		 * so that it may be consumed by one single request.
+		 */
+		public ByteBuffer getContents(boolean gzip) {
+			return ((gzip && gzipContents!=null) ? gzipContents : contents).duplicate();
+		}
+	}
+}
@@ -49,18 +49,27 @@ import org.eclipse.jetty.websocket.servlet.ServletUpgradeRequest;
 import org.eclipse.jetty.websocket.servlet.ServletUpgradeResponse;
 import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
 import org.guga.robotoy.rasp.utils.IOUtils;
 import org.guga.robotoy.rasp.utils.JSONUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -123,6 +132,50 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 	
 	/** Keyword in .JS files that gets overriden by server IP address **/
 	private static final String MASK_SERVERHOST = "@SERVERHOST";
+	
+	/**
+	 * Servlet mappings of JSP pages precompiled at build time (see 'precompileJsp' task
+	 * in build.gradle). Relative to resources package.
+	 */
+	public static final String PRECOMPILED_DESCRIPTOR = "/WEB-INF/jspc-web.xml";
+	
+	/**
+	 * Use servlets precompiled at build time in place of JSP pages, if present. Turning it off
+	 * makes it possible to compare startup timings of the same build with pages compiled at runtime.<BR>
+	 * Default: true
+	 */
+	public boolean isPrecompiledPages() {
+		return precompiledPages;
+	}
+
+	public void setPrecompiledPages(boolean precompiledPages) {
+		this.precompiledPages = precompiledPages;
+	}
+
+	/**
+	 * Scheduler for running the warm up as an {@link RoboToyScheduler#GROUP_ADMIN admin} task.
+	 * Without it there is no warm up.
+	 */
+	public void setScheduler(RoboToyScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Pages requested right after startup (for compiling and loading them before
+	 * any player does)
+	 */
+	public static final String[] DEFAULT_WARMUP_PAGES = { "index.jsp", "lobby.jsp", "driving.jsp" };
+	
+	/**
+	 * Header of requests made by this server to itself during warm up. Only accepted from loopback
+	 * address. Such requests are not redirected.
+	 */
+	private static final String WARMUP_HEADER = "X-RoboToy-Warmup";
+	
+	/**
+	 * Request attribute set on requests made by this server to itself during warm up (see 'AccessTag')
+	 */
+	public static final String WARMUP_ATTRIBUTE = "org.guga.robotoy.rasp.warmup";
 			
 	/**
 	 * Package name for all resources provided by web application.<BR>
@@ -173,6 +226,35 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 	private KeyStore sslKeyStore;
 	
 	private WebAppContext webHandler;
+	
+	/**
+	 * Static resources (scripts, styles, images and sounds) kept in memory
+	 */
+	private final WebResourceCache resourceCache = new WebResourceCache(WebServer.class);
+	
+	/**
+	 * Scan classpath for annotations and web fragments on startup (slower)
+	 */
+	private boolean scanAnnotations = false;
+	
+	/**
+	 * Use servlets precompiled at build time in place of JSP pages, if present
+	 */
+	private boolean precompiledPages = true;
+	
+	private List<String> warmupPages = Arrays.asList(DEFAULT_WARMUP_PAGES);
+	
+	/**
+	 * Scheduler for running the warm up (NULL = no warm up)
+	 */
+	private RoboToyScheduler scheduler;
+	
+	private volatile StartupReport startupReport;
+	
+	/**
+	 * Local address this server listens to (NULL = all addresses)
+	 */
+	private String daemonHost;
 		
 	public WebServer(AutoRedirection autoRedirect,WebSocketClientPool socketsPool,String resourcesPackageName,String workDir)
 	{
@@ -201,6 +283,20 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		this.daemonPort = daemonPort;
 	}
 
+	/**
+	 * Local address this server listens to (NULL = all addresses)
+	 */
+	public String getDaemonHost() {
+		return daemonHost;
+	}
+
+	/**
+	 * Local address this server listens to (NULL = all addresses)
+	 */
+	public void setDaemonHost(String daemonHost) {
+		this.daemonHost = daemonHost;
+	}
+
 	/** 
 	 * Set the secure port to listen on. 
 	 * 0 = no secure port 
@@ -323,9 +419,42 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		this.defaultImagesPackageName = defaultImagesPackageName;
 	}
 
+	/**
+	 * Scan classpath for annotations and web fragments on startup. Not needed by RoboToy pages.<BR>
+	 * Default: false
+	 */
+	public boolean isScanAnnotations() {
+		return scanAnnotations;
+	}
+
+	public void setScanAnnotations(boolean scanAnnotations) {
+		this.scanAnnotations = scanAnnotations;
+	}
+
+	/**
+	 * Pages requested right after startup (for compiling and loading them before
+	 * any player does). Their 'time to first byte' is reported in {@link #getStartupReport() getStartupReport}.
+	 */
+	public List<String> getWarmupPages() {
+		return warmupPages;
+	}
+
+	public void setWarmupPages(List<String> warmupPages) {
+		this.warmupPages = (warmupPages==null) ? Collections.emptyList() : warmupPages;
+	}
+
+	/**
+	 * Startup timings (NULL if server has not started yet)
+	 */
+	public StartupReport getStartupReport() {
+		return startupReport;
+	}
+
 	@Override
 	public void run() {
 		
+		final long startTime = System.nanoTime();
+		
 		// Thread Pool
 		QueuedThreadPool threadPool = new QueuedThreadPool();
 		threadPool.setMaxThreads(500);
@@ -342,6 +471,8 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		
 		ServerConnector http = new ServerConnector(server, new HttpConnectionFactory(http_config));
 		http.setPort(daemonPort);
+		if (daemonHost!=null)
+			http.setHost(daemonHost);
 		if (log.isLoggable(Level.FINE))
 			log.log(Level.FINE, "Starting up HTTP port "+daemonPort);
 		http.setIdleTimeout(Integer.MAX_VALUE);
@@ -363,6 +494,13 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
             	factory.setCreator(new WebSocketCreator() {					
 					@Override
 					public Object createWebSocket(ServletUpgradeRequest arg0, ServletUpgradeResponse arg1) {
+						// Players may ask for binary sub-protocol (for driving commands)
+						if (arg0.getSubProtocols()!=null
+							&& arg0.getSubProtocols().contains(WebSocketHandlerImpl.BINARY_SUBPROTOCOL)
+							&& arg0.getRequestURI()!=null
+							&& RoboToyServerContext.isConnectedToPlayer(arg0.getRequestURI().getPath())) {
+							arg1.setAcceptedSubProtocol(WebSocketHandlerImpl.BINARY_SUBPROTOCOL);
+						}
 						return new WebSocketHandlerImpl(socketsPool);
 					}
 				});
@@ -388,16 +526,32 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		}        
         
         // JSP stuff
-        webHandler.setConfigurations(new Configuration[] {
-				new AnnotationConfiguration(),
-				new WebInfConfiguration(),
-				new WebXmlConfiguration(),
-				new MetaInfConfiguration(),
-				new FragmentConfiguration(),
-				new EnvConfiguration(),
-				new PlusConfiguration(),
-				new JettyWebXmlConfiguration()
-				});
+        if (scanAnnotations) {
+	        webHandler.setConfigurations(new Configuration[] {
+					new AnnotationConfiguration(),
+					new WebInfConfiguration(),
+					new WebXmlConfiguration(),
+					new MetaInfConfiguration(),
+					new FragmentConfiguration(),
+					new EnvConfiguration(),
+					new PlusConfiguration(),
+					new JettyWebXmlConfiguration()
+					});
+        }
+        else {
+        	// Only what is needed for web.xml and JSP (annotations and web fragments are not used)
+	        webHandler.setConfigurations(new Configuration[] {
+					new WebInfConfiguration(),
+					new WebXmlConfiguration(),
+					new MetaInfConfiguration(),
+					new JettyWebXmlConfiguration()
+					});
+        }
+        URL precompiled = (precompiledPages) ? this.getClass().getResource(resourcesPackageName+PRECOMPILED_DESCRIPTOR) : null;
+        if (precompiled!=null) {
+        	// Servlets generated at build time take the place of JSP pages
+        	webHandler.setOverrideDescriptor(precompiled.toExternalForm());
+        }
         System.setProperty("org.apache.jasper.compiler.disablejsr199", "false");
         webHandler.setAttribute("org.eclipse.jetty.containerInitializers", jspInitializers());
         webHandler.setAttribute(InstanceManager.class.getName(), new SimpleInstanceManager());
@@ -420,6 +574,13 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 	        	// Random port number
 	        	daemonPort = ((ServerConnector)server.getConnectors()[0]).getLocalPort();
 	        }
+	        final double startupMs = (System.nanoTime()-startTime)/1_000_000.0;
+	        final boolean precompiledPages = (precompiled!=null);
+	        startupReport = new StartupReport(startupMs, precompiledPages, scanAnnotations, Collections.emptyList());
+	        if (!warmupPages.isEmpty() && scheduler!=null && scheduler.isRunning()) {
+	        	// May take seconds if pages are compiled at runtime
+	        	scheduler.submit(RoboToyScheduler.GROUP_ADMIN, "WebServerWarmup", ()->{ warmup(startupMs, precompiledPages); });
+	        }
 	        if (onStartCallback!=null)
 	        	onStartCallback.run();
 	        server.join();
@@ -434,6 +595,88 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		return server!=null && server.isRunning();
 	}
 	
+	/**
+	 * Requests each one of 'warmupPages' twice, measuring the time to first byte of
+	 * the first request after boot (that may need to compile and load the page) and of the
+	 * second request (page already loaded).<BR>
+	 * Requests are made as a warm up identity that is let through by 'AccessTag', so that each
+	 * page is actually rendered (and not forwarded to login page). All of them share the same
+	 * HTTP session, which is dropped at the end.
+	 */
+	private void warmup(double startupMs,boolean precompiledPages) {
+		List<PageTiming> timings = new ArrayList<>(warmupPages.size());
+		String[] sessionCookie = new String[1];
+		for (String page:warmupPages) {
+			if (!isRunning())
+				return;
+			String address = "http://127.0.0.1:"+daemonPort+(page.startsWith("/")?"":"/")+page;
+			PageTiming timing = new PageTiming(page);
+			try {
+				URL url = new URL(address);
+				requestPage(url, timing, /*warm*/false, sessionCookie);
+				requestPage(url, timing, /*warm*/true, sessionCookie);
+			}
+			catch (Throwable e) {
+				log.log(Level.WARNING, "Error while warming up "+address, e);
+			}
+			timings.add(timing);
+		}
+		if (sessionCookie[0]!=null) {
+			try {
+				HttpSession session = webHandler.getSessionHandler().getSessionManager()
+						.getHttpSession(sessionCookie[0].substring(sessionCookie[0].indexOf('=')+1));
+				if (session!=null)
+					session.invalidate();
+			}
+			catch (Throwable e) {
+				log.log(Level.FINE, "Error while dropping warm up session", e);
+			}
+		}
+		StartupReport report = new StartupReport(startupMs, precompiledPages, scanAnnotations, timings);
+		startupReport = report;
+		if (log.isLoggable(Level.INFO))
+			log.log(Level.INFO, report.toString());
+	}
+	
+	/**
+	 * Requests a page, measuring the time until the response starts (the rest of
+	 * response is read afterwards).
+	 * @param sessionCookie Session cookie to send (if not NULL) and to keep (if a new one is returned)
+	 */
+	private static void requestPage(URL url,PageTiming timing,boolean warm,String[] sessionCookie) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+		conn.setInstanceFollowRedirects(false);
+		conn.setRequestProperty(WARMUP_HEADER, "true");
+		if (sessionCookie[0]!=null)
+			conn.setRequestProperty("Cookie", sessionCookie[0]);
+		try {
+			final long start = System.nanoTime();
+			int status = conn.getResponseCode();
+			final double elapsedMs = (System.nanoTime()-start)/1_000_000.0;
+			if (warm) {
+				timing.warmFirstByteMs = elapsedMs;
+			}
+			else {
+				timing.status = status;
+				timing.firstByteMs = elapsedMs;
+			}
+			String setCookie = conn.getHeaderField("Set-Cookie");
+			if (setCookie!=null && setCookie.startsWith("JSESSIONID=")) {
+				int sep = setCookie.indexOf(';');
+				sessionCookie[0] = (sep<0) ? setCookie : setCookie.substring(0, sep);
+			}
+			InputStream input = (status<400) ? conn.getInputStream() : conn.getErrorStream();
+			if (input!=null) {
+				try (InputStream in = input;) {
+					timing.length = IOUtils.readFileContentsBinary(in).length;
+				}
+			}
+		}
+		finally {
+			conn.disconnect();
+		}
+	}
+
 	private static List<ContainerInitializer> jspInitializers() {
 		JettyJasperInitializer sci = new JettyJasperInitializer();
 		ContainerInitializer initializer = new ContainerInitializer(sci, null);
@@ -466,6 +709,8 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 			new SslConnectionFactory(sslContextFactory,HttpVersion.HTTP_1_1.asString()),
 			new HttpConnectionFactory(https_config));
 		sslConnector.setPort(daemonPortSecure);
+		if (daemonHost!=null)
+			sslConnector.setHost(daemonHost);
 		server.addConnector(sslConnector);
 	}
 	
@@ -513,6 +758,10 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 				String protocol = baseRequest.getProtocol();
 				log.log(Level.FINE,protocol.toUpperCase()+" REQUEST "+request.getRequestURI()+" FROM "+baseRequest.getRemoteAddr());
 			}
+			if (isWarmupRequest(request)) {
+				// Let through by 'AccessTag' and not redirected
+				request.setAttribute(WARMUP_ATTRIBUTE, Boolean.TRUE);
+			}
 			String uri = request.getRequestURI();
 			final String uri_lc = uri.toLowerCase();
 			if ("/".equals(uri) || "/index.html".equalsIgnoreCase(uri) || "/index.htm".equalsIgnoreCase(uri) || "/index.jsp".equalsIgnoreCase(uri)) {
@@ -526,7 +775,7 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 				if (uri_lc.endsWith(".jsp")) {
 					WebCacheControl.setNoCache(response);
 				}
-				if (customAutoRedirection!=null) {				
+				if (customAutoRedirection!=null && request.getAttribute(WARMUP_ATTRIBUTE)==null) {				
 					String redirection = customAutoRedirection.getHTTPRedirection(request.getRemoteAddr(),request.getRequestURI(),
 							request.getQueryString(),
 							parts.resourceFullName,
@@ -544,36 +793,21 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 				return; // this request will be handled by 'WebAppContext'
 			}
 			else if ("/manifest.json".equalsIgnoreCase(uri)) {
-				serveTextContents(resourcesPackageName+"/manifest.json","application/manifest+json",baseRequest,request,response,/*cacheable*/false);
-				baseRequest.setHandled(true);				
+				WebResourceCache.Entry entry = resourceCache.getText(resourcesPackageName+"/manifest.json","application/manifest+json",
+						MASK_SERVERHOST,baseRequest.getLocalAddr());
+				serveCachedContents(entry,baseRequest,request,response,/*cacheable*/false);
 			}
 			else if (uri_lc.endsWith(".js")) {
 				RequestedPathParts parts = breakURIParts(uri,defaultJsPackageName);
-				final long resource_timestamp = IOUtils.getResourceLastModified(WebServer.class, parts.resourceFullName);
-				if (resource_timestamp>0 && WebCacheControl.checkCacheTimeBased(request, resource_timestamp)) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Requested resource ("+uri+") is already cached and up-to-date!");
-					}
-					WebCacheControl.replyCacheHit(response, parts.filename, resource_timestamp);
-					baseRequest.setHandled(true);
-					return;
-				}
-				serveTextContents(parts.resourceFullName,"application/javascript",baseRequest,request,response,/*cacheable*/true);
-				baseRequest.setHandled(true);				
+				WebResourceCache.Entry entry = resourceCache.getText(parts.resourceFullName,"application/javascript",
+						MASK_SERVERHOST,baseRequest.getLocalAddr());
+				serveCachedContents(entry,baseRequest,request,response,/*cacheable*/true);
 			}
 			else if (uri_lc.endsWith(".css")) {
 				RequestedPathParts parts = breakURIParts(uri,defaultCssPackageName);
-				final long resource_timestamp = IOUtils.getResourceLastModified(WebServer.class, parts.resourceFullName);
-				if (resource_timestamp>0 && WebCacheControl.checkCacheTimeBased(request, resource_timestamp)) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Requested resource ("+uri+") is already cached and up-to-date!");
-					}
-					WebCacheControl.replyCacheHit(response, parts.filename, resource_timestamp);
-					baseRequest.setHandled(true);
-					return;
-				}
-				serveTextContents(parts.resourceFullName,"text/css",baseRequest,request,response,/*cacheable*/true);
-				baseRequest.setHandled(true);				
+				WebResourceCache.Entry entry = resourceCache.getText(parts.resourceFullName,"text/css",
+						MASK_SERVERHOST,baseRequest.getLocalAddr());
+				serveCachedContents(entry,baseRequest,request,response,/*cacheable*/true);
 			}
 			else if (uri_lc.endsWith(".png")
 					|| uri_lc.endsWith(".ico")
@@ -582,61 +816,24 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 				if (uri_lc.endsWith("apple-touch-icon.png"))
 					uri = "/hi_def.png";
 				RequestedPathParts parts = breakURIParts(uri,defaultImagesPackageName);
-				final long resource_timestamp = IOUtils.getResourceLastModified(WebServer.class, parts.resourceFullName);
-				if (resource_timestamp>0 && WebCacheControl.checkCacheTimeBased(request, resource_timestamp)) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Requested resource ("+uri+") is already cached and up-to-date!");
-					}
-					WebCacheControl.replyCacheHit(response, parts.filename, resource_timestamp);
-					baseRequest.setHandled(true);
-					return;
-				}
-				try (InputStream input = WebServer.class.getResourceAsStream(parts.resourceFullName);) {					
-					byte[] img_contents = IOUtils.readFileContentsBinary(input);
-					if (img_contents==null) {
-						response.sendError(HttpServletResponse.SC_NOT_FOUND);
-					}
-					else {
-						response.setHeader("Content-Type", "image/"+parts.ext);
-						response.setHeader("Content-Length", String.valueOf(img_contents.length));
-						WebCacheControl.setPublicCache(response, DEFAULT_EXPIRE_TIME, TimeUnit.SECONDS, resource_timestamp);
-						response.getOutputStream().write(img_contents);
-					}
-				}
-				baseRequest.setHandled(true);
+				WebResourceCache.Entry entry = resourceCache.getBinary(parts.resourceFullName,"image/"+parts.ext);
+				serveCachedContents(entry,baseRequest,request,response,/*cacheable*/true);
 			}
 			else if (uri_lc.endsWith(".mp3")
 					|| uri_lc.endsWith(".ogg")
 					|| uri_lc.endsWith(".wav")) {
 				RequestedPathParts parts = breakURIParts(uri,resourcesPackageName);
-				final long resource_timestamp = IOUtils.getResourceLastModified(WebServer.class, parts.resourceFullName);
-				if (resource_timestamp>0 && WebCacheControl.checkCacheTimeBased(request, resource_timestamp)) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Requested resource ("+uri+") is already cached and up-to-date!");
-					}
-					WebCacheControl.replyCacheHit(response, parts.filename, resource_timestamp);
-					baseRequest.setHandled(true);
-					return;
-				}
-				try (InputStream input = WebServer.class.getResourceAsStream(parts.resourceFullName);) {					
-					byte[] sound_contents = IOUtils.readFileContentsBinary(input);
-					if (sound_contents==null) {
-						response.sendError(HttpServletResponse.SC_NOT_FOUND);
-					}
-					else {
-						if (uri_lc.endsWith(".ogg"))
-							response.setHeader("Content-Type", "audio/ogg");
-						else if (uri_lc.endsWith(".wav"))
-							response.setHeader("Content-Type", "audio/wav");
-						else
-							response.setHeader("Content-Type", "audio/mpeg");
-						response.setHeader("Content-Disposition", "filename="+parts.filename);
-						response.setHeader("Content-Length", String.valueOf(sound_contents.length));						
-						WebCacheControl.setPublicCache(response, DEFAULT_EXPIRE_TIME, TimeUnit.SECONDS, resource_timestamp);
-						response.getOutputStream().write(sound_contents);
-					}
-				}
-				baseRequest.setHandled(true);
+				final String contentType;
+				if (uri_lc.endsWith(".ogg"))
+					contentType = "audio/ogg";
+				else if (uri_lc.endsWith(".wav"))
+					contentType = "audio/wav";
+				else
+					contentType = "audio/mpeg";
+				WebResourceCache.Entry entry = resourceCache.getBinary(parts.resourceFullName,contentType);
+				if (entry!=null)
+					response.setHeader("Content-Disposition", "filename="+parts.filename);
+				serveCachedContents(entry,baseRequest,request,response,/*cacheable*/true);
 			}
 			else {
 				if (customRESTfulService!=null) {
@@ -671,7 +868,18 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 						return;
 					}
 					if (obj!=null) {
-						if (obj instanceof String) {
+						if (obj instanceof StreamingContents) {
+							// contents written straight to response
+							StreamingContents contents = (StreamingContents)obj;
+							Charset charset = StandardCharsets.UTF_8;
+							response.setContentType(contents.getContentType()+"; charset="+charset.name());
+							WebCacheControl.setNoCache(response);
+							response.setStatus(HttpServletResponse.SC_OK);
+							PrintWriter out = response.getWriter();
+							contents.writeTo(out);
+							out.flush();
+						}
+						else if (obj instanceof String) {
 							// raw text contents
 							Charset charset = Charset.defaultCharset();
 							response.setContentType("text/plain; charset="+charset.name());
@@ -693,7 +901,7 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 							response.setStatus(HttpServletResponse.SC_OK);
 							PrintWriter out = response.getWriter();
 							if (accept_json)
-								out.print(JSONUtils.toJSON(obj, false));
+								JSONUtils.toJSON(obj, out);
 							else
 								out.print(putInHTMLBody(JSONUtils.toJSON(obj, true)));
 						}
@@ -706,6 +914,20 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		}
 	}
 	
+	/**
+	 * Tells if this is a request made by this server to itself during warm up
+	 */
+	private static boolean isWarmupRequest(HttpServletRequest request) {
+		if (request.getHeader(WARMUP_HEADER)==null)
+			return false;
+		try {
+			return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+		}
+		catch (UnknownHostException e) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Get the session ID stored in a cookie coming from request
 	 */
@@ -720,33 +942,49 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		return null;
 	}
 	
-	private void serveTextContents(String resourceName,String contentType,
+	/**
+	 * Serves contents kept in 'resourceCache', replying with 'not modified' if
+	 * the client already has the same version and with the compressed variant if
+	 * the client accepts it.
+	 */
+	private void serveCachedContents(WebResourceCache.Entry entry,
 			Request baseRequest,
 			HttpServletRequest request,
 			HttpServletResponse response,
 			boolean cacheable) throws IOException {
-		Charset charset = Charset.defaultCharset();
-		response.setContentType(contentType+"; charset="+charset.name());
+		baseRequest.setHandled(true);
+		if (entry==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final boolean gzip = entry.hasGzip() && WebCacheControl.acceptsGzip(request);
+		final String eTag = entry.getETag(gzip);
+		final long resource_timestamp = entry.getLastModified();
+		if (cacheable 
+				&& (WebCacheControl.checkCacheETag(request, eTag)
+					|| (resource_timestamp>0 && WebCacheControl.checkCacheTimeBased(request, resource_timestamp)))) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Requested resource ("+request.getRequestURI()+") is already cached and up-to-date!");
+			}
+			WebCacheControl.replyCacheHit(response, eTag);
+			return;
+		}
+		response.setContentType(entry.getContentType());
 		if (!cacheable) {
 			WebCacheControl.setNoCache(response);
 		}
 		else {
-			WebCacheControl.setPublicCache(response, DEFAULT_EXPIRE_TIME, TimeUnit.SECONDS, IOUtils.getResourceLastModified(WebServer.class, resourceName));
+			WebCacheControl.setPublicCache(response, DEFAULT_EXPIRE_TIME, TimeUnit.SECONDS, resource_timestamp);
+			response.setHeader("ETag", eTag);
 		}
+		if (entry.hasGzip())
+			response.setHeader("Vary", "Accept-Encoding");
+		if (gzip)
+			response.setHeader("Content-Encoding", "gzip");
+		response.setContentLength(entry.getLength(gzip));
 		response.setStatus(HttpServletResponse.SC_OK);
-		PrintWriter out = response.getWriter();
-		try (InputStream input = WebServer.class.getResourceAsStream(resourceName);) {
-			String contents = IOUtils.readFileContents(input);
-			// Replace special keywords
-			if (contents.contains(MASK_SERVERHOST)) {
-				contents = contents.replace(MASK_SERVERHOST, baseRequest.getLocalAddr());
-			}
-			out.write(contents);
-		}
-		catch (RuntimeException|IOException e) {
-			log.log(Level.SEVERE, "Error while serving contents for "+resourceName, e);
-			throw e;
-		}
+		// Cached buffers are written straight to the connection
+		baseRequest.getResponse().getHttpOutput().sendContent(entry.getContents(gzip));
 	}
 	
 	private static String putInHTMLBody(String contents) {
@@ -804,6 +1042,118 @@ public class WebServer implements org.guga.robotoy.rasp.network.Server {
 		public Object getResponse(String method,String uri,String requestContents,String remoteAddress,HttpSession session) throws Exception;
 	}
 
+	/**
+	 * Response of 'CustomRESTfulService' that writes its own contents straight to the HTTP response,
+	 * without building them in memory first.
+	 * @author Gustavo Figueiredo
+	 */
+	@FunctionalInterface
+	public static interface StreamingContents {
+		
+		public void writeTo(Writer out) throws IOException;
+		
+		/**
+		 * Content type (without charset)
+		 */
+		default public String getContentType() {
+			return "text/plain";
+		}
+	}
+
+	/**
+	 * Timings collected on server startup
+	 * @author Gustavo Figueiredo
+	 */
+	public static class StartupReport {
+		private final double startupMs;
+		private final boolean precompiledPages;
+		private final boolean scanAnnotations;
+		private final List<PageTiming> pages;
+		StartupReport(double startupMs,boolean precompiledPages,boolean scanAnnotations,List<PageTiming> pages) {
+			this.startupMs = startupMs;
+			this.precompiledPages = precompiledPages;
+			this.scanAnnotations = scanAnnotations;
+			this.pages = Collections.unmodifiableList(pages);
+		}
+		/**
+		 * Time taken for starting up web server (in milliseconds)
+		 */
+		public double getStartupMs() {
+			return startupMs;
+		}
+		/**
+		 * Tells if JSP pages were precompiled at build time
+		 */
+		public boolean isPrecompiledPages() {
+			return precompiledPages;
+		}
+		public boolean isScanAnnotations() {
+			return scanAnnotations;
+		}
+		/**
+		 * Time to first byte of each page requested on warm up
+		 */
+		public List<PageTiming> getPages() {
+			return pages;
+		}
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			// Time to first byte of first and second requests of each page in this boot. Compare reports
+			// of boots with and without 'precompiledPages' to see the effect of precompilation.
+			s.append(String.format("Web server started in %.1fms (precompiled pages: %s, annotations scan: %s)", 
+					startupMs, precompiledPages, scanAnnotations));
+			for (PageTiming page:pages)
+				s.append("\n\t").append(page);
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Time to first byte of one page, before and after it gets loaded
+	 * @author Gustavo Figueiredo
+	 */
+	public static class PageTiming {
+		private final String page;
+		private int status;
+		private double firstByteMs;
+		private double warmFirstByteMs;
+		private int length;
+		PageTiming(String page) {
+			this.page = page;
+		}
+		public String getPage() {
+			return page;
+		}
+		/**
+		 * HTTP status of first request
+		 */
+		public int getStatus() {
+			return status;
+		}
+		/**
+		 * Size in bytes of rendered page
+		 */
+		public int getLength() {
+			return length;
+		}
+		/**
+		 * Time to first byte of first request (in milliseconds)
+		 */
+		public double getFirstByteMs() {
+			return firstByteMs;
+		}
+		/**
+		 * Time to first byte of second request (in milliseconds)
+		 */
+		public double getWarmFirstByteMs() {
+			return warmFirstByteMs;
+		}
+		public String toString() {
+			return String.format("%s: status %d, %d bytes, first request %.1fms, second request %.1fms", 
+					page, status, length, firstByteMs, warmFirstByteMs);
+		}
+	}
+
 	/**
 	 * Parts of requested URI
 	 */
@@ -17,16 +17,20 @@ package org.guga.robotoy.rasp.network;
 
 import java.net.InetAddress;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
 
 /**
  * Implementation using web sockets for communication
@@ -45,13 +49,28 @@ public class WebSocketClientPool {
 	
 	private final RemovalCallback removalCallback;
 	
-	private final ConcurrentLinkedQueue<WebSocketHandlerImpl> activeSessions;
+	private final WebSocketSessionRegistry<WebSocketHandlerImpl> activeSessions;
+	
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	private BooleanSupplier takeStatistics = ()->false;
+	
+	/**
+	 * Watches for incoming messages taking too long to be processed
+	 */
+	private StallWatchdog watchdog = StallWatchdog.DISABLED;
+	
+	/**
+	 * Local address for connections started here (NULL = any address)
+	 */
+	private volatile InetAddress bindAddress;
 	
 	public WebSocketClientPool(CommandCentral commandCentral,InclusionCallback inclusionCallback,RemovalCallback removalCallback) {
 		this.commandCentral = commandCentral;
 		this.inclusionCallback = inclusionCallback;
 		this.removalCallback = removalCallback;
-		this.activeSessions = new ConcurrentLinkedQueue<>();
+		this.activeSessions = new WebSocketSessionRegistry<>();
 	}
 	
 	public void connect(String address,int port_number,String path) throws Exception {
@@ -62,27 +81,69 @@ public class WebSocketClientPool {
 			uri += path; 
 		}
 		WebSocketHandlerImpl clientEndPoint = new WebSocketHandlerImpl(this,new URI(uri));
-		if (!hasSession(clientEndPoint.getSessionId()))
-			activeSessions.add(clientEndPoint);
+		activeSessions.add(clientEndPoint);
 	}
 	
+	/**
+	 * Includes a new session or updates the indexes of a session already
+	 * included (e.g. a session started here that has just connected)
+	 */
 	void addSession(WebSocketHandlerImpl handler) {
-		if (!hasSession(handler.getSessionId()))
-			activeSessions.add(handler);
+		activeSessions.add(handler);
 	}
 	
 	void removeSession(WebSocketHandlerImpl handler) {
 		activeSessions.remove(handler);
 	}
 	
+	/**
+	 * Should be called after some change to session attributes (e.g. requested path)
+	 */
+	void updateSession(WebSocketHandlerImpl handler) {
+		activeSessions.update(handler);
+	}
+	
 	boolean hasSession(String sessionId) {
-		if (sessionId==null)
-			return false;
-		for (WebSocketActiveSession handler:activeSessions) {
-			if (sessionId.equals(handler.getSessionId()))
-				return true;
-		}
-		return false;
+		return activeSessions.getByKey(sessionId)!=null;
+	}
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	public void setTakeStatistics(BooleanSupplier takeStatistics) {
+		this.takeStatistics = (takeStatistics==null) ? ()->false : takeStatistics;
+	}
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	boolean isTakeStatistics() {
+		return takeStatistics.getAsBoolean();
+	}
+
+	/**
+	 * Watches for incoming messages taking too long to be processed
+	 */
+	public void setWatchdog(StallWatchdog watchdog) {
+		this.watchdog = (watchdog==null) ? StallWatchdog.DISABLED : watchdog;
+	}
+
+	StallWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	/**
+	 * Local address for connections started here (NULL = any address)
+	 */
+	public InetAddress getBindAddress() {
+		return bindAddress;
+	}
+
+	/**
+	 * Local address for connections started here (NULL = any address)
+	 */
+	public void setBindAddress(InetAddress bindAddress) {
+		this.bindAddress = bindAddress;
 	}
 
 	public CommandCentral getCommandCentral() {
@@ -114,38 +175,29 @@ public class WebSocketClientPool {
 	}
 
 	protected WebSocketHandlerImpl getConnection(String address,int port) {
-		for (WebSocketHandlerImpl session:activeSessions) {
-			if (port!=0 && port!=session.getRemotePort())
-				continue;
-			if (session.getHost().equals(address)) 
-				return session;
-		}
-		return null;
+		return activeSessions.getByHostPort(address, port);
 	}
 	
 	public boolean hasActiveSession(InetAddress address) {
 		String host_address = address.getHostAddress();
-		for (WebSocketHandlerImpl session:activeSessions) {
-			if (!host_address.equals(session.getHost()))
-				continue;
-			if (!session.isActive())
-				continue;
-			return true;
+		for (WebSocketHandlerImpl session:activeSessions.getByHost(host_address)) {
+			if (session.isActive())
+				return true;
 		}		
 		return false;
 	}
 
 	public boolean hasActiveSessionWithPath(String path) {
-		for (WebSocketHandlerImpl session:activeSessions) {
-			if (session.getPath()!=path) {
-				if (session.getPath()==null || path==null)
-					continue;
-				if (!session.getPath().equalsIgnoreCase(path))
-					continue;
-			}
-			if (!session.isActive())
+		Collection<WebSocketHandlerImpl> sessions;
+		if (path==null)
+			sessions = activeSessions.getAll(); // unindexed
+		else
+			sessions = activeSessions.getByPath(path);
+		for (WebSocketHandlerImpl session:sessions) {
+			if (path==null && session.getPath()!=null)
 				continue;
-			return true;
+			if (session.isActive())
+				return true;
 		}		
 		return false;
 	}
@@ -157,8 +209,27 @@ public class WebSocketClientPool {
 	public void sendMessageAll(String message,String... excludePath) throws Exception {
 		if (activeSessions.isEmpty())
 			return;
-		Set<String> avoid_duplicity = new HashSet<>();
-		for (WebSocketHandlerImpl session:activeSessions) {
+		broadcast(BroadcastFrame.encode(message),excludePath);
+	}
+
+	public void sendMessageAll(String message, Set<String> filterPaths) throws Exception {
+		if (activeSessions.isEmpty())
+			return;
+		broadcast(BroadcastFrame.encode(message),filterPaths);
+	}
+
+	/**
+	 * Send a message already encoded to all web-sockets clients. Returns
+	 * the number of sessions reached.
+	 * @param excludePath If not NULL, avoid sending message to sessions with this requested path
+	 */
+	public int broadcast(BroadcastFrame frame,String... excludePath) {
+		if (activeSessions.isEmpty())
+			return 0;
+		final long start = System.nanoTime();
+		final List<WebSocketHandlerImpl> toFlush = new ArrayList<>(activeSessions.size());
+		int recipients = 0;
+		for (WebSocketHandlerImpl session:activeSessions.getAll()) {
 			if (excludePath!=null && excludePath.length>0) {
 				boolean ignore_this = false;
 				String session_path = session.getPath();
@@ -175,47 +246,79 @@ public class WebSocketClientPool {
 				if (ignore_this)
 					continue;
 			}
-			String session_id = session.getSessionId();
-			if (avoid_duplicity.contains(session_id))
-				continue;
-			avoid_duplicity.add(session_id);
-			try {
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST,"Broadcast to "+session.getHost()+":"+session.getRemotePort()+" "+message);
-				}
-				session.sendMessage(message,null);
-			}				
-			catch (Throwable e) {
-				log.log(Level.SEVERE,"Error sending response to "+session.getHost(),e);
-			}
-
+			recipients += sendBroadcast(session, frame, toFlush);
 		}
+		flushBroadcast(toFlush, frame, recipients, start);
+		return recipients;
 	}
 
-	public void sendMessageAll(String message, Set<String> filterPaths) throws Exception {
+	/**
+	 * Send a message already encoded to web-sockets clients. Returns
+	 * the number of sessions reached.
+	 * @param filterPaths If not NULL, only send message to sessions with these requested paths
+	 */
+	public int broadcast(BroadcastFrame frame, Set<String> filterPaths) {
 		if (activeSessions.isEmpty())
-			return;
-		Set<String> avoid_duplicity = new HashSet<>();
-		for (WebSocketHandlerImpl session:activeSessions) {
-			String path = session.getPath();
-			if (filterPaths!=null) {
-				if (path==null || !filterPaths.contains(path))
+			return 0;
+		final long start = System.nanoTime();
+		final List<WebSocketHandlerImpl> toFlush = new ArrayList<>(activeSessions.size());
+		int recipients = 0;
+		if (filterPaths==null) {
+			for (WebSocketHandlerImpl session:activeSessions.getAll()) {
+				recipients += sendBroadcast(session, frame, toFlush);
+			}
+		}
+		else {
+			for (String path:filterPaths) {
+				if (path==null)
 					continue;
+				for (WebSocketHandlerImpl session:activeSessions.getByPath(path)) {
+					if (path.equals(session.getPath()))
+						recipients += sendBroadcast(session, frame, toFlush);
+				}
 			}
-			String session_id = session.getSessionId();
-			if (avoid_duplicity.contains(session_id))
-				continue;
-			avoid_duplicity.add(session_id);
+		}
+		flushBroadcast(toFlush, frame, recipients, start);
+		return recipients;
+	}
+	
+	/**
+	 * Queues the frame to one session. Returns 1 if it was queued, 0 otherwise
+	 * (e.g. session already closed, but not yet removed from pool).
+	 */
+	private int sendBroadcast(WebSocketHandlerImpl session,BroadcastFrame frame,List<WebSocketHandlerImpl> toFlush) {
+		if (session.isClosed())
+			return 0;
+		try {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST,"Broadcast to "+session.getHost()+":"+session.getRemotePort()+" "+frame.getText());
+			}
+			if (session.sendFrame(frame,null))
+				toFlush.add(session);
+			return 1;
+		}				
+		catch (Throwable e) {
+			log.log(Level.SEVERE,"Error sending response to "+session.getHost(),e);
+			return 0;
+		}
+	}
+	
+	/**
+	 * Flushes once each session that got the frame in batch
+	 */
+	private void flushBroadcast(List<WebSocketHandlerImpl> toFlush,BroadcastFrame frame,int recipients,long start) {
+		for (WebSocketHandlerImpl session:toFlush) {
 			try {
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST,"Broadcast to "+session.getHost()+":"+session.getRemotePort()+" "+message);
-				}
-				session.sendMessage(message,null);
-			}				
+				session.flushFrames();
+			}
 			catch (Throwable e) {
-				log.log(Level.SEVERE,"Error sending response to "+session.getHost(),e);
+				log.log(Level.FINE,"Error flushing broadcast to "+session.getHost(),e);
 			}
-
+		}
+		if (recipients>0 && takeStatistics.getAsBoolean()) {
+			final long elapsed = System.nanoTime() - start;
+			RoboToyStatistics.addBroadcast(recipients, frame.getLength(), elapsed/1_000_000.0);
+			RoboToyStatistics.addWebSocketSentBytes((long)frame.getLength()*recipients);
 		}
 	}
 
@@ -233,14 +336,26 @@ public class WebSocketClientPool {
 	 * Returns all current active sessions
 	 */
 	public Collection<WebSocketActiveSession> getActiveSessions() {
-		return Collections.unmodifiableCollection(activeSessions);
+		return Collections.unmodifiableCollection(activeSessions.getAll());
+	}
+	
+	/**
+	 * Returns all current active sessions related to robots or to players
+	 */
+	public Collection<WebSocketActiveSession> getActiveSessions(CommandIssuer role) {
+		return Collections.unmodifiableCollection(activeSessions.getByRole(role));
 	}
 	
 	public WebSocketActiveSession findSessionWithPath(String path) {
-		for (WebSocketActiveSession session:activeSessions) {
-			if (path==session.getPath())
-				return session;
-			if (path!=null && path.equals(session.getPath()))
+		if (path==null) {
+			for (WebSocketActiveSession session:activeSessions.getAll()) {
+				if (session.getPath()==null)
+					return session;
+			}
+			return null;
+		}
+		for (WebSocketActiveSession session:activeSessions.getByPath(path)) {
+			if (path.equals(session.getPath()))
 				return session;
 		}
 		return null;
@@ -16,8 +16,10 @@
 package org.guga.robotoy.rasp.network;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
@@ -32,6 +34,12 @@ import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.frames.TextFrame;
+import org.eclipse.jetty.websocket.common.io.FrameFlusher;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
+import org.guga.robotoy.rasp.utils.IOUtils;
 
 /**
  * Handler for WebSocket communications.
@@ -43,6 +51,18 @@ import org.eclipse.jetty.websocket.client.WebSocketClient;
 public class WebSocketHandlerImpl implements WebSocketActiveSession {
 
 	private static final Logger log = Logger.getLogger(WebSocketHandlerImpl.class.getName());
+	
+	/**
+	 * Binary sub-protocol that players may negotiate on '/ws/player/' for driving commands
+	 */
+	public static final String BINARY_SUBPROTOCOL = "robotoy.bin.1";
+	
+	private static final WriteCallback NO_CALLBACK = new WriteCallback() {
+		@Override
+		public void writeSuccess() { }
+		@Override
+		public void writeFailed(Throwable paramThrowable) { }
+	};
 
 	private final boolean startedHere;
 	private final WebSocketClient client;
@@ -82,6 +102,8 @@ public class WebSocketHandlerImpl implements WebSocketActiveSession {
 		}
         try {
         	client = new WebSocketClient();
+        	if (pool.getBindAddress()!=null)
+        		client.setBindAddress(new InetSocketAddress(pool.getBindAddress(), 0));
         	client.start();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -141,6 +163,17 @@ public class WebSocketHandlerImpl implements WebSocketActiveSession {
     	return session!=null && session.isOpen();
     }
 
+    /**
+     * Tells if this connection can't take any more messages (i.e. it has been
+     * closed, or it is neither connected nor connecting).
+     */
+    public boolean isClosed() {
+    	Session session = this.session;
+    	if (session!=null)
+    		return !session.isOpen();
+    	return futureSession==null;
+    }
+
     /**
      * Get client host name (same as 'remote address')
      */
@@ -198,6 +231,7 @@ public class WebSocketHandlerImpl implements WebSocketActiveSession {
     @Override
     public void setPath(String path) {
     	this.path = path;
+    	pool.updateSession(this);
     }
 
     /**
@@ -269,9 +303,58 @@ public class WebSocketHandlerImpl implements WebSocketActiveSession {
      */
     @OnWebSocketMessage
     public void onMessage(String message) {
-		String response = pool.getCommandCentral().onCommand(message, this);
+    	final boolean takeStatistics = pool.isTakeStatistics();
+    	if (takeStatistics)
+    		RoboToyStatistics.addWebSocketReceivedBytes(IOUtils.getUTF8Length(message));
+		String response;
+		StallWatchdog.Probe probe = pool.getWatchdog().enter(StallWatchdog.TASK_WEBSOCKET);
+		try {
+			response = pool.getCommandCentral().onCommand(message, this);
+		}
+		finally {
+			probe.exit();
+		}
+		if (response!=null) {
+			try {
+				if (takeStatistics)
+					RoboToyStatistics.addWebSocketSentBytes(IOUtils.getUTF8Length(response));
+				session.getRemote().sendString(response);
+			}
+			catch (Throwable e) {
+				log.log(Level.SEVERE,"Error sending response",e);
+			}
+		}
+    }
+
+    /**
+     * Callback hook for binary messages. Only accepted if the binary sub-protocol was
+     * negotiated for this session.
+     */
+    @OnWebSocketMessage
+    public void onMessage(byte[] payload, int offset, int length) {
+    	Session session = this.session;
+    	if (session==null)
+    		return;
+    	if (!BINARY_SUBPROTOCOL.equals(session.getUpgradeResponse().getAcceptedSubProtocol())) {
+    		if (log.isLoggable(Level.FINE))
+    			log.log(Level.FINE,"Ignoring binary message from "+getHost()+" because sub-protocol was not negotiated");
+    		return;
+    	}
+    	final boolean takeStatistics = pool.isTakeStatistics();
+    	if (takeStatistics)
+    		RoboToyStatistics.addWebSocketReceivedBytes(length);
+		String response;
+		StallWatchdog.Probe probe = pool.getWatchdog().enter(StallWatchdog.TASK_WEBSOCKET);
+		try {
+			response = pool.getCommandCentral().onBinaryCommand(ByteBuffer.wrap(payload, offset, length), this);
+		}
+		finally {
+			probe.exit();
+		}
 		if (response!=null) {
 			try {
+				if (takeStatistics)
+					RoboToyStatistics.addWebSocketSentBytes(IOUtils.getUTF8Length(response));
 				session.getRemote().sendString(response);
 			}
 			catch (Throwable e) {
@@ -284,6 +367,15 @@ public class WebSocketHandlerImpl implements WebSocketActiveSession {
      * Send a message assynchronously.
      */
     public void sendMessage(String message,WriteCallback callback) {
+    	if (pool.isTakeStatistics())
+    		RoboToyStatistics.addWebSocketSentBytes(IOUtils.getUTF8Length(message));
+    	sendText(message, callback);
+    }
+    
+    /**
+     * Send a message assynchronously (not accounted for in statistics).
+     */
+    private void sendText(String message,WriteCallback callback) {
     	assertSessionOrFuture();
     	if (this.session!=null) {
     		this.session.getRemote().sendString(message,callback);
@@ -299,4 +391,34 @@ public class WebSocketHandlerImpl implements WebSocketActiveSession {
     		log.log(Level.SEVERE,"Could not send message to "+getHost()+" because there is no session neither a future session!");
     	}
     }
+
+    /**
+     * Send a message already encoded (may be shared with other sessions) assynchronously.<BR>
+     * The frame is queued in Jetty's remote endpoint without encoding it again. It will
+     * be written according to endpoint's batch mode, so it should be followed by 'flushFrames'.<BR>
+     * Returns FALSE if the message had to be sent as a regular text message (e.g. connections
+     * started here must mask the payload, which Jetty does in place, so they can't share
+     * the same buffer).
+     */
+    public boolean sendFrame(BroadcastFrame frame,WriteCallback callback) {
+    	Session session = this.session;
+    	if (session!=null && !startedHere && session.getRemote() instanceof WebSocketRemoteEndpoint) {
+    		TextFrame text = new TextFrame();
+    		text.setPayload(frame.getPayload());
+    		((WebSocketRemoteEndpoint)session.getRemote()).uncheckedSendFrame(text,(callback==null)?NO_CALLBACK:callback);
+    		return true;
+    	}
+    	sendText(frame.getText(),callback);
+    	return false;
+    }
+    
+    /**
+     * Asks Jetty to write any frames kept in batch for this session. Does not block.
+     */
+    public void flushFrames() {
+    	Session session = this.session;
+    	if (session!=null && session.getRemote() instanceof WebSocketRemoteEndpoint) {
+    		((WebSocketRemoteEndpoint)session.getRemote()).uncheckedSendFrame(FrameFlusher.FLUSH_FRAME,NO_CALLBACK);
+    	}
+    }
 }
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.network;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+
+/**
+ * Registry of active WebSocket sessions with secondary indexes by session key,
+ * by host:port, by host, by requested path (case insensitive) and by role (robot
+ * or player).<BR>
+ * <BR>
+ * Lookups do not lock and do not scan all sessions. Changes (inclusion, removal and
+ * re-indexing after some change to session attributes, such as requested path) are
+ * serialized, since they are much less frequent than lookups.<BR>
+ * Each session is registered at most once (object identity), and no two sessions
+ * are registered with the same key.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class WebSocketSessionRegistry<S extends WebSocketActiveSession> {
+
+	/**
+	 * All registered sessions and the attributes that were used for indexing them
+	 */
+	private final Map<S,IndexEntry> sessions;
+
+	private final Map<String,S> byKey;
+
+	private final Map<String,S> byHostPort;
+
+	private final Map<String,Set<S>> byHost;
+
+	/**
+	 * Indexed by lower case version of requested path
+	 */
+	private final Map<String,Set<S>> byPath;
+
+	private final Map<CommandIssuer,Set<S>> byRole;
+
+	private final Collection<S> allSessions;
+
+	public WebSocketSessionRegistry() {
+		this.sessions = new ConcurrentHashMap<>();
+		this.byKey = new ConcurrentHashMap<>();
+		this.byHostPort = new ConcurrentHashMap<>();
+		this.byHost = new ConcurrentHashMap<>();
+		this.byPath = new ConcurrentHashMap<>();
+		this.byRole = new EnumMap<>(CommandIssuer.class);
+		for (CommandIssuer role:CommandIssuer.values())
+			byRole.put(role, ConcurrentHashMap.newKeySet());
+		this.allSessions = Collections.unmodifiableSet(sessions.keySet());
+	}
+
+	/**
+	 * Includes a new session or updates the indexes of a session already registered.<BR>
+	 * Returns FALSE if there is another session registered with the same key (in
+	 * this case the session is not included).
+	 */
+	public synchronized boolean add(S session) {
+		IndexEntry previous = sessions.get(session);
+		String key = session.getSessionId();
+		if (key!=null) {
+			S other = byKey.get(key);
+			if (other!=null && other!=session && previous==null)
+				return false;
+		}
+		reindex(session, previous);
+		return true;
+	}
+
+	/**
+	 * Updates the indexes of a registered session after some change to its attributes
+	 * (e.g. requested path). Does nothing if session is not registered.
+	 */
+	public synchronized void update(S session) {
+		IndexEntry previous = sessions.get(session);
+		if (previous==null)
+			return;
+		reindex(session, previous);
+	}
+
+	/**
+	 * Removes a session. Returns FALSE if it was not registered.
+	 */
+	public synchronized boolean remove(S session) {
+		IndexEntry previous = sessions.remove(session);
+		if (previous==null)
+			return false;
+		unindex(session, previous);
+		return true;
+	}
+
+	public boolean contains(S session) {
+		return sessions.containsKey(session);
+	}
+
+	public boolean isEmpty() {
+		return sessions.isEmpty();
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns a read-only view of all registered sessions
+	 */
+	public Collection<S> getAll() {
+		return allSessions;
+	}
+
+	public S getByKey(String key) {
+		if (key==null)
+			return null;
+		return byKey.get(key);
+	}
+
+	/**
+	 * Returns a session connected to the given host and port. If port
+	 * is zero, returns any session connected to the given host.
+	 */
+	public S getByHostPort(String host,int port) {
+		if (host==null)
+			return null;
+		if (port!=0)
+			return byHostPort.get(getHostPort(host, port));
+		Set<S> found = byHost.get(host);
+		if (found==null)
+			return null;
+		for (S session:found)
+			return session;
+		return null;
+	}
+
+	/**
+	 * Returns all sessions connected to the given host
+	 */
+	public Collection<S> getByHost(String host) {
+		return lookup(byHost, host);
+	}
+
+	/**
+	 * Returns all sessions with the requested path (case insensitive)
+	 */
+	public Collection<S> getByPath(String path) {
+		return lookup(byPath, toLowerCase(path));
+	}
+
+	/**
+	 * Returns all sessions related to robots or to players
+	 */
+	public Collection<S> getByRole(CommandIssuer role) {
+		return Collections.unmodifiableSet(byRole.get(role));
+	}
+
+	private Collection<S> lookup(Map<String,Set<S>> index,String value) {
+		if (value==null)
+			return Collections.emptySet();
+		Set<S> found = index.get(value);
+		if (found==null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(found);
+	}
+
+	private void reindex(S session,IndexEntry previous) {
+		IndexEntry entry = new IndexEntry(session);
+		if (previous!=null)
+			unindex(session, previous);
+		if (entry.key!=null)
+			byKey.putIfAbsent(entry.key, session);
+		if (entry.hostPort!=null)
+			byHostPort.put(entry.hostPort, session);
+		if (entry.host!=null)
+			byHost.computeIfAbsent(entry.host, k->ConcurrentHashMap.newKeySet()).add(session);
+		if (entry.path!=null)
+			byPath.computeIfAbsent(entry.path, k->ConcurrentHashMap.newKeySet()).add(session);
+		if (entry.role!=null)
+			byRole.get(entry.role).add(session);
+		sessions.put(session, entry);
+	}
+
+	private void unindex(S session,IndexEntry entry) {
+		if (entry.key!=null)
+			byKey.remove(entry.key, session);
+		if (entry.hostPort!=null)
+			byHostPort.remove(entry.hostPort, session);
+		if (entry.host!=null)
+			removeFrom(byHost, entry.host, session);
+		if (entry.path!=null)
+			removeFrom(byPath, entry.path, session);
+		if (entry.role!=null)
+			byRole.get(entry.role).remove(session);
+	}
+
+	private void removeFrom(Map<String,Set<S>> index,String value,S session) {
+		index.computeIfPresent(value, (k,found)->{
+			found.remove(session);
+			return found.isEmpty() ? null : found;
+		});
+	}
+
+	private static String getHostPort(String host,int port) {
+		return host+":"+port;
+	}
+
+	private static String toLowerCase(String path) {
+		return (path==null) ? null : path.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Attributes of a session at the time it was indexed
+	 */
+	private static class IndexEntry {
+		final String key;
+		final String host;
+		final String hostPort;
+		final String path;
+		final CommandIssuer role;
+		IndexEntry(WebSocketActiveSession session) {
+			key = session.getSessionId();
+			host = session.getHost();
+			hostPort = (host==null || session.getRemotePort()==0) ? null : getHostPort(host, session.getRemotePort());
+			String requestedPath = session.getPath();
+			path = toLowerCase(requestedPath);
+			if (RoboToyServerContext.isConnectedToRobot(requestedPath))
+				role = CommandIssuer.ROBOT;
+			else if (RoboToyServerContext.isConnectedToPlayer(requestedPath))
+				role = CommandIssuer.PLAYER;
+			else
+				role = null;
+		}
+	}
+}
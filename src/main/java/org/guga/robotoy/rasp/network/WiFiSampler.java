@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
+import org.guga.robotoy.rasp.network.WiFiUtils.WiFiInfo;
+
+/**
+ * Samples wireless quality in background at a fixed rate.<BR>
+ * <BR>
+ * Every player asks for robot status once in a second (including WiFi quality). Instead of
+ * reading '/proc/net/wireless' for each one of these requests, we read it here
+ * in one periodic task of 'RoboToyScheduler' and publish the last sample as an immutable {@link WiFiInfo WiFiInfo}.<BR>
+ * It also keeps a short history of previous samples.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class WiFiSampler {
+
+	private static final Logger log = Logger.getLogger(WiFiSampler.class.getName());
+
+	/**
+	 * Default delay between samples in milliseconds
+	 */
+	public static final int DEFAULT_SAMPLE_INTERVAL_MS = 2000;
+
+	/**
+	 * Default number of samples kept in history
+	 */
+	public static final int DEFAULT_HISTORY_SIZE = 60;
+
+	/**
+	 * Buffer size used for reading '/proc/net/wireless'
+	 */
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * Interface name (e.g.: 'wlan0')
+	 */
+	private final String interfaceName;
+
+	/**
+	 * Delay between samples in milliseconds
+	 */
+	private final int sampleInterval;
+
+	/**
+	 * Maximum number of samples kept in history
+	 */
+	private final int historySize;
+
+	/**
+	 * Previous samples (oldest first)
+	 */
+	private final Deque<WiFiInfo> history;
+
+	/**
+	 * Periodic task (NULL if not started)
+	 */
+	private RoboToyScheduler.Task samplerTask;
+
+	/**
+	 * Avoid flooding LOG with the same message (only used in sampler task)
+	 */
+	private boolean warned;
+
+	/**
+	 * Buffer reused for reading '/proc/net/wireless' (only used in sampler task)
+	 */
+	private final ByteBuffer readBuffer;
+
+	/**
+	 * Last sample (NULL if there is no information available)
+	 */
+	private volatile WiFiInfo latest;
+
+	public WiFiSampler(String interfaceName) {
+		this(interfaceName, DEFAULT_SAMPLE_INTERVAL_MS, DEFAULT_HISTORY_SIZE);
+	}
+
+	public WiFiSampler(String interfaceName,int sampleInterval,int historySize) {
+		this.interfaceName = interfaceName;
+		this.sampleInterval = sampleInterval;
+		this.historySize = historySize;
+		this.history = new ArrayDeque<>(historySize);
+		this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	}
+
+	/**
+	 * Interface name (e.g.: 'wlan0')
+	 */
+	public String getInterfaceName() {
+		return interfaceName;
+	}
+
+	/**
+	 * Delay between samples in milliseconds
+	 */
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	/**
+	 * Last sample. Returns NULL if there is no information available.
+	 */
+	public WiFiInfo getLatest() {
+		return latest;
+	}
+
+	/**
+	 * Returns a copy of previous samples (oldest first)
+	 */
+	public List<WiFiInfo> getHistory() {
+		synchronized (history) {
+			return new ArrayList<>(history);
+		}
+	}
+
+	public synchronized void start(RoboToyScheduler scheduler) {
+		if (samplerTask!=null)
+			return;
+		samplerTask = scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_NETWORK, "WiFiSampler", 0, sampleInterval, this::sampleOnce);
+	}
+
+	public synchronized void stop() {
+		if (samplerTask!=null) {
+			samplerTask.cancel();
+			samplerTask = null;
+		}
+	}
+
+	/**
+	 * Takes one sample and keeps it in history
+	 */
+	private void sampleOnce() {
+		try {
+			WiFiInfo info = sample();
+			latest = info;
+			if (info!=null) {
+				synchronized (history) {
+					if (history.size()>=historySize)
+						history.removeFirst();
+					history.addLast(info);
+				}
+			}
+		}
+		catch (Throwable e) {
+			latest = null;
+			if (!warned) {
+				// Avoid flooding LOG with the same message
+				log.log(Level.WARNING, "Error while sampling wireless information for "+interfaceName, e);
+				warned = true;
+			}
+		}
+	}
+
+	/**
+	 * Reads '/proc/net/wireless' once
+	 */
+	private WiFiInfo sample() throws Exception {
+		readBuffer.clear();
+		try (FileChannel channel = FileChannel.open(WiFiUtils.PROC_NET_WIRELESS, StandardOpenOption.READ)) {
+			while (readBuffer.hasRemaining() && channel.read(readBuffer)>=0);
+		}
+		catch (IOException e) {
+			return null; // no wireless information available
+		}
+		readBuffer.flip();
+		String contents = StandardCharsets.US_ASCII.decode(readBuffer).toString();
+		return WiFiUtils.parseWirelessInfo(contents, interfaceName, System.currentTimeMillis());
+	}
+}
@@ -15,9 +15,11 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.network;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Utilities for dealing with Wireless devices in Raspberry Pi (with Raspbian)
@@ -28,7 +30,13 @@ import java.io.InputStreamReader;
 public class WiFiUtils {
 	
 	/**
-	 * Class for presenting information about some wireless interface
+	 * Kernel file with wireless statistics
+	 */
+	public static final Path PROC_NET_WIRELESS = Paths.get("/proc/net/wireless");
+	
+	/**
+	 * Class for presenting information about some wireless interface.<BR>
+	 * Instances are immutable, so they may be shared between threads.
 	 * @author Gustavo Figueiredo
 	 *
 	 */
@@ -36,31 +44,37 @@ public class WiFiUtils {
 		/**
 		 * Interface name
 		 */
-		private String name;
+		private final String name;
 		/**
 		 * Quality (0 - 100)
 		 */
-		private double quality;
+		private final double quality;
 		/**
 		 * Signal Level (dB)
 		 */
-		private double level;
+		private final double level;
 		/**
 		 * Signal noise (dB)
 		 */
-		private double noise;
-		
+		private final double noise;
 		/**
-		 * Interface name
+		 * Time of sampling (as in System.currentTimeMillis)
 		 */
-		public String getName() {
-			return name;
+		private final long timestamp;
+		
+		public WiFiInfo(String name,double quality,double level,double noise,long timestamp) {
+			this.name = name;
+			this.quality = quality;
+			this.level = level;
+			this.noise = noise;
+			this.timestamp = timestamp;
 		}
+		
 		/**
 		 * Interface name
 		 */
-		public void setName(String name) {
-			this.name = name;
+		public String getName() {
+			return name;
 		}
 		/**
 		 * Quality (0 - 100)
@@ -68,24 +82,12 @@ public class WiFiUtils {
 		public double getQuality() {
 			return quality;
 		}
-		/**
-		 * Quality (0 - 100)
-		 */
-		public void setQuality(double quality) {
-			this.quality = quality;
-		}
 		/**
 		 * Signal Level (dB)
 		 */
 		public double getLevel() {
 			return level;
 		}
-		/**
-		 * Signal Level (dB)
-		 */
-		public void setLevel(double level) {
-			this.level = level;
-		}
 		/**
 		 * Signal noise (dB)
 		 */
@@ -93,66 +95,70 @@ public class WiFiUtils {
 			return noise;
 		}
 		/**
-		 * Signal noise (dB)
+		 * Time of sampling (as in System.currentTimeMillis)
 		 */
-		public void setNoise(double noise) {
-			this.noise = noise;
+		public long getTimestamp() {
+			return timestamp;
 		}
 		
 	}
 
 	/**
-	 * Get Wireless information given its interface name.
+	 * Get Wireless information given its interface name.<BR>
+	 * Reads '/proc/net/wireless' directly (does not start a new process). Prefer
+	 * {@link WiFiSampler WiFiSampler} for frequent queries.
 	 * @param interfaceName Interface name (e.g.: 'wlan0')
+	 * @return Returns NULL if interface was not found.
 	 */
 	public static WiFiInfo getWirelessInfo(String interfaceName) throws Exception {
-        String line;
-        Process proc = null;
+		String contents;
+		try {
+			contents = new String(Files.readAllBytes(PROC_NET_WIRELESS), StandardCharsets.US_ASCII);
+		}
+		catch (IOException e) {
+			return null; // no wireless information available
+		}
+		return parseWirelessInfo(contents, interfaceName, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Parse contents of '/proc/net/wireless' looking for information about a given interface name.
+	 * @param contents Contents of '/proc/net/wireless'
+	 * @param interfaceName Interface name (e.g.: 'wlan0')
+	 * @param timestamp Time of sampling
+	 * @return Returns NULL if interface was not found.
+	 */
+	public static WiFiInfo parseWirelessInfo(String contents,String interfaceName,long timestamp) throws Exception {
         final String TOKEN_QUALITY_LINK = "link";
         final String TOKEN_LEVEL = "level";
         final String TOKEN_NOISE = "noise";
-        BufferedReader input = null;
         WiFiInfo info = null;
-        try {
-        	proc = Runtime.getRuntime().exec("cat /proc/net/wireless");
         	
 /* SAMPLE OUTPUT:
 Inter-| sta-|   Quality        |   Discarded packets               | Missed | WE
  face | tus | link level noise |  nwid  crypt   frag  retry   misc | beacon | 22
  wlan0: 0000   34.  -76.  -256        0      0      0      0      0        0
 */        	
-            input = new BufferedReader(
-                new InputStreamReader(proc.getInputStream()));
-            int index_of_quality_link = -1;
-            int index_of_level = -1;
-            int index_of_noise = -1;
-            while ((line = input.readLine()) != null) {
-            	if (line.contains(TOKEN_QUALITY_LINK) 
-            			&& line.contains(TOKEN_LEVEL) 
-            			&& line.contains(TOKEN_NOISE)) {
-            		index_of_quality_link = line.indexOf(TOKEN_QUALITY_LINK);
-            		index_of_level = line.indexOf(TOKEN_LEVEL);
-            		index_of_noise = line.indexOf(TOKEN_NOISE);
-            	}
-            	else if (line.contains(interfaceName)) {
-            		if (index_of_quality_link<0) 
-            			throw new Exception("Unexpected response from '/proc/net/wireless'!");
-            		info = new WiFiInfo();
-            		info.setName(interfaceName);
-            		info.setQuality(parseValueFromConsoleLine(line,index_of_quality_link));
-            		info.setLevel(parseValueFromConsoleLine(line,index_of_level));
-            		info.setNoise(parseValueFromConsoleLine(line,index_of_noise));
-            	}
-            }
-            	
-            proc.waitFor();
-        } finally {
-        	try {
-        		if (input!=null)
-        			input.close();
-        	} catch (IOException e){ }
-    		if (proc!=null)
-    			proc.destroy();
+        int index_of_quality_link = -1;
+        int index_of_level = -1;
+        int index_of_noise = -1;
+        for (String line:contents.split("\r?\n")) {
+        	if (line.contains(TOKEN_QUALITY_LINK) 
+        			&& line.contains(TOKEN_LEVEL) 
+        			&& line.contains(TOKEN_NOISE)) {
+        		index_of_quality_link = line.indexOf(TOKEN_QUALITY_LINK);
+        		index_of_level = line.indexOf(TOKEN_LEVEL);
+        		index_of_noise = line.indexOf(TOKEN_NOISE);
+        	}
+        	else if (line.contains(interfaceName)) {
+        		if (index_of_quality_link<0) 
+        			throw new Exception("Unexpected contents in '/proc/net/wireless'!");
+        		info = new WiFiInfo(interfaceName,
+        				parseValueFromConsoleLine(line,index_of_quality_link),
+        				parseValueFromConsoleLine(line,index_of_level),
+        				parseValueFromConsoleLine(line,index_of_noise),
+        				timestamp);
+        	}
         }
         return info;
 	}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.optics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
+
+/**
+ * Beam device that transmits messages in a dedicated high priority thread.<BR>
+ * <BR>
+ * Transmitting a beam through 'IRSend' takes about half a second (it busy-waits
+ * through all the repetitions of the encoded signal). This implementation
+ * owns the real beam device and returns immediately from 'sendBeam', so that the
+ * caller (usually a WebSocket thread) is not held.<BR>
+ * Fire requests are kept in a bounded queue. Requests that arrive while a burst is
+ * still being transmitted are collapsed (i.e. discarded), since they would
+ * be received as repetitions of the same shot anyway.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BeamFireExecutor implements BeamDevice {
+
+	private static final Logger log = Logger.getLogger(BeamFireExecutor.class.getName());
+
+	/**
+	 * Default capacity of queue of pending fire requests
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	/**
+	 * The device that will actually transmit the beams
+	 */
+	private final BeamDevice device;
+
+	/**
+	 * Pending fire requests
+	 */
+	private final BlockingQueue<byte[]> requests;
+
+	/**
+	 * Flag used to keep thread running
+	 */
+	private final AtomicBoolean running;
+
+	/**
+	 * Tells if there is a burst being transmitted right now
+	 */
+	private volatile boolean transmitting;
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	private BooleanSupplier takeStatistics = ()->false;
+
+	/**
+	 * Watches for beam transmissions taking too long
+	 */
+	private StallWatchdog watchdog = StallWatchdog.DISABLED;
+
+	private Thread fireThread;
+
+	public BeamFireExecutor(BeamDevice device) {
+		this(device, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public BeamFireExecutor(BeamDevice device,int queueCapacity) {
+		this.device = device;
+		this.requests = new ArrayBlockingQueue<>(queueCapacity);
+		this.running = new AtomicBoolean(false);
+	}
+
+	/**
+	 * The device that will actually transmit the beams
+	 */
+	public BeamDevice getDevice() {
+		return device;
+	}
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	public void setTakeStatistics(BooleanSupplier takeStatistics) {
+		this.takeStatistics = (takeStatistics==null) ? ()->false : takeStatistics;
+	}
+
+	/**
+	 * Watches for beam transmissions taking too long
+	 */
+	public void setWatchdog(StallWatchdog watchdog) {
+		this.watchdog = (watchdog==null) ? StallWatchdog.DISABLED : watchdog;
+	}
+
+	/**
+	 * Number of fire requests waiting for transmission
+	 */
+	public int getQueueDepth() {
+		return requests.size();
+	}
+
+	/**
+	 * Tells if there is a burst being transmitted right now
+	 */
+	public boolean isTransmitting() {
+		return transmitting;
+	}
+
+	public synchronized void init() {
+		if (running.get())
+			return;
+		running.set(true);
+		fireThread = new Thread(()->{ processRequests(); });
+		fireThread.setName("BeamFireExecutor");
+		fireThread.setDaemon(true);
+		fireThread.setPriority(Thread.MAX_PRIORITY);
+		fireThread.start();
+	}
+
+	public synchronized void stop() {
+		running.set(false);
+		if (fireThread!=null) {
+			fireThread.interrupt();
+			fireThread = null;
+		}
+	}
+
+	/**
+	 * Queues a fire request and returns immediately.
+	 */
+	@Override
+	public void sendBeam(byte[] message) throws Exception {
+		if (!running.get())
+			throw new Exception("Could not send beam. Fire executor is not running!");
+		final boolean stats = takeStatistics.getAsBoolean();
+		if (transmitting || !requests.offer(message)) {
+			// Still firing previous shot or too many pending shots
+			if (stats)
+				RoboToyStatistics.incIRStatCountFiresCollapsed(1);
+			return;
+		}
+		if (stats)
+			RoboToyStatistics.addFireQueueDepth(requests.size());
+	}
+
+	/**
+	 * Loops while executor is not stopped<BR>
+	 * Transmits each fire request.
+	 */
+	private void processRequests() {
+		while (running.get()) {
+			byte[] message;
+			try {
+				message = requests.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			transmitting = true;
+			final long start = System.nanoTime();
+			StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_FIRE);
+			try {
+				device.sendBeam(message);
+			}
+			catch (Throwable e) {
+				log.log(Level.SEVERE, "Error while sending beam!", e);
+			}
+			finally {
+				probe.exit();
+			}
+			final long elapsed = System.nanoTime() - start;
+			// Anything queued during the transmission is part of the same burst. Only after
+			// that new requests are accepted, so that none of them is discarded here.
+			int collapsed = 0;
+			while (requests.poll()!=null)
+				collapsed++;
+			transmitting = false;
+			if (takeStatistics.getAsBoolean()) {
+				RoboToyStatistics.incIRStatCountFires();
+				RoboToyStatistics.addFireTransmitTime(elapsed/1_000_000.0);
+				if (collapsed>0)
+					RoboToyStatistics.incIRStatCountFiresCollapsed(collapsed);
+			}
+		}
+	}
+}
@@ -45,6 +45,12 @@ public class IRBeamDecoder {
 
 	private float tolerance = DEFAULT_TOLERANCE;
 	
+	/**
+	 * Acceptance windows computed for current configuration (NULL if
+	 * configuration changed)
+	 */
+	private volatile Windows windows;
+	
 	private IRBeamDecoder() {
 		
 	}
@@ -84,6 +90,7 @@ public class IRBeamDecoder {
 
 	public void setHeaderOnPulse(int headerOnPulse) {
 		this.headerOnPulse = headerOnPulse;
+		this.windows = null;
 	}
 
 	public int getHeaderOffPulse() {
@@ -92,6 +99,7 @@ public class IRBeamDecoder {
 
 	public void setHeaderOffPulse(int headerOffPulse) {
 		this.headerOffPulse = headerOffPulse;
+		this.windows = null;
 	}
 
 	public int getBit1OnPulse() {
@@ -100,6 +108,7 @@ public class IRBeamDecoder {
 
 	public void setBit1OnPulse(int bit1OnPulse) {
 		this.bit1OnPulse = bit1OnPulse;
+		this.windows = null;
 	}
 
 	public int getBit1OffPulse() {
@@ -108,6 +117,7 @@ public class IRBeamDecoder {
 
 	public void setBit1OffPulse(int bit1OffPulse) {
 		this.bit1OffPulse = bit1OffPulse;
+		this.windows = null;
 	}
 
 	public int getBit0OnPulse() {
@@ -116,6 +126,7 @@ public class IRBeamDecoder {
 
 	public void setBit0OnPulse(int bit0OnPulse) {
 		this.bit0OnPulse = bit0OnPulse;
+		this.windows = null;
 	}
 
 	public int getBit0OffPulse() {
@@ -124,6 +135,7 @@ public class IRBeamDecoder {
 
 	public void setBit0OffPulse(int bit0OffPulse) {
 		this.bit0OffPulse = bit0OffPulse;
+		this.windows = null;
 	}
 
 	public float getTolerance() {
@@ -132,6 +144,7 @@ public class IRBeamDecoder {
 
 	public void setTolerance(float tolerance) {
 		this.tolerance = tolerance;
+		this.windows = null;
 	}
 	
 	/**
@@ -146,115 +159,197 @@ public class IRBeamDecoder {
 				;
 	}
 
-	private static enum PulseStage {
-		NONE,
-		HEADER,
-		SIGNAL;
-	};
-	
+
+	/**
+	 * Maximum number of bytes that may be decoded from a signal with this number of pulses
+	 */
+	public int getMaxMessageSize(int size) {
+		if (size<3)
+			return 1;
+		return (size-3)/(2*bitsPerByte) + 1;
+	}
+
+	/**
+	 * Range of pulse durations (inclusive) accepted for each expected duration, according to 'tolerance'.<BR>
+	 * Computed once for each configuration.
+	 */
+	private static final class Windows {
+		final int headerOnMin, headerOnMax;
+		final int headerOffMin, headerOffMax;
+		final int bit1OnMin, bit1OnMax;
+		final int bit1OffMin, bit1OffMax;
+		final int bit0OnMin, bit0OnMax;
+		final int bit0OffMin, bit0OffMax;
+		Windows(IRBeamDecoder decoder) {
+			final float tolerance = decoder.tolerance;
+			headerOnMin = getMinPulse(decoder.headerOnPulse, tolerance);
+			headerOnMax = getMaxPulse(decoder.headerOnPulse, tolerance);
+			headerOffMin = getMinPulse(decoder.headerOffPulse, tolerance);
+			headerOffMax = getMaxPulse(decoder.headerOffPulse, tolerance);
+			bit1OnMin = getMinPulse(decoder.bit1OnPulse, tolerance);
+			bit1OnMax = getMaxPulse(decoder.bit1OnPulse, tolerance);
+			bit1OffMin = getMinPulse(decoder.bit1OffPulse, tolerance);
+			bit1OffMax = getMaxPulse(decoder.bit1OffPulse, tolerance);
+			bit0OnMin = getMinPulse(decoder.bit0OnPulse, tolerance);
+			bit0OnMax = getMaxPulse(decoder.bit0OnPulse, tolerance);
+			bit0OffMin = getMinPulse(decoder.bit0OffPulse, tolerance);
+			bit0OffMax = getMaxPulse(decoder.bit0OffPulse, tolerance);
+		}
+	}
+
+	/**
+	 * Tells if the measured pulse matches the expected duration, considering
+	 * the tolerance as a fraction of the measured pulse (same arithmetic used since the
+	 * first version of this decoder).
+	 */
+	private static boolean accepts(int pulse,int expected,float tolerance) {
+		int pulse_more = (int)(pulse + pulse * tolerance);
+		int pulse_less = (int)(pulse - pulse * tolerance);
+		return expected>=pulse_less && expected<=pulse_more;
+	}
+
+	/**
+	 * Minimum measured pulse that matches the expected duration (or Integer.MAX_VALUE if there is none)
+	 */
+	private static int getMinPulse(int expected,float tolerance) {
+		if (expected<0)
+			return Integer.MAX_VALUE;
+		long p = Math.max(0, (long)Math.ceil(expected/(1.0+tolerance)));
+		while (p>0 && accepts((int)(p-1),expected,tolerance))
+			p--;
+		while (p<=Integer.MAX_VALUE && !accepts((int)p,expected,tolerance))
+			p++;
+		return (int)Math.min(p, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Maximum measured pulse that matches the expected duration (or -1 if there is none)
+	 */
+	private static int getMaxPulse(int expected,float tolerance) {
+		if (expected<0)
+			return -1;
+		if (tolerance>=1)
+			return Integer.MAX_VALUE;
+		long p = Math.min(Integer.MAX_VALUE, (long)Math.ceil((expected+1)/(1.0-tolerance)));
+		while (p<Integer.MAX_VALUE && accepts((int)(p+1),expected,tolerance))
+			p++;
+		while (p>=0 && !accepts((int)p,expected,tolerance))
+			p--;
+		return (int)p;
+	}
+
+	private Windows getWindows() {
+		Windows w = windows;
+		if (w==null)
+			windows = w = new Windows(this);
+		return w;
+	}
+
+	/**
+	 * Decodes signal and returns a new array with the decoded bytes.<BR>
+	 * Returns NULL if signal is too short to be considered, or an empty array
+	 * if nothing could be decoded.<BR>
+	 * Prefer {@link #decode(int[], int, byte[]) decode} for reusing the same
+	 * output buffer.
+	 */
 	public byte[] getMessage(int[] pulses,int size) {
 		if (pulses==null || size==0)
 			return null;
 		if (size<getMinSignalSize())
 			return null;
-		PulseStage stage = PulseStage.NONE;
-		int estimated_size_bytes = (pulses.length-3)/(2*bitsPerByte) + 1;
+		byte[] buffer = new byte[getMaxMessageSize(size)];
+		int length = decode(pulses, size, buffer);
+		if (length==buffer.length)
+			return buffer;
+		else if (length==0)
+			return new byte[0];
+		else
+			return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Decodes signal into a buffer supplied by the caller. Does not allocate memory.<BR>
+	 * Returns the number of bytes decoded (zero if signal is too short or if nothing
+	 * could be decoded). Decoding stops when buffer gets full (see {@link #getMaxMessageSize(int) getMaxMessageSize}).<BR>
+	 * Even pulse indexes are 'on' pulses, odd pulse indexes are 'off' pulses.
+	 * @param pulses Pulse durations in microseconds
+	 * @param size Number of pulses to consider
+	 * @param message Buffer for the decoded bytes
+	 */
+	public int decode(int[] pulses,int size,byte[] message) {
+		if (pulses==null || size==0 || message==null || message.length==0)
+			return 0;
+		if (size<getMinSignalSize())
+			return 0;
+		final Windows w = getWindows();
+		final int bitsPerByte = this.bitsPerByte;
+		// number of pulses needed after the start of a header for one complete byte
+		final int pulses_per_byte = 2 + 2*bitsPerByte;
 		int actual_size_bytes = 0;
 		int bit_order = 0;
-		byte[] buffer = new byte[estimated_size_bytes];
 		int bit_type = -1; // either 0 or 1 according to pulse levels, or -1 if can be any one
-		for (int i=0;i<size;i++) {
+		int i = 0;
+		while (i<size) {
+			// Looks for the 'on' pulse of a header (always at even indexes)
+			if ((i&1)!=0)
+				i++;
+			if (size-i<pulses_per_byte)
+				break; // not enough pulses left for another complete byte
 			int pulse = pulses[i];
-			int pulse_more = (int)(pulse + pulse * tolerance);
-			int pulse_less = (int)(pulse - pulse * tolerance);
-			boolean is_on = ((i%2)==0);
-			switch (stage) {
-			case NONE:
-				if (is_on && headerOnPulse>=pulse_less && headerOnPulse<=pulse_more) {
-					stage = PulseStage.HEADER; // go to next stage 
-				}
-				break;
-			case HEADER:
-				if (!is_on && headerOffPulse>=pulse_less && headerOffPulse<=pulse_more) {
-					stage = PulseStage.SIGNAL; // go to next stage 
+			if (pulse<w.headerOnMin || pulse>w.headerOnMax) {
+				i += 2;
+				continue;
+			}
+			// Looks for the 'off' pulse of a header
+			pulse = pulses[i+1];
+			if (pulse<w.headerOffMin || pulse>w.headerOffMax) {
+				i += 2;
+				continue;
+			}
+			// Signal stage
+			i += 2;
+			message[actual_size_bytes] = 0;
+			while (i<size) {
+				pulse = pulses[i];
+				if ((i&1)==0) {
+					// 'on' pulse
+					if (i+1>=size)
+						break; // last pulse (tail)
+					boolean maybe_bit1 = (pulse>=w.bit1OnMin && pulse<=w.bit1OnMax);
+					boolean maybe_bit0 = (pulse>=w.bit0OnMin && pulse<=w.bit0OnMax);
+					if (!maybe_bit1 && !maybe_bit0)
+						break;
+					bit_type = (!maybe_bit1) ? 0 : (!maybe_bit0) ? 1 : -1;
 				}
 				else {
-					// go back to NONE stage
-					stage = PulseStage.NONE;
-				}
-				break;
-			case SIGNAL:
-				if (is_on
-					&& i+1<size) {
-					boolean maybe_bit1 = (bit1OnPulse>=pulse_less && bit1OnPulse<=pulse_more);
-					boolean maybe_bit0 = (bit0OnPulse>=pulse_less && bit0OnPulse<=pulse_more);
-					if (maybe_bit1 || maybe_bit0) {
-						if (!maybe_bit1)
-							bit_type = 0;
-						else if (!maybe_bit0)
-							bit_type = 1;
-						else
-							bit_type = -1;
-					}
-					else {
-						// go back to NONE stage
-						stage = PulseStage.NONE;
-						bit_order = 0;
-						bit_type = -1;
-						// will check again if it's another HEADER pulse event
-						buffer[actual_size_bytes] = 0;
-						i--;
-					}
-				}
-				else if (!is_on) {
-					if (bit_type!=0 && bit1OffPulse>=pulse_less && bit1OffPulse<=pulse_more) {
+					// 'off' pulse
+					if (bit_type!=0 && pulse>=w.bit1OffMin && pulse<=w.bit1OffMax) {
 						// we got a bit 1
-						byte b = (byte) (1 << bit_order);
-						buffer[actual_size_bytes] |= b;
-						bit_order++;
-						if (bit_order==bitsPerByte) {
-							bit_order = 0;
-							actual_size_bytes++;
-						}
-						bit_type = -1;
+						message[actual_size_bytes] |= (byte) (1 << bit_order);
 					}
-					else if (bit_type!=1 && bit0OffPulse>=pulse_less && bit0OffPulse<=pulse_more) {
+					else if (bit_type!=1 && pulse>=w.bit0OffMin && pulse<=w.bit0OffMax) {
 						// we got a bit 0
-						bit_order++;
-						if (bit_order==bitsPerByte) {
-							bit_order = 0;
-							actual_size_bytes++;
-						}
-						bit_type = -1;
 					}
 					else {
-						// go back to NONE stage
-						stage = PulseStage.NONE;
-						bit_order = 0;
-						bit_type = -1;						
-						// will check again if it's another HEADER pulse event
-						buffer[actual_size_bytes] = 0;
-						i--;
+						break;
 					}
-				}
-				else {
-					// go back to NONE stage
-					stage = PulseStage.NONE;
-					bit_order = 0;
 					bit_type = -1;
-					// will check again if it's another HEADER pulse event
-					buffer[actual_size_bytes] = 0;
-					i--;
+					bit_order++;
+					if (bit_order==bitsPerByte) {
+						bit_order = 0;
+						actual_size_bytes++;
+						if (actual_size_bytes==message.length)
+							return actual_size_bytes; // buffer is full
+						message[actual_size_bytes] = 0;
+					}
 				}
-				break;
-			default:
+				i++;
 			}
+			// go back to header search, checking again if this pulse is another HEADER pulse event
+			bit_order = 0;
+			bit_type = -1;
+			message[actual_size_bytes] = 0;
 		}
-		if (actual_size_bytes==estimated_size_bytes)
-			return buffer;
-		else if (actual_size_bytes==0)
-			return new byte[0];
-		else
-			return Arrays.copyOf(buffer, actual_size_bytes);
+		return actual_size_bytes;
 	}
 }
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.optics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi4j.io.gpio.PinState;
+
+/**
+ * Fixed size ring of captured IR signals shared between one producer (the thread
+ * that detects signal closure) and one consumer (the thread that decodes signals).<BR>
+ * <BR>
+ * All frames are allocated upfront. The producer claims the next free frame, fills it
+ * and publishes it. The consumer peeks the oldest published frame, processes it and
+ * releases it. No locks are used and nothing is allocated after construction.<BR>
+ * If the consumer falls behind and all frames are taken, new signals are dropped and
+ * counted (see {@link #getDroppedFrames() getDroppedFrames}).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class IRCaptureRing {
+
+	/**
+	 * One captured signal
+	 */
+	public static final class Frame {
+
+		/**
+		 * Alternating pulse durations in microseconds
+		 */
+		private final int[] pulses;
+
+		/**
+		 * Number of pulses in 'pulses' that should be considered
+		 */
+		private int size;
+
+		/**
+		 * Pin level of the first pulse
+		 */
+		private PinState startPinLevel;
+
+		/**
+		 * Time of capture (System.nanoTime)
+		 */
+		private long timestamp;
+
+		Frame(int maxPulses) {
+			this.pulses = new int[maxPulses];
+		}
+
+		public int[] getPulses() {
+			return pulses;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public void setSize(int size) {
+			this.size = size;
+		}
+
+		public PinState getStartPinLevel() {
+			return startPinLevel;
+		}
+
+		public void setStartPinLevel(PinState startPinLevel) {
+			this.startPinLevel = startPinLevel;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public void setTimestamp(long timestamp) {
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final Frame[] frames;
+
+	private final int mask;
+
+	/**
+	 * Sequence of the next frame to be read (only advanced by consumer)
+	 */
+	private final AtomicLong head;
+
+	/**
+	 * Sequence of the next frame to be written (only advanced by producer)
+	 */
+	private final AtomicLong tail;
+
+	/**
+	 * Number of signals dropped because the ring was full
+	 */
+	private final AtomicLong dropped;
+
+	/**
+	 * @param capacity Number of frames (rounded up to a power of 2)
+	 * @param maxPulses Maximum number of pulses in each frame
+	 */
+	public IRCaptureRing(int capacity,int maxPulses) {
+		if (capacity<1)
+			throw new IllegalArgumentException("Invalid capacity: "+capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size<capacity)
+			size <<= 1;
+		this.frames = new Frame[size];
+		for (int i=0;i<size;i++)
+			frames[i] = new Frame(maxPulses);
+		this.mask = size-1;
+		this.head = new AtomicLong();
+		this.tail = new AtomicLong();
+		this.dropped = new AtomicLong();
+	}
+
+	/**
+	 * Number of frames in ring
+	 */
+	public int getCapacity() {
+		return frames.length;
+	}
+
+	/**
+	 * Maximum number of pulses in each frame
+	 */
+	public int getMaxPulses() {
+		return frames[0].pulses.length;
+	}
+
+	/**
+	 * Number of frames published and not yet released
+	 */
+	public int size() {
+		return (int)(tail.get()-head.get());
+	}
+
+	/**
+	 * Number of signals dropped because the ring was full
+	 */
+	public long getDroppedFrames() {
+		return dropped.get();
+	}
+
+	/**
+	 * Producer side. Returns the next free frame to be filled, or NULL if the ring is full
+	 * (in this case the signal is counted as dropped).<BR>
+	 * The frame is only visible to the consumer after {@link #publish() publish}.
+	 */
+	public Frame claim() {
+		final long t = tail.get();
+		if (t-head.get()>=frames.length) {
+			dropped.incrementAndGet();
+			return null;
+		}
+		return frames[(int)t & mask];
+	}
+
+	/**
+	 * Producer side. Makes the frame returned by the previous {@link #claim() claim} visible to the consumer.
+	 */
+	public void publish() {
+		tail.lazySet(tail.get()+1);
+	}
+
+	/**
+	 * Consumer side. Returns the oldest published frame, or NULL if there is none.<BR>
+	 * The frame remains in ring until {@link #release() release}.
+	 */
+	public Frame peek() {
+		final long h = head.get();
+		if (h>=tail.get())
+			return null;
+		return frames[(int)h & mask];
+	}
+
+	/**
+	 * Consumer side. Gives back the frame returned by the previous {@link #peek() peek}.
+	 */
+	public void release() {
+		head.lazySet(head.get()+1);
+	}
+}
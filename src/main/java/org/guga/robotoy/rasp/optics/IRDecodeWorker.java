@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.optics;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
+
+/**
+ * One single thread serving any number of IR detectors ('IRReceive').<BR>
+ * <BR>
+ * It drains the capture ring of each detector, calling the respective callback for
+ * each signal, and also checks periodically if the last pulse of each detector was
+ * long enough to be considered a signal closure.<BR>
+ * Detectors wake this thread up whenever a new signal gets published.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class IRDecodeWorker {
+
+	private final CopyOnWriteArrayList<IRReceive> receivers;
+
+	/**
+	 * Flag used to keep thread running
+	 */
+	private final AtomicBoolean running;
+
+	/**
+	 * Flag used to tell there is something new to be drained
+	 */
+	private final AtomicBoolean signaled;
+
+	private volatile Thread workerThread;
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	private BooleanSupplier takeStatistics = ()->false;
+
+	/**
+	 * Watches for signal processing taking too long
+	 */
+	private StallWatchdog watchdog = StallWatchdog.DISABLED;
+
+	public IRDecodeWorker() {
+		this.receivers = new CopyOnWriteArrayList<>();
+		this.running = new AtomicBoolean(false);
+		this.signaled = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	public void setTakeStatistics(BooleanSupplier takeStatistics) {
+		this.takeStatistics = (takeStatistics==null) ? ()->false : takeStatistics;
+	}
+
+	/**
+	 * Tells if we should report to 'RoboToyStatistics'
+	 */
+	boolean isTakeStatistics() {
+		return takeStatistics.getAsBoolean();
+	}
+
+	/**
+	 * Watches for signal processing taking too long
+	 */
+	public void setWatchdog(StallWatchdog watchdog) {
+		this.watchdog = (watchdog==null) ? StallWatchdog.DISABLED : watchdog;
+	}
+
+	public void register(IRReceive receiver) {
+		receivers.addIfAbsent(receiver);
+	}
+
+	public void unregister(IRReceive receiver) {
+		receivers.remove(receiver);
+	}
+
+	public int getNumReceivers() {
+		return receivers.size();
+	}
+
+	public synchronized void init() {
+		if (running.get())
+			return;
+		running.set(true);
+		Thread thread = new Thread(()->{ processSignals(); });
+		thread.setName("IRDecodeWorker");
+		thread.setDaemon(true);
+		workerThread = thread;
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running.set(false);
+		Thread thread = workerThread;
+		workerThread = null;
+		if (thread!=null)
+			LockSupport.unpark(thread);
+	}
+
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Called by detectors after publishing a new signal.<BR>
+	 * Does not block and does not allocate memory.
+	 */
+	void wakeUp() {
+		if (signaled.compareAndSet(false, true)) {
+			Thread thread = workerThread;
+			if (thread!=null)
+				LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Loops while worker is not stopped<BR>
+	 * Drains all detectors, checks signal closures and sleeps until something new arrives.
+	 */
+	private void processSignals() {
+		final long poolingDelay = TimeUnit.MILLISECONDS.toNanos(IRReceive.MAX_POOLING_DELAY);
+		long nextPooling = System.nanoTime() + poolingDelay;
+		while (running.get()) {
+			signaled.set(false);
+			int processed = 0;
+			StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_IR);
+			try {
+				for (IRReceive receiver:receivers) {
+					processed += receiver.drainCaptures();
+				}
+			}
+			finally {
+				probe.exit();
+			}
+			long now = System.nanoTime();
+			if (now-nextPooling>=0) {
+				probe = watchdog.enter(StallWatchdog.TASK_IR);
+				try {
+					for (IRReceive receiver:receivers) {
+						receiver.checkSignalClosure();
+					}
+				}
+				finally {
+					probe.exit();
+				}
+				nextPooling = now + poolingDelay;
+				continue;
+			}
+			if (processed==0 && !signaled.get()) {
+				LockSupport.parkNanos(this, nextPooling-now);
+			}
+		}
+	}
+}
@@ -15,12 +15,14 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.optics;
 
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+
 import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.GpioPinDigitalInput;
@@ -55,6 +57,11 @@ public class IRReceive {
 	
 	public static final int MAX_PULSES = MAX_PULSE_PAIRS * 2;
 	
+	/**
+	 * Number of captured signals we may hold while they are waiting to be decoded
+	 */
+	public static final int CAPTURE_RING_FRAMES = 8;
+	
 	/**
 	 * Maximum time in ms we are going to wait before checking if
 	 * the last pulse was long enough to be considered a signal closure.
@@ -100,21 +107,15 @@ public class IRReceive {
     private int[] incoming_signal = new int[MAX_PULSES];
     
     /**
-     * Same as 'incoming_signal', but kept unchanged for
-     * the duration of signal processing thread.
+     * Copies of 'incoming_signal' waiting to be decoded. Each copy is kept
+     * unchanged for the duration of signal processing.
      */
-    private int[] pending_signal = new int[MAX_PULSES];
+    private final IRCaptureRing captureRing;
     
     /**
-     * Number of pulses in 'pending_signal' that should
-     * be considered.
+     * Number of dropped signals already reported to 'RoboToyStatistics'
      */
-    private int pending_signal_size;
-    
-    /**
-     * Pin level of start of pulses in 'pending_signal' 
-     */
-    private PinState pending_signal_start_pin_level;
+    private long reportedDroppedFrames;
     
     /**
      * Index in 'incoming_signal' array that we are going to
@@ -156,21 +157,26 @@ public class IRReceive {
     private boolean onIsHigh;
 
     /**
-     * Flag used to keep threads running
+     * Flag used to keep running
      */
     private final AtomicBoolean running;
     
     /**
-     * Flag used to hold 'pending_signal' unchanged for the time it
-     * takes to process it.
+     * Flag used to avoid concurrent signal closures (the GPIO listener and
+     * the decode worker may both detect the end of a signal).
+     */
+    private final AtomicBoolean closingSignal;
+    
+    /**
+     * Thread used for decoding signals and for checking signal closures. May
+     * be shared with other detectors.
      */
-    private final AtomicBoolean pendingSignalSaturated;
+    private IRDecodeWorker decodeWorker;
     
     /**
-     * Synchronization semaphore used to wake the 'processCallback' thread
-     * whenever a new signal (sequence pulses) arrives.
+     * Tells if 'decodeWorker' was created by this detector
      */
-    private final Semaphore signalReceived;
+    private boolean ownDecodeWorker;
     
     /**
      * Keep track of previous edge to check if we missed something
@@ -190,8 +196,8 @@ public class IRReceive {
 		this.resistance = resistance;
 		this.callback = callback;
 		running = new AtomicBoolean(false);
-		pendingSignalSaturated = new AtomicBoolean();
-		signalReceived = new Semaphore(0);
+		closingSignal = new AtomicBoolean(false);
+		captureRing = new IRCaptureRing(CAPTURE_RING_FRAMES, MAX_PULSES);
 		pulseCount = new LongAdder();
         gpio = GpioFactory.getInstance();
         previousSignalPulseCount = 0;
@@ -263,24 +269,49 @@ public class IRReceive {
 		this.onIsHigh = onIsHigh;
 	}
 
+	/**
+	 * Thread used for decoding signals and for checking signal closures. May
+	 * be shared with other detectors. If none is informed before 'init', a
+	 * new one will be created for this detector alone.
+	 */
+	public IRDecodeWorker getDecodeWorker() {
+		return decodeWorker;
+	}
+
+	/**
+	 * Thread used for decoding signals and for checking signal closures. May
+	 * be shared with other detectors. If none is informed before 'init', a
+	 * new one will be created for this detector alone.
+	 */
+	public void setDecodeWorker(IRDecodeWorker decodeWorker) {
+		this.decodeWorker = decodeWorker;
+	}
+	
+	/**
+	 * Signals captured and not yet decoded
+	 */
+	public IRCaptureRing getCaptureRing() {
+		return captureRing;
+	}
+
 	public synchronized void init() {
 		if (running.get())
 			return;
 		running.set(true);
-		Thread pooling_thread = new Thread(()->{ checkSignalClosure(); });
-		pooling_thread.setName("IRReceivePooling");
-		pooling_thread.setDaemon(true);
-		pooling_thread.start();
-		Thread callback_thread = new Thread(()->{ processCallback(); });
-		callback_thread.setName("IRReceiveCallback");
-		callback_thread.setDaemon(true);
-		callback_thread.start();
+		if (decodeWorker==null) {
+			decodeWorker = new IRDecodeWorker();
+			ownDecodeWorker = true;
+		}
+		decodeWorker.register(this);
+		decodeWorker.init();
 	}
 	
 	public synchronized void stop() {
 		running.set(false);
-		synchronized (running) {
-			running.notifyAll();
+		if (decodeWorker!=null) {
+			decodeWorker.unregister(this);
+			if (ownDecodeWorker)
+				decodeWorker.stop();
 		}
 	}
 
@@ -411,23 +442,18 @@ public class IRReceive {
     }
 
     /**
-     * Loops while IRReceive is not stopped<BR>
+     * Called periodically by 'IRDecodeWorker'<BR>
      * Check if current level is at the same level for long enough
      */
-    private void checkSignalClosure() {
-    	while (running.get()) {
-    		try {
-    			synchronized (running) {    			
-    				running.wait(MAX_POOLING_DELAY);
-    			}
-		    	long currentPulseEnd = System.nanoTime();
-		    	long delay = currentPulseEnd - currentPulseStart;
-		    	if (delay>MAX_PULSE_NS) {
-		    		if (previousSignalPulseCount!=pulseCount.longValue()) {
-			    		onSignalClosure(currentSignalStart,currentPulse);
-		    		}
-		    	}
-			} catch (InterruptedException e) {	}
+    void checkSignalClosure() {
+    	if (!running.get())
+    		return;
+    	long currentPulseEnd = System.nanoTime();
+    	long delay = currentPulseEnd - currentPulseStart;
+    	if (delay>MAX_PULSE_NS) {
+    		if (previousSignalPulseCount!=pulseCount.longValue()) {
+	    		onSignalClosure(currentSignalStart,currentPulse);
+    		}
     	}
     }
     
@@ -437,56 +463,83 @@ public class IRReceive {
      * @param excludingPulsePosition Index in 'incoming_signal' that we'll consider as being the end (excluding itself) of this sequence of pulses
      */
     private void onSignalClosure(int startPulsePosition, int excludingPulsePosition) {
-    	previousSignalPulseCount = pulseCount.longValue();
-    	if (pendingSignalSaturated.get()) {
-    		// Did not finish processing previous signal, we'll ignore this one
-        	currentSignalStart = modulus(excludingPulsePosition,MAX_PULSES);
-    		return;
-    	}
-    	if (startPulsePosition==excludingPulsePosition) {    		
-    		// No signal
+    	if (!closingSignal.compareAndSet(false, true)) {
+    		// Someone else is closing the same signal right now
     		return;
     	}
-    	pendingSignalSaturated.set(true);
-    	// Copies signal
-    	int lastPulsePosition = modulus(excludingPulsePosition-1 , MAX_PULSES);
-    	int length;
-    	if (lastPulsePosition>=startPulsePosition) {
-    		length = lastPulsePosition-startPulsePosition+1;
-    		System.arraycopy(incoming_signal, /*srcPos*/startPulsePosition, pending_signal, /*destPos*/0, /*length*/length);
-    		pending_signal_size = length;
+    	try {
+	    	previousSignalPulseCount = pulseCount.longValue();
+	    	if (startPulsePosition==excludingPulsePosition) {    		
+	    		// No signal
+	    		return;
+	    	}
+	    	IRCaptureRing.Frame frame = captureRing.claim();
+	    	if (frame==null) {
+	    		// Too many signals waiting to be decoded, we'll ignore this one (the ring counts it)
+	        	currentSignalStart = modulus(excludingPulsePosition,MAX_PULSES);
+	        	if (decodeWorker!=null)
+	        		decodeWorker.wakeUp();
+	    		return;
+	    	}
+	    	// Copies signal
+	    	int[] pending_signal = frame.getPulses();
+	    	int lastPulsePosition = modulus(excludingPulsePosition-1 , MAX_PULSES);
+	    	int length;
+	    	if (lastPulsePosition>=startPulsePosition) {
+	    		length = lastPulsePosition-startPulsePosition+1;
+	    		System.arraycopy(incoming_signal, /*srcPos*/startPulsePosition, pending_signal, /*destPos*/0, /*length*/length);
+	    	}
+	    	else {
+	    		int part1_length = (MAX_PULSES - startPulsePosition);
+	    		int part2_length = lastPulsePosition+1;
+	    		length = part1_length + part2_length;
+	    		System.arraycopy(incoming_signal, /*srcPos*/startPulsePosition, pending_signal, /*destPos*/0, /*length*/part1_length);
+	    		System.arraycopy(incoming_signal, /*srcPos*/0, pending_signal, /*destPos*/part1_length, /*length*/part2_length);
+	    	}
+	    	frame.setSize(length);
+	    	frame.setStartPinLevel(((startPulsePosition%2)==0) ? PinState.HIGH : PinState.LOW);
+	    	frame.setTimestamp(System.nanoTime());
+	    	captureRing.publish();
+	    	currentSignalStart = modulus(excludingPulsePosition,MAX_PULSES);
+	    	if (decodeWorker!=null)
+	    		decodeWorker.wakeUp();
     	}
-    	else if (lastPulsePosition<startPulsePosition) {
-    		int part1_length = (MAX_PULSES - startPulsePosition);
-    		int part2_length = lastPulsePosition+1;
-    		length = part1_length + part2_length;
-    		System.arraycopy(incoming_signal, /*srcPos*/startPulsePosition, pending_signal, /*destPos*/0, /*length*/part1_length);
-    		System.arraycopy(incoming_signal, /*srcPos*/0, pending_signal, /*destPos*/part1_length, /*length*/part2_length);
-    		pending_signal_size = length;
+    	finally {
+    		closingSignal.set(false);
     	}
-		pending_signal_start_pin_level = ((startPulsePosition%2)==0) ? PinState.HIGH : PinState.LOW;
-    	currentSignalStart = modulus(excludingPulsePosition,MAX_PULSES);
-   		signalReceived.release();
     }
     
     /**
-     * Wait for signal closure event.<BR>
-     * Calls the callback function.
+     * Called by 'IRDecodeWorker' whenever there may be new signals.<BR>
+     * Calls the callback function for each signal captured.
+     * @return Number of signals processed
      */
-    private void processCallback() {
-    	while (running.get()) {
+    int drainCaptures() {
+    	final boolean takeStatistics = decodeWorker!=null && decodeWorker.isTakeStatistics();
+    	int processed = 0;
+    	IRCaptureRing.Frame frame;
+    	while ((frame=captureRing.peek())!=null) {
     		try {
-	    		try {
-					signalReceived.acquire();
-				} catch (InterruptedException e) {
-					if (!running.get())
-						break;
-				}
-	    		callback.onSignalDetected(pending_signal,pending_signal_size,pending_signal_start_pin_level);
+    			if (takeStatistics) {
+    				RoboToyStatistics.addIRCaptureQueueTime(
+    						(System.nanoTime()-frame.getTimestamp())/(double)TimeUnit.MILLISECONDS.toNanos(1));
+    			}
+    			callback.onSignalDetected(frame.getPulses(),frame.getSize(),frame.getStartPinLevel());
+    		}
+    		catch (Throwable e) {
+    			log.log(Level.SEVERE, "Error while processing signal from IR DETECTOR pin "+pin, e);
     		}
     		finally {
-    			pendingSignalSaturated.set(false);
+    			captureRing.release();
     		}
+    		processed++;
+    	}
+    	long dropped = captureRing.getDroppedFrames();
+    	if (dropped!=reportedDroppedFrames) {
+    		if (takeStatistics)
+    			RoboToyStatistics.incIRStatRawSignalsDropped((int)(dropped-reportedDroppedFrames));
+    		reportedDroppedFrames = dropped;
     	}
+    	return processed;
     }
 }
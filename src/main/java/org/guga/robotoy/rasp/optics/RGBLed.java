@@ -20,6 +20,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
+
 import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.GpioPinPwmOutput;
@@ -28,7 +30,9 @@ import com.pi4j.io.gpio.PinPullResistance;
 import com.pi4j.io.gpio.PinState;
 
 /**
- * Implements GPIO interface to a RGB led.
+ * Implements GPIO interface to a RGB led.<BR>
+ * <BR>
+ * Animations (e.g. cycling through colors) run as periodic tasks of 'RoboToyScheduler'.
  * 
  * @author Gustavo Figueiredo
  *
@@ -50,7 +54,9 @@ public class RGBLed {
     
     private LedColor color;
     
-    private AnimationThread animateThread;
+    private final RoboToyScheduler scheduler;
+    
+    private volatile Animation animation;
     
     public static final int MAX_PWM_SOFT = 100;
 
@@ -59,7 +65,8 @@ public class RGBLed {
 		CATHODE_COMMON;
 	}
 	
-	public RGBLed(DiodeType type,Pin red,Pin green,Pin blue) {
+	public RGBLed(RoboToyScheduler scheduler,DiodeType type,Pin red,Pin green,Pin blue) {
+		this.scheduler = scheduler;
 		this.type = type;
 		this.pinR = red;
 		this.pinG = green;
@@ -78,8 +85,7 @@ public class RGBLed {
 	
     public void addShutdownHook() {
         Thread shutdown_hook = new Thread(()->{
-        	if (animateThread!=null)
-        		animateThread.stopAnimation();
+        	stopAnimation();
         	gpio.shutdown();
         });
         shutdown_hook.setName("GPIOShutdownHook");
@@ -105,20 +111,31 @@ public class RGBLed {
 	}
 
 	private void setColor(LedColor color,boolean stopAnimation) {
-    	if (stopAnimation && animateThread!=null)
-    		animateThread.stopAnimation();
+    	if (stopAnimation)
+    		stopAnimation();
 		this.color = color;
 		outputColor();
 	}
 	
+	private void stopAnimation() {
+		Animation current = animation;
+		if (current!=null)
+			current.stopAnimation();
+	}
+	
+	private synchronized void startAnimation(Animation next) {
+		stopAnimation();
+		animation = next;
+		next.task = scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_LED, "RGBLedAnimation", next.delay, next.delay, next);
+		if (next.stop.get())
+			next.task.cancel(); // stopped while being scheduled
+	}
+	
 	public void startCycleColors(int delay) {
-    	if (animateThread!=null)
-    		animateThread.stopAnimation();
-    	animateThread = new AnimationThread(delay,/*expires*/0,/*colorAtRest*/null,
+		startAnimation(new Animation(delay,/*expires*/0,/*colorAtRest*/null,
 			()->{
 				setColor(getColor().next(),/*stopAnimation*/false);
-			});
-    	animateThread.start();
+			}));
 	}
 
 	public void startCycleColors(int delay,LedColor... colors) {
@@ -126,11 +143,9 @@ public class RGBLed {
 	}
 
 	public void startCycleColors(int delay,int timeout,LedColor colorAtRest,LedColor... colors) {
-    	if (animateThread!=null)
-    		animateThread.stopAnimation();
     	AtomicInteger contador = new AtomicInteger(-1);
     	long expires = (timeout==0) ? 0 : (System.currentTimeMillis() + timeout);
-    	animateThread = new AnimationThread(delay,expires,colorAtRest,
+    	startAnimation(new Animation(delay,expires,colorAtRest,
 			()->{
 				int count = contador.incrementAndGet();
 				if (count==colors.length) {
@@ -138,8 +153,7 @@ public class RGBLed {
 					count = 0;
 				}
 				setColor(colors[count],/*stopAnimation*/false);
-			});
-    	animateThread.start();
+			}));
 	}
 
 	private int getPWMLevel(float value) {
@@ -167,48 +181,44 @@ public class RGBLed {
 		outBlue.setPwm(getPWMLevel(color.getBlue()));
 	}
 	
-	private class AnimationThread extends Thread {
+	/**
+	 * One animation, run periodically by the scheduler until stopped or expired
+	 */
+	private class Animation implements Runnable {
 		private final int delay;
 		private final long expires;
 		private final AtomicBoolean stop;
 		private final Runnable animation;
 		private final LedColor colorAtRest;
-		AnimationThread(int delay,long expires,LedColor colorAtRest,Runnable animation) {			
+		private volatile RoboToyScheduler.Task task;
+		Animation(int delay,long expires,LedColor colorAtRest,Runnable animation) {			
 			this.delay = delay;
 			this.expires = expires;
 			this.animation = animation;
 			this.stop = new AtomicBoolean();
 			this.colorAtRest = colorAtRest;
-			setDaemon(true);
 		}
 		@Override
 		public void run() {
-			while (!stop.get()) {
-				if (expires>0 && System.currentTimeMillis()>expires)
-					break;
-				try {
-					synchronized (stop) {
-						stop.wait(delay);
-					}
-				}
-				catch (InterruptedException e) {
-					break;
-				}
-				if (expires>0 && System.currentTimeMillis()>expires)
-					break;
-				if (stop.get())
-					break;
-				animation.run();
+			if (stop.get()) {
+				stopAnimation();
+				return;
 			}
-			if (colorAtRest!=null) {
-				setColor(colorAtRest);
+			if (expires>0 && System.currentTimeMillis()>expires) {
+				// finished
+				stopAnimation();
+				if (colorAtRest!=null) {
+					setColor(colorAtRest,/*stopAnimation*/false);
+				}
+				return;
 			}
+			animation.run();
 		}
 		public void stopAnimation() {
 			stop.set(true);
-			synchronized (stop) {
-				stop.notifyAll();
-			}
+			RoboToyScheduler.Task current = task;
+			if (current!=null)
+				current.cancel();
 		}
 	}
 }
@@ -47,6 +47,21 @@ public class RoboToyWeaponary {
 	 */
 	public static final int MINIMUM_DELAY_BETWEEN_SHOTS_MS = 1000;
 
+	/**
+	 * Size of array of statistics filled by 'voteDecodedMessage'
+	 */
+	public static final int VOTE_STATS_SIZE = 2;
+	
+	/**
+	 * Position in statistics of number of bytes with wrong checksum
+	 */
+	public static final int VOTE_STATS_MISMATCH = 0;
+	
+	/**
+	 * Position in statistics of number of distinct data values with right checksum
+	 */
+	public static final int VOTE_STATS_DISTINCT = 1;
+	
 	private static final Logger log = Logger.getLogger(RoboToyWeaponary.class.getName());
 
 	private long lastShotTimestamp;
@@ -73,17 +88,28 @@ public class RoboToyWeaponary {
 		beamDevice.setEncoder(beamEncoder);
 		beamDevice.setNumRepeats(15);	// 16 signals total
 		beamDevice.setDelayBetweenRepeats(beamEncoder.getHeaderOffPulse());
-		context.setBeamDevice(beamDevice);
+		// Transmits beams in a dedicated thread so that we don't hold the caller
+		BeamFireExecutor fireExecutor = new BeamFireExecutor(beamDevice);
+		fireExecutor.setTakeStatistics(context::isTakeStatistics);
+		fireExecutor.setWatchdog(context.getWatchdog());
+		fireExecutor.init();
+		context.setBeamDevice(fireExecutor);
 	}
 	
 	public void buildBeamDetectors(PinPullResistance internalResistance,Pin... pinDetectorDevices) {
 		IRBeamDecoder beamDecoder = IRBeamDecoder.forEncoder(beamEncoder);
 		beamDecoder.setBitsPerByte(8);	// chunk together 4 data bits (low order in byte) with 4 checksum bits (high order in byte)
 		beamDecoder.setChecksum(false);
+		// One single thread decodes signals from all detectors
+		IRDecodeWorker decodeWorker = new IRDecodeWorker();
+		decodeWorker.setTakeStatistics(context::isTakeStatistics);
+		decodeWorker.setWatchdog(context.getWatchdog());
+		decodeWorker.init();
 		for (int pin_index=0;pin_index<pinDetectorDevices.length;pin_index++) {
 			Pin pin = pinDetectorDevices[pin_index];
 			IRReceive receiver = new IRReceive(pin,internalResistance,new RobotoyReceiver(pin_index,beamDecoder));
 			receiver.setMinStartPulseDelay(beamEncoder.getHeaderOnPulse()*2/3);
+			receiver.setDecodeWorker(decodeWorker);
 			receiver.init();
 		}
 	}
@@ -123,9 +149,14 @@ public class RoboToyWeaponary {
 	private class RobotoyReceiver implements IRReceive.IRReceiveCallback {
 		private final int receiverIndex;
 		private final IRBeamDecoder beamDecoder;
+		/**
+		 * Decoded bytes (reused for every signal of this receiver)
+		 */
+		private final byte[] message;
 		RobotoyReceiver(int index,IRBeamDecoder beamDecoder) {
 			this.receiverIndex = index;
 			this.beamDecoder = beamDecoder;
+			this.message = new byte[beamDecoder.getMaxMessageSize(IRReceive.MAX_PULSES)];
 		}
 		@Override
 		public void onSignalDetected(int[] signal, int size, PinState startPinLevel) {
@@ -134,12 +165,12 @@ public class RoboToyWeaponary {
 			if (log.isLoggable(Level.FINEST)) {
 				logRawSignal(signal,size);
 			}
-			byte[] message = beamDecoder.getMessage(signal, size);
+			int length = beamDecoder.decode(signal, size, message);
 			if (log.isLoggable(Level.FINEST)) {
-				logDecodedMessage(message);
+				logDecodedMessage(message,length);
 			}
-			if (message!=null && message.length>0) {
-				chkDecodedMessage(receiverIndex,message);
+			if (length>0) {
+				chkDecodedMessage(receiverIndex,message,length);
 			}
 		}
 	}
@@ -147,33 +178,59 @@ public class RoboToyWeaponary {
 	/**
 	 * Output log message with information about decoded message in incoming signal detected (e.g. IR light detector)
 	 * @param message Decoded bytes
+	 * @param length Number of decoded bytes
 	 */
-	private static void logDecodedMessage(byte[] message) {
-		if (message==null || message.length==0)
+	private static void logDecodedMessage(byte[] message,int length) {
+		if (length==0)
 			log.log(Level.FINEST, "Decoded message: NONE");
 		else {
 			StringBuilder message_text = new StringBuilder();
-			for (int i=0;i<message.length;i++) {
+			for (int i=0;i<length;i++) {
 				byte b = message[i];
 				if (message_text.length()>0)
 					message_text.append(", ");
 				for (int j=0;j<8;j++)
 					message_text.append((b>>(7-j))&1);
 			}
-			log.log(Level.FINEST, "Decoded message with "+message.length+" bytes: "+message_text.toString());
+			log.log(Level.FINEST, "Decoded message with "+length+" bytes: "+message_text.toString());
 		}
 	}
 	
 	/**
 	 * Verify checkum of incoming signal (e.g. IR light detector)
 	 */
-	private void chkDecodedMessage(int pin_index,byte[] message) {
+	private void chkDecodedMessage(int pin_index,byte[] message,int length) {
+		int[] stats = context.isTakeStatistics() ? new int[VOTE_STATS_SIZE] : null;
+		int data = voteDecodedMessage(message, length, stats);
+		if (stats!=null) {
+			if (stats[VOTE_STATS_MISMATCH]>0)
+				RoboToyStatistics.incIRStatRawSignalsMisMatch(stats[VOTE_STATS_MISMATCH]);
+			if (data>=0) {
+				// One signal is right
+				RoboToyStatistics.incIRStatRawSignalsMatch();
+				// The rest is wrong
+				if (stats[VOTE_STATS_DISTINCT]>1)
+					RoboToyStatistics.incIRStatRawSignalsWrong(stats[VOTE_STATS_DISTINCT]-1);
+			}
+		}
+		if (data>=0)
+			onBeamReceived((byte)data);
+	}
+	
+	/**
+	 * Verify checksum of each decoded byte and vote for the most frequent data among the
+	 * bytes that are right.
+	 * @param stats If not NULL, gets some statistics (see VOTE_STATS_*)
+	 * @return Returns the data voted for (4 bits), or -1 if no byte was right
+	 */
+	public static int voteDecodedMessage(byte[] message,int length,int[] stats) {
 		// We expect one single byte with 4 high level bits consisting of a checksum
 		// and 4 low level bits consisting of data
 		// If we got multiple bytes, there might be some redundance (sender will usually send
 		// about 16 signals)
 		byte histogram[][] = null; // histogram is only used if we get more than 1 byte
-		for (byte b:message) {
+		for (int i=0;i<length;i++) {
+			byte b = message[i];
 			byte data = (byte)(b & 0x0F);
 			byte checksum = (byte)((b >> 4) & 0x0F);
 			byte checksum_bits = (byte)0b00001010;
@@ -181,15 +238,14 @@ public class RoboToyWeaponary {
 			if (checksum_bits==checksum) {
 				// probably correct
 								
-				if (message.length==1) {
-					if (context.isTakeStatistics()) {
-						RoboToyStatistics.incIRStatRawSignalsMatch();
-					}
-					onBeamReceived(data);
+				if (length==1) {
+					if (stats!=null)
+						stats[VOTE_STATS_DISTINCT] = 1;
+					return data;
 				}
 				else {
 					if (histogram==null)
-						histogram = new byte[message.length][2];
+						histogram = new byte[length][2];
 					if (histogram[0][0]==data)
 						histogram[0][1]++;
 					else {
@@ -208,44 +264,38 @@ public class RoboToyWeaponary {
 			}
 			else {
 				// checksum failed
-				if (context.isTakeStatistics()) {
-					RoboToyStatistics.incIRStatRawSignalsMisMatch();
-				}
+				if (stats!=null)
+					stats[VOTE_STATS_MISMATCH]++;
 			}
 		} // LOOP over incoming message bytes
-		if (histogram!=null) {
-			// consider only the most frequent data signal
-			byte most_frequent_data = histogram[0][0];
-			byte most_frequent_count = histogram[0][1];
-			int number_of_matching_signals = 1;
-			for (int i=1;i<histogram.length;i++) {
-				byte data = histogram[i][0];
-				if (data==0)
-					break; // end of valid data
-				number_of_matching_signals++;
-				byte count = histogram[i][1];
-				if (count>most_frequent_count) {
-					most_frequent_data = data;
-					most_frequent_count = count;
-				}
-			}
-			
-			if (context.isTakeStatistics()) {
-
-				// One signal is right
-				RoboToyStatistics.incIRStatRawSignalsMatch();
-				// The rest is wrong
-				RoboToyStatistics.incIRStatRawSignalsWrong(number_of_matching_signals-1);
+		if (histogram==null)
+			return -1;
+		// consider only the most frequent data signal
+		byte most_frequent_data = histogram[0][0];
+		byte most_frequent_count = histogram[0][1];
+		int number_of_matching_signals = 1;
+		for (int i=1;i<histogram.length;i++) {
+			byte data = histogram[i][0];
+			if (data==0)
+				break; // end of valid data
+			number_of_matching_signals++;
+			byte count = histogram[i][1];
+			if (count>most_frequent_count) {
+				most_frequent_data = data;
+				most_frequent_count = count;
 			}
-
-			onBeamReceived(most_frequent_data);
 		}
+		if (stats!=null)
+			stats[VOTE_STATS_DISTINCT] = number_of_matching_signals;
+		return most_frequent_data;
 	}
 	
 	/**
-	 * Method executed when we detect fire from another robot
+	 * Method executed when we detect fire from another robot<BR>
+	 * Must be called always by the same thread (e.g. the one decoding signals from IR detectors).
+	 * @param code Sequence id of the robot that fired
 	 */
-	private void onBeamReceived(byte code) {
+	public void onBeamReceived(byte code) {
 		long timestamp = System.currentTimeMillis();
 		if (lastShotTimestamp!=0 && (timestamp-lastShotTimestamp)<MINIMUM_DELAY_BETWEEN_SHOTS_MS)
 			return; // too fast (may be repetitions of the same fire signal)
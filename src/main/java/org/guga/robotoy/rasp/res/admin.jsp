@@ -30,6 +30,7 @@
 	<li><a href="/tableview.jsp?title=Cards&url=cards">Cards</a></li>
 	<li><a href="/tableview.jsp?title=Statistics&url=stats">Statistics</a></li>
 	<li><a href="/tableview.jsp?title=Network+Interfaces&url=net">Network Interfaces</a></li>
+	<li><a href="/tableview.jsp?title=WiFi+Quality&url=wifiquality">WiFi Quality</a></li>
 	<li><a href="/tableview.jsp?title=Active+WebSockets&url=sockets">Active WebSockets</a></li>
 	<li><a href="" onclick="this.href='/wifi?net='+document.getElementById('net').value">WiFi Scan (JSON)</a> 
 	<select id="net" name="net">
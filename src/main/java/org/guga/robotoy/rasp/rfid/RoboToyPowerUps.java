@@ -15,14 +15,12 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.rfid;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.guga.robotoy.rasp.commands.CmdCharge;
 import org.guga.robotoy.rasp.commands.RobotSummary;
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
 import org.guga.robotoy.rasp.game.GameCard;
 import org.guga.robotoy.rasp.game.GameCardRecharger;
@@ -57,8 +55,8 @@ public class RoboToyPowerUps implements RFIDRead.Callback {
 	 * Schedules a periodic task for updating internal status for each known cards during gameplay
 	 */
 	public static void scheduleCardsManagement(final RoboToyServerController controller) {
-		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-		scheduler.scheduleWithFixedDelay(()->{
+		controller.getContext().getScheduler().scheduleWithFixedDelay(RoboToyScheduler.GROUP_GAME, "CardsManagement",
+			CARD_MANAGEMENT_DELAY_MS, CARD_MANAGEMENT_DELAY_MS, ()->{
 			if (controller.getContext()!=null 					
 					&& controller.getContext().getGame()!=null
 					&& GameStage.PLAY.equals(controller.getContext().getGame().getStage())) {
@@ -66,7 +64,7 @@ public class RoboToyPowerUps implements RFIDRead.Callback {
 					card.update();
 				}
 			}
-		}, CARD_MANAGEMENT_DELAY_MS, CARD_MANAGEMENT_DELAY_MS, TimeUnit.MILLISECONDS);
+		});
 	}
 	
 	public RoboToyPowerUps(RoboToyServerController controller) {
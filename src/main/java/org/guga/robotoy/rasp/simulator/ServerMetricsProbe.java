@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads CPU and memory usage of a robot through its '/metrics' page (see 'DebugWebInterface').<BR>
+ * Only a few samples are parsed from the text exposition format. Anything else is ignored.
+ * The robot must let anyone read its metrics (see 'metrics.public' in configuration).
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class ServerMetricsProbe {
+	
+	private static final int TIMEOUT_MS = 5_000;
+
+	private final URL url;
+	
+	/**
+	 * @param server Address of the robot (e.g. ws://robotoy.local:8089)
+	 */
+	public ServerMetricsProbe(URI server) throws IOException {
+		this.url = new URL("http", server.getHost(), (server.getPort()>0) ? server.getPort() : 80, "/metrics");
+	}
+	
+	public URL getURL() {
+		return url;
+	}
+	
+	/**
+	 * Reads current metrics from robot
+	 */
+	public Sample read() throws IOException {
+		HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+		conn.setConnectTimeout(TIMEOUT_MS);
+		conn.setReadTimeout(TIMEOUT_MS);
+		try {
+			if (conn.getResponseCode()!=HttpURLConnection.HTTP_OK)
+				throw new IOException("Got HTTP "+conn.getResponseCode()+" from "+url);
+			Sample sample = new Sample();
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line=in.readLine())!=null) {
+					if (line.length()==0 || line.charAt(0)=='#')
+						continue;
+					int sep = line.lastIndexOf(' ');
+					if (sep<=0)
+						continue;
+					String name = line.substring(0, sep);
+					double value;
+					try {
+						value = Double.parseDouble(line.substring(sep+1));
+					}
+					catch (NumberFormatException e) {
+						continue;
+					}
+					if (name.equals("process_cpu_seconds_total"))
+						sample.cpuSeconds = value;
+					else if (name.equals("system_cpu_count"))
+						sample.cpuCount = (int)value;
+					else if (name.equals("system_load_average"))
+						sample.loadAverage = value;
+					else if (name.equals("jvm_memory_heap_bytes{area=\"used\"}"))
+						sample.heapUsed = (long)value;
+					else if (name.equals("jvm_memory_heap_bytes{area=\"max\"}"))
+						sample.heapMax = (long)value;
+					else if (name.equals("jvm_threads{state=\"live\"}"))
+						sample.threads = (int)value;
+					else if (name.startsWith("robotoy_websocket_sessions"))
+						sample.sessions += (int)value;
+				}
+			}
+			return sample;
+		}
+		finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Metrics read from robot at some point in time
+	 * 
+	 * @author Gustavo Figueiredo
+	 */
+	public static class Sample {
+		
+		private final long time = System.nanoTime();
+		
+		private double cpuSeconds = -1;
+		
+		private int cpuCount = 1;
+		
+		private double loadAverage = -1;
+		
+		private long heapUsed;
+		
+		private long heapMax;
+		
+		private int threads;
+		
+		private int sessions;
+
+		/**
+		 * Process CPU time at robot (in seconds, negative if unknown)
+		 */
+		public double getCpuSeconds() {
+			return cpuSeconds;
+		}
+
+		/**
+		 * CPU usage of robot process between two samples, as a percentage of all processors
+		 * (negative if unknown)
+		 */
+		public double getCpuPercent(Sample previous) {
+			if (previous==null || cpuSeconds<0 || previous.cpuSeconds<0 || time==previous.time)
+				return -1;
+			double wall = (time-previous.time)/1_000_000_000.0;
+			return 100.0 * (cpuSeconds-previous.cpuSeconds) / wall / Math.max(1, cpuCount);
+		}
+
+		public int getCpuCount() {
+			return cpuCount;
+		}
+
+		/**
+		 * System load average at robot (negative if unknown)
+		 */
+		public double getLoadAverage() {
+			return loadAverage;
+		}
+
+		public long getHeapUsed() {
+			return heapUsed;
+		}
+
+		public long getHeapMax() {
+			return heapMax;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		/**
+		 * Websocket sessions at robot
+		 */
+		public int getSessions() {
+			return sessions;
+		}
+	}
+}
@@ -0,0 +1,493 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.guga.robotoy.rasp.commands.CmdPing;
+import org.guga.robotoy.rasp.commands.CmdQueryStatus;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.game.GameStage;
+import org.guga.robotoy.rasp.utils.JSONUtils;
+
+/**
+ * Synthetic player connected to one robot through '/ws/player/{name}'.<BR>
+ * <BR>
+ * It follows the same script as the pages in a browser: greetings and lobby queries, takes a
+ * robot ('T') and tells it's ready ('S'). While playing, streams movements, fires and polls
+ * status ('?') like 'driving_comm.js'. At summary, waits a little and asks to play again ('A').<BR>
+ * It also replies to PING messages from the robot and measures round trip time of its own
+ * PING messages and status queries.<BR>
+ * A player without a robot to take ('spectator') only polls status and pings.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@WebSocket(maxTextMessageSize = 128 * 1024)
+public class SimulatedPlayer {
+
+	private static final Logger log = Logger.getLogger(SimulatedPlayer.class.getName());
+	
+	public static final int DEFAULT_MOVEMENT_RATE = 10;
+	
+	public static final long DEFAULT_STATUS_INTERVAL_MS = 1000;
+	
+	public static final long DEFAULT_PING_INTERVAL_MS = 1000;
+	
+	public static final long DEFAULT_FIRE_INTERVAL_MS = 1500;
+	
+	public static final long DEFAULT_SUMMARY_DELAY_MS = 2000;
+	
+	/**
+	 * Robot identifier meaning 'take the first robot listed by the robot we are connected to'
+	 */
+	public static final String ANY_ROBOT = "*";
+	
+	private static final Pattern patternStage = Pattern.compile("\"" + CmdQueryStatus.ID_GAME_STAGE + "\":\"(\\w+)\"");
+	
+	private static final Pattern patternRobotId = Pattern.compile("\"id\":\"([^\"]+)\"");
+	
+	private static final Pattern patternSessionCookie = Pattern.compile("^Set-Cookie:\\s*JSESSIONID=([^;.\\s]+)", Pattern.CASE_INSENSITIVE);
+	
+	private static final int LOGIN_TIMEOUT_MS = 10_000;
+	
+	private final String name;
+	
+	private final String sessionId;
+	
+	private final InetAddress bindAddress;
+	
+	private final URI uri;
+	
+	private final SimulationReport report;
+	
+	private volatile String robotId;
+	
+	private int movementRate = DEFAULT_MOVEMENT_RATE;
+	
+	private long statusIntervalMs = DEFAULT_STATUS_INTERVAL_MS;
+	
+	private long pingIntervalMs = DEFAULT_PING_INTERVAL_MS;
+	
+	private long fireIntervalMs = DEFAULT_FIRE_INTERVAL_MS;
+	
+	private long summaryDelayMs = DEFAULT_SUMMARY_DELAY_MS;
+	
+	private int rounds = 1;
+	
+	private WebSocketClient client;
+	
+	private ScheduledExecutorService ticker;
+	
+	private ScheduledFuture<?> ticks;
+	
+	private volatile Session session;
+	
+	/**
+	 * Last game stage we know about
+	 */
+	private volatile GameStage stage;
+	
+	/**
+	 * Number of games played until the end
+	 */
+	private int round;
+	
+	private volatile boolean finished;
+	
+	/**
+	 * When each pending status query was sent (replies come in the same order)
+	 */
+	private final Queue<Long> pendingStatus = new ConcurrentLinkedQueue<>();
+	
+	private long nextStatus, nextPing, nextFire;
+	
+	private final WriteCallback writeCallback = new WriteCallback() {
+		@Override
+		public void writeSuccess() { }
+		@Override
+		public void writeFailed(Throwable e) {
+			report.onSendFailure();
+		}
+	};
+
+	/**
+	 * @param name Player name (must be known by the robot)
+	 * @param sessionId HTTP session of this player (used in greetings)
+	 * @param bindAddress Local address of this player (NULL = any address)
+	 * @param server Address of the robot (e.g. ws://robotoy.local:8089)
+	 */
+	public SimulatedPlayer(String name,String sessionId,InetAddress bindAddress,URI server,SimulationReport report) {
+		this.name = name;
+		this.sessionId = sessionId;
+		this.bindAddress = bindAddress;
+		this.uri = server.resolve(RoboToyServerContext.getWSPathWithPlayerName(name));
+		this.report = report;
+	}
+
+	/**
+	 * Logs in through the login page, the same way as a browser does.<BR>
+	 * Robots know players by their addresses, so each player logged in this way should
+	 * have its own address (otherwise it will only rename the previous one).
+	 * @param server Address of the robot (e.g. ws://robotoy.local:8089)
+	 * @param bindAddress Local address of this player (NULL = any address)
+	 * @return Returns the HTTP session created by the robot (NULL if there was none)
+	 */
+	public static String login(URI server,InetAddress bindAddress,String name) throws IOException {
+		final int port = (server.getPort()>0) ? server.getPort() : 80;
+		try (Socket socket = new Socket()) {
+			if (bindAddress!=null)
+				socket.bind(new InetSocketAddress(bindAddress, 0));
+			socket.connect(new InetSocketAddress(server.getHost(), port), LOGIN_TIMEOUT_MS);
+			socket.setSoTimeout(LOGIN_TIMEOUT_MS);
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.ISO_8859_1);
+			out.write("GET /login.jsp?login="+URLEncoder.encode(name, "UTF-8")+" HTTP/1.0\r\n"
+					+ "Host: "+server.getHost()+":"+port+"\r\n"
+					+ "Connection: close\r\n\r\n");
+			out.flush();
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+			String status = in.readLine();
+			if (status==null || !status.matches("HTTP/\\d\\.\\d [23]\\d\\d.*"))
+				throw new IOException("Login of "+name+" failed: "+status);
+			String sessionId = null;
+			String line;
+			while ((line=in.readLine())!=null && line.length()>0) {
+				Matcher m = patternSessionCookie.matcher(line);
+				if (m.find())
+					sessionId = m.group(1);
+			}
+			return sessionId;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Robot this player takes in lobby (NULL = spectator)
+	 */
+	public String getRobotId() {
+		return robotId;
+	}
+
+	/**
+	 * Robot this player takes in lobby (NULL = spectator, ANY_ROBOT = first robot listed)
+	 */
+	public void setRobotId(String robotId) {
+		this.robotId = robotId;
+	}
+
+	/**
+	 * Movements per second while playing (0 = no movement)
+	 */
+	public void setMovementRate(int movementRate) {
+		this.movementRate = movementRate;
+	}
+
+	/**
+	 * Delay between status queries (0 = no status query)
+	 */
+	public void setStatusInterval(long ms) {
+		this.statusIntervalMs = ms;
+	}
+
+	/**
+	 * Delay between PING messages (0 = no PING)
+	 */
+	public void setPingInterval(long ms) {
+		this.pingIntervalMs = ms;
+	}
+
+	/**
+	 * Delay between fires while playing (0 = never fires)
+	 */
+	public void setFireInterval(long ms) {
+		this.fireIntervalMs = ms;
+	}
+
+	/**
+	 * Delay at summary before asking to play again
+	 */
+	public void setSummaryDelay(long ms) {
+		this.summaryDelayMs = ms;
+	}
+
+	/**
+	 * Number of games to play (0 = plays until stopped)
+	 */
+	public void setRounds(int rounds) {
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Last game stage this player knows about
+	 */
+	public GameStage getStage() {
+		return stage;
+	}
+
+	/**
+	 * Tells if this player has played all rounds
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	public boolean isConnected() {
+		Session session = this.session;
+		return session!=null && session.isOpen();
+	}
+
+	/**
+	 * Connects to the robot. Actions are taken by the 'ticker' threads.
+	 * @param executor Threads shared by all players for network events
+	 */
+	public void start(Executor executor,ScheduledExecutorService ticker) throws Exception {
+		this.ticker = ticker;
+		client = new WebSocketClient(executor);
+		if (bindAddress!=null)
+			client.setBindAddress(new InetSocketAddress(bindAddress, 0));
+		client.start();
+		client.connect(this, uri, new ClientUpgradeRequest());
+		long period = (movementRate>0) ? Math.max(1, 1000/movementRate) : 100;
+		ticks = ticker.scheduleAtFixedRate(this::tick, 
+				ThreadLocalRandom.current().nextLong(period), period, TimeUnit.MILLISECONDS);
+	}
+	
+	public void stop() {
+		finished = true;
+		if (ticks!=null)
+			ticks.cancel(false);
+		if (client!=null) {
+			try {
+				client.stop();
+			}
+			catch (Exception e) {
+				log.log(Level.FINE, "Error while closing websocket client", e);
+			}
+		}
+	}
+
+	@OnWebSocketConnect
+	public void onConnect(Session session) {
+		this.session = session;
+		report.onConnect();
+		send("{\"greetings\":"+JSONUtils.quote(sessionId)+"}");
+		send(String.valueOf(RoboToyServerController.QUERY_PLAYERS));
+		send(String.valueOf(RoboToyServerController.QUERY_ROBOTS));
+		observe(GameStage.INIT);
+	}
+
+	@OnWebSocketClose
+	public void onClose(int statusCode, String reason) {
+		session = null;
+		if (!finished) {
+			report.onDisconnection();
+			if (log.isLoggable(Level.WARNING))
+				log.log(Level.WARNING, "Player "+name+" got disconnected: "+statusCode+" "+reason);
+		}
+	}
+
+	@OnWebSocketError
+	public void onError(Throwable t) {
+		report.onConnectionError();
+		log.log(Level.FINE, "Error at player "+name, t);
+	}
+
+	@OnWebSocketMessage
+	public void onMessage(String message) {
+		final long now = System.nanoTime();
+		report.onReceived(message.length());
+		if (message.startsWith("{\""+CmdQueryStatus.ID_CURRENT_SPEED+"\"")) {
+			Long sent = pendingStatus.poll();
+			if (sent!=null)
+				report.onStatusReply((now-sent)/1_000_000.0);
+			Matcher m = patternStage.matcher(message);
+			if (m.find()) {
+				try {
+					observe(GameStage.valueOf(m.group(1)));
+				}
+				catch (IllegalArgumentException e) {
+					// unknown stage
+				}
+			}
+		}
+		else if (message.startsWith("{\"ping\"")) {
+			CmdPing.PingMessage ping = JSONUtils.fromJSON(message, CmdPing.PingMessage.class);
+			if (ping==null)
+				return;
+			if (ping.getCount()==0) {
+				// generated by the robot (same reply as 'driving_comm.js')
+				ping.setCount(1);
+				send(JSONUtils.toJSON(ping, false));
+			}
+			else {
+				// reply to our own ping
+				report.onPingReply((now-ping.getPing())/1_000_000.0);
+			}
+		}
+		else if (message.startsWith("{\"robots\"")) {
+			if (ANY_ROBOT.equals(robotId)) {
+				Matcher m = patternRobotId.matcher(message);
+				if (m.find())
+					onRobotChosen(m.group(1));
+			}
+		}
+		else if (message.startsWith("{\"stopgame\"")) {
+			observe(GameStage.SUMMARY);
+		}
+		else if (message.contains("\"startgame\":true")) {
+			observe(GameStage.PLAY);
+		}
+		else if (message.contains("\"restartgame\":true")) {
+			observe(GameStage.INIT);
+		}
+	}
+	
+	/**
+	 * Takes actions according to game stage
+	 */
+	private synchronized void observe(GameStage newStage) {
+		if (newStage==stage || finished)
+			return;
+		GameStage previous = stage;
+		stage = newStage;
+		if (GameStage.INIT.equals(newStage) && GameStage.SUMMARY.equals(previous))
+			round++;
+		report.onStage(round, newStage);
+		switch (newStage) {
+		case INIT:
+			if (rounds>0 && round>=rounds) {
+				finished = true;
+				report.onFinished();
+				return;
+			}
+			takeRobot();
+			break;
+		case PLAY:
+			nextFire = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(Math.max(1, fireIntervalMs)));
+			break;
+		case SUMMARY:
+			ticker.schedule(()->{ 
+				if (GameStage.SUMMARY.equals(stage))
+					send(String.valueOf(RoboToyServerController.PLAY_AGAIN)); 
+				}, summaryDelayMs, TimeUnit.MILLISECONDS);
+			break;
+		default:
+		}
+	}
+	
+	/**
+	 * Got to know which robot to take (see ANY_ROBOT)
+	 */
+	private synchronized void onRobotChosen(String id) {
+		if (!ANY_ROBOT.equals(robotId))
+			return;
+		robotId = id;
+		if (GameStage.INIT.equals(stage))
+			takeRobot();
+	}
+	
+	/**
+	 * Takes the robot and tells it's ready (only at lobby)
+	 */
+	private void takeRobot() {
+		if (!hasRobot())
+			return;
+		send(RoboToyServerController.TAKE_ROBOT+robotId);
+		send(String.valueOf(RoboToyServerController.START_GAME));
+	}
+	
+	private boolean hasRobot() {
+		String id = robotId;
+		return id!=null && !ANY_ROBOT.equals(id);
+	}
+	
+	/**
+	 * Periodic actions
+	 */
+	private void tick() {
+		if (finished || !isConnected())
+			return;
+		try {
+			final long now = System.nanoTime();
+			if (statusIntervalMs>0 && now-nextStatus>=0) {
+				pendingStatus.add(now);
+				send(String.valueOf(RoboToyServerController.QUERY_STATUS));
+				nextStatus = now + TimeUnit.MILLISECONDS.toNanos(statusIntervalMs);
+			}
+			if (pingIntervalMs>0 && now-nextPing>=0) {
+				send(RoboToyServerController.PING+"{\"ping\":"+now+",\"count\":0}");
+				nextPing = now + TimeUnit.MILLISECONDS.toNanos(pingIntervalMs);
+			}
+			if (hasRobot() && GameStage.PLAY.equals(stage)) {
+				if (movementRate>0) {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					send(String.format(Locale.ROOT, "{\"movement\":{\"left\":%.2f,\"right\":%.2f}}", 
+							random.nextDouble(-1, 1), random.nextDouble(-1, 1)));
+				}
+				if (fireIntervalMs>0 && now-nextFire>=0) {
+					send(String.valueOf(RoboToyServerController.FIRE));
+					nextFire = now + TimeUnit.MILLISECONDS.toNanos(fireIntervalMs);
+				}
+			}
+		}
+		catch (Throwable e) {
+			log.log(Level.WARNING, "Error at player "+name, e);
+		}
+	}
+	
+	private void send(String message) {
+		Session session = this.session;
+		if (session==null || !session.isOpen())
+			return;
+		report.onSent(message.length());
+		session.getRemote().sendString(message, writeCallback);
+	}
+}
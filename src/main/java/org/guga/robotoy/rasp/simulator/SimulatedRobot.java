@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.simulator;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.RaspMain;
+import org.guga.robotoy.rasp.admin.DebugWebInterface;
+import org.guga.robotoy.rasp.commands.CmdAddNewPlayer;
+import org.guga.robotoy.rasp.commands.CmdStopGame;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.game.GameOver;
+import org.guga.robotoy.rasp.game.GamePlayer;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.network.AutoDiscoveryRobotsCallback;
+import org.guga.robotoy.rasp.network.WebServer;
+import org.guga.robotoy.rasp.optics.BeamDevice;
+
+/**
+ * One RoboToy running inside the simulator (see 'RaspSimulator').<BR>
+ * <BR>
+ * It has its own game state, controller and web server, just like a robot started by 'RaspMain'.
+ * Motors do nothing ('DummyMotor') and the beam device delivers some of the shots straight to 
+ * another simulated robot, as if its IR detectors had decoded the signal.<BR>
+ * Each robot listens to its own loopback address. All of them use the same port number, since
+ * robots know each other by their addresses.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class SimulatedRobot {
+
+	private static final Logger log = Logger.getLogger(SimulatedRobot.class.getName());
+
+	private final String identifier;
+	
+	private final InetAddress address;
+	
+	private final int port;
+	
+	private final GameState game;
+	
+	private final RoboToyServerController controller;
+	
+	private final WebServer server;
+	
+	private final SimulationReport report;
+	
+	/**
+	 * Single thread for incoming shots (takes the place of 'IRDecodeWorker')
+	 */
+	private final ExecutorService detector;
+	
+	/**
+	 * Robots that may get hit by our shots
+	 */
+	private volatile List<SimulatedRobot> targets = Collections.emptyList();
+	
+	/**
+	 * Fraction of shots that hit some target
+	 */
+	private volatile double hitRatio = 0.5;
+	
+	private AutoDiscoveryRobotsCallback discoveryCallback;
+
+	public SimulatedRobot(String identifier,InetAddress address,int port,File workDir,SimulationReport report) {
+		this.identifier = identifier;
+		this.address = address;
+		this.port = port;
+		this.report = report;
+		this.game = new GameState();
+		this.game.addRobot(GameRobot.newLocalRobot(identifier));
+		this.controller = new RoboToyServerController(game);
+		controller.setDummyController();
+		controller.setWiFiSampleInterval(0);
+		final RoboToyServerContext context = controller.getContext();
+		context.getLocalStorage().setStorageDir(new File(workDir,"storage").getAbsolutePath());
+		// Connections to other robots must come from our own address
+		context.getWebSocketPool().setBindAddress(address);
+		this.server = new WebServer(/*autoRedirect*/null,
+				context.getWebSocketPool(),
+				RaspMain.WEB_RESOURCES_PACKAGE_NAME,
+				new File(workDir,"jsp").getAbsolutePath());
+		server.addServletHandlerAttribute("game", game);
+		server.addServletHandlerAttribute("controller", controller);
+		server.setDefaultCssPackageName(RaspMain.WEB_RESOURCES_PACKAGE_NAME+"/css");
+		server.setDefaultImagesPackageName(RaspMain.WEB_RESOURCES_PACKAGE_NAME+"/images");
+		server.setDefaultJsPackageName(RaspMain.WEB_RESOURCES_PACKAGE_NAME+"/js");
+		DebugWebInterface debugInterface = new DebugWebInterface(controller, server);
+		debugInterface.setPublicMetrics(true); // read by load generator (see 'ServerMetricsProbe')
+		server.setCustomRESTfulService(debugInterface);
+		server.setWebSocketContext("/ws/");
+		server.setWarmupPages(null);
+		server.setDaemonHost(address.getHostAddress());
+		server.setDaemonPort(port);
+		server.setOnCloseListener(controller.new AutoParkOnDisconnection());
+		this.detector = Executors.newSingleThreadExecutor((r)->{
+			Thread thread = new Thread(r);
+			thread.setName("SimulatedDetector-"+identifier);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public GameState getGame() {
+		return game;
+	}
+
+	public RoboToyServerController getController() {
+		return controller;
+	}
+
+	/**
+	 * Robots that may get hit by our shots
+	 */
+	public void setTargets(List<SimulatedRobot> targets) {
+		this.targets = (targets==null) ? Collections.emptyList() : targets;
+	}
+
+	/**
+	 * Fraction of shots that hit some target
+	 */
+	public void setHitRatio(double hitRatio) {
+		this.hitRatio = hitRatio;
+	}
+
+	/**
+	 * Starts controller and web server. The callback is called once the web server
+	 * is accepting connections.
+	 */
+	public void start(boolean takeStatistics,Runnable onStart) {
+		controller.init();
+		controller.getContext().setBeamDevice(new SimulatedBeamDevice());
+		controller.getContext().setTakeStatistics(takeStatistics);
+		server.setOnStartCallback(onStart);
+		Thread thread = new Thread(server::run);
+		thread.setName("SimulatedRobot-"+identifier);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void stop() {
+		server.stopServer();
+		controller.stop();
+		detector.shutdownNow();
+	}
+	
+	/**
+	 * Makes this robot know about another one, the same way as if it had been
+	 * found by 'AutoDiscoverService'.
+	 */
+	public synchronized void discover(SimulatedRobot other) {
+		if (discoveryCallback==null) {
+			discoveryCallback = new AutoDiscoveryRobotsCallback(controller);
+			discoveryCallback.setPort(port);
+		}
+		discoveryCallback.onConnection(other.getAddress(), other.getPort(), 
+				AutoDiscoveryRobotsCallback.prefixAutoDiscoveryAnswer+":"+other.getIdentifier());
+	}
+	
+	/**
+	 * Tells if this robot knows all the other robots and is connected to them
+	 */
+	public boolean hasDiscovered(List<SimulatedRobot> robots) {
+		for (SimulatedRobot other:robots) {
+			if (other==this)
+				continue;
+			if (game.findRobotWithIdentifier(other.getIdentifier())==null)
+				return false;
+			if (controller.getContext().findRobotWebSocketSession(other.getIdentifier())==null)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Includes a new player in game, the same way as the login page does
+	 */
+	public GamePlayer login(String name,InetAddress playerAddress,String sessionId) throws Exception {
+		GamePlayer player = new GamePlayer();
+		player.setName(name);
+		player.setAddress(playerAddress);
+		player.setHttpSession(sessionId);
+		player.setOnline(true);
+		game.addPlayer(player);
+		controller.broadcastCommand(new CmdAddNewPlayer(), player, /*includingRobots*/true);
+		return player;
+	}
+	
+	/**
+	 * Terminates the current game, the same way as when there is only one robot alive
+	 */
+	public void stopGame() {
+		GameOver.stopGame(game);
+		try {
+			controller.broadcastCommand(new CmdStopGame(), Boolean.TRUE, /*mayIncludeRobots*/true);
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Error while broadcasting game over", e);
+		}
+	}
+
+	/**
+	 * Beam device that delivers shots straight to other simulated robots
+	 * @author Gustavo Figueiredo
+	 */
+	private class SimulatedBeamDevice implements BeamDevice {
+
+		@Override
+		public void sendBeam(byte[] message) throws Exception {
+			report.onFire();
+			final List<SimulatedRobot> targets = SimulatedRobot.this.targets;
+			if (targets.isEmpty() || message==null || message.length==0)
+				return;
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			if (random.nextDouble()>=hitRatio)
+				return;
+			final SimulatedRobot target = targets.get(random.nextInt(targets.size()));
+			final byte code = message[0];
+			target.detector.execute(()->{
+				report.onHit();
+				target.getController().getWeaponary().onBeamReceived(code);
+			});
+		}
+		
+	}
+}
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.simulator;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.guga.robotoy.rasp.controller.CommandMetrics;
+import org.guga.robotoy.rasp.game.GameStage;
+import org.guga.robotoy.rasp.statistics.Histogram;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+
+/**
+ * Throughput and latency measured by simulated players and robots.<BR>
+ * <BR>
+ * Besides counting messages, keeps the first and the last time each game stage was seen
+ * by players in each round, so that we know how long it takes for a stage change to reach
+ * everybody.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class SimulationReport {
+
+	private final int numRobots;
+	
+	private final int numPlayers;
+	
+	private final long startTime = System.nanoTime();
+	
+	private final AtomicLong messagesSent = new AtomicLong();
+	
+	private final AtomicLong bytesSent = new AtomicLong();
+	
+	private final AtomicLong messagesReceived = new AtomicLong();
+	
+	private final AtomicLong bytesReceived = new AtomicLong();
+	
+	private final AtomicLong sendFailures = new AtomicLong();
+	
+	private final AtomicLong connections = new AtomicLong();
+	
+	private final AtomicLong disconnections = new AtomicLong();
+	
+	private final AtomicLong connectionErrors = new AtomicLong();
+	
+	private final AtomicLong fires = new AtomicLong();
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	/**
+	 * Round trip time of status queries ('?')
+	 */
+	private final Histogram statusRtt = new Histogram("robotoy_sim_status_rtt_ms");
+	
+	/**
+	 * Round trip time of PING messages sent by players
+	 */
+	private final Histogram pingRtt = new Histogram("robotoy_sim_ping_rtt_ms");
+	
+	/**
+	 * Same as 'statusRtt', but only since last call to 'takeRecentStatusRtt'
+	 */
+	private final Histogram recentStatusRtt = new Histogram("robotoy_sim_status_rtt_ms");
+	
+	/**
+	 * Same as 'pingRtt', but only since last call to 'takeRecentPingRtt'
+	 */
+	private final Histogram recentPingRtt = new Histogram("robotoy_sim_ping_rtt_ms");
+	
+	/**
+	 * Time taken by each setup step (in milliseconds)
+	 */
+	private final Map<String,Double> setup = new LinkedHashMap<>();
+	
+	/**
+	 * For each round, when each game stage was seen by players
+	 */
+	private final List<StageTimes[]> rounds = new ArrayList<>();
+	
+	private final CountDownLatch finished;
+	
+	public SimulationReport(int numRobots,int numPlayers) {
+		this.numRobots = numRobots;
+		this.numPlayers = numPlayers;
+		this.finished = new CountDownLatch(numPlayers);
+	}
+
+	public void onSent(int length) {
+		messagesSent.incrementAndGet();
+		bytesSent.addAndGet(length);
+	}
+
+	public void onReceived(int length) {
+		messagesReceived.incrementAndGet();
+		bytesReceived.addAndGet(length);
+	}
+
+	public void onSendFailure() {
+		sendFailures.incrementAndGet();
+	}
+
+	public void onConnect() {
+		connections.incrementAndGet();
+	}
+
+	public void onDisconnection() {
+		disconnections.incrementAndGet();
+	}
+
+	public void onConnectionError() {
+		connectionErrors.incrementAndGet();
+	}
+
+	public void onFire() {
+		fires.incrementAndGet();
+	}
+
+	public void onHit() {
+		hits.incrementAndGet();
+	}
+
+	public void onStatusReply(double elapsedMs) {
+		statusRtt.feed(elapsedMs);
+		recentStatusRtt.feed(elapsedMs);
+	}
+
+	public void onPingReply(double elapsedMs) {
+		pingRtt.feed(elapsedMs);
+		recentPingRtt.feed(elapsedMs);
+	}
+
+	/**
+	 * Some player has seen a new game stage
+	 * @param round Number of games the player has finished before
+	 */
+	public synchronized void onStage(int round,GameStage stage) {
+		while (rounds.size()<=round) {
+			StageTimes[] times = new StageTimes[GameStage.values().length];
+			for (int i=0;i<times.length;i++)
+				times[i] = new StageTimes();
+			rounds.add(times);
+		}
+		StageTimes times = rounds.get(round)[stage.ordinal()];
+		long now = System.nanoTime();
+		if (times.count==0) {
+			times.first = now;
+			times.sentAtFirst = messagesSent.get();
+			times.bytesSentAtFirst = bytesSent.get();
+			times.receivedAtFirst = messagesReceived.get();
+		}
+		times.last = now;
+		times.count++;
+	}
+	
+	/**
+	 * Some player has played all rounds
+	 */
+	public void onFinished() {
+		finished.countDown();
+	}
+	
+	/**
+	 * Waits for all players to finish
+	 * @return Returns TRUE if all players have finished
+	 */
+	public boolean awaitFinished(long timeoutMs) throws InterruptedException {
+		return finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+	
+	public int getNumFinished() {
+		return numPlayers - (int)finished.getCount();
+	}
+	
+	/**
+	 * Time taken by some setup step
+	 */
+	public synchronized void addSetupTime(String step,double elapsedMs) {
+		setup.put(step, elapsedMs);
+	}
+
+	public Histogram getStatusRtt() {
+		return statusRtt;
+	}
+
+	public Histogram getPingRtt() {
+		return pingRtt;
+	}
+
+	/**
+	 * Round trip times of status queries since last call
+	 */
+	public Histogram.Snapshot takeRecentStatusRtt() {
+		Histogram.Snapshot snapshot = recentStatusRtt.snapshot();
+		recentStatusRtt.reset();
+		return snapshot;
+	}
+
+	/**
+	 * Round trip times of PING messages since last call
+	 */
+	public Histogram.Snapshot takeRecentPingRtt() {
+		Histogram.Snapshot snapshot = recentPingRtt.snapshot();
+		recentPingRtt.reset();
+		return snapshot;
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	public long getDisconnections() {
+		return disconnections.get();
+	}
+
+	public long getConnectionErrors() {
+		return connectionErrors.get();
+	}
+
+	public long getSendFailures() {
+		return sendFailures.get();
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	public synchronized void writeTo(PrintWriter out) {
+		final double elapsedMs = (System.nanoTime()-startTime)/1_000_000.0;
+		out.printf("Simulation of %d robots and %d players in %.1fs%n", numRobots, numPlayers, elapsedMs/1000.0);
+		out.printf("Players finished: %d of %d%n", getNumFinished(), numPlayers);
+		out.println("Setup:");
+		for (Map.Entry<String,Double> step:setup.entrySet())
+			out.printf("\t%s: %.1fms%n", step.getKey(), step.getValue());
+		for (int r=0;r<rounds.size();r++) {
+			StageTimes[] times = rounds.get(r);
+			StageTimes init = times[GameStage.INIT.ordinal()];
+			StageTimes play = times[GameStage.PLAY.ordinal()];
+			StageTimes summary = times[GameStage.SUMMARY.ordinal()];
+			StageTimes restart = (r+1<rounds.size()) ? rounds.get(r+1)[GameStage.INIT.ordinal()] : null;
+			if (play.count==0 && summary.count==0)
+				continue;
+			out.printf("Round %d:%n", r+1);
+			if (init.count>0 && play.count>0)
+				out.printf("\tlobby: %d players playing after %.1fms (start spread %.1fms)%n", 
+						play.count, ms(play.last-init.first), ms(play.last-play.first));
+			if (play.count>0 && summary.count>0) {
+				final double playMs = ms(summary.first-play.first);
+				out.printf("\tplay: %.1fms, %d players at summary (stop spread %.1fms)%n", 
+						playMs, summary.count, ms(summary.last-summary.first));
+				if (playMs>0) {
+					out.printf("\ttraffic while playing: sent %.1f msg/s (%.1f KB/s), received %.1f msg/s%n",
+							(summary.sentAtFirst-play.sentAtFirst)*1000.0/playMs,
+							(summary.bytesSentAtFirst-play.bytesSentAtFirst)*1000.0/playMs/1024.0,
+							(summary.receivedAtFirst-play.receivedAtFirst)*1000.0/playMs);
+				}
+			}
+			if (summary.count>0 && restart!=null && restart.count>0)
+				out.printf("\tsummary: %d players back in lobby after %.1fms (restart spread %.1fms)%n", 
+						restart.count, ms(restart.last-summary.first), ms(restart.last-restart.first));
+		}
+		out.printf("Traffic: sent %d messages (%d bytes), received %d messages (%d bytes)%n", 
+				messagesSent.get(), bytesSent.get(), messagesReceived.get(), bytesReceived.get());
+		out.printf("\t%.1f msg/s sent, %.1f msg/s received%n", 
+				messagesSent.get()*1000.0/elapsedMs, messagesReceived.get()*1000.0/elapsedMs);
+		out.printf("\t%d connections, %d disconnections, %d connection errors, %d send failures%n", 
+				connections.get(), disconnections.get(), connectionErrors.get(), sendFailures.get());
+		out.printf("Fires: %d, hits: %d%n", fires.get(), hits.get());
+		out.println("Round trip (ms):");
+		writeHistogram(out, "status", statusRtt.snapshot());
+		writeHistogram(out, "ping", pingRtt.snapshot());
+		List<Histogram> commands = new ArrayList<>(RoboToyStatistics.getRegistry().getMetrics(Histogram.class, CommandMetrics.COMMAND_MS));
+		List<Histogram.Snapshot> snapshots = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		for (Histogram command:commands) {
+			Histogram.Snapshot snapshot = command.snapshot();
+			if (snapshot.getCount()==0)
+				continue;
+			snapshots.add(snapshot);
+			names.add(command.getLabel("command")+"/"+command.getLabel("issuer"));
+		}
+		if (!snapshots.isEmpty()) {
+			out.println("Commands at robots (ms):");
+			List<Integer> order = new ArrayList<>();
+			for (int i=0;i<snapshots.size();i++)
+				order.add(i);
+			Collections.sort(order, Comparator.comparingLong((Integer i)->snapshots.get(i).getCount()).reversed());
+			for (int i:order)
+				writeHistogram(out, names.get(i), snapshots.get(i));
+		}
+		out.flush();
+	}
+	
+	private static void writeHistogram(PrintWriter out,String name,Histogram.Snapshot snapshot) {
+		out.printf("\t%s: count %d, mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", 
+				name, snapshot.getCount(), snapshot.getMean(), snapshot.getPercentile(0.5), 
+				snapshot.getPercentile(0.9), snapshot.getPercentile(0.99), snapshot.getMaximum());
+	}
+	
+	private static double ms(long nanos) {
+		return nanos/1_000_000.0;
+	}
+
+	/**
+	 * When some game stage was seen by players
+	 */
+	private static class StageTimes {
+		long first;
+		long last;
+		int count;
+		long sentAtFirst;
+		long bytesSentAtFirst;
+		long receivedAtFirst;
+	}
+}
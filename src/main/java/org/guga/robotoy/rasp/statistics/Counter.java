@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metric that only counts up.<BR>
+ * Updates do not lock and do not contend with each other (see {@link LongAdder}).
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class Counter extends Metric {
+	
+	private final LongAdder value;
+
+	public Counter(String name,String... labels) {
+		super(name, labels);
+		this.value = new LongAdder();
+	}
+	
+	public void inc() {
+		value.increment();
+	}
+	
+	public void add(long amount) {
+		value.add(amount);
+	}
+	
+	public long get() {
+		return value.sum();
+	}
+
+	@Override
+	public void reset() {
+		value.reset();
+	}
+}
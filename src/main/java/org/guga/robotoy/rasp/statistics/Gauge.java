@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metric whose value is read on demand from some other object (e.g. number of
+ * sessions, heap usage, WiFi signal quality).
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class Gauge extends Metric {
+	
+	private final DoubleSupplier supplier;
+
+	public Gauge(String name,DoubleSupplier supplier,String... labels) {
+		super(name, labels);
+		this.supplier = supplier;
+	}
+	
+	/**
+	 * Current value of this gauge, or NaN if it could not be read
+	 */
+	public double get() {
+		try {
+			return supplier.getAsDouble();
+		}
+		catch (RuntimeException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Nothing to do (gauges are not accumulated)
+	 */
+	@Override
+	public void reset() {
+	}
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of values fed over time (e.g. latencies) kept in logarithmic buckets.<BR>
+ * <BR>
+ * Each power of two is split in {@link #SUB_BUCKETS} buckets of the same width, so
+ * percentiles are estimated with a relative error below 1/(2*SUB_BUCKETS). Values between
+ * 2^{@link #MIN_EXPONENT} and 2^({@link #MAX_EXPONENT}+1) are kept with this precision,
+ * smaller and bigger values are kept in the first and last buckets. Zero and negative
+ * values are counted in a bucket of their own.<BR>
+ * <BR>
+ * Feeding does not lock: each bucket is an atomic counter, and sum, minimum and maximum are
+ * also atomically updated. A snapshot taken while other threads are feeding may be off by
+ * those concurrent values.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class Histogram extends Metric {
+	
+	public static final int SUB_BUCKET_BITS = 3;
+
+	public static final int SUB_BUCKETS = 1<<SUB_BUCKET_BITS;
+	
+	/**
+	 * Smallest power of two kept with full precision (about 0.001)
+	 */
+	public static final int MIN_EXPONENT = -10;
+
+	/**
+	 * Biggest power of two kept with full precision (about 2 billions)
+	 */
+	public static final int MAX_EXPONENT = 30;
+	
+	public static final int NUM_BUCKETS = 1 + (MAX_EXPONENT-MIN_EXPONENT+1)*SUB_BUCKETS;
+	
+	private final AtomicLongArray buckets;
+	
+	private final LongAdder count;
+	
+	private final DoubleAdder sum;
+	
+	private final DoubleAdder sumOfSquares;
+	
+	/**
+	 * Raw bits of minimum value
+	 */
+	private final AtomicLong min;
+
+	/**
+	 * Raw bits of maximum value
+	 */
+	private final AtomicLong max;
+
+	public Histogram(String name,String... labels) {
+		super(name, labels);
+		this.buckets = new AtomicLongArray(NUM_BUCKETS);
+		this.count = new LongAdder();
+		this.sum = new DoubleAdder();
+		this.sumOfSquares = new DoubleAdder();
+		this.min = new AtomicLong(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+		this.max = new AtomicLong(Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+	}
+	
+	public void feed(double x) {
+		if (Double.isNaN(x))
+			return;
+		buckets.incrementAndGet(getBucketIndex(x));
+		count.increment();
+		sum.add(x);
+		sumOfSquares.add(x*x);
+		long bits;
+		while (x < Double.longBitsToDouble(bits = min.get())) {
+			if (min.compareAndSet(bits, Double.doubleToRawLongBits(x)))
+				break;
+		}
+		while (x > Double.longBitsToDouble(bits = max.get())) {
+			if (max.compareAndSet(bits, Double.doubleToRawLongBits(x)))
+				break;
+		}
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public void reset() {
+		for (int i=0;i<NUM_BUCKETS;i++)
+			buckets.set(i, 0);
+		count.reset();
+		sum.reset();
+		sumOfSquares.reset();
+		min.set(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+		max.set(Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+	}
+	
+	/**
+	 * Copy of all measures taken so far
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[NUM_BUCKETS];
+		long total = 0;
+		for (int i=0;i<NUM_BUCKETS;i++) {
+			total += (copy[i] = buckets.get(i));
+		}
+		return new Snapshot(copy, total, sum.sum(), sumOfSquares.sum(), 
+				Double.longBitsToDouble(min.get()), Double.longBitsToDouble(max.get()));
+	}
+
+	/**
+	 * Index of bucket for some value
+	 */
+	static int getBucketIndex(double x) {
+		if (!(x>0))
+			return 0;
+		int exponent = Math.getExponent(x);
+		if (exponent<MIN_EXPONENT)
+			return 1;
+		if (exponent>MAX_EXPONENT)
+			return NUM_BUCKETS-1;
+		int sub = (int)(Double.doubleToRawLongBits(x) >>> (52-SUB_BUCKET_BITS)) & (SUB_BUCKETS-1);
+		return 1 + (exponent-MIN_EXPONENT)*SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Value in the middle of a bucket
+	 */
+	static double getBucketValue(int index) {
+		if (index<=0)
+			return 0;
+		int exponent = MIN_EXPONENT + (index-1)/SUB_BUCKETS;
+		int sub = (index-1)%SUB_BUCKETS;
+		return Math.scalb(1.0 + (sub+0.5)/SUB_BUCKETS, exponent);
+	}
+
+	/**
+	 * Immutable copy of a 'Histogram' at some point in time
+	 * 
+	 * @author Gustavo Figueiredo
+	 */
+	public static final class Snapshot {
+		
+		private final long[] buckets;
+		private final long count;
+		private final double sum;
+		private final double sumOfSquares;
+		private final double min;
+		private final double max;
+		
+		Snapshot(long[] buckets,long count,double sum,double sumOfSquares,double min,double max) {
+			this.buckets = buckets;
+			this.count = count;
+			this.sum = sum;
+			this.sumOfSquares = sumOfSquares;
+			this.min = (count==0) ? 0 : min;
+			this.max = (count==0) ? 0 : max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getSum() {
+			return sum;
+		}
+
+		public double getMinimum() {
+			return min;
+		}
+
+		public double getMaximum() {
+			return max;
+		}
+		
+		public double getMean() {
+			return (count==0) ? 0 : sum/count;
+		}
+
+		/**
+		 * Sample standard deviation (NaN if there are less than two values)
+		 */
+		public double getStandardDeviation() {
+			if (count<2)
+				return Double.NaN;
+			double variance = (sumOfSquares - sum*sum/count) / (count-1);
+			return Math.sqrt(Math.max(0, variance));
+		}
+		
+		/**
+		 * Estimated value below which some fraction of all values are found
+		 * @param quantile Fraction between 0 and 1 (e.g. 0.99 for 99th percentile)
+		 */
+		public double getPercentile(double quantile) {
+			if (count==0)
+				return 0;
+			long rank = (long)Math.ceil(quantile*count);
+			if (rank<1)
+				rank = 1;
+			long accumulated = 0;
+			for (int i=0;i<buckets.length;i++) {
+				accumulated += buckets[i];
+				if (accumulated>=rank) {
+					if (i==buckets.length-1)
+						return max;	// values out of range
+					return Math.min(max, Math.max(min, getBucketValue(i)));
+				}
+			}
+			return max;
+		}
+	}
+}
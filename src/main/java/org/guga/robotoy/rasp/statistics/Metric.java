@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+/**
+ * Base class for all metrics kept in a 'MetricsRegistry'.<BR>
+ * <BR>
+ * Each metric has a name and an optional list of labels (pairs of label name and
+ * label value), so that metrics with the same name (a 'family') may be broken down
+ * by some dimension (e.g. IP address).
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public abstract class Metric {
+	
+	private static final String[] NO_LABELS = new String[0];
+
+	private final String name;
+	
+	private final String[] labels;
+	
+	private final String key;
+	
+	protected Metric(String name,String... labels) {
+		if (name==null || name.length()==0)
+			throw new IllegalArgumentException("Missing metric name!");
+		if (labels!=null && (labels.length%2)!=0)
+			throw new IllegalArgumentException("Labels of metric '"+name+"' must be informed in pairs of name and value!");
+		this.name = name;
+		this.labels = (labels==null || labels.length==0) ? NO_LABELS : labels.clone();
+		this.key = getKey(name, this.labels);
+	}
+
+	/**
+	 * Name of this metric (shared by all metrics of the same family)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Number of labels
+	 */
+	public int getNumLabels() {
+		return labels.length/2;
+	}
+	
+	public String getLabelName(int index) {
+		return labels[index*2];
+	}
+
+	public String getLabelValue(int index) {
+		return labels[index*2+1];
+	}
+
+	/**
+	 * Returns the value of label with the given name, or NULL if not found
+	 */
+	public String getLabel(String labelName) {
+		for (int i=0;i<labels.length;i+=2) {
+			if (labels[i].equals(labelName))
+				return labels[i+1];
+		}
+		return null;
+	}
+
+	/**
+	 * Name and labels, as in <code>name{label="value",...}</code>
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/**
+	 * Clears all measures taken so far
+	 */
+	public abstract void reset();
+	
+	static String getKey(String name,String... labels) {
+		if (labels==null || labels.length==0)
+			return name;
+		StringBuilder key = new StringBuilder(name);
+		key.append('{');
+		for (int i=0;i+1<labels.length;i+=2) {
+			if (i>0)
+				key.append(',');
+			key.append(labels[i]).append("=\"").append(labels[i+1]).append('"');
+		}
+		key.append('}');
+		return key.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return key;
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Collection of named metrics (counters, histograms and gauges).<BR>
+ * <BR>
+ * Metrics are created on first use and kept ordered by name and labels. Lookups do not
+ * lock, but they build a key out of name and labels, so metrics updated very frequently
+ * should be looked up once and kept by the caller.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class MetricsRegistry {
+
+	private final ConcurrentNavigableMap<String,Metric> metrics;
+	
+	public MetricsRegistry() {
+		this.metrics = new ConcurrentSkipListMap<>();
+	}
+	
+	/**
+	 * Returns the counter with the given name and labels, creating a new one if necessary
+	 * @param labels Pairs of label name and label value
+	 */
+	public Counter counter(String name,String... labels) {
+		return get(Counter.class, name, labels, key->new Counter(name, labels));
+	}
+
+	/**
+	 * Returns the histogram with the given name and labels, creating a new one if necessary
+	 * @param labels Pairs of label name and label value
+	 */
+	public Histogram histogram(String name,String... labels) {
+		return get(Histogram.class, name, labels, key->new Histogram(name, labels));
+	}
+
+	/**
+	 * Registers a gauge with the given name and labels, replacing any previous one
+	 * @param labels Pairs of label name and label value
+	 */
+	public Gauge gauge(String name,DoubleSupplier supplier,String... labels) {
+		Gauge gauge = new Gauge(name, supplier, labels);
+		metrics.compute(gauge.getKey(), (key,previous)->{
+			if (previous!=null && !(previous instanceof Gauge))
+				throw new IllegalArgumentException("Metric '"+key+"' is not a gauge!");
+			return gauge;
+		});
+		return gauge;
+	}
+	
+	private <T extends Metric> T get(Class<T> type,String name,String[] labels,Function<String,Metric> factory) {
+		String key = Metric.getKey(name, labels);
+		Metric metric = metrics.get(key);
+		if (metric==null)
+			metric = metrics.computeIfAbsent(key, factory);
+		if (!type.isInstance(metric))
+			throw new IllegalArgumentException("Metric '"+key+"' is not a "+type.getSimpleName().toLowerCase()+"!");
+		return type.cast(metric);
+	}
+	
+	/**
+	 * Returns the metric with the given name and labels, or NULL if not found
+	 */
+	public Metric get(String name,String... labels) {
+		return metrics.get(Metric.getKey(name, labels));
+	}
+	
+	/**
+	 * Removes the metric with the given name and labels
+	 * @return Removed metric or NULL if not found
+	 */
+	public Metric remove(String name,String... labels) {
+		return metrics.remove(Metric.getKey(name, labels));
+	}
+	
+	/**
+	 * Removes all metrics with the given name, regardless of their labels
+	 */
+	public void removeAll(String name) {
+		metrics.values().removeIf(m->m.getName().equals(name));
+	}
+
+	/**
+	 * Returns all metrics ordered by name and labels
+	 */
+	public List<Metric> getMetrics() {
+		return new ArrayList<>(metrics.values());
+	}
+	
+	/**
+	 * Returns all metrics of the same type with the given name, regardless of their labels
+	 */
+	public <T extends Metric> List<T> getMetrics(Class<T> type,String name) {
+		List<T> family = new ArrayList<>();
+		for (Metric metric:metrics.subMap(name, true, name+Character.MAX_VALUE, true).values()) {
+			if (metric.getName().equals(name) && type.isInstance(metric))
+				family.add(type.cast(metric));
+		}
+		return family;
+	}
+	
+	/**
+	 * Clears all measures taken so far by all metrics with the given name.<BR>
+	 * Metrics are not removed, so that callers may keep using them.
+	 */
+	public void reset(String name) {
+		for (Metric metric:getMetrics(Metric.class, name))
+			metric.reset();
+	}
+
+	/**
+	 * Clears all measures taken so far by all metrics.<BR>
+	 * Metrics are not removed, so that callers may keep using them.
+	 */
+	public void reset() {
+		for (Metric metric:metrics.values())
+			metric.reset();
+	}
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes metrics in the text exposition format used by Prometheus (version 0.0.4), which
+ * is also accepted by OpenMetrics scrapers.<BR>
+ * <BR>
+ * Everything is written straight to the given writer, sample by sample.<BR>
+ * Histograms are written as 'summary' (quantiles, sum and count).
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class PrometheusTextWriter {
+	
+	/**
+	 * Content type for HTTP responses (without charset)
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+	
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	
+	private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+	private final Writer out;
+	
+	public PrometheusTextWriter(Writer out) {
+		this.out = out;
+	}
+	
+	/**
+	 * Writes all metrics of registry, grouped by name
+	 */
+	public void writeRegistry(MetricsRegistry registry) throws IOException {
+		writeRegistry(registry, new String[0]);
+	}
+	
+	/**
+	 * Writes all metrics kept in registry, except the ones with the given names
+	 */
+	public void writeRegistry(MetricsRegistry registry,String... excludeNames) throws IOException {
+		Set<String> written = new HashSet<>(Arrays.asList(excludeNames));
+		for (Metric metric:registry.getMetrics()) {
+			if (!written.add(metric.getName()))
+				continue;
+			List<Metric> family = registry.getMetrics(Metric.class, metric.getName());
+			writeType(metric.getName(), getType(metric));
+			for (Metric m:family) {
+				writeMetric(m);
+			}
+		}
+	}
+	
+	private static String getType(Metric metric) {
+		if (metric instanceof Counter)
+			return "counter";
+		if (metric instanceof Gauge)
+			return "gauge";
+		if (metric instanceof Histogram)
+			return "summary";
+		return "untyped";
+	}
+	
+	private void writeMetric(Metric metric) throws IOException {
+		String[] labels = new String[metric.getNumLabels()*2];
+		for (int i=0;i<metric.getNumLabels();i++) {
+			labels[i*2] = metric.getLabelName(i);
+			labels[i*2+1] = metric.getLabelValue(i);
+		}
+		if (metric instanceof Counter) {
+			writeSample(metric.getName(), ((Counter)metric).get(), labels);
+		}
+		else if (metric instanceof Gauge) {
+			writeSample(metric.getName(), ((Gauge)metric).get(), labels);
+		}
+		else if (metric instanceof Histogram) {
+			writeSummary(metric.getName(), ((Histogram)metric).snapshot(), labels);
+		}
+	}
+	
+	/**
+	 * Writes quantiles, sum and count of a histogram snapshot
+	 */
+	public void writeSummary(String name,Histogram.Snapshot snapshot,String... labels) throws IOException {
+		for (int i=0;i<QUANTILES.length;i++) {
+			out.write(name);
+			writeLabels(labels, "quantile", QUANTILE_LABELS[i]);
+			out.write(' ');
+			writeValue(snapshot.getPercentile(QUANTILES[i]));
+			out.write('\n');
+		}
+		writeSample(name+"_sum", snapshot.getSum(), labels);
+		writeSample(name+"_count", snapshot.getCount(), labels);
+	}
+
+	/**
+	 * Writes the 'TYPE' line that comes before all samples of the same metric
+	 * @param type One of 'counter', 'gauge', 'summary', 'histogram' or 'untyped'
+	 */
+	public void writeType(String name,String type) throws IOException {
+		out.write("# TYPE ");
+		out.write(name);
+		out.write(' ');
+		out.write(type);
+		out.write('\n');
+	}
+	
+	/**
+	 * Writes one sample
+	 * @param labels Pairs of label name and label value
+	 */
+	public void writeSample(String name,double value,String... labels) throws IOException {
+		out.write(name);
+		writeLabels(labels, null, null);
+		out.write(' ');
+		writeValue(value);
+		out.write('\n');
+	}
+
+	/**
+	 * Writes one sample
+	 * @param labels Pairs of label name and label value
+	 */
+	public void writeSample(String name,long value,String... labels) throws IOException {
+		out.write(name);
+		writeLabels(labels, null, null);
+		out.write(' ');
+		out.write(Long.toString(value));
+		out.write('\n');
+	}
+
+	private void writeLabels(String[] labels,String extraName,String extraValue) throws IOException {
+		boolean hasLabels = labels!=null && labels.length>1;
+		if (!hasLabels && extraName==null)
+			return;
+		out.write('{');
+		boolean first = true;
+		if (hasLabels) {
+			for (int i=0;i+1<labels.length;i+=2) {
+				if (!first)
+					out.write(',');
+				writeLabel(labels[i], labels[i+1]);
+				first = false;
+			}
+		}
+		if (extraName!=null) {
+			if (!first)
+				out.write(',');
+			writeLabel(extraName, extraValue);
+		}
+		out.write('}');
+	}
+	
+	private void writeLabel(String name,String value) throws IOException {
+		out.write(name);
+		out.write("=\"");
+		if (value!=null) {
+			for (int i=0;i<value.length();i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '\\':
+					out.write("\\\\");
+					break;
+				case '"':
+					out.write("\\\"");
+					break;
+				case '\n':
+					out.write("\\n");
+					break;
+				default:
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+	
+	private void writeValue(double value) throws IOException {
+		if (Double.isNaN(value))
+			out.write("NaN");
+		else if (value==Double.POSITIVE_INFINITY)
+			out.write("+Inf");
+		else if (value==Double.NEGATIVE_INFINITY)
+			out.write("-Inf");
+		else if (value==Math.rint(value) && Math.abs(value)<1e15)
+			out.write(Long.toString((long)value));
+		else
+			out.write(Double.toString(value));
+	}
+}
@@ -16,13 +16,15 @@
 package org.guga.robotoy.rasp.statistics;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
- * Some statistics taken through game play for debugging purposes.
+ * Some statistics taken through game play for debugging purposes.<BR>
+ * <BR>
+ * All of them are kept in a 'MetricsRegistry' (see {@link #getRegistry() getRegistry}), and
+ * updating them does not lock.
  * 
  * @author Gustavo Figueiredo
  *
@@ -30,7 +32,7 @@ import java.util.TreeMap;
 public class RoboToyStatistics {
 	
 	/**
-	 * Simplified version of all statistics (usefull for JSON representation)
+	 * Simplified version of all statistics (useful for JSON representation)
 	 * 
 	 * @author Gustavo Figueiredo
 	 */
@@ -39,10 +41,71 @@ public class RoboToyStatistics {
 		public Map<String,SummaryStats> lag_by_ip;
 		
 		public IRStats ir;
+		
+		/**
+		 * Time taken for transmitting each fire burst (in milliseconds)
+		 */
+		public SummaryStats fire_transmit_ms;
+		
+		/**
+		 * Number of pending fire requests measured at each new request
+		 */
+		public SummaryStats fire_queue_depth;
+		
+		/**
+		 * Number of sessions reached by each broadcast
+		 */
+		public SummaryStats broadcast_recipients;
+		
+		/**
+		 * Size of each broadcast message (in bytes, encoded only once)
+		 */
+		public SummaryStats broadcast_bytes;
+		
+		/**
+		 * Time taken for queueing each broadcast message to all sessions (in milliseconds)
+		 */
+		public SummaryStats broadcast_ms;
+		
+		/**
+		 * Number of motor commands replaced by newer ones before actuation
+		 */
+		public long motor_commands_coalesced;
+		
+		/**
+		 * Time each motor command waited before actuation (in milliseconds)
+		 */
+		public SummaryStats motor_queue_ms;
+		
+		/**
+		 * Time taken by motor for each command (in milliseconds)
+		 */
+		public SummaryStats motor_actuation_ms;
+		
+		/**
+		 * Time each captured IR signal waited before decoding (in milliseconds)
+		 */
+		public SummaryStats ir_capture_queue_ms;
+		
+		/**
+		 * Size of all messages received through WebSockets (in bytes, text messages
+		 * are counted by their size encoded in UTF-8)
+		 */
+		public long websocket_received_bytes;
+
+		/**
+		 * Size of all messages sent through WebSockets, including broadcasts to each recipient (in bytes)
+		 */
+		public long websocket_sent_bytes;
+		
+		/**
+		 * Current value of all gauges (name and labels of each gauge)
+		 */
+		public Map<String,Double> gauges;
 	}
 
 	/**
-	 * Simplified version of one 'Statistics' (usefull for JSON representation)
+	 * Simplified version of one 'Statistics' (useful for JSON representation)
 	 * 
 	 * @author Gustavo Figueiredo
 	 */
@@ -52,7 +115,11 @@ public class RoboToyStatistics {
 		public double max;
 		public double min;
 		public double mean;
-		public double stddev;			
+		public double stddev;
+		public double p50;
+		public double p90;
+		public double p99;
+		public double p999;
 	}
 	
 	/**
@@ -74,6 +141,12 @@ public class RoboToyStatistics {
 		 */
 		public int count_fires;
 		
+		/**
+		 * Number of fire requests discarded because we were still transmitting
+		 * a previous beam
+		 */
+		public int count_fires_collapsed;
+		
 		/**
 		 * Number of signals we received that matches with respective checksum bits
 		 */
@@ -90,13 +163,21 @@ public class RoboToyStatistics {
 		 */
 		public int raw_signals_wrong;
 
+		/**
+		 * Number of signals we received but dropped because there were too many
+		 * signals waiting to be decoded
+		 */
+		public int raw_signals_dropped;
+
 		public void clear() {
 			ack_hits = 0;
 			ack_back_fire = 0;
 			count_fires = 0;
+			count_fires_collapsed = 0;
 			raw_signals_match = 0;
 			raw_signals_mismatch = 0;
 			raw_signals_wrong = 0;
+			raw_signals_dropped = 0;
 		}
 		
 		@Override
@@ -110,119 +191,286 @@ public class RoboToyStatistics {
 	}
 
 	/**
-	 * Take some statistics over PING time taked for some
-	 * IP addresses
+	 * All metrics, including the ones below
+	 */
+	private static final MetricsRegistry registry = new MetricsRegistry();
+
+	/**
+	 * Take some statistics over PING time taken for some
+	 * IP addresses (one histogram per address, labeled 'ip')
+	 */
+	public static final String LAG_MS = "robotoy_lag_ms";
+	
+	/**
+	 * Statistics for IR device
+	 */
+	private static final Counter irAckHits = registry.counter("robotoy_ir_ack_hits_total");
+	private static final Counter irAckBackFire = registry.counter("robotoy_ir_ack_back_fire_total");
+	private static final Counter irCountFires = registry.counter("robotoy_ir_fires_total");
+	private static final Counter irCountFiresCollapsed = registry.counter("robotoy_ir_fires_collapsed_total");
+	private static final Counter irRawSignalsMatch = registry.counter("robotoy_ir_raw_signals_match_total");
+	private static final Counter irRawSignalsMismatch = registry.counter("robotoy_ir_raw_signals_mismatch_total");
+	private static final Counter irRawSignalsWrong = registry.counter("robotoy_ir_raw_signals_wrong_total");
+	private static final Counter irRawSignalsDropped = registry.counter("robotoy_ir_raw_signals_dropped_total");
+	
+	/**
+	 * Take some statistics over time taken for transmitting fire bursts
+	 */
+	private static final Histogram fireTransmitStats = registry.histogram("robotoy_fire_transmit_ms");
+
+	/**
+	 * Take some statistics over fire requests queue
+	 */
+	private static final Histogram fireQueueStats = registry.histogram("robotoy_fire_queue_depth");
+
+	/**
+	 * Take some statistics over broadcasts to WebSocket sessions
+	 */
+	private static final Histogram broadcastRecipientsStats = registry.histogram("robotoy_broadcast_recipients");
+	private static final Histogram broadcastBytesStats = registry.histogram("robotoy_broadcast_bytes");
+	private static final Histogram broadcastTimeStats = registry.histogram("robotoy_broadcast_ms");
+
+	/**
+	 * Take some statistics over motor commands
+	 */
+	private static final Counter motorCommandsCoalesced = registry.counter("robotoy_motor_commands_coalesced_total");
+	private static final Histogram motorQueueStats = registry.histogram("robotoy_motor_queue_ms");
+	private static final Histogram motorActuationStats = registry.histogram("robotoy_motor_actuation_ms");
+
+	/**
+	 * Take some statistics over captured IR signals
+	 */
+	private static final Histogram irCaptureQueueStats = registry.histogram("robotoy_ir_capture_queue_ms");
+
+	/**
+	 * Take some statistics over WebSocket traffic
 	 */
-	private static final Map<String,Statistics> lagStatsByIPAddress = new HashMap<>();
+	private static final Counter websocketReceivedBytes = registry.counter("robotoy_websocket_received_bytes_total");
+	private static final Counter websocketSentBytes = registry.counter("robotoy_websocket_sent_bytes_total");
 	
-	private static final IRStats irStats = new IRStats();
+	/**
+	 * Registry of all metrics, including the ones reported through the methods of this class
+	 */
+	public static MetricsRegistry getRegistry() {
+		return registry;
+	}
 	
 	public static void addLagStatsForIPAddress(String addr,long ping_ms) {
 		if (addr==null || addr.length()==0)
 			addr = "localhost";
-		synchronized (lagStatsByIPAddress) {
-			Statistics stats = lagStatsByIPAddress.get(addr);
-			if (stats==null)
-				lagStatsByIPAddress.put(addr, stats = new Statistics());
-			stats.feed(ping_ms);
-		}
+		registry.histogram(LAG_MS, "ip", addr).feed(ping_ms);
 	}
 	
 	public static void clearLagStatsByIPAddress() {
-		synchronized (lagStatsByIPAddress) {
-			lagStatsByIPAddress.clear();
-		}		
+		registry.removeAll(LAG_MS);
 	}
 	
-	public static Statistics getLagStatsForIPAddress(String addr) {
+	public static Histogram getLagStatsForIPAddress(String addr) {
 		if (addr==null || addr.length()==0)
 			addr = "localhost";
-		synchronized (lagStatsByIPAddress) {
-			Statistics stats = lagStatsByIPAddress.get(addr);
-			return stats;
-		}		
+		Metric stats = registry.get(LAG_MS, "ip", addr);
+		return (stats instanceof Histogram) ? (Histogram)stats : null;
 	}
 	
 	public static List<String> getAddressesWithLagStats() {
-		synchronized (lagStatsByIPAddress) {
-			List<String> addresses = new ArrayList<>(lagStatsByIPAddress.keySet());
-			return addresses;
-		}		
+		List<String> addresses = new ArrayList<>();
+		for (Histogram stats:registry.getMetrics(Histogram.class, LAG_MS))
+			addresses.add(stats.getLabel("ip"));
+		return addresses;
 	}
 	
 	public static void incIRStatAckHits() {
-		synchronized (irStats) {
-			irStats.ack_hits++;
-		}		
+		irAckHits.inc();
 	}
 
 	public static void incIRStatAckBackFire() {
-		synchronized (irStats) {
-			irStats.ack_back_fire++;
-		}				
+		irAckBackFire.inc();
 	}
 	
 	public static void incIRStatCountFires() {
-		synchronized (irStats) {
-			irStats.count_fires++;
-		}						
+		irCountFires.inc();
+	}
+
+	public static void incIRStatCountFiresCollapsed(int amount) {
+		irCountFiresCollapsed.add(amount);
 	}
 
 	public static void incIRStatRawSignalsMatch() {
-		synchronized (irStats) {
-			irStats.raw_signals_match++;
-		}						
+		irRawSignalsMatch.inc();
 	}
 
 	public static void incIRStatRawSignalsMisMatch() {
-		synchronized (irStats) {
-			irStats.raw_signals_mismatch++;
-		}						
+		irRawSignalsMismatch.inc();
+	}
+
+	public static void incIRStatRawSignalsMisMatch(int amount) {
+		irRawSignalsMismatch.add(amount);
 	}
 
 	public static void incIRStatRawSignalsWrong(int amount) {
-		synchronized (irStats) {
-			irStats.raw_signals_wrong+=amount;
-		}						
+		irRawSignalsWrong.add(amount);
+	}
+
+	public static void incIRStatRawSignalsDropped(int amount) {
+		irRawSignalsDropped.add(amount);
+	}
+
+	public static void addIRCaptureQueueTime(double elapsed_ms) {
+		irCaptureQueueStats.feed(elapsed_ms);
 	}
 
 	public static void clearIRStats() {
-		synchronized (irStats) {
-			irStats.clear();
-		}
+		irAckHits.reset();
+		irAckBackFire.reset();
+		irCountFires.reset();
+		irCountFiresCollapsed.reset();
+		irRawSignalsMatch.reset();
+		irRawSignalsMismatch.reset();
+		irRawSignalsWrong.reset();
+		irRawSignalsDropped.reset();
+		irCaptureQueueStats.reset();
 	}
 	
 	public static IRStats getIRStats() {
-		synchronized (irStats) {
-			return irStats.clone();
-		}
+		IRStats s = new IRStats();
+		s.ack_hits = (int)irAckHits.get();
+		s.ack_back_fire = (int)irAckBackFire.get();
+		s.count_fires = (int)irCountFires.get();
+		s.count_fires_collapsed = (int)irCountFiresCollapsed.get();
+		s.raw_signals_match = (int)irRawSignalsMatch.get();
+		s.raw_signals_mismatch = (int)irRawSignalsMismatch.get();
+		s.raw_signals_wrong = (int)irRawSignalsWrong.get();
+		s.raw_signals_dropped = (int)irRawSignalsDropped.get();
+		return s;
+	}
+	
+	public static void addFireTransmitTime(double elapsed_ms) {
+		fireTransmitStats.feed(elapsed_ms);
+	}
+
+	public static void addFireQueueDepth(int depth) {
+		fireQueueStats.feed(depth);
+	}
+	
+	public static void clearFireStats() {
+		fireTransmitStats.reset();
+		fireQueueStats.reset();
+	}
+	
+	public static void addBroadcast(int recipients,int bytes,double elapsed_ms) {
+		broadcastRecipientsStats.feed(recipients);
+		broadcastBytesStats.feed(bytes);
+		broadcastTimeStats.feed(elapsed_ms);
+	}
+	
+	public static void clearBroadcastStats() {
+		broadcastRecipientsStats.reset();
+		broadcastBytesStats.reset();
+		broadcastTimeStats.reset();
+	}
+	
+	public static void addWebSocketReceivedBytes(long bytes) {
+		websocketReceivedBytes.add(bytes);
+	}
+
+	public static void addWebSocketSentBytes(long bytes) {
+		websocketSentBytes.add(bytes);
+	}
+	
+	public static void clearWebSocketStats() {
+		websocketReceivedBytes.reset();
+		websocketSentBytes.reset();
+	}
+	
+	public static void incMotorCommandsCoalesced(int amount) {
+		motorCommandsCoalesced.add(amount);
+	}
+	
+	public static void addMotorQueueTime(double elapsed_ms) {
+		motorQueueStats.feed(elapsed_ms);
+	}
+	
+	public static void addMotorActuationTime(double elapsed_ms) {
+		motorActuationStats.feed(elapsed_ms);
+	}
+	
+	public static void clearMotorStats() {
+		motorCommandsCoalesced.reset();
+		motorQueueStats.reset();
+		motorActuationStats.reset();
 	}
 	
 	public static void clearAllStatistics() {
 		clearLagStatsByIPAddress();
 		clearIRStats();
+		clearFireStats();
+		clearBroadcastStats();
+		clearWebSocketStats();
+		clearMotorStats();
 	}
 	
 	public static Summary getSummary() {
 		Summary s = new Summary();
-		synchronized (lagStatsByIPAddress) {
-			if (!lagStatsByIPAddress.isEmpty()) {
+		for (Histogram stats:registry.getMetrics(Histogram.class, LAG_MS)) {
+			Histogram.Snapshot snapshot = stats.snapshot();
+			if (snapshot.getCount()==0)
+				continue;
+			if (s.lag_by_ip==null)
 				s.lag_by_ip = new TreeMap<>();
-				for (Map.Entry<String, Statistics> entry:lagStatsByIPAddress.entrySet()) {
-					SummaryStats ss = new SummaryStats();
-					ss.count = entry.getValue().getCount();
-					ss.sum = entry.getValue().getSum();
-					ss.max = entry.getValue().getMaximum();
-					ss.min = entry.getValue().getMinimum();
-					ss.mean = entry.getValue().getMean();
-					ss.stddev = entry.getValue().getStandardDeviation();
-					s.lag_by_ip.put(entry.getKey(), ss);
-				}
-			}
+			s.lag_by_ip.put(stats.getLabel("ip"), getSummaryStats(snapshot));
 		}
-		synchronized (irStats) {
-			s.ir = irStats.clone();
+		s.ir = getIRStats();
+		s.ir_capture_queue_ms = getSummaryStats(irCaptureQueueStats);
+		s.fire_transmit_ms = getSummaryStats(fireTransmitStats);
+		s.fire_queue_depth = getSummaryStats(fireQueueStats);
+		if (broadcastRecipientsStats.getCount()>0) {
+			s.broadcast_recipients = getSummaryStats(broadcastRecipientsStats.snapshot());
+			s.broadcast_bytes = getSummaryStats(broadcastBytesStats.snapshot());
+			s.broadcast_ms = getSummaryStats(broadcastTimeStats.snapshot());
+		}
+		s.websocket_received_bytes = websocketReceivedBytes.get();
+		s.websocket_sent_bytes = websocketSentBytes.get();
+		s.motor_commands_coalesced = motorCommandsCoalesced.get();
+		if (motorQueueStats.getCount()>0) {
+			s.motor_queue_ms = getSummaryStats(motorQueueStats.snapshot());
+			s.motor_actuation_ms = getSummaryStats(motorActuationStats.snapshot());
+		}
+		for (Metric metric:registry.getMetrics()) {
+			if (!(metric instanceof Gauge))
+				continue;
+			double value = ((Gauge)metric).get();
+			if (Double.isNaN(value) || Double.isInfinite(value))
+				continue;
+			if (s.gauges==null)
+				s.gauges = new TreeMap<>();
+			s.gauges.put(metric.getKey(), value);
 		}
 		return s;
 	}
+	
+	/**
+	 * Returns summary of histogram, or NULL if it's empty
+	 */
+	private static SummaryStats getSummaryStats(Histogram stats) {
+		Histogram.Snapshot snapshot = stats.snapshot();
+		return (snapshot.getCount()==0) ? null : getSummaryStats(snapshot);
+	}
+	
+	/**
+	 * Summary of histogram snapshot (useful for JSON representation)
+	 */
+	public static SummaryStats getSummaryStats(Histogram.Snapshot stats) {
+		SummaryStats ss = new SummaryStats();
+		ss.count = (int)stats.getCount();
+		ss.sum = stats.getSum();
+		ss.max = stats.getMaximum();
+		ss.min = stats.getMinimum();
+		ss.mean = stats.getMean();
+		ss.stddev = (stats.getCount()>1) ? stats.getStandardDeviation() : 0;
+		ss.p50 = stats.getPercentile(0.50);
+		ss.p90 = stats.getPercentile(0.90);
+		ss.p99 = stats.getPercentile(0.99);
+		ss.p999 = stats.getPercentile(0.999);
+		return ss;
+	}
 }
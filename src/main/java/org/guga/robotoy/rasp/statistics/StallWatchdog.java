@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.statistics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches work in progress at threads that should never block for long (WebSocket
+ * handlers, motor actuator, IR decoding, beam firing, scheduler workers).<BR>
+ * <BR>
+ * Each thread marks the beginning and the end of each piece of work through its own
+ * {@link Probe} (two volatile writes and no allocation). A background thread checks
+ * all probes periodically. Whenever some work runs past its budget, the stack of
+ * the thread is captured once, logged and kept in a bounded list of recent stalls.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class StallWatchdog {
+	
+	private static final Logger log = Logger.getLogger(StallWatchdog.class.getName());
+	
+	public static final String TASK_WEBSOCKET = "websocket";
+	public static final String TASK_MOTOR = "motor";
+	public static final String TASK_IR = "ir";
+	public static final String TASK_FIRE = "fire";
+	public static final String TASK_SCHEDULER = "scheduler";
+	
+	/**
+	 * All known tasks (used for configuration)
+	 */
+	public static final String[] TASKS = { TASK_WEBSOCKET, TASK_MOTOR, TASK_IR, TASK_FIRE, TASK_SCHEDULER };
+
+	/**
+	 * Default budget for any work (in milliseconds)
+	 */
+	public static final long DEFAULT_BUDGET_MS = 250;
+
+	/**
+	 * Default budget for transmitting one beam burst (in milliseconds)
+	 */
+	public static final long DEFAULT_FIRE_BUDGET_MS = 1000;
+
+	/**
+	 * Number of recent stalls kept in memory
+	 */
+	public static final int MAX_STALLS = 32;
+	
+	/**
+	 * Maximum number of stack frames kept for each stall
+	 */
+	public static final int MAX_STACK_DEPTH = 40;
+
+	/**
+	 * Watchdog that does not watch anything
+	 */
+	public static final StallWatchdog DISABLED = new StallWatchdog();
+	
+	private static final Probe NO_PROBE = new Probe(null);
+	
+	private final CopyOnWriteArrayList<Probe> probes;
+	
+	private final ThreadLocal<Probe> threadProbe;
+	
+	private final Map<String,Long> budgets;
+	
+	private final ArrayDeque<Stall> stalls;
+	
+	private final AtomicBoolean running;
+	
+	private volatile long defaultBudget = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MS);
+	
+	private Thread watchdogThread;
+	
+	public StallWatchdog() {
+		this.probes = new CopyOnWriteArrayList<>();
+		this.threadProbe = ThreadLocal.withInitial(this::newProbe);
+		this.budgets = new ConcurrentHashMap<>();
+		this.budgets.put(TASK_FIRE, TimeUnit.MILLISECONDS.toNanos(DEFAULT_FIRE_BUDGET_MS));
+		this.stalls = new ArrayDeque<>(MAX_STALLS);
+		this.running = new AtomicBoolean(false);
+	}
+	
+	private Probe newProbe() {
+		Probe probe = new Probe(Thread.currentThread());
+		probes.add(probe);
+		return probe;
+	}
+	
+	/**
+	 * Budget for any task without a budget of its own (in milliseconds)
+	 */
+	public void setDefaultBudget(long ms) {
+		this.defaultBudget = TimeUnit.MILLISECONDS.toNanos(ms);
+	}
+
+	/**
+	 * Budget for some task (in milliseconds). Use 0 for not watching this task.
+	 */
+	public void setBudget(String task,long ms) {
+		budgets.put(task, TimeUnit.MILLISECONDS.toNanos(ms));
+	}
+
+	/**
+	 * Budget for some task (in milliseconds)
+	 */
+	public long getBudget(String task) {
+		return TimeUnit.NANOSECONDS.toMillis(getBudgetNanos(task));
+	}
+
+	private long getBudgetNanos(String task) {
+		Long budget = budgets.get(task);
+		return (budget==null) ? defaultBudget : budget;
+	}
+
+	public synchronized void init() {
+		if (this==DISABLED || running.get())
+			return;
+		running.set(true);
+		watchdogThread = new Thread(()->{ watch(); });
+		watchdogThread.setName("StallWatchdog");
+		watchdogThread.setDaemon(true);
+		watchdogThread.start();
+	}
+	
+	public synchronized void stop() {
+		running.set(false);
+		if (watchdogThread!=null) {
+			watchdogThread.interrupt();
+			watchdogThread = null;
+		}
+	}
+
+	public boolean isRunning() {
+		return running.get();
+	}
+	
+	/**
+	 * Marks the beginning of some work at the current thread. Must be followed by {@link Probe#exit()}
+	 * at the same thread (e.g. in a 'finally' block).
+	 * @param task One of the 'TASK_' constants (used for choosing the budget)
+	 */
+	public Probe enter(String task) {
+		return enter(task, null);
+	}
+
+	/**
+	 * Marks the beginning of some work at the current thread. Must be followed by {@link Probe#exit()}
+	 * at the same thread (e.g. in a 'finally' block).
+	 * @param task One of the 'TASK_' constants (used for choosing the budget)
+	 * @param detail Optional description of this work (e.g. the name of a scheduled task). Should not be
+	 * built for each call.
+	 */
+	public Probe enter(String task,String detail) {
+		if (!running.get())
+			return NO_PROBE;
+		Probe probe = threadProbe.get();
+		if (probe.depth++==0) {
+			probe.task = task;
+			probe.detail = detail;
+			probe.start = System.nanoTime();
+		}
+		return probe;
+	}
+
+	/**
+	 * Returns recent stalls (oldest first)
+	 */
+	public List<Stall> getStalls() {
+		synchronized (stalls) {
+			return new ArrayList<>(stalls);
+		}
+	}
+	
+	public void clearStalls() {
+		synchronized (stalls) {
+			stalls.clear();
+		}
+	}
+	
+	/**
+	 * Loops while watchdog is not stopped<BR>
+	 * Checks all probes a few times during the smallest budget.
+	 */
+	private void watch() {
+		while (running.get()) {
+			long interval = (defaultBudget>0) ? defaultBudget : TimeUnit.SECONDS.toNanos(4);
+			for (Long budget:budgets.values()) {
+				if (budget>0 && budget<interval)
+					interval = budget;
+			}
+			try {
+				Thread.sleep(Math.max(10, TimeUnit.NANOSECONDS.toMillis(interval)/4));
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			check(System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Checks all probes, capturing the stack of threads running past their budgets
+	 */
+	void check(long now) {
+		for (Probe probe:probes) {
+			if (!probe.thread.isAlive()) {
+				probes.remove(probe);
+				continue;
+			}
+			final long start = probe.start;
+			if (start==0 || start==probe.reported)
+				continue;
+			final String task = probe.task;
+			final long budget = getBudgetNanos(task);
+			if (budget<=0 || now-start<budget)
+				continue;
+			StackTraceElement[] stack = probe.thread.getStackTrace();
+			if (probe.start!=start)
+				continue; // completed in the meantime
+			probe.reported = start;
+			Stall stall = new Stall(probe.thread.getName(), task, probe.detail, (now-start)/1_000_000.0, budget/1_000_000.0, stack);
+			RoboToyStatistics.getRegistry().counter("robotoy_stalls_total", "task", String.valueOf(task)).inc();
+			if (log.isLoggable(Level.WARNING))
+				log.log(Level.WARNING, "Stall detected: "+stall+"\n"+stall.getStackAsString());
+			synchronized (stalls) {
+				if (stalls.size()==MAX_STALLS)
+					stalls.removeFirst();
+				stalls.addLast(stall);
+			}
+		}
+	}
+
+	/**
+	 * Work in progress at one thread
+	 */
+	public static final class Probe {
+		private final Thread thread;
+		private volatile long start;
+		private volatile String task;
+		private volatile String detail;
+		/**
+		 * Start of the last work already reported as a stall (only used by watchdog thread)
+		 */
+		private long reported;
+		/**
+		 * Nesting level (only used by the thread itself)
+		 */
+		private int depth;
+		Probe(Thread thread) {
+			this.thread = thread;
+		}
+		/**
+		 * Marks the end of the work started with 'enter'
+		 */
+		public void exit() {
+			if (thread==null)
+				return;
+			if (--depth<=0) {
+				depth = 0;
+				start = 0;
+			}
+		}
+	}
+
+	/**
+	 * Some work that ran past its budget
+	 * 
+	 * @author Gustavo Figueiredo
+	 */
+	public static final class Stall {
+		private final Date timestamp;
+		private final String thread;
+		private final String task;
+		private final String detail;
+		private final double elapsedMs;
+		private final double budgetMs;
+		private final String[] stack;
+		Stall(String thread,String task,String detail,double elapsedMs,double budgetMs,StackTraceElement[] stack) {
+			this.timestamp = new Date();
+			this.thread = thread;
+			this.task = task;
+			this.detail = detail;
+			this.elapsedMs = elapsedMs;
+			this.budgetMs = budgetMs;
+			this.stack = new String[Math.min(MAX_STACK_DEPTH, stack.length)];
+			for (int i=0;i<this.stack.length;i++)
+				this.stack[i] = stack[i].toString();
+		}
+		public Date getTimestamp() {
+			return timestamp;
+		}
+		public String getThread() {
+			return thread;
+		}
+		public String getTask() {
+			return task;
+		}
+		public String getDetail() {
+			return detail;
+		}
+		/**
+		 * Time elapsed in milliseconds since the beginning of the work, when the stack was captured
+		 */
+		public double getElapsedMs() {
+			return elapsedMs;
+		}
+		public double getBudgetMs() {
+			return budgetMs;
+		}
+		public String[] getStack() {
+			return stack.clone();
+		}
+		public String getStackAsString() {
+			StringBuilder s = new StringBuilder();
+			for (String frame:stack)
+				s.append("\tat ").append(frame).append('\n');
+			return s.toString();
+		}
+		public String toString() {
+			return String.format("%s%s at thread '%s' running for %.1fms (budget %.1fms)",
+					task, (detail==null)?"":("/"+detail), thread, elapsedMs, budgetMs);
+		}
+	}
+}
@@ -30,6 +30,7 @@ import org.guga.robotoy.rasp.game.GamePlayer;
 import org.guga.robotoy.rasp.game.GameRobot;
 import org.guga.robotoy.rasp.game.GameStage;
 import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.network.WebServer;
 import org.guga.robotoy.rasp.utils.URLUtils;
 
 /**
@@ -55,6 +56,11 @@ public class AccessTag extends RoboToyCommonTag {
 		if (GamePlayMode.STANDALONE.equals(assertController().getContext().getGamePlayMode())) {
 			return;
 		}
+		
+		// Pages requested by web server itself on startup are rendered without any user
+		if (Boolean.TRUE.equals(getRequest().getAttribute(WebServer.WARMUP_ATTRIBUTE))) {
+			return;
+		}
 
 		// Check session attribute
 		String name = (String)getSession().getAttribute("USERNAME");
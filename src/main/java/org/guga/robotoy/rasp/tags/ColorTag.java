@@ -36,7 +36,7 @@ public class ColorTag extends RoboToyCommonTag {
 		String color = "";
 		String name = (String)getSession().getAttribute("USERNAME");
 		if (name!=null) {
-			GameRobot robot = assertGame().findRobotWithOwnerName(name);
+			GameRobot robot = assertSnapshot().findRobotWithOwnerName(name);
 			if (robot!=null
 				&& robot.getColor()!=null) {
 				color = robot.getColor().getName();
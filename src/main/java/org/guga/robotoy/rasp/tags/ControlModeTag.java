@@ -21,7 +21,7 @@ import javax.servlet.jsp.JspException;
 
 import org.guga.robotoy.rasp.game.GameControlMode;
 import org.guga.robotoy.rasp.game.GameRobot;
-import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.game.GameSnapshot;
 
 /**
  * Custom tag used in different pages.<BR>
@@ -57,7 +57,7 @@ public class ControlModeTag extends RoboToyCommonTag {
 		}
 		
 		if (mode==null) {
-			GameState game = assertGame();
+			GameSnapshot game = assertSnapshot();
 			String name = (String)getSession().getAttribute("USERNAME");
 			GameRobot robot = (name==null) ? null : game.findRobotWithOwnerName(name);
 			mode = (robot==null) ? null : robot.getControlMode();
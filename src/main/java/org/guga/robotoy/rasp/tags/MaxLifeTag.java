@@ -30,7 +30,7 @@ public class MaxLifeTag extends RoboToyCommonTag {
 
 	@Override
 	public void doTag() throws JspException, IOException {
-		getJspContext().getOut().print(String.valueOf(assertGame().getMaxLife()));
+		getJspContext().getOut().print(String.valueOf(assertSnapshot().getMaxLife()));
 	}
 
 }
@@ -43,7 +43,7 @@ public class PlayersCountTag extends RoboToyCommonTag {
 	@Override
 	public void doTag() throws JspException, IOException {
 		int count = 0;
-		for (GameRobot robot:assertGame().getRobots()) {
+		for (GameRobot robot:assertSnapshot().getRobots()) {
 			if (robot.getOwner()==null)
 				continue;
 			if (pending && robot.getOwner().isResourcesLoaded())
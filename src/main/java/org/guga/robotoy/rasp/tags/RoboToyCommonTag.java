@@ -27,6 +27,7 @@ import javax.servlet.jsp.SkipPageException;
 import javax.servlet.jsp.tagext.SimpleTagSupport;
 
 import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.game.GameSnapshot;
 import org.guga.robotoy.rasp.game.GameState;
 
 /**
@@ -104,6 +105,13 @@ public abstract class RoboToyCommonTag extends SimpleTagSupport {
 		}
 	}
 	
+	/**
+	 * Immutable view of current game state (for tags that only read game state)
+	 */
+	protected GameSnapshot assertSnapshot() throws IOException, SkipPageException {
+		return assertGame().snapshot();
+	}
+	
 	protected RoboToyServerController assertController() throws IOException, SkipPageException {
 		RoboToyServerController controller = getController();
 		if (controller==null) {
@@ -20,7 +20,7 @@ import java.io.IOException;
 import javax.servlet.jsp.JspException;
 
 import org.guga.robotoy.rasp.game.GameRobot;
-import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.game.GameSnapshot;
 
 /**
  * Custom tag used in different pages.<BR>
@@ -33,7 +33,7 @@ public class RobotIdTag extends RoboToyCommonTag {
 
 	@Override
 	public void doTag() throws JspException, IOException {
-		GameState game = assertGame();
+		GameSnapshot game = assertSnapshot();
 		String name = (String)getSession().getAttribute("USERNAME");
 		GameRobot robot = (name==null) ? null : game.findRobotWithOwnerName(name);
 		String robot_id = (robot==null || robot.getIdentifier()==null) ? "" : robot.getIdentifier();
@@ -0,0 +1,423 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.utils;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import org.guga.robotoy.rasp.statistics.Counter;
+import org.guga.robotoy.rasp.statistics.Histogram;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+
+/**
+ * Logging handler that does not format nor write anything at the calling thread.<BR>
+ * <BR>
+ * Log records are handed to one background thread through a bounded lock-free ring of
+ * preallocated slots (many producers, one consumer). The background thread formats them
+ * and writes them in batches (one write and one flush for everything found in the ring).<BR>
+ * When the ring is full, the 'drop policy' tells whether the calling thread waits for room
+ * or the record gets discarded.<BR>
+ * <BR>
+ * Configured at 'logging.properties' (all optional):<BR>
+ * org.guga.robotoy.rasp.utils.AsyncLogHandler.level - default: ALL<BR>
+ * org.guga.robotoy.rasp.utils.AsyncLogHandler.formatter - default: LoggingFormatter<BR>
+ * org.guga.robotoy.rasp.utils.AsyncLogHandler.encoding - default: platform encoding<BR>
+ * org.guga.robotoy.rasp.utils.AsyncLogHandler.target - 'stderr' or 'stdout' (default: stderr)<BR>
+ * org.guga.robotoy.rasp.utils.AsyncLogHandler.capacity - number of slots in ring (default: 4096)<BR>
+ * org.guga.robotoy.rasp.utils.AsyncLogHandler.dropPolicy - see {@link DropPolicy} (default: DISCARD_BELOW_WARNING)<BR>
+ * <BR>
+ * Reports to 'RoboToyStatistics' the number of records written and dropped and the time
+ * between each record and its writing.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class AsyncLogHandler extends Handler {
+	
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	/**
+	 * Maximum time the background thread sleeps before checking the ring again
+	 */
+	public static final long MAX_IDLE_MS = 100;
+	
+	public static final String RECORDS_TOTAL = "robotoy_log_records_total";
+	
+	public static final String DROPPED_TOTAL = "robotoy_log_dropped_total";
+	
+	public static final String LATENCY_MS = "robotoy_log_latency_ms";
+	
+	public static final String QUEUED = "robotoy_log_queued";
+	
+	/**
+	 * What to do with new records when the ring is full
+	 */
+	public static enum DropPolicy {
+		/**
+		 * Discards the new record
+		 */
+		DISCARD,
+		/**
+		 * Calling thread waits for room in the ring (nothing is lost)
+		 */
+		BLOCK,
+		/**
+		 * Discards new records below WARNING level. Calling thread waits for room
+		 * in the ring for others.
+		 */
+		DISCARD_BELOW_WARNING
+	}
+	
+	/**
+	 * One slot in the ring
+	 */
+	private static final class Event {
+		/**
+		 * Sequence number telling if this slot is free for the producer ('sequence'=='position')
+		 * or ready for the consumer ('sequence'=='position'+1)
+		 */
+		private volatile long sequence;
+		private LogRecord record;
+		private long enqueuedAt;
+	}
+	
+	private final Event[] ring;
+	
+	private final int mask;
+	
+	/**
+	 * Next position to be claimed by producers
+	 */
+	private final AtomicLong tail;
+	
+	/**
+	 * Next position to be consumed (only changed by writer thread)
+	 */
+	private volatile long head;
+	
+	/**
+	 * Position up to which records were written and flushed
+	 */
+	private volatile long flushed;
+	
+	private final AtomicBoolean running;
+	
+	/**
+	 * Flag used to tell there is something new in the ring
+	 */
+	private final AtomicBoolean signaled;
+	
+	private final DropPolicy dropPolicy;
+	
+	private final Writer writer;
+	
+	private final StringBuilder batch;
+	
+	private final Counter recordsCounter;
+	
+	private final Counter droppedCounter;
+	
+	private final Histogram latency;
+	
+	private volatile Thread writerThread;
+
+	/**
+	 * Configured by 'logging.properties'
+	 */
+	public AsyncLogHandler() {
+		this(null, 0, null);
+	}
+	
+	/**
+	 * @param output Where to write records (if NULL, uses configured target)
+	 * @param capacity Number of slots in ring (if 0, uses configured capacity). Rounded up to a power of 2.
+	 * @param dropPolicy What to do with new records when the ring is full (if NULL, uses configured policy)
+	 */
+	public AsyncLogHandler(OutputStream output,int capacity,DropPolicy dropPolicy) {
+		final String prefix = AsyncLogHandler.class.getName();
+		setLevel(parseLevel(getProperty(prefix+".level"), Level.ALL));
+		setFormatter(newFormatter(getProperty(prefix+".formatter")));
+		String encoding = getProperty(prefix+".encoding");
+		try {
+			setEncoding(encoding);
+		}
+		catch (UnsupportedEncodingException e) {
+			reportError("Invalid encoding: "+encoding, e, ErrorManager.GENERIC_FAILURE);
+		}
+		if (capacity<=0) {
+			String prop = getProperty(prefix+".capacity");
+			capacity = (prop==null) ? DEFAULT_CAPACITY : Integer.parseInt(prop.trim());
+		}
+		capacity = Integer.highestOneBit(Math.max(2, capacity)-1)<<1;
+		if (dropPolicy==null) {
+			String prop = getProperty(prefix+".dropPolicy");
+			dropPolicy = (prop==null) ? DropPolicy.DISCARD_BELOW_WARNING : DropPolicy.valueOf(prop.trim().toUpperCase());
+		}
+		if (output==null) {
+			output = "stdout".equalsIgnoreCase(getProperty(prefix+".target")) 
+					? new FileOutputStream(FileDescriptor.out) 
+					: new FileOutputStream(FileDescriptor.err);
+		}
+		Writer writer;
+		try {
+			writer = (getEncoding()==null) ? new OutputStreamWriter(output) : new OutputStreamWriter(output, getEncoding());
+		}
+		catch (UnsupportedEncodingException e) {
+			writer = new OutputStreamWriter(output);
+		}
+		this.writer = writer;
+		this.dropPolicy = dropPolicy;
+		this.ring = new Event[capacity];
+		for (int i=0;i<capacity;i++) {
+			ring[i] = new Event();
+			ring[i].sequence = i;
+		}
+		this.mask = capacity-1;
+		this.tail = new AtomicLong();
+		this.running = new AtomicBoolean(true);
+		this.signaled = new AtomicBoolean(false);
+		this.batch = new StringBuilder(8192);
+		this.recordsCounter = RoboToyStatistics.getRegistry().counter(RECORDS_TOTAL);
+		this.droppedCounter = RoboToyStatistics.getRegistry().counter(DROPPED_TOTAL);
+		this.latency = RoboToyStatistics.getRegistry().histogram(LATENCY_MS);
+		RoboToyStatistics.getRegistry().gauge(QUEUED, this::getQueued);
+		Thread thread = new Thread(()->{ writeRecords(); });
+		thread.setName("AsyncLogHandler");
+		thread.setDaemon(true);
+		writerThread = thread;
+		thread.start();
+	}
+	
+	private static String getProperty(String name) {
+		String value = LogManager.getLogManager().getProperty(name);
+		return (value==null || value.trim().length()==0) ? null : value.trim();
+	}
+	
+	private static Level parseLevel(String name,Level defaultLevel) {
+		if (name==null)
+			return defaultLevel;
+		try {
+			return Level.parse(name);
+		}
+		catch (IllegalArgumentException e) {
+			return defaultLevel;
+		}
+	}
+	
+	private static Formatter newFormatter(String className) {
+		if (className!=null) {
+			try {
+				return (Formatter)ClassLoader.getSystemClassLoader().loadClass(className).getDeclaredConstructor().newInstance();
+			}
+			catch (Exception e) {
+				// falls back to default formatter
+			}
+		}
+		return new LoggingFormatter();
+	}
+	
+	public DropPolicy getDropPolicy() {
+		return dropPolicy;
+	}
+	
+	/**
+	 * Number of slots in ring
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+	
+	/**
+	 * Number of records waiting to be written (approximate)
+	 */
+	public int getQueued() {
+		long queued = tail.get() - head;
+		return (int)Math.max(0, Math.min(ring.length, queued));
+	}
+	
+	/**
+	 * Number of records discarded because the ring was full
+	 */
+	public long getDropped() {
+		return droppedCounter.get();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (record==null || !isLoggable(record))
+			return;
+		if (!running.get())
+			return;
+		// Source class and method must be found at the calling thread
+		record.getSourceClassName();
+		final boolean mayBlock = DropPolicy.BLOCK.equals(dropPolicy)
+				|| (DropPolicy.DISCARD_BELOW_WARNING.equals(dropPolicy) && record.getLevel().intValue()>=Level.WARNING.intValue());
+		while (!offer(record)) {
+			if (!mayBlock || !running.get() || Thread.currentThread()==writerThread) {
+				droppedCounter.inc();
+				return;
+			}
+			wakeUp();
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		wakeUp();
+	}
+	
+	/**
+	 * Claims one slot in the ring and fills it with the record. Returns FALSE if the ring is full.
+	 */
+	private boolean offer(LogRecord record) {
+		long position = tail.get();
+		while (true) {
+			Event event = ring[(int)position & mask];
+			long diff = event.sequence - position;
+			if (diff==0) {
+				if (tail.compareAndSet(position, position+1)) {
+					event.record = record;
+					event.enqueuedAt = System.nanoTime();
+					event.sequence = position+1;	// publishes to consumer
+					return true;
+				}
+				position = tail.get();
+			}
+			else if (diff<0) {
+				return false; // full
+			}
+			else {
+				position = tail.get();	// claimed by another producer
+			}
+		}
+	}
+	
+	private void wakeUp() {
+		if (signaled.compareAndSet(false, true)) {
+			Thread thread = writerThread;
+			if (thread!=null)
+				LockSupport.unpark(thread);
+		}
+	}
+	
+	/**
+	 * Loops while handler is not closed<BR>
+	 * Drains the ring and sleeps until something new arrives.
+	 */
+	private void writeRecords() {
+		final long idle = TimeUnit.MILLISECONDS.toNanos(MAX_IDLE_MS);
+		while (running.get()) {
+			signaled.set(false);
+			int written = drain();
+			if (written==0 && !signaled.get())
+				LockSupport.parkNanos(this, idle);
+		}
+		drain();
+	}
+	
+	/**
+	 * Formats and writes everything found in ring. Returns the number of records written.
+	 */
+	private synchronized int drain() {
+		int count = 0;
+		final Formatter formatter = getFormatter();
+		while (true) {
+			Event event = ring[(int)head & mask];
+			if (event.sequence!=head+1)
+				break;
+			LogRecord record = event.record;
+			long enqueuedAt = event.enqueuedAt;
+			event.record = null;
+			event.sequence = head + ring.length;	// slot free for producers
+			head++;
+			try {
+				batch.append(formatter.format(record));
+			}
+			catch (Exception e) {
+				reportError(null, e, ErrorManager.FORMAT_FAILURE);
+			}
+			latency.feed((System.nanoTime()-enqueuedAt)/1_000_000.0);
+			count++;
+		}
+		if (count>0) {
+			recordsCounter.add(count);
+			try {
+				writer.append(batch);
+				writer.flush();
+			}
+			catch (IOException e) {
+				reportError(null, e, ErrorManager.WRITE_FAILURE);
+			}
+			batch.setLength(0);
+			if (batch.capacity()>1024*1024)
+				batch.trimToSize();
+			flushed = head;
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until everything published up to now gets written
+	 */
+	@Override
+	public void flush() {
+		final long target = tail.get();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (running.get() && flushed<target && System.nanoTime()<deadline) {
+			wakeUp();
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+	
+	/**
+	 * Writes everything still in ring and stops the background thread
+	 */
+	@Override
+	public void close() throws SecurityException {
+		if (!running.getAndSet(false))
+			return;
+		Thread thread = writerThread;
+		if (thread!=null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		drain();
+		writerThread = null;
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			reportError(null, e, ErrorManager.FLUSH_FAILURE);
+		}
+	}
+}
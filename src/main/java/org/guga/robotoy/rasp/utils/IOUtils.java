@@ -19,6 +19,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -69,50 +70,39 @@ public class IOUtils {
 	 * Reads file contents
 	 */
 	public static String readFileContents(final InputStream input) {
-		
+		byte[] contents = readFileContentsBinary(input);
+		if (contents==null)
+			throw new RuntimeException(new IOException("Stream closed"));
+		return decode(contents);
+	}
+	
+	/**
+	 * Decodes text contents according to its 'Byte Order Mask' (or platform default
+	 * charset if there is none)
+	 */
+	public static String decode(final byte[] contents) {
+		BOM bom = getBOM(contents);
+		if (bom == null)
+			return new String(contents);
 		try {
-			BufferedInputStream bin = new BufferedInputStream(input);
-			StringBuffer sb = new StringBuffer();
-			boolean first = true;
-			String encoding = null;
-			while (bin.available() > 0) {
-				byte[] buffer = new byte[bin.available()];
-				bin.read(buffer);
-				if (first) {
-					first = false;
-					BOM bom = getBOM(buffer);
-					if (bom != null) {
-						sb.append(new String(buffer, bom.offset, buffer.length - bom.offset, bom.encoding));
-						encoding = bom.encoding;
-					} else {
-						sb.append(new String(buffer));
-					}
-				} else {
-					if (encoding == null) {
-						sb.append(new String(buffer));
-					} else {
-						sb.append(new String(buffer, encoding));
-					}
-				}
-			}
-			return sb.toString();
-		} catch (IOException e) {
+			return new String(contents, bom.offset, contents.length - bom.offset, bom.encoding);
+		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	/**
-	 * Reads file contents binary
+	 * Reads file contents binary (until the end of stream)
 	 */
 	public static byte[] readFileContentsBinary(final InputStream input) {
 		
 		try {
 			BufferedInputStream bin = new BufferedInputStream(input);
-			ByteArrayOutputStream temp = new ByteArrayOutputStream();
-			while (bin.available() > 0) {
-				byte[] buffer = new byte[bin.available()];
-				bin.read(buffer);
-				temp.write(buffer);
+			ByteArrayOutputStream temp = new ByteArrayOutputStream(Math.max(bin.available(), 256));
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = bin.read(buffer)) >= 0) {
+				temp.write(buffer, 0, read);
 			}
 			return temp.toByteArray();
 		} catch (IOException e) {
@@ -147,4 +137,27 @@ public class IOUtils {
 			return 0L;
 		}
 	}
+
+	/**
+	 * Returns the number of bytes of the text encoded in UTF-8 (without encoding it)
+	 */
+	public static int getUTF8Length(final CharSequence text) {
+		int length = 0;
+		for (int i=0;i<text.length();i++) {
+			char c = text.charAt(i);
+			if (c<0x80)
+				length++;
+			else if (c<0x800)
+				length+=2;
+			else if (Character.isHighSurrogate(c) && i+1<text.length() && Character.isLowSurrogate(text.charAt(i+1))) {
+				length+=4;
+				i++;
+			}
+			else if (Character.isSurrogate(c))
+				length++; // unpaired surrogate is replaced by '?'
+			else
+				length+=3;
+		}
+		return length;
+	}
 }
@@ -15,16 +15,64 @@
  *******************************************************************************/
 package org.guga.robotoy.rasp.utils;
 
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
- * Some utility methods used with JSON contents reading and writing.
+ * Some utility methods used with JSON contents reading and writing.<BR>
+ * <BR>
+ * Gson instances are thread-safe and keep a cache of type adapters, so
+ * we share the same instances for all calls. Type adapters of application
+ * specific classes may be registered with 'registerTypeAdapters'.
  * 
  * @author Gustavo Figueiredo
  *
  */
 public class JSONUtils {
+	
+	/**
+	 * Shared instance for compact output and for parsing
+	 */
+	private static volatile Gson GSON = new GsonBuilder().create();
+	
+	/**
+	 * Shared instance for pretty printing
+	 */
+	private static volatile Gson GSON_PRETTY = new GsonBuilder().setPrettyPrinting().create();
+	
+	/**
+	 * Registrations of type adapters applied to shared instances
+	 */
+	private static final List<Consumer<GsonBuilder>> typeAdapters = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Time spent by each thread decoding JSON contents (see 'startDecodeTimer')
+	 */
+	private static final ThreadLocal<DecodeTimer> decodeTimer = ThreadLocal.withInitial(DecodeTimer::new);
+	
+	/**
+	 * Registers type adapters (or any other setting) to be used by all subsequent calls. Should
+	 * be called at startup, since it replaces the shared instances (and their cache).
+	 */
+	public static synchronized void registerTypeAdapters(Consumer<GsonBuilder> registration) {
+		typeAdapters.add(registration);
+		GSON = newGson(false);
+		GSON_PRETTY = newGson(true);
+	}
+	
+	private static Gson newGson(boolean printPretty) {
+		GsonBuilder builder = new GsonBuilder();
+		for (Consumer<GsonBuilder> registration:typeAdapters)
+			registration.accept(builder);
+		if (printPretty)
+			builder.setPrettyPrinting();
+		return builder.create();
+	}
 
 	public static String quote(String string) {
 		if (string == null || string.length() == 0) {
@@ -79,16 +127,76 @@ public class JSONUtils {
 	}
 
 	public static <T> T fromJSON(String json,Class<T> type) {
-		Gson g = new Gson();		
-		return g.fromJson(json, type);
+		final DecodeTimer timer = decodeTimer.get();
+		if (!timer.running)
+			return GSON.fromJson(json, type);
+		final long start = System.nanoTime();
+		try {
+			return GSON.fromJson(json, type);
+		}
+		finally {
+			timer.elapsed += System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Reads JSON contents directly from the reader (without building an intermediate String)
+	 */
+	public static <T> T fromJSON(Reader json,Class<T> type) {
+		final DecodeTimer timer = decodeTimer.get();
+		if (!timer.running)
+			return GSON.fromJson(json, type);
+		final long start = System.nanoTime();
+		try {
+			return GSON.fromJson(json, type);
+		}
+		finally {
+			timer.elapsed += System.nanoTime() - start;
+		}
+	}
+	
+	/**
+	 * Starts measuring the time spent by the current thread in 'fromJSON' calls
+	 */
+	public static void startDecodeTimer() {
+		final DecodeTimer timer = decodeTimer.get();
+		timer.elapsed = 0;
+		timer.running = true;
+	}
+	
+	/**
+	 * Stops measuring and returns the time (in nanoseconds) spent by the current thread
+	 * in 'fromJSON' calls since 'startDecodeTimer'
+	 */
+	public static long stopDecodeTimer() {
+		final DecodeTimer timer = decodeTimer.get();
+		timer.running = false;
+		return timer.elapsed;
 	}
 	
 	public static String toJSON(Object obj,boolean printPretty) {
-		Gson gson;
-		if (printPretty)
-			gson = new GsonBuilder().setPrettyPrinting().create();
-		else
-			gson = new GsonBuilder().create();
-		return gson.toJson(obj);
+		return (printPretty ? GSON_PRETTY : GSON).toJson(obj);
+	}
+
+	/**
+	 * Writes compact JSON contents directly to the output (without building an intermediate String)
+	 */
+	public static void toJSON(Object obj,Appendable output) {
+		GSON.toJson(obj, output);
+	}
+
+	/**
+	 * Writes JSON contents directly to the output (without building an intermediate String)
+	 */
+	public static void toJSON(Object obj,boolean printPretty,Appendable output) {
+		(printPretty ? GSON_PRETTY : GSON).toJson(obj, output);
+	}
+	
+	/**
+	 * Time spent by one thread decoding JSON contents
+	 */
+	private static class DecodeTimer {
+		boolean running;
+		long elapsed;
 	}
 }
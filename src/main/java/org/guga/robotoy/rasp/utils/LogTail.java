@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.guga.robotoy.rasp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the last lines of (possibly huge) LOG files.<BR>
+ * <BR>
+ * Line boundaries are found reading fixed-size blocks backwards from the end of file, so the
+ * time taken depends on the number of lines requested and not on the file size. Contents are
+ * copied straight to some 'Writer' (e.g. a HTTP response) without building them in memory.<BR>
+ * Also supports a 'follow' mode (as in 'tail -f') that keeps writing new lines as they
+ * get appended to files.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+public class LogTail {
+	
+	/**
+	 * Size of blocks read from file
+	 */
+	public static final int BLOCK_SIZE = 64*1024;
+
+	/**
+	 * Default interval between checks for new lines in 'follow' mode
+	 */
+	public static final long DEFAULT_POLL_INTERVAL_MS = 500;
+
+	private final Charset charset;
+	
+	private final ByteBuffer block;
+	
+	private final CharBuffer chars;
+
+	public LogTail() {
+		this(Charset.defaultCharset());
+	}
+
+	public LogTail(Charset charset) {
+		this.charset = charset;
+		this.block = ByteBuffer.allocate(BLOCK_SIZE);
+		this.chars = CharBuffer.allocate(BLOCK_SIZE);
+	}
+	
+	/**
+	 * Returns the position in file where the last lines start.
+	 * @param end Position of end of file
+	 * @param lines Number of lines. If less or equal to zero, returns 0 (the whole file).
+	 */
+	public long findStartOfLastLines(FileChannel channel,long end,int lines) throws IOException {
+		if (lines<=0)
+			return 0;
+		int countdown = lines;
+		long position = end;
+		while (position>0) {
+			final int length = (int)Math.min(BLOCK_SIZE, position);
+			position -= length;
+			readBlock(channel, position, length);
+			final byte[] bytes = block.array();
+			for (int i=length-1;i>=0;i--) {
+				// line break at the very end of file does not count as one more line
+				if (bytes[i]=='\n' && position+i!=end-1 && --countdown==0)
+					return position+i+1;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Returns the position just after the last line break found between 'start' and 'end'. Returns
+	 * 'start' if there is no line break.
+	 */
+	public long findEndOfLastLine(FileChannel channel,long start,long end) throws IOException {
+		long position = end;
+		while (position>start) {
+			final int length = (int)Math.min(BLOCK_SIZE, position-start);
+			position -= length;
+			readBlock(channel, position, length);
+			final byte[] bytes = block.array();
+			for (int i=length-1;i>=0;i--) {
+				if (bytes[i]=='\n')
+					return position+i+1;
+			}
+		}
+		return start;
+	}
+	
+	/**
+	 * Copies file contents between 'start' and 'end' to output
+	 */
+	public void copy(FileChannel channel,long start,long end,Writer out) throws IOException {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		long position = start;
+		block.clear();
+		while (position<end) {
+			block.limit((int)Math.min(block.capacity(), block.position()+end-position));
+			int read = channel.read(block, position);
+			if (read<0)
+				break;
+			position += read;
+			block.flip();
+			decode(decoder, /*endOfInput*/false, out);
+			block.compact();
+		}
+		block.flip();
+		decode(decoder, /*endOfInput*/true, out);
+		chars.clear();
+		decoder.flush(chars);
+		chars.flip();
+		out.write(chars.array(), 0, chars.limit());
+	}
+	
+	private void decode(CharsetDecoder decoder,boolean endOfInput,Writer out) throws IOException {
+		while (true) {
+			chars.clear();
+			CoderResult result = decoder.decode(block, chars, endOfInput);
+			chars.flip();
+			out.write(chars.array(), 0, chars.limit());
+			if (!result.isOverflow())
+				break;
+		}
+	}
+	
+	/**
+	 * Copies the last lines of file to output
+	 * @param lines Number of lines. If less or equal to zero, copies the whole file.
+	 * @return Returns the position of the end of file (where new lines will be appended)
+	 */
+	public long copyLastLines(File file,int lines,Writer out) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);) {
+			final long end = channel.size();
+			copy(channel, findStartOfLastLines(channel, end, lines), end, out);
+			return end;
+		}
+	}
+	
+	/**
+	 * Keeps writing new lines appended to files, as in 'tail -f'.<BR>
+	 * Returns when time is over, when the current thread gets interrupted or when the output
+	 * gets closed (only detected with 'PrintWriter').<BR>
+	 * Each time the lines come from a file different from the last one, a header with
+	 * the file name is written.
+	 * @param positions Where to start following each file (e.g. the values returned by 'copyLastLines').
+	 * Updated with the position of the last complete line written.
+	 * @param pollIntervalMs Interval between checks for new lines
+	 * @param maxDurationMs Maximum time following files
+	 */
+	public void follow(File[] files,long[] positions,Writer out,long pollIntervalMs,long maxDurationMs) throws IOException {
+		final long deadline = System.currentTimeMillis() + maxDurationMs;
+		int lastFile = -1;
+		while (System.currentTimeMillis()<deadline) {
+			for (int i=0;i<files.length;i++) {
+				File file = files[i];
+				if (!file.exists())
+					continue;
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);) {
+					long size = channel.size();
+					if (size<positions[i]) {
+						// file was truncated or replaced
+						out.write("-- "+file.getAbsolutePath()+" truncated --\n");
+						positions[i] = 0;
+						lastFile = -1;
+					}
+					// only complete lines
+					long end = findEndOfLastLine(channel, positions[i], size);
+					if (end<=positions[i])
+						continue;
+					if (lastFile!=i) {
+						out.write("==> "+file.getAbsolutePath()+" <==\n");
+						lastFile = i;
+					}
+					copy(channel, positions[i], end, out);
+					positions[i] = end;
+				}
+			}
+			out.flush();
+			if ((out instanceof PrintWriter) && ((PrintWriter)out).checkError())
+				return; // client is gone
+			try {
+				Thread.sleep(pollIntervalMs);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	private void readBlock(FileChannel channel,long position,int length) throws IOException {
+		block.clear();
+		block.limit(length);
+		while (block.hasRemaining()) {
+			if (channel.read(block, position+block.position())<0)
+				throw new IOException("Unexpected end of file at "+(position+block.position()));
+		}
+	}
+}
@@ -38,7 +38,7 @@ public class LoggingFormatter extends Formatter {
 	@Override
 	public String format(LogRecord record) {
 		StringBuilder sb = new StringBuilder();
-		sb.append(sdfts.get().format(new Date()));
+		sb.append(sdfts.get().format(new Date(record.getMillis())));
 		sb.append(":");
 		sb.append(record.getLevel().getName());
 		sb.append(":");
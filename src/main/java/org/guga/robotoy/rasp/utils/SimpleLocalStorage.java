@@ -65,9 +65,8 @@ public class SimpleLocalStorage {
 		if (!dir.exists())
 			dir.mkdirs();
 		File file = new File(dir,fileName);
-		String json = JSONUtils.toJSON(data, /*printPretty*/true);
 		try (PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(file,/*append*/false)));) {
-			output.print(json);
+			JSONUtils.toJSON(data, /*printPretty*/true, output);
 		}
 	}
 }
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.guga.robotoy.rasp.utils.AsyncLogHandler;
+import org.junit.Test;
+
+/**
+ * Tests the asynchronous logging handler
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class AsyncLogHandlerTest {
+
+	@Test
+	public void testManyProducers() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		AsyncLogHandler handler = new AsyncLogHandler(output, 64, AsyncLogHandler.DropPolicy.BLOCK);
+		Logger logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.setLevel(Level.ALL);
+		logger.addHandler(handler);
+		try {
+			Thread[] producers = new Thread[4];
+			for (int p=0;p<producers.length;p++) {
+				final int producer = p;
+				producers[p] = new Thread(()->{
+					for (int i=0;i<500;i++)
+						logger.fine("record "+producer+"/"+i);
+				});
+				producers[p].start();
+			}
+			for (Thread producer:producers)
+				producer.join();
+			handler.flush();
+			String text = output.toString();
+			for (int p=0;p<producers.length;p++) {
+				for (int i=0;i<500;i++)
+					assertTrue(text.contains("record "+p+"/"+i+"\n"));
+			}
+			// caller is found at calling thread
+			assertTrue(text.contains(":AsyncLogHandlerTest:lambda$"));
+		}
+		finally {
+			handler.close();
+		}
+	}
+
+	@Test
+	public void testDropPolicy() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ByteArrayOutputStream output = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				writing.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+				}
+				super.write(b, off, len);
+			}
+		};
+		AsyncLogHandler handler = new AsyncLogHandler(output, 4, AsyncLogHandler.DropPolicy.DISCARD_BELOW_WARNING);
+		try {
+			assertEquals(4, handler.getCapacity());
+			final long dropped = handler.getDropped();
+			// writer thread gets stuck with the first record
+			handler.publish(new LogRecord(Level.INFO, "first"));
+			assertTrue(writing.await(10, TimeUnit.SECONDS));
+			for (int i=0;i<10;i++)
+				handler.publish(new LogRecord(Level.FINEST, "fill "+i));
+			assertEquals(4, handler.getQueued());
+			assertEquals(6, handler.getDropped()-dropped);
+			// important records wait for room
+			Thread warning = new Thread(()->{ handler.publish(new LogRecord(Level.SEVERE, "important")); });
+			warning.start();
+			Thread.sleep(50);
+			assertTrue(warning.isAlive());
+			release.countDown();
+			warning.join(10_000);
+			assertFalse(warning.isAlive());
+			handler.flush();
+			String text = output.toString();
+			assertTrue(text.contains("first\n"));
+			assertTrue(text.contains("fill 3\n"));
+			assertFalse(text.contains("fill 4\n"));
+			assertTrue(text.contains("important\n"));
+			assertEquals(6, handler.getDropped()-dropped);
+		}
+		finally {
+			handler.close();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.optics.BeamDevice;
+import org.guga.robotoy.rasp.optics.BeamFireExecutor;
+import org.junit.Test;
+
+/**
+ * Tests the dedicated fire thread of BeamFireExecutor
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BeamFireExecutorTest {
+
+	@Test
+	public void testCollapseDuringTransmission() throws Exception {
+		SlowBeamDevice device = new SlowBeamDevice();
+		BeamFireExecutor executor = new BeamFireExecutor(device);
+		executor.init();
+		try {
+			executor.sendBeam(beam("A"));
+			assertTrue(device.busy.await(2, TimeUnit.SECONDS)); // first shot is being transmitted
+			assertTrue(executor.isTransmitting());
+			// Callers are not held while the device is busy
+			long start = System.nanoTime();
+			for (int i=0;i<10;i++)
+				executor.sendBeam(beam("B"+i));
+			assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(1));
+			assertEquals(0, executor.getQueueDepth());
+			device.release.countDown();
+			waitIdle(executor);
+			assertEquals("[A]", device.getBeams().toString());
+		}
+		finally {
+			executor.stop();
+		}
+	}
+
+	@Test
+	public void testOrderWhenIdle() throws Exception {
+		SlowBeamDevice device = new SlowBeamDevice();
+		device.release.countDown(); // never holds
+		BeamFireExecutor executor = new BeamFireExecutor(device);
+		executor.init();
+		try {
+			String[] shots = {"A","B","C"};
+			for (int i=0;i<shots.length;i++) {
+				executor.sendBeam(beam(shots[i]));
+				// Waits for this shot to reach the device before firing the next one
+				for (int j=0;j<500 && device.getBeams().size()<=i;j++)
+					Thread.sleep(10);
+				waitIdle(executor);
+			}
+			assertEquals("[A, B, C]", device.getBeams().toString());
+		}
+		finally {
+			executor.stop();
+		}
+	}
+
+	@Test
+	public void testShotRightAfterBurst() throws Exception {
+		SlowBeamDevice device = new SlowBeamDevice();
+		device.release.countDown(); // never holds
+		BeamFireExecutor executor = new BeamFireExecutor(device);
+		executor.init();
+		try {
+			final int shots = 2000;
+			for (int i=0;i<shots;i++) {
+				executor.sendBeam(beam("S"+i));
+				final long deadline = System.currentTimeMillis()+2000;
+				while (device.getBeams().size()<=i && System.currentTimeMillis()<deadline)
+					Thread.yield();
+				assertEquals(i+1, device.getBeams().size());
+				// Fires again as soon as the previous burst is over
+				while (executor.isTransmitting())
+					Thread.yield();
+			}
+			waitIdle(executor);
+			assertEquals(shots, device.getBeams().size());
+		}
+		finally {
+			executor.stop();
+		}
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		SlowBeamDevice device = new SlowBeamDevice();
+		BeamFireExecutor executor = new BeamFireExecutor(device);
+		try {
+			executor.sendBeam(beam("A"));
+			fail("Should not accept beams before init");
+		}
+		catch (Exception e) {
+			// expected
+		}
+		executor.init();
+		executor.sendBeam(beam("A"));
+		assertTrue(device.busy.await(2, TimeUnit.SECONDS));
+		// Stopping interrupts the transmission in progress
+		executor.stop();
+		waitIdle(executor);
+		try {
+			executor.sendBeam(beam("B"));
+			fail("Should not accept beams after stop");
+		}
+		catch (Exception e) {
+			// expected
+		}
+		assertEquals("[A]", device.getBeams().toString());
+	}
+
+	private static byte[] beam(String shot) {
+		return shot.getBytes();
+	}
+
+	private static void waitIdle(BeamFireExecutor executor) throws InterruptedException {
+		for (int i=0;i<500 && (executor.isTransmitting() || executor.getQueueDepth()>0);i++)
+			Thread.sleep(10);
+		assertFalse(executor.isTransmitting());
+		assertEquals(0, executor.getQueueDepth());
+	}
+
+	/**
+	 * Beam device that holds every transmission until released
+	 */
+	private static class SlowBeamDevice implements BeamDevice {
+		final CountDownLatch busy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final List<String> beams = new ArrayList<>();
+		synchronized List<String> getBeams() {
+			return new ArrayList<>(beams);
+		}
+		@Override
+		public void sendBeam(byte[] message) throws Exception {
+			synchronized (this) {
+				beams.add(new String(message));
+			}
+			busy.countDown();
+			release.await(5, TimeUnit.SECONDS);
+		}
+	}
+}
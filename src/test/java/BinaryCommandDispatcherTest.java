@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.guga.robotoy.rasp.commands.*;
+import org.guga.robotoy.rasp.controller.BinaryCommandDispatcher;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.junit.Test;
+
+/**
+ * Tests the registry of commands of the binary sub-protocol
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BinaryCommandDispatcherTest {
+
+	@Test
+	public void testRegistry() {
+		BinaryCommandDispatcher dispatcher = new BinaryCommandDispatcher(
+				new CmdPing(), new CmdSetMovement(), new CmdFire(), new CmdQueryStatus(), new CmdStop(), new CmdMoveForward());
+		assertTrue(dispatcher.find(RoboToyServerController.BIN_MOVEMENT) instanceof CmdSetMovement);
+		assertTrue(dispatcher.find(RoboToyServerController.BIN_FIRE) instanceof CmdFire);
+		assertTrue(dispatcher.find(RoboToyServerController.BIN_QUERY_STATUS) instanceof CmdQueryStatus);
+		assertTrue(dispatcher.find(RoboToyServerController.BIN_STOP) instanceof CmdStop);
+		assertNull(dispatcher.find((byte)0));
+		assertNull(dispatcher.find((byte)0xFF));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicateOpCode() {
+		new BinaryCommandDispatcher(new CmdStop(), new CmdStop());
+	}
+
+	@Test
+	public void testHeader() {
+		byte[] message = BinaryCommandDispatcher.encode(RoboToyServerController.BIN_MOVEMENT, 0xABCD, (byte)-128, (byte)127);
+		assertEquals(BinaryCommandDispatcher.HEADER_LENGTH+2, message.length);
+		ByteBuffer buffer = ByteBuffer.wrap(message);
+		assertEquals(RoboToyServerController.BIN_MOVEMENT, BinaryCommandDispatcher.getOpCode(buffer));
+		assertEquals(0xABCD, BinaryCommandDispatcher.getSequence(buffer));
+		assertEquals(0, buffer.position());
+		assertEquals(-128, buffer.get(BinaryCommandDispatcher.HEADER_LENGTH));
+		assertEquals(127, buffer.get(BinaryCommandDispatcher.HEADER_LENGTH+1));
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.LogicalConnection;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.WebSocketRemoteEndpoint;
+import org.eclipse.jetty.websocket.common.io.FrameFlusher;
+import org.eclipse.jetty.websocket.common.io.IOState;
+import org.guga.robotoy.rasp.network.BroadcastFrame;
+import org.guga.robotoy.rasp.network.WebSocketClientPool;
+import org.guga.robotoy.rasp.network.WebSocketHandlerImpl;
+import org.junit.Test;
+
+/**
+ * Tests broadcasting one encoded message to all sessions of WebSocketClientPool
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BroadcastFrameTest {
+
+	@Test
+	public void testEncode() {
+		String text = "{\"owner\":\"jo\u00e3o\"}";
+		BroadcastFrame frame = BroadcastFrame.encode(text);
+		byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+		assertEquals(text, frame.getText());
+		assertEquals(expected.length, frame.getLength());
+		// Each view is independent from the others
+		ByteBuffer view = frame.getPayload();
+		assertTrue(view.isReadOnly());
+		view.get(new byte[view.remaining()]);
+		assertEquals(expected.length, frame.getLength());
+		assertArrayEquals(expected, toArray(frame.getPayload()));
+	}
+
+	@Test
+	public void testBroadcastToOpenSessions() throws Exception {
+		WebSocketClientPool pool = new WebSocketClientPool((message,session)->null, (session)->{ }, (session)->{ });
+		FakeSession[] sessions = new FakeSession[4];
+		for (int i=0;i<sessions.length;i++) {
+			sessions[i] = new FakeSession("10.0.0."+(10+i), "/player"+i);
+			new WebSocketHandlerImpl(pool).onConnect(sessions[i].session);
+		}
+		// Closed, but not yet removed from pool
+		sessions[2].open = false;
+
+		BroadcastFrame frame = BroadcastFrame.encode("{\"updateping\":35}");
+		assertEquals(3, pool.broadcast(frame));
+
+		for (int i=0;i<sessions.length;i++) {
+			FakeSession s = sessions[i];
+			if (i==2) {
+				assertTrue(s.frames.isEmpty());
+				continue;
+			}
+			// One text frame carrying the encoded payload, followed by one flush
+			assertEquals(2, s.frames.size());
+			Frame text = s.frames.get(0);
+			assertEquals(OpCode.TEXT, text.getOpCode());
+			assertTrue(text.getPayload().isReadOnly());
+			assertArrayEquals(toArray(frame.getPayload()), toArray(text.getPayload()));
+			assertSame(FrameFlusher.FLUSH_FRAME, s.frames.get(1));
+		}
+		// The encoded payload was not consumed by recipients
+		assertEquals("{\"updateping\":35}".length(), frame.getLength());
+	}
+
+	@Test
+	public void testBroadcastExcludingPath() throws Exception {
+		WebSocketClientPool pool = new WebSocketClientPool((message,session)->null, (session)->{ }, (session)->{ });
+		FakeSession a = new FakeSession("10.0.0.10", "/player1");
+		FakeSession b = new FakeSession("10.0.0.11", "/player2");
+		new WebSocketHandlerImpl(pool).onConnect(a.session);
+		new WebSocketHandlerImpl(pool).onConnect(b.session);
+		assertEquals(1, pool.broadcast(BroadcastFrame.encode("x"), "/player1"));
+		assertTrue(a.frames.isEmpty());
+		assertEquals(2, b.frames.size());
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		ByteBuffer copy = buffer.duplicate();
+		byte[] bytes = new byte[copy.remaining()];
+		copy.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Jetty session that keeps every frame sent through it
+	 */
+	private static class FakeSession {
+		final List<Frame> frames = new ArrayList<>();
+		volatile boolean open = true;
+		final Session session;
+		FakeSession(String remoteAddress,String path) throws Exception {
+			InetSocketAddress remote = new InetSocketAddress(InetAddress.getByName(remoteAddress), 50000);
+			InetSocketAddress local = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 8089);
+			UpgradeRequest request = new UpgradeRequest(URI.create("ws://10.0.0.1:8089"+path));
+			IOState state = new IOState();
+			state.onConnected();
+			state.onOpened();
+			LogicalConnection connection = (LogicalConnection)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{LogicalConnection.class}, (proxy,method,args)->{
+					if (method.getName().equals("getIOState"))
+						return state;
+					if (method.getName().equals("isOpen"))
+						return open;
+					return null;
+				});
+			RemoteEndpoint endpoint = new WebSocketRemoteEndpoint(connection,
+				(frame,callback,batchMode)->frames.add(frame));
+			session = (Session)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{Session.class}, (proxy,method,args)->{
+					switch (method.getName()) {
+					case "getRemoteAddress": return remote;
+					case "getLocalAddress": return local;
+					case "getUpgradeRequest": return request;
+					case "getRemote": return endpoint;
+					case "isOpen": return open;
+					case "toString": return remoteAddress;
+					case "hashCode": return System.identityHashCode(proxy);
+					case "equals": return proxy==args[0];
+					default: return null;
+					}
+				});
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.guga.robotoy.rasp.commands.CmdQueryChanges;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.game.GamePlayer;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.network.WebSocketClientPool;
+import org.guga.robotoy.rasp.network.WebSocketHandlerImpl;
+import org.guga.robotoy.rasp.optics.LedColor;
+import org.junit.Test;
+
+/**
+ * Tests synchronization of players and robots between two robots through
+ * versioned deltas (CmdQueryChanges)
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class CmdQueryChangesTest {
+
+	@Test
+	public void testRediscoverRobot() throws Exception {
+		// Robot 'A' owned by Alice
+		RoboToyServerContext contextA = new RoboToyServerContext(new GameState());
+		GameRobot localA = GameRobot.newLocalRobot("A");
+		GamePlayer alice = new GamePlayer("Alice","10.0.0.10",0);
+		contextA.getGame().addRobot(localA);
+		contextA.getGame().addPlayer(alice);
+		localA.setOwner(alice);
+		localA.setColor(LedColor.RED);
+
+		// Robot 'B' finds robot 'A'
+		RoboToyServerContext contextB = new RoboToyServerContext(new GameState());
+		contextB.getGame().addRobot(GameRobot.newLocalRobot("B"));
+		GameRobot remoteA = GameRobot.newRobotWithAddress("A", InetAddress.getByName("10.0.0.1"));
+		contextB.getGame().addRobot(remoteA);
+		CmdQueryChanges.Changes changes = sync(contextA, contextB);
+		assertTrue(changes.isFull());
+		assertEquals(LedColor.RED, remoteA.getColor());
+		assertEquals("Alice", remoteA.getOwner().getName());
+
+		// Robot 'A' gets disconnected and 'B' drops it, then finds it again
+		contextB.getGame().removeRobot(remoteA);
+		remoteA = GameRobot.newRobotWithAddress("A", InetAddress.getByName("10.0.0.1"));
+		contextB.getGame().addRobot(remoteA);
+		assertNull(remoteA.getColor());
+		changes = sync(contextA, contextB);
+		assertFalse(changes.isFull());	// nothing else changed at 'A' ...
+		assertEquals(0, changes.getNumPlayers());
+		assertEquals(LedColor.RED, remoteA.getColor());	// ... but 'A' always tells about itself
+		assertEquals("Alice", remoteA.getOwner().getName());
+		assertSame(contextB.getGame().findPlayerWithName("alice"), remoteA.getOwner());
+	}
+
+	@Test
+	public void testRemovedPlayers() throws Exception {
+		RoboToyServerContext contextA = new RoboToyServerContext(new GameState());
+		contextA.getGame().addRobot(GameRobot.newLocalRobot("A"));
+		GamePlayer bob = new GamePlayer("Bob","10.0.0.11",0);
+		GamePlayer carol = new GamePlayer("Carol","10.0.0.12",0);
+		contextA.getGame().addPlayer(bob);
+		contextA.getGame().addPlayer(carol);
+
+		RoboToyServerContext contextB = new RoboToyServerContext(new GameState());
+		contextB.getGame().addRobot(GameRobot.newLocalRobot("B"));
+		contextB.getGame().addRobot(GameRobot.newRobotWithAddress("A", InetAddress.getByName("10.0.0.1")));
+		WebSocketClientPool pool = new WebSocketClientPool((message,session)->null, (session)->{ }, (session)->{ });
+		contextB.setWebSocketPool(pool);
+		sync(contextA, contextB);
+		assertNotNull(contextB.getGame().findPlayerWithName("Bob"));
+		assertNotNull(contextB.getGame().findPlayerWithName("Carol"));
+
+		// Both leave 'A', but Bob joins again through 'B' before 'B' syncs with 'A'
+		contextA.getGame().removePlayer(bob);
+		contextA.getGame().removePlayer(carol);
+		new WebSocketHandlerImpl(pool).onConnect(newSession("10.0.0.11", RoboToyServerContext.getWSPathWithPlayerName("Bob")));
+		CmdQueryChanges.Changes changes = sync(contextA, contextB);
+		assertFalse(changes.isFull());
+		assertEquals(2, changes.getNumRemovedPlayers());
+		assertNotNull(contextB.getGame().findPlayerWithName("Bob"));
+		assertNull(contextB.getGame().findPlayerWithName("Carol"));
+	}
+
+	/**
+	 * Robot 'to' asks robot 'from' for changes since the last version it got and
+	 * merges them. Returns the changes.
+	 */
+	private static CmdQueryChanges.Changes sync(RoboToyServerContext from,RoboToyServerContext to) {
+		String robotId = from.getGame().findLocalRobot().getIdentifier();
+		GameState.PeerVersion since = to.getGame().getPeerVersion(robotId);
+		String reply = CmdQueryChanges.run(from,
+				(since==null) ? 0 : since.getEpoch(),
+				(since==null) ? 0 : since.getVersion(), /*localAddr*/null);
+		CmdQueryChanges.Changes changes = CmdQueryChanges.parse(reply);
+		CmdQueryChanges.merge(to, changes);
+		assertEquals(from.getGame().getVersion(), to.getGame().getPeerVersion(robotId).getVersion());
+		return changes;
+	}
+
+	/**
+	 * Jetty session as if some client had connected through 'path'. Anything sent
+	 * through it is discarded.
+	 */
+	private static Session newSession(String remoteAddress,String path) throws Exception {
+		InetSocketAddress remote = new InetSocketAddress(InetAddress.getByName(remoteAddress), 50000);
+		InetSocketAddress local = new InetSocketAddress(InetAddress.getByName("10.0.0.2"), 8089);
+		UpgradeRequest request = new UpgradeRequest(URI.create("ws://10.0.0.2:8089"+path));
+		RemoteEndpoint endpoint = (RemoteEndpoint)Proxy.newProxyInstance(CmdQueryChangesTest.class.getClassLoader(),
+			new Class<?>[]{RemoteEndpoint.class}, (proxy,method,args)->null);
+		return (Session)Proxy.newProxyInstance(CmdQueryChangesTest.class.getClassLoader(),
+			new Class<?>[]{Session.class}, (proxy,method,args)->{
+				switch (method.getName()) {
+				case "getRemoteAddress": return remote;
+				case "getLocalAddress": return local;
+				case "getUpgradeRequest": return request;
+				case "getRemote": return endpoint;
+				case "isOpen": return true;
+				case "toString": return remoteAddress;
+				case "hashCode": return System.identityHashCode(proxy);
+				case "equals": return proxy==args[0];
+				default: return null;
+				}
+			});
+	}
+}
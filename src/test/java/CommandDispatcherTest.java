@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import org.guga.robotoy.rasp.commands.CmdFire;
+import org.guga.robotoy.rasp.commands.CmdPing;
+import org.guga.robotoy.rasp.commands.CmdQueryStatus;
+import org.guga.robotoy.rasp.commands.CmdSetMovement;
+import org.guga.robotoy.rasp.commands.Command;
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.controller.CommandDispatcher;
+import org.guga.robotoy.rasp.controller.RoboToyServerContext;
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.network.WebSocketActiveSession;
+
+public class CommandDispatcherTest {
+	
+	/**
+	 * Sample of messages as they are received from players and robots
+	 */
+	static final String[] SAMPLE_MESSAGES = {
+		"{\"movement\":{\"left\":0.5,\"right\":-0.25}}",
+		"?",
+		"p{\"ping\":1480000000000,\"count\":0}",
+		"{\"ping\":1480000000000,\"count\":1}",
+		" ",
+		"f", "b", "l", "r", "s", "1", "2", "3",
+		"P", "C", "R", "O", "G", "T", "L", "S", "K", "A",
+		"{\"greetings\":{\"name\":\"player\"}}",
+		"{\"updateping\":20,\"player\":{\"name\":\"player\",\"address\":\"10.0.0.2\"}}",
+		"{\"players\":[]}",
+		"{\"owner\":\"player\"}",
+		"{\"hit\":{\"source\":\"ROBOT1\",\"target\":\"ROBOT2\"}}",
+		"{\"changename\":{\"oldname\":\"a\",\"newname\":\"b\"}}",
+		"{\"newplayer\":{\"name\":\"player\"}}",
+		"{\"charging\":{}}",
+		"{\"playagain\":{}}",
+		"{\"playeroffline\":{}}",
+		"{\"playeronline\":{}}",
+		"{\"removeplayer\":{}}",
+		"{\"removerobot\":{}}",
+		"{\"loaded\":true}",
+		"{\"restartgame\":{}}",
+		"{\"setcolor\":\"RED\"}",
+		"{\"setready\":{}}",
+		"{\"startgame\":{}}",
+		"{\"stopgame\":{}}",
+		"{\"changeowner\":{}}",
+		// unknown or malformed messages
+		"{\"unknown\":{}}",
+		"{\"movement\" :{}}",
+		"{\"",
+		"{",
+		"x",
+		"ç",
+	};
+
+	@Test public void testSameCommandAsSequentialScan() {
+		CommandDispatcher dispatcher = new CommandDispatcher(RoboToyServerController.commands);
+		// Run twice so that we also check lookups after learning JSON keys
+		for (int round=0;round<2;round++) {
+			for (CommandIssuer issuer:CommandIssuer.values()) {
+				for (String message:SAMPLE_MESSAGES) {
+					assertSame(issuer+" "+message, dispatcher.scan(issuer, message), dispatcher.find(issuer, message));
+				}
+			}
+		}
+	}
+
+	@Test public void testHotCommands() {
+		CommandDispatcher dispatcher = new CommandDispatcher(RoboToyServerController.commands);
+		assertTrue(dispatcher.find(CommandIssuer.PLAYER, "{\"movement\":{\"left\":1,\"right\":1}}") instanceof CmdSetMovement);
+		assertTrue(dispatcher.find(CommandIssuer.PLAYER, "?") instanceof CmdQueryStatus);
+		assertTrue(dispatcher.find(CommandIssuer.PLAYER, "p{\"ping\":1,\"count\":0}") instanceof CmdPing);
+		assertTrue(dispatcher.find(CommandIssuer.PLAYER, " ") instanceof CmdFire);
+		assertNull(dispatcher.find(CommandIssuer.ROBOT, " "));
+		assertNull(dispatcher.find(CommandIssuer.ROBOT, "{\"movement\":{\"left\":1,\"right\":1}}"));
+		assertNull(dispatcher.find(CommandIssuer.PLAYER, ""));
+	}
+
+	@Test public void testJSONKey() {
+		assertEquals("movement", CommandDispatcher.getJSONKey("{\"movement\":{}}"));
+		assertEquals("", CommandDispatcher.getJSONKey("{\"\":1}"));
+		assertNull(CommandDispatcher.getJSONKey("{\"movement"));
+		assertNull(CommandDispatcher.getJSONKey("{}"));
+		assertNull(CommandDispatcher.getJSONKey("?"));
+	}
+
+	@Test public void testIndexedKeysAreBounded() {
+		// A command that acknowledges any JSON message, whatever its key
+		Command anyJSON = new Command() {
+			@Override
+			public boolean isParseable(CommandIssuer issuer, String message) {
+				return message.startsWith("{");
+			}
+			@Override
+			public Object parseMessage(CommandIssuer issuer, RoboToyServerContext context, String message,
+					WebSocketActiveSession session) {
+				return null;
+			}
+			@Override
+			public String getHelp() {
+				return null;
+			}
+		};
+		CommandDispatcher dispatcher = new CommandDispatcher(anyJSON);
+		for (int i=0;i<CommandDispatcher.MAX_INDEXED_KEYS*4;i++) {
+			assertSame(anyJSON, dispatcher.find(CommandIssuer.PLAYER, "{\"key"+i+"\":{}}"));
+		}
+		assertEquals(CommandDispatcher.MAX_INDEXED_KEYS, dispatcher.getIndexedKeysCount(CommandIssuer.PLAYER));
+		assertEquals(0, dispatcher.getIndexedKeysCount(CommandIssuer.ROBOT));
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.commands.CmdPing;
+import org.guga.robotoy.rasp.commands.CmdStop;
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.controller.CommandMetrics;
+import org.guga.robotoy.rasp.statistics.MetricsRegistry;
+import org.junit.Test;
+
+/**
+ * Tests per-command and per-phase timing
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class CommandMetricsTest {
+	
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testPhases() {
+		MetricsRegistry registry = new MetricsRegistry();
+		CommandMetrics metrics = new CommandMetrics(registry);
+		metrics.setSlowCommandThreshold(20);
+		metrics.add(CmdStop.class, CommandIssuer.PLAYER, 1*MS, 1*MS, 1*MS, 3*MS, 1*MS, 10);
+		metrics.add(CmdStop.class, CommandIssuer.PLAYER, 1*MS, 2*MS, 14*MS, 3*MS, 1*MS, 12);
+		metrics.add(CmdPing.class, CommandIssuer.ROBOT, 0, 0, 1*MS, 0, 0, 5);
+
+		assertEquals(2, metrics.getHistogram(CmdStop.class, CommandIssuer.PLAYER).getCount());
+		assertEquals(0, metrics.getHistogram(CmdStop.class, CommandIssuer.ROBOT).getCount());
+		assertEquals(15, metrics.getHistogram(CmdStop.class, CommandIssuer.PLAYER, CommandMetrics.Phase.EXECUTE).snapshot().getSum(), 1e-9);
+		assertSame(metrics.getHistogram(CmdPing.class, CommandIssuer.ROBOT, CommandMetrics.Phase.REPLY),
+				registry.histogram(CommandMetrics.COMMAND_PHASE_MS, "command", "CmdPing", "issuer", "robot", "phase", "reply"));
+
+		List<CommandMetrics.CommandSummary> summary = metrics.getSummary();
+		assertEquals(2, summary.size());
+		assertEquals("CmdStop", summary.get(0).command);	// slowest first
+		assertEquals(CommandIssuer.PLAYER, summary.get(0).issuer);
+		assertEquals(2, summary.get(0).total_ms.count);
+		assertEquals(5, summary.get(0).phases_ms.size());
+		assertEquals(2, summary.get(0).phases_ms.get("lookup").count);
+
+		List<CommandMetrics.SlowCommand> slow = metrics.getSlowCommands();
+		assertEquals(1, slow.size());
+		assertEquals("CmdStop", slow.get(0).getCommand());
+		assertEquals(12, slow.get(0).getPayloadSize());
+		assertEquals(21, slow.get(0).getTotalMs(), 1e-9);
+		assertEquals(1, slow.get(0).getLookupMs(), 1e-9);
+		assertEquals(2, slow.get(0).getParseMs(), 1e-9);
+		assertEquals(14, slow.get(0).getExecuteMs(), 1e-9);
+
+		metrics.setSlowCommandThreshold(0);
+		for (int i=0;i<CommandMetrics.MAX_SLOW_COMMANDS*2;i++)
+			metrics.add(CmdStop.class, CommandIssuer.PLAYER, 0, 0, 100*MS, 0, 0, 1);
+		assertEquals(1, metrics.getSlowCommands().size());
+		metrics.setSlowCommandThreshold(1);
+		for (int i=0;i<CommandMetrics.MAX_SLOW_COMMANDS*2;i++)
+			metrics.add(CmdStop.class, CommandIssuer.PLAYER, 0, 0, 100*MS, 0, 0, 1);
+		assertEquals(CommandMetrics.MAX_SLOW_COMMANDS, metrics.getSlowCommands().size());
+	}
+}
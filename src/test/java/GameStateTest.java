@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+
+import org.guga.robotoy.rasp.game.GameCardRecharger;
+import org.guga.robotoy.rasp.game.GameDelta;
+import org.guga.robotoy.rasp.game.GamePlayer;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameSnapshot;
+import org.guga.robotoy.rasp.game.GameState;
+import org.junit.Test;
+
+/**
+ * Tests the indexes kept by GameState
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class GameStateTest {
+
+	@Test
+	public void testPlayerIndexes() throws Exception {
+		GameState game = new GameState();
+		GamePlayer alice = new GamePlayer("Alice","10.0.0.2",5000);
+		alice.setHttpSession("SESSION1");
+		GamePlayer bob = new GamePlayer("Bob","10.0.0.3",0);
+		game.addPlayer(alice);
+		game.addPlayer(bob);
+
+		assertSame(alice, game.findPlayerWithName("ALICE"));
+		assertSame(alice, game.findPlayerWithAddress("10.0.0.2"));
+		assertSame(alice, game.findPlayerWithAddress("10.0.0.2", 5000));
+		assertNull(game.findPlayerWithAddress("10.0.0.2", 6000));
+		assertSame(bob, game.findPlayerWithAddress("10.0.0.3", 6000));
+		assertSame(alice, game.findPlayerWithSessionId("session1"));
+		assertNull(game.findPlayerWithAddress("10.0.0.9"));
+
+		// rename
+		alice.setName("Carol");
+		assertNull(game.findPlayerWithName("alice"));
+		assertSame(alice, game.findPlayerWithName("carol"));
+
+		// change of address and session
+		alice.setAddress(InetAddress.getByName("10.0.0.4"));
+		alice.setHttpSession("SESSION2");
+		assertNull(game.findPlayerWithAddress("10.0.0.2"));
+		assertSame(alice, game.findPlayerWithAddress("10.0.0.4"));
+		assertNull(game.findPlayerWithSessionId("SESSION1"));
+		assertSame(alice, game.findPlayerWithSessionId("SESSION2"));
+
+		// removal
+		game.removePlayer(alice);
+		assertNull(game.findPlayerWithName("carol"));
+		assertNull(game.findPlayerWithAddress("10.0.0.4"));
+		assertNull(game.findPlayerWithSessionId("SESSION2"));
+		assertEquals(1, game.getPlayers().size());
+
+		// changes after removal are not indexed
+		alice.setName("Bob");
+		assertSame(bob, game.findPlayerWithName("bob"));
+
+		game.removeAllPlayers();
+		assertNull(game.findPlayerWithName("bob"));
+		assertTrue(game.getPlayers().isEmpty());
+	}
+
+	@Test
+	public void testDuplicateNames() {
+		GameState game = new GameState();
+		GamePlayer first = new GamePlayer("Same",null,0);
+		GamePlayer second = new GamePlayer("same",null,0);
+		game.addPlayer(first);
+		game.addPlayer(second);
+		assertSame(first, game.findPlayerWithName("SAME"));
+		first.setName("Other");
+		assertSame(second, game.findPlayerWithName("SAME"));
+		assertSame(first, game.findPlayerWithName("other"));
+	}
+
+	@Test
+	public void testRobotIndexes() throws Exception {
+		GameState game = new GameState();
+		GameRobot local = GameRobot.newLocalRobot("LOCAL");
+		GameRobot remote = GameRobot.newRobotWithAddress("REMOTE", InetAddress.getByName("10.0.0.10"));
+		GamePlayer alice = new GamePlayer("Alice",null,0);
+		game.addPlayer(alice);
+		game.addRobot(local);
+		game.addRobot(remote);
+
+		assertSame(local, game.findLocalRobot());
+		assertSame(local, game.findRobotWithAddress(null));
+		assertSame(remote, game.findRobotWithAddress("10.0.0.10"));
+		assertSame(remote, game.findRobotWithIdentifier("REMOTE"));
+		assertTrue(game.hasOtherRobots());
+
+		// ownership
+		assertNull(game.findRobotWithOwnerName("alice"));
+		local.setOwner(alice);
+		assertSame(local, game.findRobotWithOwnerName("ALICE"));
+		assertTrue(game.isOwnerThisRobot("alice"));
+		alice.setName("Carol");
+		assertNull(game.findRobotWithOwnerName("alice"));
+		assertSame(local, game.findRobotWithOwnerName("carol"));
+		local.setOwner(null);
+		remote.setOwner(alice);
+		assertSame(remote, game.findRobotWithOwnerName("carol"));
+
+		// owner not included in game state
+		GamePlayer dave = new GamePlayer("Dave",null,0);
+		local.setOwner(dave);
+		assertSame(local, game.findRobotWithOwnerName("dave"));
+		dave.setName("David");
+		assertSame(local, game.findRobotWithOwnerName("david"));
+		assertNull(game.findRobotWithOwnerName("dave"));
+
+		// identifier
+		remote.setIdentifier("REMOTE2");
+		assertNull(game.findRobotWithIdentifier("REMOTE"));
+		assertSame(remote, game.findRobotWithIdentifier("REMOTE2"));
+
+		// short identifiers
+		local.setShortId((byte)1);
+		remote.setShortId((byte)2);
+		assertSame(local, game.findRobotWithShortId((byte)1));
+		assertSame(remote, game.findRobotWithShortId((byte)2));
+		local.setShortId((byte)2);	// temporarily duplicated
+		remote.setShortId((byte)1);
+		assertSame(local, game.findRobotWithShortId((byte)2));
+		assertSame(remote, game.findRobotWithShortId((byte)1));
+		assertNull(game.findRobotWithShortId((byte)3));
+
+		// removal
+		game.removeAllRobotsExceptItself();
+		assertNull(game.findRobotWithIdentifier("REMOTE2"));
+		assertNull(game.findRobotWithShortId((byte)1));
+		assertNull(game.findRobotWithOwnerName("carol"));
+		assertFalse(game.hasOtherRobots());
+		assertSame(local, game.findLocalRobot());
+		game.removeRobot(local);
+		assertNull(game.findLocalRobot());
+		assertNull(game.findRobotWithShortId((byte)2));
+		assertTrue(game.getRobots().isEmpty());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		GameState game = new GameState();
+		GamePlayer alice = new GamePlayer("Alice","10.0.0.2",0);
+		GameRobot local = GameRobot.newLocalRobot("LOCAL");
+		game.addPlayer(alice);
+		game.addRobot(local);
+		local.setOwner(alice);
+
+		GameSnapshot first = game.snapshot();
+		assertSame(first, game.snapshot());	// nothing changed
+		assertEquals(game.getVersion(), first.getVersion());
+		assertEquals(1, first.getPlayers().size());
+		GameRobot localCopy = first.findLocalRobot();
+		assertNotSame(local, localCopy);
+		assertEquals("LOCAL", localCopy.getIdentifier());
+		assertSame(first.getPlayers().get(0), localCopy.getOwner());
+		assertSame(localCopy, first.findRobotWithOwnerName("alice"));
+
+		local.decreaseLife(1);
+		alice.setPing(100);
+		GameSnapshot second = game.snapshot();
+		assertNotSame(first, second);
+		assertTrue(second.getVersion()>first.getVersion());
+		assertEquals(0, localCopy.getLife());	// previous snapshot unchanged
+		assertEquals(-1, second.findLocalRobot().getLife());
+		assertEquals(100, second.findPlayerWithName("ALICE").getPing());
+
+		// changes to copies do not reach game state
+		second.findLocalRobot().setLife(5);
+		assertEquals(-1, local.getLife());
+		assertSame(second, game.snapshot());
+
+		game.removePlayer(alice);
+		GameSnapshot third = game.snapshot();
+		assertTrue(third.getPlayers().isEmpty());
+		assertEquals("Alice", third.findLocalRobot().getOwner().getName());	// owner is still copied
+	}
+
+	@Test
+	public void testSnapshotPingRefresh() throws Exception {
+		GameState game = new GameState();
+		GamePlayer alice = new GamePlayer("Alice","10.0.0.2",0);
+		game.addPlayer(alice);
+		game.setSnapshotPingRefresh(50);
+
+		GameSnapshot first = game.snapshot();
+		long version = game.getVersion();
+		alice.setPing(100);
+		assertEquals(version, game.getVersion());	// ping does not change version
+		assertSame(first, game.snapshot());	// ping is refreshed later
+		assertEquals(0, first.findPlayerWithName("alice").getPing());
+
+		Thread.sleep(100);
+		GameSnapshot second = game.snapshot();
+		assertNotSame(first, second);
+		assertEquals(first.getVersion(), second.getVersion());
+		assertEquals(100, second.findPlayerWithName("alice").getPing());
+		assertSame(second, game.snapshot());	// no more ping updates
+
+		// other changes are seen right away, together with any ping
+		alice.setPing(200);
+		alice.setOnline(false);
+		GameSnapshot third = game.snapshot();
+		assertNotSame(second, third);
+		assertEquals(200, third.findPlayerWithName("alice").getPing());
+	}
+
+	@Test
+	public void testChangesSince() throws Exception {
+		GameState game = new GameState();
+		GamePlayer alice = new GamePlayer("Alice","10.0.0.2",0);
+		GamePlayer bob = new GamePlayer("Bob","10.0.0.3",0);
+		GameRobot local = GameRobot.newLocalRobot("LOCAL");
+		game.addPlayer(alice);
+		game.addPlayer(bob);
+		game.addRobot(local);
+		final long epoch = game.getEpoch();
+
+		// first query gets everything
+		GameDelta all = game.changesSince(0, 0);
+		assertTrue(all.isFull());
+		assertEquals(epoch, all.getEpoch());
+		assertEquals(2, all.getPlayers().size());
+		assertEquals(1, all.getRobots().size());
+		long v1 = all.getVersion();
+
+		// changes not shared with other robots
+		alice.setPing(50);
+		GameDelta delta = game.changesSince(epoch, v1);
+		assertFalse(delta.isFull());
+		assertTrue(delta.getPlayers().isEmpty());
+		assertTrue(delta.getRobots().isEmpty());
+
+		// rename, online status and ownership
+		bob.setOnline(false);
+		alice.setName("Carol");
+		local.setOwner(alice);
+		delta = game.changesSince(epoch, v1);
+		assertFalse(delta.isFull());
+		assertEquals(2, delta.getPlayers().size());
+		assertTrue(delta.getPlayers().contains(alice));
+		assertTrue(delta.getPlayers().contains(bob));
+		assertEquals(1, delta.getRemovedPlayers().size());
+		assertEquals("alice", delta.getRemovedPlayers().get(0));
+		assertEquals(1, delta.getRobots().size());
+		long v2 = delta.getVersion();
+		assertTrue(game.changesSince(epoch, v2).getPlayers().isEmpty());
+
+		// removals
+		game.removePlayer(bob);
+		game.removeRobot(local);
+		delta = game.changesSince(epoch, v2);
+		assertTrue(delta.getPlayers().isEmpty());
+		assertEquals(1, delta.getRemovedPlayers().size());
+		assertEquals("bob", delta.getRemovedPlayers().get(0));
+		assertEquals(1, delta.getRemovedRobots().size());
+		assertEquals("LOCAL", delta.getRemovedRobots().get(0));
+		long v3 = delta.getVersion();
+
+		// the change log gets truncated
+		game.addRobot(local);
+		for (int i=0;i<GameState.CHANGE_LOG_CAPACITY;i++)
+			local.setLife(i);
+		assertTrue(game.changesSince(epoch, v3).isFull());
+		delta = game.changesSince(epoch, game.getVersion()-1);
+		assertFalse(delta.isFull());
+		assertEquals(1, delta.getRobots().size());
+
+		// another epoch (e.g. game state restarted)
+		assertTrue(game.changesSince(epoch+1, game.getVersion()).isFull());
+
+		// versions got from other robots
+		assertNull(game.getPeerVersion("OTHER"));
+		game.setPeerVersion("OTHER", 1234L, 10L);
+		assertEquals(1234L, game.getPeerVersion("OTHER").getEpoch());
+		assertEquals(10L, game.getPeerVersion("OTHER").getVersion());
+	}
+
+	@Test
+	public void testCards() {
+		GameState game = new GameState();
+		GameCardRecharger card = new GameCardRecharger();
+		card.setId("CARD1");
+		game.addCard(card);
+		assertSame(card, game.findCardWithId("CARD1"));
+		assertNull(game.findCardWithId("CARD2"));
+		game.removeCard(card);
+		assertNull(game.findCardWithId("CARD1"));
+	}
+}
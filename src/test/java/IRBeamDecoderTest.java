@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.guga.robotoy.rasp.optics.IRBeamDecoder;
+import org.guga.robotoy.rasp.optics.IRBeamEncoder;
+import org.guga.robotoy.rasp.optics.IRReceive;
+import org.junit.Test;
+
+/**
+ * Compares the table-driven IRBeamDecoder with the previous implementation over
+ * a corpus of synthetic pulse trains
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class IRBeamDecoderTest {
+
+	@Test
+	public void testRoundTrip() {
+		IRBeamEncoder encoder = new IRBeamEncoder();
+		encoder.setChecksum(false);
+		IRBeamDecoder decoder = IRBeamDecoder.forEncoder(encoder);
+		int[] signal = encoder.getEncodedSignal(new byte[]{ 0x12, (byte)0xA5 });
+		assertArrayEquals(new byte[]{ 0x12, (byte)0xA5 }, decoder.getMessage(signal, signal.length));
+		byte[] message = new byte[decoder.getMaxMessageSize(signal.length)];
+		assertEquals(2, decoder.decode(signal, signal.length, message));
+		assertEquals(0x12, message[0]);
+		assertEquals((byte)0xA5, message[1]);
+		assertNull(decoder.getMessage(signal, 5));
+		assertEquals(0, decoder.decode(signal, 5, message));
+	}
+
+	@Test
+	public void testCorpus() {
+		for (IRBeamDecoder decoder:getDecoders()) {
+			for (int[] signal:getCorpus(decoder)) {
+				for (int size:new int[]{ signal.length, signal.length-1, signal.length/2 }) {
+					if (size<=0)
+						continue;
+					byte[] expected = legacyGetMessage(decoder, signal, size);
+					byte[] actual = decoder.getMessage(signal, size);
+					assertArrayEquals(Arrays.toString(signal)+" size "+size, expected, actual);
+					// signal inside a bigger capture buffer (as in IRReceive)
+					int[] capture = Arrays.copyOf(signal, IRReceive.MAX_PULSES);
+					byte[] buffer = new byte[decoder.getMaxMessageSize(IRReceive.MAX_PULSES)];
+					int length = decoder.decode(capture, size, buffer);
+					expected = legacyGetMessage(decoder, capture, size);
+					assertArrayEquals((expected==null) ? new byte[0] : expected, Arrays.copyOf(buffer, length));
+				}
+			}
+		}
+	}
+
+	private static List<IRBeamDecoder> getDecoders() {
+		List<IRBeamDecoder> decoders = new ArrayList<>();
+		// Same configuration as RoboToyWeaponary
+		IRBeamEncoder encoder = new IRBeamEncoder();
+		encoder.setChecksum(true);
+		encoder.setBitsPerByte(4);
+		IRBeamDecoder decoder = IRBeamDecoder.forEncoder(encoder);
+		decoder.setBitsPerByte(8);
+		decoder.setChecksum(false);
+		decoders.add(decoder);
+		// Encoder defaults
+		decoders.add(IRBeamDecoder.forEncoder(new IRBeamEncoder()));
+		// Different tolerances
+		for (float tolerance:new float[]{ 0.1f, 0.25f, 0.33f, 0.9f, 1.2f }) {
+			decoder = IRBeamDecoder.forEncoder(encoder);
+			decoder.setBitsPerByte(8);
+			decoder.setTolerance(tolerance);
+			decoders.add(decoder);
+		}
+		// Distinct 'on' pulses for bit 0 and bit 1
+		decoder = IRBeamDecoder.forEncoder(new IRBeamEncoder());
+		decoder.setBit0OnPulse(600);
+		decoder.setBit1OnPulse(1200);
+		decoders.add(decoder);
+		return decoders;
+	}
+
+	private static List<int[]> getCorpus(IRBeamDecoder decoder) {
+		List<int[]> corpus = new ArrayList<>();
+		IRBeamEncoder encoder = new IRBeamEncoder();
+		encoder.setHeaderOnPulse(decoder.getHeaderOnPulse());
+		encoder.setHeaderOffPulse(decoder.getHeaderOffPulse());
+		encoder.setBit0OnPulse(decoder.getBit0OnPulse());
+		encoder.setBit0OffPulse(decoder.getBit0OffPulse());
+		encoder.setBit1OnPulse(decoder.getBit1OnPulse());
+		encoder.setBit1OffPulse(decoder.getBit1OffPulse());
+		encoder.setBitsPerByte(4);
+		encoder.setChecksum(true);
+		Random random = new Random(20161017L);
+		// Bursts like those transmitted by 'IRSend' (16 repetitions of the same signal)
+		for (int code=0;code<16;code++) {
+			int[] one = encoder.getEncodedSignal(new byte[]{ (byte)code });
+			int[] burst = new int[one.length*16];
+			for (int r=0;r<16;r++) {
+				System.arraycopy(one, 0, burst, r*one.length, one.length);
+				burst[r*one.length+one.length-1] = encoder.getHeaderOffPulse(); // delay between repeats
+			}
+			corpus.add(burst);
+			corpus.add(jitter(burst, random, 0.2));
+			corpus.add(jitter(burst, random, 0.5));
+		}
+		// Random messages with jitter, noise, missing pulses and split pulses
+		for (int n=0;n<2000;n++) {
+			byte[] msg = new byte[1+random.nextInt(IRBeamEncoder.MAX_SIGNAL_DATA_BYTES)];
+			random.nextBytes(msg);
+			encoder.setBitsPerByte(1+random.nextInt(8));
+			encoder.setChecksum(random.nextBoolean());
+			int[] signal = jitter(encoder.getEncodedSignal(msg), random, random.nextDouble());
+			switch (random.nextInt(5)) {
+			case 0: // leading noise
+				signal = concat(noise(random, 1+random.nextInt(7)), signal);
+				break;
+			case 1: // missing pulse
+				signal = remove(signal, random.nextInt(signal.length));
+				break;
+			case 2: // spurious pulse
+				signal = concat(concat(Arrays.copyOf(signal, signal.length/2), noise(random, 1)),
+						Arrays.copyOfRange(signal, signal.length/2, signal.length));
+				break;
+			case 3: // repeated
+				signal = concat(signal, signal);
+				break;
+			default:
+			}
+			corpus.add(signal);
+		}
+		// Random garbage
+		for (int n=0;n<200;n++) {
+			corpus.add(noise(random, 20+random.nextInt(200)));
+		}
+		// Pulses near the boundaries of each acceptance window
+		int[] expected = { decoder.getHeaderOnPulse(), decoder.getHeaderOffPulse(), decoder.getBit0OnPulse(),
+				decoder.getBit0OffPulse(), decoder.getBit1OnPulse(), decoder.getBit1OffPulse() };
+		for (int e:expected) {
+			int[] signal = encoder.getEncodedSignal(new byte[]{ 0x5A });
+			for (double factor:new double[]{ 1.0/(1.0+decoder.getTolerance()), 1.0/Math.max(0.01, 1.0-decoder.getTolerance()) }) {
+				int center = (int)(e*factor);
+				for (int d=-3;d<=3;d++) {
+					for (int pos=0;pos<signal.length;pos++) {
+						if (signal[pos]!=e)
+							continue;
+						int[] copy = signal.clone();
+						copy[pos] = Math.max(0, center+d);
+						corpus.add(copy);
+					}
+				}
+			}
+		}
+		return corpus;
+	}
+
+	private static int[] jitter(int[] signal,Random random,double amount) {
+		int[] copy = new int[signal.length];
+		for (int i=0;i<signal.length;i++) {
+			copy[i] = Math.max(0, (int)(signal[i] * (1.0 + (random.nextDouble()*2-1)*amount)));
+		}
+		return copy;
+	}
+
+	private static int[] noise(Random random,int length) {
+		int[] noise = new int[length];
+		for (int i=0;i<length;i++)
+			noise[i] = random.nextInt(12000);
+		return noise;
+	}
+
+	private static int[] concat(int[] a,int[] b) {
+		int[] c = Arrays.copyOf(a, a.length+b.length);
+		System.arraycopy(b, 0, c, a.length, b.length);
+		return c;
+	}
+
+	private static int[] remove(int[] a,int index) {
+		int[] c = new int[a.length-1];
+		System.arraycopy(a, 0, c, 0, index);
+		System.arraycopy(a, index+1, c, index, a.length-index-1);
+		return c;
+	}
+
+	/**
+	 * Previous implementation of 'IRBeamDecoder.getMessage' (kept here as reference)
+	 */
+	private static byte[] legacyGetMessage(IRBeamDecoder decoder,int[] pulses,int size) {
+		final int headerOnPulse = decoder.getHeaderOnPulse();
+		final int headerOffPulse = decoder.getHeaderOffPulse();
+		final int bit1OnPulse = decoder.getBit1OnPulse();
+		final int bit1OffPulse = decoder.getBit1OffPulse();
+		final int bit0OnPulse = decoder.getBit0OnPulse();
+		final int bit0OffPulse = decoder.getBit0OffPulse();
+		final int bitsPerByte = decoder.getBitsPerByte();
+		final float tolerance = decoder.getTolerance();
+		if (pulses==null || size==0)
+			return null;
+		if (size<decoder.getMinSignalSize())
+			return null;
+		int stage = 0; // NONE, HEADER, SIGNAL
+		int estimated_size_bytes = (pulses.length-3)/(2*bitsPerByte) + 1;
+		int actual_size_bytes = 0;
+		int bit_order = 0;
+		byte[] buffer = new byte[estimated_size_bytes];
+		int bit_type = -1;
+		for (int i=0;i<size;i++) {
+			int pulse = pulses[i];
+			int pulse_more = (int)(pulse + pulse * tolerance);
+			int pulse_less = (int)(pulse - pulse * tolerance);
+			boolean is_on = ((i%2)==0);
+			switch (stage) {
+			case 0:
+				if (is_on && headerOnPulse>=pulse_less && headerOnPulse<=pulse_more) {
+					stage = 1;
+				}
+				break;
+			case 1:
+				if (!is_on && headerOffPulse>=pulse_less && headerOffPulse<=pulse_more) {
+					stage = 2;
+				}
+				else {
+					stage = 0;
+				}
+				break;
+			case 2:
+				if (is_on
+					&& i+1<size) {
+					boolean maybe_bit1 = (bit1OnPulse>=pulse_less && bit1OnPulse<=pulse_more);
+					boolean maybe_bit0 = (bit0OnPulse>=pulse_less && bit0OnPulse<=pulse_more);
+					if (maybe_bit1 || maybe_bit0) {
+						if (!maybe_bit1)
+							bit_type = 0;
+						else if (!maybe_bit0)
+							bit_type = 1;
+						else
+							bit_type = -1;
+					}
+					else {
+						stage = 0;
+						bit_order = 0;
+						bit_type = -1;
+						buffer[actual_size_bytes] = 0;
+						i--;
+					}
+				}
+				else if (!is_on) {
+					if (bit_type!=0 && bit1OffPulse>=pulse_less && bit1OffPulse<=pulse_more) {
+						byte b = (byte) (1 << bit_order);
+						buffer[actual_size_bytes] |= b;
+						bit_order++;
+						if (bit_order==bitsPerByte) {
+							bit_order = 0;
+							actual_size_bytes++;
+						}
+						bit_type = -1;
+					}
+					else if (bit_type!=1 && bit0OffPulse>=pulse_less && bit0OffPulse<=pulse_more) {
+						bit_order++;
+						if (bit_order==bitsPerByte) {
+							bit_order = 0;
+							actual_size_bytes++;
+						}
+						bit_type = -1;
+					}
+					else {
+						stage = 0;
+						bit_order = 0;
+						bit_type = -1;
+						buffer[actual_size_bytes] = 0;
+						i--;
+					}
+				}
+				else {
+					stage = 0;
+					bit_order = 0;
+					bit_type = -1;
+					buffer[actual_size_bytes] = 0;
+					i--;
+				}
+				break;
+			default:
+			}
+		}
+		if (actual_size_bytes==0)
+			return new byte[0];
+		else
+			return Arrays.copyOf(buffer, actual_size_bytes);
+	}
+}
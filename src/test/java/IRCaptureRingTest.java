@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import org.guga.robotoy.rasp.optics.IRCaptureRing;
+import org.junit.Test;
+
+import com.pi4j.io.gpio.PinState;
+
+/**
+ * Tests the single-producer/single-consumer ring of captured IR signals
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class IRCaptureRingTest {
+
+	@Test
+	public void testDropWhenFull() {
+		IRCaptureRing ring = new IRCaptureRing(3, 10);
+		assertEquals(4, ring.getCapacity());
+		for (int i=0;i<4;i++) {
+			IRCaptureRing.Frame frame = ring.claim();
+			assertNotNull(frame);
+			frame.getPulses()[0] = i;
+			frame.setSize(1);
+			frame.setStartPinLevel(PinState.LOW);
+			ring.publish();
+		}
+		assertNull(ring.claim());
+		assertNull(ring.claim());
+		assertEquals(2, ring.getDroppedFrames());
+		assertEquals(4, ring.size());
+		for (int i=0;i<4;i++) {
+			IRCaptureRing.Frame frame = ring.peek();
+			assertEquals(i, frame.getPulses()[0]);
+			ring.release();
+		}
+		assertNull(ring.peek());
+		assertEquals(0, ring.size());
+		assertNotNull(ring.claim());
+	}
+
+	@Test
+	public void testConcurrentProducerConsumer() throws Exception {
+		final int total = 20_000;
+		IRCaptureRing ring = new IRCaptureRing(8, 4);
+		Thread producer = new Thread(()->{
+			for (int i=0;i<total;) {
+				IRCaptureRing.Frame frame = ring.claim();
+				if (frame==null) {
+					Thread.yield();
+					continue;
+				}
+				int[] pulses = frame.getPulses();
+				pulses[0] = i;
+				pulses[1] = ~i;
+				frame.setSize(2);
+				ring.publish();
+				i++;
+			}
+		});
+		producer.setDaemon(true);
+		producer.start();
+		int expected = 0;
+		long deadline = System.currentTimeMillis()+20_000;
+		while (expected<total && System.currentTimeMillis()<deadline) {
+			IRCaptureRing.Frame frame = ring.peek();
+			if (frame==null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(2, frame.getSize());
+			assertEquals(expected, frame.getPulses()[0]);
+			assertEquals(~expected, frame.getPulses()[1]);
+			ring.release();
+			expected++;
+		}
+		assertEquals(total, expected);
+		producer.join();
+		assertNull(ring.peek());
+	}
+}
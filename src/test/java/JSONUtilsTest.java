@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.guga.robotoy.rasp.commands.CmdHit.Hit;
+import org.guga.robotoy.rasp.commands.CmdPing.PingMessage;
+import org.guga.robotoy.rasp.commands.CmdPing.UpdatePing;
+import org.guga.robotoy.rasp.commands.CmdSetMovement;
+import org.guga.robotoy.rasp.commands.CmdSetMovement.Factors;
+import org.guga.robotoy.rasp.commands.PlayerSummary;
+import org.guga.robotoy.rasp.commands.ProtocolTypeAdapters;
+import org.guga.robotoy.rasp.commands.RobotSummary;
+import org.guga.robotoy.rasp.utils.JSONUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+
+/**
+ * Checks that the type adapters registered in JSONUtils produce the same
+ * JSON contents as Gson would produce through reflection.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class JSONUtilsTest {
+
+	private final Gson reflective = new Gson();
+
+	@BeforeClass
+	public static void setUpClass() {
+		ProtocolTypeAdapters.install();
+	}
+
+	@Test
+	public void testFactors() {
+		Factors f = CmdSetMovement.parse("{\"movement\":{\"left\":0.5,\"right\":-1,\"extra\":[1,2]}}");
+		assertEquals(0.5, f.getLeft(), 0.0);
+		assertEquals(-1.0, f.getRight(), 0.0);
+		assertSameJSON(f);
+	}
+
+	@Test
+	public void testPing() {
+		PingMessage ping = JSONUtils.fromJSON("{\"ping\":1480000000000,\"count\":2}", PingMessage.class);
+		assertEquals(1480000000000L, ping.getPing());
+		assertEquals(2, ping.getCount());
+		assertSameJSON(ping);
+
+		UpdatePing update = new UpdatePing();
+		update.setUpdateping(35);
+		assertSameJSON(update);
+		update.setPlayer(newPlayer());
+		assertSameJSON(update);
+		UpdatePing parsed = JSONUtils.fromJSON(JSONUtils.toJSON(update, false), UpdatePing.class);
+		assertEquals(35, parsed.getUpdateping());
+		assertEquals("Zé <1>", parsed.getPlayer().getName());
+	}
+
+	@Test
+	public void testSummaries() {
+		RobotSummary robot = new RobotSummary();
+		robot.setLife(3);
+		assertSameJSON(robot);
+		robot = newRobot();
+		assertSameJSON(robot);
+		assertSameJSON(newPlayer());
+		RobotSummary parsed = JSONUtils.fromJSON(new StringReader("{\"address\":null,\"id\":\"R1\",\"life\":\"2\"}"), RobotSummary.class);
+		assertNull(parsed.getAddress());
+		assertEquals("R1", parsed.getId());
+		assertEquals(2, parsed.getLife());
+	}
+
+	@Test
+	public void testHit() {
+		Hit hit = new Hit();
+		hit.setFatal(true);
+		assertSameJSON(hit);
+		hit.setHit(newRobot());
+		hit.setSource(new RobotSummary());
+		assertSameJSON(hit);
+		StringBuilder sb = new StringBuilder();
+		JSONUtils.toJSON(hit, sb);
+		Hit parsed = JSONUtils.fromJSON(sb.toString(), Hit.class);
+		assertTrue(parsed.isFatal());
+		assertEquals("blue", parsed.getHit().getColor());
+		assertEquals(JSONUtils.toJSON(hit, true), JSONUtils.toJSON(parsed, true));
+	}
+
+	@Test
+	public void testDecodeTimer() {
+		JSONUtils.startDecodeTimer();
+		JSONUtils.fromJSON("{\"ping\":1480000000000,\"count\":2}", PingMessage.class);
+		JSONUtils.fromJSON(new StringReader("{\"updateping\":35}"), UpdatePing.class);
+		long elapsed = JSONUtils.stopDecodeTimer();
+		assertTrue(elapsed>0);
+		// not measuring anymore
+		JSONUtils.fromJSON("{\"updateping\":35}", UpdatePing.class);
+		assertEquals(elapsed, JSONUtils.stopDecodeTimer());
+		// starts from zero again
+		JSONUtils.startDecodeTimer();
+		assertEquals(0, JSONUtils.stopDecodeTimer());
+	}
+
+	private void assertSameJSON(Object obj) {
+		assertEquals(reflective.toJson(obj), JSONUtils.toJSON(obj, false));
+		StringBuilder sb = new StringBuilder();
+		JSONUtils.toJSON(obj, sb);
+		assertEquals(reflective.toJson(obj), sb.toString());
+	}
+
+	private static RobotSummary newRobot() {
+		RobotSummary robot = new RobotSummary();
+		robot.setAddress("192.168.0.10");
+		robot.setOwner("O'Neil & \"Sons\"");
+		robot.setId("ROBOT-01");
+		robot.setLife(5);
+		robot.setColor("blue");
+		return robot;
+	}
+
+	private static PlayerSummary newPlayer() {
+		PlayerSummary player = new PlayerSummary();
+		player.setName("Zé <1>");
+		player.setAddress("192.168.0.20");
+		player.setPort(8080);
+		player.setOnline(true);
+		return player;
+	}
+}
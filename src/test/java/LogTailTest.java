@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.utils.LogTail;
+import org.junit.Test;
+
+/**
+ * Tests reading the last lines of LOG files
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class LogTailTest {
+
+	@Test
+	public void testLastLines() throws Exception {
+		File file = File.createTempFile("logtail", ".log");
+		file.deleteOnExit();
+		StringBuilder contents = new StringBuilder();
+		// lines crossing block boundaries, with multibyte characters
+		for (int i=0;i<20_000;i++) {
+			contents.append("line ").append(i).append(" ação\n");
+		}
+		write(file, contents.toString(), false);
+		LogTail tail = new LogTail(StandardCharsets.UTF_8);
+		
+		StringWriter out = new StringWriter();
+		long end = tail.copyLastLines(file, 3, out);
+		assertEquals(file.length(), end);
+		assertEquals("line 19997 ação\nline 19998 ação\nline 19999 ação\n", out.toString());
+		
+		out = new StringWriter();
+		tail.copyLastLines(file, 0, out);
+		assertEquals(contents.toString(), out.toString());
+
+		out = new StringWriter();
+		tail.copyLastLines(file, 50_000, out);
+		assertEquals(contents.toString(), out.toString());
+		
+		// last line without line break
+		write(file, "partial", true);
+		out = new StringWriter();
+		tail.copyLastLines(file, 2, out);
+		assertEquals("line 19999 ação\npartial", out.toString());
+	}
+
+	@Test
+	public void testFollow() throws Exception {
+		File file = File.createTempFile("logtail", ".log");
+		file.deleteOnExit();
+		write(file, "first\n", false);
+		LogTail tail = new LogTail(StandardCharsets.UTF_8);
+		long[] positions = { tail.copyLastLines(file, 1, new StringWriter()) };
+		
+		// Signals when the complete line was sent and stops following after the last one
+		StringWriter buffer = new StringWriter();
+		CountDownLatch sentSecond = new CountDownLatch(1);
+		String[] sentSoFar = new String[1];
+		PrintWriter out = new PrintWriter(buffer) {
+			@Override
+			public void flush() {
+				super.flush();
+				if (sentSecond.getCount()>0 && buffer.toString().contains("second\n")) {
+					sentSoFar[0] = buffer.toString();
+					sentSecond.countDown();
+				}
+			}
+			@Override
+			public boolean checkError() {
+				return buffer.toString().contains("third\n");
+			}
+		};
+		boolean[] completed = new boolean[1];
+		Thread writer = new Thread(()->{
+			try {
+				write(file, "second\nthi", true);
+				completed[0] = sentSecond.await(10, TimeUnit.SECONDS);
+				write(file, "rd\n", true);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		writer.start();
+		tail.follow(new File[]{ file }, positions, out, 20, 20_000);
+		writer.join();
+		
+		assertTrue(completed[0]);
+		// partial line is held until completed
+		assertEquals("==> "+file.getAbsolutePath()+" <==\nsecond\n", sentSoFar[0]);
+		assertEquals("==> "+file.getAbsolutePath()+" <==\nsecond\nthird\n", buffer.toString());
+		assertEquals(file.length(), positions[0]);
+		assertTrue(Arrays.toString(positions), positions[0]>0);
+	}
+	
+	private static void write(File file,String text,boolean append) throws Exception {
+		try (OutputStream out = new FileOutputStream(file, append);) {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
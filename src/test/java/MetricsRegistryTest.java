@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.guga.robotoy.rasp.statistics.Counter;
+import org.guga.robotoy.rasp.statistics.Gauge;
+import org.guga.robotoy.rasp.statistics.Histogram;
+import org.guga.robotoy.rasp.statistics.MetricsRegistry;
+import org.guga.robotoy.rasp.statistics.PrometheusTextWriter;
+import org.guga.robotoy.rasp.statistics.RoboToyStatistics;
+import org.junit.Test;
+
+/**
+ * Tests histograms and metrics registry
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class MetricsRegistryTest {
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram("test");
+		Random random = new Random(20161017L);
+		double[] values = new double[100_000];
+		for (int i=0;i<values.length;i++) {
+			values[i] = Math.exp(random.nextGaussian()*2);	// skewed, like latencies
+			histogram.feed(values[i]);
+		}
+		Arrays.sort(values);
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(values.length, snapshot.getCount());
+		assertEquals(values[0], snapshot.getMinimum(), 0);
+		assertEquals(values[values.length-1], snapshot.getMaximum(), 0);
+		for (double q:new double[]{ 0.5, 0.9, 0.99, 0.999 }) {
+			double expected = values[(int)Math.ceil(q*values.length)-1];
+			double actual = snapshot.getPercentile(q);
+			assertEquals("p"+q, expected, actual, expected/(2*Histogram.SUB_BUCKETS));
+		}
+		double mean = Arrays.stream(values).average().getAsDouble();
+		assertEquals(mean, snapshot.getMean(), mean*1e-9);
+
+		// zero, negative and out of range values
+		histogram.reset();
+		assertEquals(0, histogram.snapshot().getCount());
+		assertEquals(0, histogram.snapshot().getPercentile(0.5), 0);
+		histogram.feed(0);
+		histogram.feed(-1);
+		histogram.feed(1e-9);
+		histogram.feed(1e12);
+		histogram.feed(Double.NaN);
+		snapshot = histogram.snapshot();
+		assertEquals(4, snapshot.getCount());
+		assertEquals(-1, snapshot.getMinimum(), 0);
+		assertEquals(0, snapshot.getPercentile(0.25), 0);	// zero and negatives share the same bucket
+		assertEquals(1e12, snapshot.getPercentile(1), 0);
+	}
+
+	@Test
+	public void testConcurrentFeeding() throws Exception {
+		Histogram histogram = new Histogram("test");
+		Counter counter = new Counter("test_total");
+		List<Thread> threads = new ArrayList<>();
+		for (int t=0;t<4;t++) {
+			Thread thread = new Thread(()->{
+				for (int i=1;i<=10_000;i++) {
+					histogram.feed(i);
+					counter.inc();
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread:threads)
+			thread.join();
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(40_000, snapshot.getCount());
+		assertEquals(40_000, counter.get());
+		assertEquals(1, snapshot.getMinimum(), 0);
+		assertEquals(10_000, snapshot.getMaximum(), 0);
+		assertEquals(4*10_000*10_001/2.0, snapshot.getSum(), 0);
+	}
+
+	@Test
+	public void testRegistry() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Histogram a = registry.histogram("lag", "ip", "10.0.0.1");
+		assertSame(a, registry.histogram("lag", "ip", "10.0.0.1"));
+		Histogram b = registry.histogram("lag", "ip", "10.0.0.2");
+		registry.counter("lag_total");
+		assertEquals("lag{ip=\"10.0.0.1\"}", a.getKey());
+		assertEquals("10.0.0.2", b.getLabel("ip"));
+		assertEquals(2, registry.getMetrics(Histogram.class, "lag").size());
+		assertEquals(1, registry.getMetrics(Counter.class, "lag_total").size());
+		try {
+			registry.counter("lag", "ip", "10.0.0.1");
+			fail("Should not return a histogram as a counter");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			registry.gauge("lag_total", ()->1);
+			fail("Should not replace a counter with a gauge");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertSame(registry.get("lag_total"), registry.counter("lag_total"));
+		registry.gauge("players", ()->3);
+		assertEquals(3, ((Gauge)registry.get("players")).get(), 0);
+		a.feed(10);
+		registry.reset("lag");
+		assertEquals(0, a.getCount());
+		assertSame(a, registry.histogram("lag", "ip", "10.0.0.1"));
+		registry.removeAll("lag");
+		assertTrue(registry.getMetrics(Histogram.class, "lag").isEmpty());
+		assertNotNull(registry.get("lag_total"));
+	}
+
+	@Test
+	public void testPrometheusText() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("hits_total").add(3);
+		registry.histogram("lag_ms", "ip", "10.0.0.1").feed(4);
+		registry.histogram("lag_ms", "ip", "a\"b").feed(8);
+		registry.counter("lag_ms_errors_total");
+		registry.gauge("sessions", ()->2, "role", "player");
+		StringWriter text = new StringWriter();
+		new PrometheusTextWriter(text).writeRegistry(registry);
+		String expected = 
+				  "# TYPE hits_total counter\n"
+				+ "hits_total 3\n"
+				+ "# TYPE lag_ms_errors_total counter\n"
+				+ "lag_ms_errors_total 0\n"
+				+ "# TYPE lag_ms summary\n"
+				+ "lag_ms{ip=\"10.0.0.1\",quantile=\"0.5\"} 4\n"
+				+ "lag_ms{ip=\"10.0.0.1\",quantile=\"0.9\"} 4\n"
+				+ "lag_ms{ip=\"10.0.0.1\",quantile=\"0.99\"} 4\n"
+				+ "lag_ms{ip=\"10.0.0.1\",quantile=\"0.999\"} 4\n"
+				+ "lag_ms_sum{ip=\"10.0.0.1\"} 4\n"
+				+ "lag_ms_count{ip=\"10.0.0.1\"} 1\n"
+				+ "lag_ms{ip=\"a\\\"b\",quantile=\"0.5\"} 8\n"
+				+ "lag_ms{ip=\"a\\\"b\",quantile=\"0.9\"} 8\n"
+				+ "lag_ms{ip=\"a\\\"b\",quantile=\"0.99\"} 8\n"
+				+ "lag_ms{ip=\"a\\\"b\",quantile=\"0.999\"} 8\n"
+				+ "lag_ms_sum{ip=\"a\\\"b\"} 8\n"
+				+ "lag_ms_count{ip=\"a\\\"b\"} 1\n"
+				+ "# TYPE sessions gauge\n"
+				+ "sessions{role=\"player\"} 2\n";
+		assertEquals(expected, text.toString());
+
+		// leaving out some names
+		text = new StringWriter();
+		new PrometheusTextWriter(text).writeRegistry(registry, "lag_ms", "sessions");
+		assertEquals("# TYPE hits_total counter\n"
+				+ "hits_total 3\n"
+				+ "# TYPE lag_ms_errors_total counter\n"
+				+ "lag_ms_errors_total 0\n", text.toString());
+	}
+
+	@Test
+	public void testSummary() {
+		RoboToyStatistics.clearAllStatistics();
+		RoboToyStatistics.addLagStatsForIPAddress("10.0.0.1", 10);
+		RoboToyStatistics.addLagStatsForIPAddress("10.0.0.1", 30);
+		RoboToyStatistics.addLagStatsForIPAddress(null, 5);
+		RoboToyStatistics.incIRStatAckHits();
+		RoboToyStatistics.incIRStatCountFiresCollapsed(3);
+		RoboToyStatistics.addMotorQueueTime(1);
+		RoboToyStatistics.addMotorActuationTime(2);
+		RoboToyStatistics.Summary summary = RoboToyStatistics.getSummary();
+		assertEquals(2, summary.lag_by_ip.size());
+		assertEquals(2, summary.lag_by_ip.get("10.0.0.1").count);
+		assertEquals(20, summary.lag_by_ip.get("10.0.0.1").mean, 0);
+		assertEquals(10, summary.lag_by_ip.get("10.0.0.1").min, 0);
+		assertEquals(30, summary.lag_by_ip.get("10.0.0.1").max, 0);
+		assertEquals(0, summary.lag_by_ip.get("localhost").stddev, 0);
+		assertEquals(1, summary.ir.ack_hits);
+		assertEquals(3, summary.ir.count_fires_collapsed);
+		assertNull(summary.fire_transmit_ms);
+		assertNull(summary.broadcast_ms);
+		assertEquals(1, summary.motor_queue_ms.count);
+		assertEquals(2, summary.motor_actuation_ms.p99, 0);
+		assertTrue(RoboToyStatistics.getAddressesWithLagStats().contains("localhost"));
+		RoboToyStatistics.clearAllStatistics();
+		summary = RoboToyStatistics.getSummary();
+		assertNull(summary.lag_by_ip);
+		assertEquals(0, summary.ir.ack_hits);
+		assertNull(summary.motor_queue_ms);
+	}
+}
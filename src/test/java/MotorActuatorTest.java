@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.guga.robotoy.rasp.motor.Motor;
+import org.guga.robotoy.rasp.motor.MotorActuator;
+import org.junit.Test;
+
+/**
+ * Tests the 'latest-wins' mailbox of MotorActuator
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class MotorActuatorTest {
+
+	@Test
+	public void testLatestWins() throws Exception {
+		SlowMotor motor = new SlowMotor();
+		MotorActuator actuator = new MotorActuator(motor);
+		actuator.init();
+		try {
+			actuator.setMovement(0.1, 0.1);
+			assertTrue(motor.busy.await(2, TimeUnit.SECONDS)); // first command is being actuated
+			for (int i=2;i<=9;i++)
+				actuator.setMovement(i/10.0, i/10.0);
+			assertTrue(actuator.isMoving());
+			assertEquals(1, actuator.getPendingCommands());
+			motor.release.countDown();
+			waitIdle(actuator);
+			assertEquals("[movement 0.1 0.1, movement 0.9 0.9]", motor.getCommands().toString());
+		}
+		finally {
+			actuator.stopActuator();
+		}
+	}
+
+	@Test
+	public void testStopPreempts() throws Exception {
+		SlowMotor motor = new SlowMotor();
+		MotorActuator actuator = new MotorActuator(motor);
+		actuator.init();
+		try {
+			actuator.moveForward(0.5);
+			assertTrue(motor.busy.await(2, TimeUnit.SECONDS));
+			actuator.turnLeft(0.5);
+			actuator.setSpeed(1.0);
+			actuator.stop();
+			assertFalse(actuator.isMoving());
+			assertEquals(1, actuator.getPendingCommands());
+			motor.release.countDown();
+			waitIdle(actuator);
+			assertEquals("[forward 0.5, stop]", motor.getCommands().toString());
+		}
+		finally {
+			actuator.stopActuator();
+		}
+	}
+
+	@Test
+	public void testSpeedOrder() throws Exception {
+		SlowMotor motor = new SlowMotor();
+		MotorActuator actuator = new MotorActuator(motor);
+		actuator.init();
+		try {
+			actuator.stop();
+			assertTrue(motor.busy.await(2, TimeUnit.SECONDS));
+			actuator.setSpeed(0.3);
+			actuator.moveForward(0.6); // older speed change goes first
+			motor.release.countDown();
+			waitIdle(actuator);
+			actuator.moveBackward(0.6);
+			actuator.setSpeed(0.3); // newer speed change goes last
+			waitIdle(actuator);
+			List<String> commands = motor.getCommands();
+			assertEquals("[stop, speed 0.3, forward 0.6]", commands.subList(0, 3).toString());
+			assertEquals("speed 0.3", commands.get(commands.size()-1));
+		}
+		finally {
+			actuator.stopActuator();
+		}
+	}
+
+	private static void waitIdle(MotorActuator actuator) throws InterruptedException {
+		for (int i=0;i<200 && actuator.getPendingCommands()>0;i++)
+			Thread.sleep(10);
+		Thread.sleep(50);
+		assertEquals(0, actuator.getPendingCommands());
+	}
+
+	/**
+	 * Motor that holds the first command until released
+	 */
+	private static class SlowMotor implements Motor {
+		final CountDownLatch busy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final List<String> commands = new ArrayList<>();
+		private boolean moving;
+		synchronized List<String> getCommands() {
+			return new ArrayList<>(commands);
+		}
+		private void record(String command,boolean moving) {
+			synchronized (this) {
+				commands.add(command);
+				this.moving = moving;
+			}
+			busy.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) { }
+		}
+		public void moveForward(double speedFactor) { record("forward "+speedFactor, true); }
+		public void moveBackward(double speedFactor) { record("backward "+speedFactor, true); }
+		public void turnLeft(double speedFactor) { record("left "+speedFactor, true); }
+		public void turnRight(double speedFactor) { record("right "+speedFactor, true); }
+		public void stop() { record("stop", false); }
+		public void setSpeed(double speedFactor) { record("speed "+speedFactor, moving); }
+		public synchronized boolean isMoving() { return moving; }
+		public void setMovement(double leftFactor, double rightFactor) { record("movement "+leftFactor+" "+rightFactor, true); }
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.guga.robotoy.rasp.controller.RoboToyScheduler;
+import org.junit.Test;
+
+/**
+ * Tests the timing wheel of RoboToyScheduler
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class RoboToySchedulerTest {
+
+	@Test
+	public void testOneShot() throws Exception {
+		RoboToyScheduler scheduler = new RoboToyScheduler();
+		CountDownLatch latch = new CountDownLatch(1);
+		// scheduled before init
+		long start = System.nanoTime();
+		scheduler.schedule(RoboToyScheduler.GROUP_GAME, "OneShot", 100, latch::countDown);
+		scheduler.init();
+		try {
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+			assertTrue("elapsed "+elapsed, elapsed>=100-RoboToyScheduler.DEFAULT_TICK_MS);
+			CountDownLatch immediate = new CountDownLatch(1);
+			scheduler.submit(RoboToyScheduler.GROUP_ADMIN, "Immediate", immediate::countDown);
+			assertTrue(immediate.await(10, TimeUnit.SECONDS));
+			// beyond one round of the wheel
+			CountDownLatch longer = new CountDownLatch(1);
+			scheduler.schedule(RoboToyScheduler.GROUP_GAME, "Longer", RoboToyScheduler.DEFAULT_TICK_MS*RoboToyScheduler.DEFAULT_WHEEL_SIZE+50, longer::countDown);
+			assertFalse(longer.await(RoboToyScheduler.DEFAULT_TICK_MS*RoboToyScheduler.DEFAULT_WHEEL_SIZE/2, TimeUnit.MILLISECONDS));
+			assertTrue(longer.await(20, TimeUnit.SECONDS));
+		}
+		finally {
+			scheduler.stop();
+		}
+	}
+
+	@Test
+	public void testPeriodicAndCancel() throws Exception {
+		RoboToyScheduler scheduler = new RoboToyScheduler();
+		scheduler.init();
+		try {
+			AtomicInteger count = new AtomicInteger();
+			CountDownLatch latch = new CountDownLatch(3);
+			RoboToyScheduler.Task task = scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_LED, "Periodic", 0, 20, ()->{
+				count.incrementAndGet();
+				latch.countDown();
+			});
+			assertTrue(task.isPeriodic());
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			assertTrue(task.cancel());
+			assertTrue(task.isCancelled());
+			assertFalse(task.cancel());
+			Thread.sleep(100);
+			int after = count.get();
+			Thread.sleep(200);
+			assertEquals(after, count.get());
+
+			// failures do not stop periodic tasks
+			CountDownLatch failing = new CountDownLatch(2);
+			RoboToyScheduler.Task failingTask = scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_LED, "Failing", 0, 20, ()->{
+				failing.countDown();
+				throw new RuntimeException("test");
+			});
+			assertTrue(failing.await(10, TimeUnit.SECONDS));
+			failingTask.cancel();
+			Thread.sleep(100);	// metrics are updated after each run
+
+			List<RoboToyScheduler.TaskStats> stats = scheduler.getTaskStats();
+			RoboToyScheduler.TaskStats periodic = stats.stream().filter(s->s.getName().equals("Periodic")).findFirst().get();
+			assertEquals(RoboToyScheduler.GROUP_LED, periodic.getGroup());
+			assertTrue(periodic.getRuns()>=3);
+			assertEquals(0, periodic.getFailures());
+			RoboToyScheduler.TaskStats failed = stats.stream().filter(s->s.getName().equals("Failing")).findFirst().get();
+			assertTrue(failed.getFailures()>=2);
+			assertEquals(failed.getRuns(), failed.getFailures());
+			scheduler.clearTaskStats();
+			assertTrue(scheduler.getTaskStats().isEmpty());
+		}
+		finally {
+			scheduler.stop();
+		}
+	}
+
+	@Test
+	public void testCancelGroup() throws Exception {
+		RoboToyScheduler scheduler = new RoboToyScheduler();
+		scheduler.init();
+		try {
+			AtomicInteger network = new AtomicInteger();
+			CountDownLatch game = new CountDownLatch(1);
+			scheduler.schedule(RoboToyScheduler.GROUP_NETWORK, "A", 300, network::incrementAndGet);
+			scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_NETWORK, "B", 300, 300, network::incrementAndGet);
+			scheduler.schedule(RoboToyScheduler.GROUP_GAME, "C", 300, game::countDown);
+			assertEquals(3, scheduler.getNumActiveTasks());
+			assertEquals(2, scheduler.cancelGroup(RoboToyScheduler.GROUP_NETWORK));
+			assertTrue(game.await(10, TimeUnit.SECONDS));
+			Thread.sleep(100);
+			assertEquals(0, network.get());
+			assertEquals(0, scheduler.getNumActiveTasks());
+		}
+		finally {
+			scheduler.stop();
+		}
+	}
+
+	@Test
+	public void testAdminTasksDoNotHoldOthers() throws Exception {
+		RoboToyScheduler scheduler = new RoboToyScheduler();
+		scheduler.init();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			// more blocking admin tasks than regular workers
+			CountDownLatch adminStarted = new CountDownLatch(1);
+			for (int i=0;i<RoboToyScheduler.DEFAULT_WORKERS+1;i++) {
+				scheduler.submit(RoboToyScheduler.GROUP_ADMIN, "Blocking", ()->{
+					adminStarted.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) { }
+				});
+			}
+			assertTrue(adminStarted.await(10, TimeUnit.SECONDS));
+			CountDownLatch network = new CountDownLatch(3);
+			scheduler.scheduleWithFixedDelay(RoboToyScheduler.GROUP_NETWORK, "HeartBeats", 0, 20, network::countDown);
+			assertTrue(network.await(5, TimeUnit.SECONDS));
+		}
+		finally {
+			release.countDown();
+			scheduler.stop();
+		}
+	}
+}
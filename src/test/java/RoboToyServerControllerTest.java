@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.guga.robotoy.rasp.controller.RoboToyServerController;
+import org.guga.robotoy.rasp.game.GameRobot;
+import org.guga.robotoy.rasp.game.GameState;
+import org.guga.robotoy.rasp.motor.MotorActuator;
+import org.guga.robotoy.rasp.optics.BeamFireExecutor;
+import org.junit.Test;
+
+/**
+ * Tests starting and stopping the threads owned by RoboToyServerController
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class RoboToyServerControllerTest {
+
+	@Test
+	public void testStop() throws Exception {
+		GameState game = new GameState();
+		game.addRobot(GameRobot.newLocalRobot("A"));
+		RoboToyServerController controller = new RoboToyServerController(game);
+		controller.setDummyController();
+		controller.setWiFiSampleInterval(0);
+
+		Set<Thread> before = getThreads();
+		controller.init();
+		BeamFireExecutor fireExecutor = new BeamFireExecutor((message)->{ });
+		fireExecutor.init();
+		controller.getContext().setBeamDevice(fireExecutor);
+		assertTrue(controller.getContext().getMotor() instanceof MotorActuator);
+		Set<Thread> started = getThreads();
+		started.removeAll(before);
+		assertFalse(started.isEmpty());
+
+		controller.stop();
+		for (Thread t:started) {
+			t.join(5000);
+			assertFalse(t.getName(), t.isAlive());
+		}
+		try {
+			fireExecutor.sendBeam(new byte[1]);
+			fail("Should not accept beams after stop");
+		}
+		catch (Exception e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Live threads started by controller (or by any of its components)
+	 */
+	private static Set<Thread> getThreads() {
+		Set<Thread> threads = new HashSet<>();
+		for (Thread t:Thread.getAllStackTraces().keySet()) {
+			if (t.isAlive() && (t.getName().equals("MotorActuator") || t.getName().equals("BeamFireExecutor")))
+				threads.add(t);
+		}
+		return threads;
+	}
+}
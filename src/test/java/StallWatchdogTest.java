@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.guga.robotoy.rasp.statistics.StallWatchdog;
+import org.junit.Test;
+
+/**
+ * Tests capturing of threads running past their budgets
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class StallWatchdogTest {
+
+	@Test
+	public void testStallCapturedOnce() throws Exception {
+		StallWatchdog watchdog = new StallWatchdog();
+		watchdog.setDefaultBudget(50);
+		watchdog.setBudget(StallWatchdog.TASK_MOTOR, 0);
+		watchdog.init();
+		try {
+			Thread worker = new Thread(()->{
+				// fast work is never reported
+				for (int i=0;i<100;i++) {
+					StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_IR);
+					probe.exit();
+				}
+				// not watched
+				StallWatchdog.Probe probe = watchdog.enter(StallWatchdog.TASK_MOTOR);
+				try {
+					Thread.sleep(300);
+				}
+				catch (InterruptedException e) {
+				}
+				finally {
+					probe.exit();
+				}
+				// nested calls count as one single work
+				StallWatchdog.Probe outer = watchdog.enter(StallWatchdog.TASK_SCHEDULER, "slow task");
+				try {
+					StallWatchdog.Probe inner = watchdog.enter(StallWatchdog.TASK_WEBSOCKET);
+					inner.exit();
+					Thread.sleep(600);
+				}
+				catch (InterruptedException e) {
+				}
+				finally {
+					outer.exit();
+				}
+			});
+			worker.setName("StallWatchdogTest");
+			worker.start();
+			worker.join();
+			Thread.sleep(200);
+			
+			List<StallWatchdog.Stall> stalls = watchdog.getStalls();
+			assertEquals(stalls.toString(), 1, stalls.size());
+			StallWatchdog.Stall stall = stalls.get(0);
+			assertEquals(StallWatchdog.TASK_SCHEDULER, stall.getTask());
+			assertEquals("slow task", stall.getDetail());
+			assertEquals("StallWatchdogTest", stall.getThread());
+			assertTrue(stall.getElapsedMs()>=50);
+			assertEquals(50.0, stall.getBudgetMs(), 0.001);
+			assertTrue(Arrays.toString(stall.getStack()), stall.getStackAsString().contains("Thread.sleep"));
+			
+			watchdog.clearStalls();
+			assertTrue(watchdog.getStalls().isEmpty());
+		}
+		finally {
+			watchdog.stop();
+		}
+	}
+
+	@Test
+	public void testDisabled() {
+		StallWatchdog.Probe probe = StallWatchdog.DISABLED.enter(StallWatchdog.TASK_WEBSOCKET);
+		probe.exit();
+		StallWatchdog.DISABLED.init();
+		assertFalse(StallWatchdog.DISABLED.isRunning());
+		assertTrue(StallWatchdog.DISABLED.getStalls().isEmpty());
+	}
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.guga.robotoy.rasp.network.WebCacheControl;
+import org.guga.robotoy.rasp.network.WebResourceCache;
+import org.guga.robotoy.rasp.utils.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests WebResourceCache and the conditional/compressed responses of WebCacheControl
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class WebResourceCacheTest {
+
+	private static final String DIR = "webresourcecachetest";
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		File root = new File(WebResourceCacheTest.class.getResource("WebResourceCacheTest.class").toURI()).getParentFile();
+		dir = new File(root, DIR);
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles();
+		if (files!=null) {
+			for (File f:files)
+				f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testTextResource() throws Exception {
+		String text = "var host = '@SERVERHOST';\n" + repeat("console.log('robotoy');\n", 20);
+		write("script.js", text, 1_000_000L);
+		WebResourceCache cache = new WebResourceCache(WebResourceCacheTest.class);
+		WebResourceCache.Entry a = cache.getText("/"+DIR+"/script.js", "application/javascript", "@SERVERHOST", "10.0.0.1");
+		WebResourceCache.Entry b = cache.getText("/"+DIR+"/script.js", "application/javascript", "@SERVERHOST", "10.0.0.2");
+		assertNotNull(a);
+		assertSame(a, cache.getText("/"+DIR+"/script.js", "application/javascript", "@SERVERHOST", "10.0.0.1"));
+		assertEquals(3, cache.size()); // template plus two replacements
+		assertEquals(1_000_000L, a.getLastModified());
+		assertEquals(text.replace("@SERVERHOST", "10.0.0.1"), decode(a.getContents(false)));
+		assertEquals(text.replace("@SERVERHOST", "10.0.0.2"), decode(b.getContents(false)));
+		assertNotEquals(a.getETag(false), b.getETag(false));
+
+		// Compressed variant has its own entity tag
+		assertTrue(a.hasGzip());
+		assertNotEquals(a.getETag(false), a.getETag(true));
+		assertTrue(a.getLength(true) < a.getLength(false));
+		assertEquals(text.replace("@SERVERHOST", "10.0.0.1"),
+				decode(ByteBuffer.wrap(IOUtils.readFileContentsBinary(new GZIPInputStream(new ByteArrayInputStream(toArray(a.getContents(true))))))));
+
+		// Each call returns a view of its own
+		ByteBuffer view = a.getContents(false);
+		view.get(new byte[view.remaining()]);
+		assertEquals(a.getLength(false), a.getContents(false).remaining());
+
+		assertNull(cache.getText("/"+DIR+"/missing.js", "application/javascript", "@SERVERHOST", "10.0.0.1"));
+		assertNull(cache.getBinary("/"+DIR+"/missing.png", "image/png"));
+	}
+
+	@Test
+	public void testSmallResource() throws Exception {
+		write("small.css", "body { color: red; }", 1_000_000L);
+		WebResourceCache cache = new WebResourceCache(WebResourceCacheTest.class);
+		WebResourceCache.Entry entry = cache.getText("/"+DIR+"/small.css", "text/css", "@SERVERHOST", "10.0.0.1");
+		assertFalse(entry.hasGzip());
+		assertEquals(entry.getETag(false), entry.getETag(true));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		write("image.png", "first", 1_000_000L);
+		write("style.css", "div { left: @SERVERHOST; }", 1_000_000L);
+		WebResourceCache cache = new WebResourceCache(WebResourceCacheTest.class, /*revalidateMs*/0);
+		WebResourceCache.Entry image = cache.getBinary("/"+DIR+"/image.png", "image/png");
+		WebResourceCache.Entry style = cache.getText("/"+DIR+"/style.css", "text/css", "@SERVERHOST", "1px");
+		assertSame(image, cache.getBinary("/"+DIR+"/image.png", "image/png"));
+		assertSame(style, cache.getText("/"+DIR+"/style.css", "text/css", "@SERVERHOST", "1px"));
+
+		write("image.png", "second", 2_000_000L);
+		write("style.css", "div { top: @SERVERHOST; }", 2_000_000L);
+		WebResourceCache.Entry newImage = cache.getBinary("/"+DIR+"/image.png", "image/png");
+		WebResourceCache.Entry newStyle = cache.getText("/"+DIR+"/style.css", "text/css", "@SERVERHOST", "1px");
+		assertNotSame(image, newImage);
+		assertEquals("second", decode(newImage.getContents(false)));
+		assertEquals(2_000_000L, newImage.getLastModified());
+		assertNotEquals(image.getETag(false), newImage.getETag(false));
+		assertEquals("div { top: 1px; }", decode(newStyle.getContents(false)));
+		assertEquals(3, cache.size()); // stale replacements were dropped
+
+		// Entries are not checked again before the interval elapses
+		WebResourceCache lazy = new WebResourceCache(WebResourceCacheTest.class, /*revalidateMs*/60_000);
+		image = lazy.getBinary("/"+DIR+"/image.png", "image/png");
+		write("image.png", "third", 3_000_000L);
+		assertSame(image, lazy.getBinary("/"+DIR+"/image.png", "image/png"));
+		lazy.clear();
+		assertEquals("third", decode(lazy.getBinary("/"+DIR+"/image.png", "image/png").getContents(false)));
+
+		// Removed resource
+		new File(dir, "image.png").delete();
+		assertNull(cache.getBinary("/"+DIR+"/image.png", "image/png"));
+	}
+
+	@Test
+	public void testCheckCacheETag() throws Exception {
+		final String eTag = "\"0123abcd\"";
+		assertFalse(WebCacheControl.checkCacheETag(request(), eTag));
+		assertTrue(WebCacheControl.checkCacheETag(request("If-None-Match", eTag), eTag));
+		assertFalse(WebCacheControl.checkCacheETag(request("If-None-Match", "\"0123abce\""), eTag));
+		assertFalse(WebCacheControl.checkCacheETag(request("If-None-Match", "0123abcd"), eTag));
+		// List of entity tags
+		assertTrue(WebCacheControl.checkCacheETag(request("If-None-Match", "\"aaaa\", \"0123abcd\",\"bbbb\""), eTag));
+		assertFalse(WebCacheControl.checkCacheETag(request("If-None-Match", "\"aaaa\", \"bbbb\""), eTag));
+		// Weak comparison
+		assertTrue(WebCacheControl.checkCacheETag(request("If-None-Match", "W/\"0123abcd\""), eTag));
+		assertTrue(WebCacheControl.checkCacheETag(request("If-None-Match", "\"aaaa\", W/\"0123abcd\""), eTag));
+		assertFalse(WebCacheControl.checkCacheETag(request("If-None-Match", "W/\"aaaa\""), eTag));
+		// Any
+		assertTrue(WebCacheControl.checkCacheETag(request("If-None-Match", "*"), eTag));
+		assertFalse(WebCacheControl.checkCacheETag(request("If-None-Match", "*"), null));
+	}
+
+	@Test
+	public void testNotModified() throws Exception {
+		write("image.png", "contents", 1_000_000L);
+		WebResourceCache cache = new WebResourceCache(WebResourceCacheTest.class);
+		WebResourceCache.Entry entry = cache.getBinary("/"+DIR+"/image.png", "image/png");
+		String eTag = entry.getETag(false);
+		// Same version: 304
+		assertTrue(WebCacheControl.checkCacheETag(request("If-None-Match", eTag), eTag));
+		Map<String,Object> replied = new HashMap<>();
+		WebCacheControl.replyCacheHit(response(replied), eTag);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, replied.get("status"));
+		assertEquals(eTag, replied.get("ETag"));
+		// Different version: full contents (200)
+		write("image.png", "changed", 2_000_000L);
+		cache.clear();
+		String newETag = cache.getBinary("/"+DIR+"/image.png", "image/png").getETag(false);
+		assertFalse(WebCacheControl.checkCacheETag(request("If-None-Match", eTag), newETag));
+	}
+
+	@Test
+	public void testAcceptsGzip() throws Exception {
+		assertFalse(WebCacheControl.acceptsGzip(request()));
+		assertTrue(WebCacheControl.acceptsGzip(request("Accept-Encoding", "gzip")));
+		assertTrue(WebCacheControl.acceptsGzip(request("Accept-Encoding", "gzip, deflate, br")));
+		assertTrue(WebCacheControl.acceptsGzip(request("Accept-Encoding", "deflate, GZIP")));
+		assertTrue(WebCacheControl.acceptsGzip(request("Accept-Encoding", "gzip;q=0.5")));
+		assertTrue(WebCacheControl.acceptsGzip(request("Accept-Encoding", "br, gzip ; q=1.0")));
+		assertTrue(WebCacheControl.acceptsGzip(request("Accept-Encoding", "*")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "identity")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "deflate, br")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "x-gzip")));
+		// Explicitly rejected
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "gzip;q=0")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "deflate, gzip; q=0.0")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "*;q=0")));
+		assertFalse(WebCacheControl.acceptsGzip(request("Accept-Encoding", "gzip;q=abc")));
+	}
+
+	private void write(String name,String contents,long lastModified) throws Exception {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), contents.getBytes(Charset.defaultCharset()));
+		assertTrue(file.setLastModified(lastModified));
+	}
+
+	private static String repeat(String text,int times) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0;i<times;i++)
+			sb.append(text);
+		return sb.toString();
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static String decode(ByteBuffer buffer) {
+		return new String(toArray(buffer), Charset.defaultCharset());
+	}
+
+	/**
+	 * HTTP request with the given headers (name and value pairs)
+	 */
+	private static HttpServletRequest request(String... headers) {
+		Map<String,String> map = new HashMap<>();
+		for (int i=0;i+1<headers.length;i+=2)
+			map.put(headers[i], headers[i+1]);
+		return (HttpServletRequest)Proxy.newProxyInstance(WebResourceCacheTest.class.getClassLoader(),
+			new Class<?>[]{HttpServletRequest.class}, (proxy,method,args)->{
+				switch (method.getName()) {
+				case "getHeader": return map.get((String)args[0]);
+				case "getDateHeader": return -1L;
+				default: return null;
+				}
+			});
+	}
+
+	/**
+	 * HTTP response that keeps the headers and status code set through it
+	 */
+	private static HttpServletResponse response(Map<String,Object> replied) {
+		return (HttpServletResponse)Proxy.newProxyInstance(WebResourceCacheTest.class.getClassLoader(),
+			new Class<?>[]{HttpServletResponse.class}, (proxy,method,args)->{
+				switch (method.getName()) {
+				case "setHeader": replied.put((String)args[0], args[1]); return null;
+				case "sendError":
+				case "setStatus": replied.put("status", args[0]); return null;
+				default: return null;
+				}
+			});
+	}
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2016 See https://github.com/gustavohbf/robotoy/blob/master/AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.guga.robotoy.rasp.commands.CommandIssuer;
+import org.guga.robotoy.rasp.network.WebSocketActiveSession;
+import org.guga.robotoy.rasp.network.WebSocketSessionRegistry;
+import org.junit.Test;
+
+/**
+ * Tests the indexes kept by WebSocketSessionRegistry
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class WebSocketSessionRegistryTest {
+
+	@Test
+	public void testLookups() {
+		WebSocketSessionRegistry<FakeSession> registry = new WebSocketSessionRegistry<>();
+		FakeSession robot = new FakeSession("k1", "10.0.0.1", 8080, "/ws/robot/R1");
+		FakeSession player = new FakeSession("k2", "10.0.0.2", 40000, "/ws/player/Guga");
+		assertTrue(registry.add(robot));
+		assertTrue(registry.add(player));
+		assertTrue(registry.add(player)); // already registered
+		assertFalse(registry.add(new FakeSession("k1", "10.0.0.3", 1, "/ws/robot/R2"))); // same key
+		assertEquals(2, registry.size());
+
+		assertSame(robot, registry.getByKey("k1"));
+		assertSame(player, registry.getByHostPort("10.0.0.2", 40000));
+		assertSame(player, registry.getByHostPort("10.0.0.2", 0));
+		assertNull(registry.getByHostPort("10.0.0.2", 40001));
+		assertTrue(registry.getByPath("/WS/PLAYER/guga").contains(player));
+		assertTrue(registry.getByRole(CommandIssuer.ROBOT).contains(robot));
+		assertFalse(registry.getByRole(CommandIssuer.ROBOT).contains(player));
+		assertTrue(registry.getByRole(CommandIssuer.PLAYER).contains(player));
+
+		assertTrue(registry.remove(robot));
+		assertFalse(registry.remove(robot));
+		assertNull(registry.getByKey("k1"));
+		assertNull(registry.getByHostPort("10.0.0.1", 8080));
+		assertTrue(registry.getByPath("/ws/robot/R1").isEmpty());
+		assertTrue(registry.getByRole(CommandIssuer.ROBOT).isEmpty());
+	}
+
+	@Test
+	public void testUpdate() {
+		WebSocketSessionRegistry<FakeSession> registry = new WebSocketSessionRegistry<>();
+		// session started here (still not connected)
+		FakeSession session = new FakeSession(null, "10.0.0.5", 0, null);
+		registry.add(session);
+		assertNull(registry.getByHostPort("10.0.0.5", 8080));
+		assertSame(session, registry.getByHostPort("10.0.0.5", 0));
+
+		// connected
+		session.key = "k5";
+		session.port = 8080;
+		session.path = "/ws/player/Old";
+		registry.add(session);
+		assertEquals(1, registry.size());
+		assertSame(session, registry.getByKey("k5"));
+		assertSame(session, registry.getByHostPort("10.0.0.5", 8080));
+
+		// player changed name
+		session.path = "/ws/player/New";
+		registry.update(session);
+		assertTrue(registry.getByPath("/ws/player/Old").isEmpty());
+		assertTrue(registry.getByPath("/ws/player/new").contains(session));
+		assertTrue(registry.getByRole(CommandIssuer.PLAYER).contains(session));
+
+		// updates to unregistered sessions are ignored
+		registry.remove(session);
+		registry.update(session);
+		assertTrue(registry.isEmpty());
+		assertTrue(registry.getByPath("/ws/player/new").isEmpty());
+	}
+
+	@Test
+	public void testConcurrentChanges() throws Exception {
+		final WebSocketSessionRegistry<FakeSession> registry = new WebSocketSessionRegistry<>();
+		final int threads = 4;
+		final int sessionsPerThread = 500;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		for (int t=0;t<threads;t++) {
+			final int thread_index = t;
+			Thread worker = new Thread(()->{
+				try { start.await(); } catch (InterruptedException e) { return; }
+				for (int i=0;i<sessionsPerThread;i++) {
+					FakeSession s = new FakeSession("t"+thread_index+"s"+i, "10.0.1."+thread_index, 1000+i, "/ws/player/P"+i);
+					registry.add(s);
+					s.path = "/ws/robot/R"+i;
+					registry.update(s);
+					if (i%2==0)
+						registry.remove(s);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		start.countDown();
+		for (Thread worker:workers)
+			worker.join();
+
+		assertEquals(threads*sessionsPerThread/2, registry.size());
+		assertEquals(registry.size(), registry.getByRole(CommandIssuer.ROBOT).size());
+		assertTrue(registry.getByRole(CommandIssuer.PLAYER).isEmpty());
+		for (FakeSession s:registry.getAll()) {
+			assertSame(s, registry.getByKey(s.key));
+			assertSame(s, registry.getByHostPort(s.host, s.port));
+			assertTrue(registry.getByPath(s.path).contains(s));
+		}
+		for (int i=0;i<sessionsPerThread;i++) {
+			assertTrue(registry.getByPath("/ws/player/P"+i).isEmpty());
+			assertEquals((i%2==0) ? 0 : threads, registry.getByPath("/ws/robot/R"+i).size());
+		}
+	}
+
+	private static class FakeSession implements WebSocketActiveSession {
+		String key;
+		String host;
+		int port;
+		String path;
+		FakeSession(String key,String host,int port,String path) {
+			this.key = key;
+			this.host = host;
+			this.port = port;
+			this.path = path;
+		}
+		public String getHost() { return host; }
+		public InetAddress getRemoteAddress() { return null; }
+		public int getRemotePort() { return port; }
+		public InetAddress getLocalAddress() { return null; }
+		public int getLocalPort() { return 0; }
+		public String getPath() { return path; }
+		public void setPath(String path) { this.path = path; }
+		public String getSessionId() { return key; }
+		public boolean isStartedHere() { return false; }
+		public void close() { }
+	}
+}